@@ -0,0 +1,107 @@
+package com.github.johannesbuchholz.copysnap.benchmarks;
+
+import com.github.johannesbuchholz.copysnap.model.Root;
+import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemDiff;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemDiffService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a snapshot, that is copying new and changed files and linking unchanged subtrees. Every iteration writes one
+ * snapshot into an empty destination.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ActionsApplyBenchmark {
+
+    public enum SnapshotType {
+        /** The first snapshot copying all files. */
+        FULL,
+        /** Every tenth file has changed since the latest snapshot, all unchanged subtrees are linked. */
+        INCREMENTAL
+    }
+
+    private static final Instant RECORDED_MODIFICATION_TIME = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Instant CHANGED_MODIFICATION_TIME = Instant.parse("2024-01-02T00:00:00Z");
+
+    @Param({"IN_MEMORY", "DISK"})
+    public BenchmarkFileSystem.Type fileSystemType;
+
+    @Param({"SMALL", "MIXED"})
+    public SyntheticTree.FileSizeDistribution sizeDistribution;
+
+    @Param({"FULL", "INCREMENTAL"})
+    public SnapshotType snapshotType;
+
+    private BenchmarkFileSystem fileSystem;
+    private Root root;
+    private FileSystemState recordedState;
+    private Path latestSnapshotDir;
+    private Path destination;
+    private FileSystemDiff.Actions actions;
+
+    /**
+     * 510 files in 85 directories.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        SyntheticTree tree = SyntheticTree.generate(3, 4, 6, sizeDistribution, 42);
+        fileSystem = BenchmarkFileSystem.create(fileSystemType);
+        tree.writeTo(fileSystem.fsa(), fileSystem.baseDir(), RECORDED_MODIFICATION_TIME);
+        root = Root.from(fileSystem.baseDir().resolve(tree.rootName()));
+        latestSnapshotDir = fileSystem.baseDir().resolve("latest-snapshot");
+        destination = fileSystem.baseDir().resolve("snapshot");
+
+        switch (snapshotType) {
+            case FULL -> recordedState = FileSystemState.empty();
+            case INCREMENTAL -> {
+                recordedState = tree.toState(RECORDED_MODIFICATION_TIME);
+                List<SyntheticTree.SyntheticFile> files = tree.files();
+                for (int i = 0; i < files.size(); i += 10) {
+                    Path absPath = fileSystem.baseDir().resolve(files.get(i).relPath());
+                    byte[] changedContent = tree.content(files.get(i));
+                    if (changedContent.length > 0)
+                        changedContent[0]++;
+                    fileSystem.delete(absPath);
+                    try (OutputStream os = fileSystem.fsa().createNewOutputStream(absPath)) {
+                        os.write(changedContent);
+                    }
+                    fileSystem.fsa().setLastModifiedTime(absPath, CHANGED_MODIFICATION_TIME);
+                }
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws IOException {
+        fileSystem.delete(destination);
+        fileSystem.fsa().createDirectories(destination);
+        FileSystemDiff diff = new FileSystemDiffService(fileSystem.fsa()).computeDiff(root, recordedState, List.of());
+        actions = switch (snapshotType) {
+            case FULL -> diff.plainCopiesOnly(destination);
+            case INCREMENTAL -> diff.computeCopyActions(destination, latestSnapshotDir);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        fileSystem.close();
+    }
+
+    @Benchmark
+    public FileSystemState apply() {
+        return actions.apply(fileSystem.fsa());
+    }
+
+}
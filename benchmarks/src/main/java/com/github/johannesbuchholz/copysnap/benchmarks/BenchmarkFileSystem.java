@@ -0,0 +1,60 @@
+package com.github.johannesbuchholz.copysnap.benchmarks;
+
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.service.diffing.testutils.InMemoryFileSystemAccessor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A file system to run benchmarks against. Comparing results of both types separates the cost of disk access from the
+ * cost of computation.
+ */
+public record BenchmarkFileSystem(Type type, FileSystemAccessor fsa, Path baseDir) implements AutoCloseable {
+
+    public enum Type {
+        /** Files are held in memory, see {@link InMemoryFileSystemAccessor}. */
+        IN_MEMORY,
+        /** Files are written to a temporary directory using the default accessor. */
+        DISK
+    }
+
+    public static BenchmarkFileSystem create(Type type) throws IOException {
+        return switch (type) {
+            case IN_MEMORY -> new BenchmarkFileSystem(type, new InMemoryFileSystemAccessor(), Path.of("/copysnap-benchmark"));
+            case DISK -> new BenchmarkFileSystem(type, FileSystemAccessor.newDefaultAccessor(), Files.createTempDirectory("copysnap-benchmark"));
+        };
+    }
+
+    /**
+     * Removes the given file or directory including all contents.
+     */
+    public void delete(Path path) throws IOException {
+        switch (type) {
+            case IN_MEMORY -> ((InMemoryFileSystemAccessor) fsa).delete(path);
+            case DISK -> {
+                if (!Files.exists(path))
+                    return;
+                try (Stream<Path> paths = Files.walk(path)) {
+                    paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+                        try {
+                            Files.delete(p);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        delete(baseDir);
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.github.johannesbuchholz.copysnap.benchmarks;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing of file contents held in memory, hence without disk access.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CheckpointChecksumBenchmark {
+
+    @Param({"1024", "1048576", "67108864"})
+    public int size;
+
+    private byte[] content;
+    private CheckpointChecksum checksum;
+
+    @Setup
+    public void setUp() {
+        content = new byte[size];
+        new Random(42).nextBytes(content);
+        checksum = CheckpointChecksum.from(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public CheckpointChecksum from() {
+        return CheckpointChecksum.from(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public CheckpointChecksum byTransferring() {
+        return CheckpointChecksum.byTransferring(new ByteArrayInputStream(content), OutputStream.nullOutputStream());
+    }
+
+    /**
+     * The check performed for every file with a newer modification time than recorded.
+     */
+    @Benchmark
+    public boolean hasSameChecksum() {
+        return checksum.hasSameChecksum(new ByteArrayInputStream(content));
+    }
+
+}
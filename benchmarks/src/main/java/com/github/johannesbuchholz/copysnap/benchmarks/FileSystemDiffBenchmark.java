@@ -0,0 +1,67 @@
+package com.github.johannesbuchholz.copysnap.benchmarks;
+
+import com.github.johannesbuchholz.copysnap.model.Root;
+import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemDiff;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemDiffService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walking the source directory and detecting changes against the latest state. Touched files have a newer modification
+ * time but unchanged content, hence they are hashed but found to be unchanged.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileSystemDiffBenchmark {
+
+    private static final Instant RECORDED_MODIFICATION_TIME = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Instant TOUCHED_MODIFICATION_TIME = Instant.parse("2024-01-02T00:00:00Z");
+
+    @Param({"IN_MEMORY", "DISK"})
+    public BenchmarkFileSystem.Type fileSystemType;
+
+    @Param({"0", "10", "100"})
+    public int touchedPercent;
+
+    private BenchmarkFileSystem fileSystem;
+    private Root root;
+    private FileSystemState recordedState;
+
+    /**
+     * 12 440 small files in 1 555 directories.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticTree tree = SyntheticTree.generate(4, 6, 8, SyntheticTree.FileSizeDistribution.SMALL, 42);
+        fileSystem = BenchmarkFileSystem.create(fileSystemType);
+        tree.writeTo(fileSystem.fsa(), fileSystem.baseDir(), RECORDED_MODIFICATION_TIME);
+        recordedState = tree.toState(RECORDED_MODIFICATION_TIME);
+        root = Root.from(fileSystem.baseDir().resolve(tree.rootName()));
+
+        List<SyntheticTree.SyntheticFile> files = tree.files();
+        int touchedCount = files.size() * touchedPercent / 100;
+        for (int i = 0; i < touchedCount; i++)
+            fileSystem.fsa().setLastModifiedTime(fileSystem.baseDir().resolve(files.get(i).relPath()), TOUCHED_MODIFICATION_TIME);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fileSystem.close();
+    }
+
+    @Benchmark
+    public FileSystemDiff computeDiff() throws IOException {
+        return new FileSystemDiffService(fileSystem.fsa()).computeDiff(root, recordedState, List.of());
+    }
+
+}
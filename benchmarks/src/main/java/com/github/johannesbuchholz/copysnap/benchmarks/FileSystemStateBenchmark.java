@@ -0,0 +1,80 @@
+package com.github.johannesbuchholz.copysnap.benchmarks;
+
+import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of the file system state, which is read on every snapshot and written twice per snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileSystemStateBenchmark {
+
+    /**
+     * With a fan-out of 10 and 10 files per directory: 1 110 and 111 110 files.
+     */
+    @Param({"2", "4"})
+    public int depth;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public FileSystemState.Storage storage;
+
+    private FileSystemState state;
+    private byte[] serializedState;
+    private List<Path> paths;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticTree tree = SyntheticTree.generate(depth, 10, 10, SyntheticTree.FileSizeDistribution.SMALL, 42);
+        FileSystemState.Builder builder = FileSystemState.builder(storage);
+        FileSystemState heapState = tree.toState(Instant.parse("2024-01-01T00:00:00Z"));
+        heapState.paths().forEach(path -> builder.add(heapState.get(path).orElseThrow()));
+        state = builder.build();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        state.write(os);
+        serializedState = os.toByteArray();
+        paths = List.copyOf(state.paths());
+    }
+
+    /**
+     * Reads into the default storage, see {@link FileSystemState.Storage#PROPERTY_NAME}.
+     */
+    @Benchmark
+    public FileSystemState read() throws IOException {
+        return FileSystemState.read(new ByteArrayInputStream(serializedState));
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        state.write(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public int get() {
+        int found = 0;
+        for (Path path : paths) {
+            if (state.get(path).isPresent())
+                found++;
+        }
+        return found;
+    }
+
+    @Benchmark
+    public long fingerprint() {
+        return state.fingerprint();
+    }
+
+}
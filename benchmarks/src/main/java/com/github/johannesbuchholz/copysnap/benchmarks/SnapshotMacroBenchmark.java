@@ -0,0 +1,238 @@
+package com.github.johannesbuchholz.copysnap.benchmarks;
+
+import com.github.johannesbuchholz.copysnap.metrics.Metrics;
+import com.github.johannesbuchholz.copysnap.model.Context;
+import com.github.johannesbuchholz.copysnap.model.Contexts;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Measures whole snapshots of a synthetic tree on disk the way the command line tool takes them: the context is loaded,
+ * the latest state is read, the snapshot is created and the context is written. After the first snapshot, a share of
+ * all files is changed before every incremental snapshot.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp benchmarks.jar com.github.johannesbuchholz.copysnap.benchmarks.SnapshotMacroBenchmark [--option value]...
+ * </pre>
+ * Options and defaults:
+ * <ul>
+ *     <li>{@code --dir}: The directory to create the source tree and the snapshots in. Use a tmpfs mount to exclude
+ *     disk access. Defaults to a new temporary directory.</li>
+ *     <li>{@code --depth 3}, {@code --fan-out 8}, {@code --files-per-dir 16}: The shape of the tree, see
+ *     {@link SyntheticTree}.</li>
+ *     <li>{@code --sizes SMALL}: The file size distribution, see {@link SyntheticTree.FileSizeDistribution}.</li>
+ *     <li>{@code --churn 5}: The percentage of files to change before every incremental snapshot.</li>
+ *     <li>{@code --runs 5}: The number of incremental snapshots.</li>
+ *     <li>{@code --mode SYMLINK}: {@code SYMLINK} links unchanged files, {@code COPY} creates full copies.</li>
+ *     <li>{@code --solidify NONE}: Additionally solidifies the latest snapshot by {@code COPY} or {@code HARD_LINK}.</li>
+ *     <li>{@code --seed 42}: The seed of file contents and churn.</li>
+ *     <li>{@code --output snapshot-benchmark.json}: The file to write the results to.</li>
+ * </ul>
+ * The results hold the wall time, files and bytes per second, garbage collection time and peak resident set size of
+ * every run as JSON. Peak resident set size is only available on linux.
+ */
+public class SnapshotMacroBenchmark {
+
+    public enum Mode {SYMLINK, COPY}
+
+    public enum Solidify {NONE, COPY, HARD_LINK}
+
+    private record Options(
+            Path dir,
+            int depth,
+            int fanOut,
+            int filesPerDirectory,
+            SyntheticTree.FileSizeDistribution sizes,
+            int churnPercent,
+            int runs,
+            Mode mode,
+            Solidify solidify,
+            long seed,
+            Path output
+    ) {
+
+        static Options parse(String[] args) throws IOException {
+            Map<String, String> values = new HashMap<>();
+            for (int i = 0; i < args.length; i += 2) {
+                if (!args[i].startsWith("--") || i + 1 >= args.length)
+                    throw new IllegalArgumentException("Expected options of the form --option value but got " + String.join(" ", args));
+                values.put(args[i].substring(2), args[i + 1]);
+            }
+            Options options = new Options(
+                    values.containsKey("dir") ? Path.of(values.remove("dir")).toAbsolutePath() : Files.createTempDirectory("copysnap-macro-benchmark"),
+                    Integer.parseInt(values.getOrDefault("depth", "3")),
+                    Integer.parseInt(values.getOrDefault("fan-out", "8")),
+                    Integer.parseInt(values.getOrDefault("files-per-dir", "16")),
+                    SyntheticTree.FileSizeDistribution.valueOf(values.getOrDefault("sizes", "SMALL")),
+                    Integer.parseInt(values.getOrDefault("churn", "5")),
+                    Integer.parseInt(values.getOrDefault("runs", "5")),
+                    Mode.valueOf(values.getOrDefault("mode", "SYMLINK")),
+                    Solidify.valueOf(values.getOrDefault("solidify", "NONE")),
+                    Long.parseLong(values.getOrDefault("seed", "42")),
+                    Path.of(values.getOrDefault("output", "snapshot-benchmark.json")).toAbsolutePath());
+            List<String> known = List.of("depth", "fan-out", "files-per-dir", "sizes", "churn", "runs", "mode", "solidify", "seed", "output");
+            values.keySet().removeAll(known);
+            if (!values.isEmpty())
+                throw new IllegalArgumentException("Unknown options: " + values.keySet());
+            return options;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("dir", dir.toString());
+            map.put("depth", depth);
+            map.put("fanOut", fanOut);
+            map.put("filesPerDirectory", filesPerDirectory);
+            map.put("sizes", sizes.name());
+            map.put("churnPercent", churnPercent);
+            map.put("runs", runs);
+            map.put("mode", mode.name());
+            map.put("solidify", solidify.name());
+            map.put("seed", seed);
+            return map;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = Options.parse(args);
+        FileSystemAccessor fsa = FileSystemAccessor.newDefaultAccessor();
+        SyntheticTree tree = SyntheticTree.generate(options.depth(), options.fanOut(), options.filesPerDirectory(), options.sizes(), options.seed());
+        Path sourceDir = options.dir().resolve(tree.rootName());
+        if (Files.exists(sourceDir))
+            throw new IllegalArgumentException("Source directory already exists: " + sourceDir);
+        tree.writeTo(fsa, options.dir(), Instant.now());
+
+        Context context = Contexts.createNew(sourceDir, options.dir());
+        Contexts.write(context);
+        Path contextHome = context.getContextHome();
+
+        List<Map<String, Object>> runResults = new ArrayList<>();
+        Random churnRandom = new Random(options.seed());
+        for (int run = 0; run <= options.runs(); run++) {
+            if (run > 0)
+                churn(tree, options, churnRandom);
+            long runStart = System.nanoTime();
+            long gcStart = gcMillis();
+            Context loadedContext = Contexts.load(contextHome).loadLatestSnapshot();
+            Context updatedContext = loadedContext.createSnapshot(options.mode() == Mode.COPY);
+            Contexts.write(updatedContext);
+            runResults.add(runResult(run == 0 ? "full" : "incremental", run, runStart, gcStart, updatedContext, tree.files().size()));
+        }
+        if (options.solidify() != Solidify.NONE) {
+            long runStart = System.nanoTime();
+            long gcStart = gcMillis();
+            Context solidifiedContext = Contexts.load(contextHome).solidify(options.solidify() == Solidify.HARD_LINK);
+            Contexts.write(solidifiedContext);
+            runResults.add(runResult("solidify", options.runs() + 1, runStart, gcStart, solidifiedContext, tree.files().size()));
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("parameters", options.toMap());
+        result.put("fileCount", tree.files().size());
+        result.put("byteCount", tree.files().stream().mapToLong(SyntheticTree.SyntheticFile::size).sum());
+        result.put("runs", runResults);
+        result.put("peakRssKiB", peakRssKiB());
+        Files.writeString(options.output(), toJson(result) + System.lineSeparator());
+        System.err.printf("Results written to %s%n", options.output());
+    }
+
+    /**
+     * Replaces the content of randomly chosen files by new content of the same size.
+     */
+    private static void churn(SyntheticTree tree, Options options, Random random) throws IOException {
+        List<SyntheticTree.SyntheticFile> files = tree.files();
+        int churnCount = files.size() * options.churnPercent() / 100;
+        for (int i = 0; i < churnCount; i++) {
+            SyntheticTree.SyntheticFile file = files.get(random.nextInt(files.size()));
+            byte[] content = new byte[file.size()];
+            random.nextBytes(content);
+            try (OutputStream os = Files.newOutputStream(options.dir().resolve(file.relPath()))) {
+                os.write(content);
+            }
+        }
+    }
+
+    private static Map<String, Object> runResult(String type, int run, long runStart, long gcStart, Context context, int fileCount) throws IOException {
+        double seconds = (System.nanoTime() - runStart) / 1e9;
+        long writtenBytes = readWrittenBytes(context.getLatestSnapshotDir().orElseThrow());
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("run", run);
+        result.put("type", type);
+        result.put("wallMillis", Math.round(seconds * 1000));
+        result.put("filesPerSecond", Math.round(fileCount / seconds));
+        result.put("writtenBytes", writtenBytes);
+        result.put("writtenMegabytesPerSecond", Math.round(writtenBytes / seconds / 1e4) / 100.0);
+        result.put("gcMillis", gcMillis() - gcStart);
+        result.put("peakRssKiB", peakRssKiB());
+        return result;
+    }
+
+    /**
+     * @return The written bytes as recorded in the metrics of the given snapshot.
+     */
+    private static long readWrittenBytes(Path snapshotDir) throws IOException {
+        Path metricsFile = snapshotDir.resolve(Metrics.FILE_NAME);
+        if (!Files.isRegularFile(metricsFile))
+            return -1;
+        try (var lines = Files.lines(metricsFile)) {
+            return lines.filter(line -> line.startsWith("copysnap_bytes_written_total "))
+                    .mapToLong(line -> Long.parseLong(line.substring(line.indexOf(' ') + 1)))
+                    .findFirst()
+                    .orElse(0);
+        }
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                .filter(time -> time > 0)
+                .sum();
+    }
+
+    /**
+     * @return The peak resident set size of this process or -1 if unknown.
+     */
+    private static long peakRssKiB() {
+        Path status = Path.of("/proc/self/status");
+        if (!Files.isReadable(status))
+            return -1;
+        try (var lines = Files.lines(status)) {
+            return lines.filter(line -> line.startsWith("VmHWM:"))
+                    .mapToLong(line -> Long.parseLong(line.replaceAll("\\D", "")))
+                    .findFirst()
+                    .orElse(-1);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static String toJson(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            return map.entrySet().stream()
+                    .map(entry -> toJson(entry.getKey().toString()) + ":" + toJson(entry.getValue()))
+                    .collect(Collectors.joining(",", "{", "}"));
+        } else if (value instanceof List<?> list) {
+            return list.stream().map(SnapshotMacroBenchmark::toJson).collect(Collectors.joining(",", "[", "]"));
+        } else if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+        } else {
+            return "\"" + value.toString().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.github.johannesbuchholz.copysnap.benchmarks;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A reproducible file tree of the given shape. Every directory down to the given depth contains {@code fanOut}
+ * subdirectories and {@code filesPerDirectory} files.
+ * <p>
+ * Example with depth 1, fan-out 2 and one file per directory:
+ * <pre>
+ * r
+ * ├── d0
+ * │   └── f0
+ * ├── d1
+ * │   └── f0
+ * └── f0
+ * </pre>
+ * File contents are pseudo random and derived from the seed, hence two trees of equal parameters are equal.
+ */
+public record SyntheticTree(Path rootName, List<SyntheticFile> files, long seed) {
+
+    public enum FileSizeDistribution {
+        /** Uniformly distributed between 0 and 4 KiB. */
+        SMALL,
+        /** Log-uniformly distributed between 1 B and 4 MiB, resembling a typical home directory. */
+        MIXED,
+        /** 16 MiB each. */
+        LARGE;
+
+        int sample(Random random) {
+            return switch (this) {
+                case SMALL -> random.nextInt(4097);
+                case MIXED -> 1 << random.nextInt(23);
+                case LARGE -> 1 << 24;
+            };
+        }
+    }
+
+    /**
+     * @param relPath The path relative to the location of the root directory, hence starting with the root name.
+     */
+    public record SyntheticFile(Path relPath, int size) {}
+
+    public static SyntheticTree generate(int depth, int fanOut, int filesPerDirectory, FileSizeDistribution sizeDistribution, long seed) {
+        Random random = new Random(seed);
+        Path rootName = Path.of("r");
+        List<SyntheticFile> files = new ArrayList<>();
+        addFiles(rootName, depth, fanOut, filesPerDirectory, sizeDistribution, random, files);
+        return new SyntheticTree(rootName, Collections.unmodifiableList(files), seed);
+    }
+
+    private static void addFiles(Path dir, int remainingDepth, int fanOut, int filesPerDirectory, FileSizeDistribution sizeDistribution, Random random, List<SyntheticFile> files) {
+        for (int i = 0; i < filesPerDirectory; i++)
+            files.add(new SyntheticFile(dir.resolve("f" + i), sizeDistribution.sample(random)));
+        if (remainingDepth == 0)
+            return;
+        for (int i = 0; i < fanOut; i++)
+            addFiles(dir.resolve("d" + i), remainingDepth - 1, fanOut, filesPerDirectory, sizeDistribution, random, files);
+    }
+
+    public byte[] content(SyntheticFile file) {
+        byte[] content = new byte[file.size()];
+        new Random(seed ^ file.relPath().hashCode()).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * Writes all files below the given directory.
+     *
+     * @param location The directory to contain the root directory.
+     */
+    public void writeTo(FileSystemAccessor fsa, Path location, Instant lastModified) throws IOException {
+        for (SyntheticFile file : files) {
+            Path absPath = location.resolve(file.relPath());
+            fsa.createDirectories(absPath.getParent());
+            try (OutputStream os = fsa.createNewOutputStream(absPath)) {
+                os.write(content(file));
+            }
+            fsa.setLastModifiedTime(absPath, lastModified);
+        }
+    }
+
+    /**
+     * @return The state as it would have been recorded by a snapshot of this tree.
+     */
+    public FileSystemState toState(Instant lastModified) {
+        FileSystemState.Builder builder = FileSystemState.builder();
+        for (SyntheticFile file : files)
+            builder.add(new FileState(file.relPath(), lastModified, CheckpointChecksum.from(new ByteArrayInputStream(content(file)))));
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import com.github.johannesbuchholz.copysnap.benchmarks.SyntheticTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the tree of changed paths. Placed in the package of {@link FileSystemNode} as the node is not public.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileSystemNodeBenchmark {
+
+    /**
+     * With a fan-out of 10 and 10 files per directory: 1 110 and 111 110 files.
+     */
+    @Param({"2", "4"})
+    public int depth;
+
+    private List<Path> paths;
+    private FileSystemNode populatedTree;
+
+    @Setup
+    public void setUp() {
+        paths = SyntheticTree.generate(depth, 10, 10, SyntheticTree.FileSizeDistribution.SMALL, 42).files().stream()
+                .map(SyntheticTree.SyntheticFile::relPath)
+                .toList();
+        populatedTree = insertAll();
+    }
+
+    @Benchmark
+    public FileSystemNode insert() {
+        return insertAll();
+    }
+
+    @Benchmark
+    public FileSystemNode insertAndMarkAsChanged() {
+        FileSystemNode root = FileSystemNode.getNew();
+        for (Path path : paths)
+            root.insert(path).markAsChanged();
+        return root;
+    }
+
+    @Benchmark
+    public int getDeepestKnownAlong() {
+        int hashSum = 0;
+        for (Path path : paths)
+            hashSum += populatedTree.getDeepestKnownAlong(path).hashCode();
+        return hashSum;
+    }
+
+    private FileSystemNode insertAll() {
+        FileSystemNode root = FileSystemNode.getNew();
+        for (Path path : paths)
+            root.insert(path);
+        return root;
+    }
+
+}
@@ -70,12 +70,13 @@ if [[ ${commit} ]]; then
   git diff-index HEAD --quiet --exit-code || (echo "Git working tree is not clean. Exiting..." && exit 1)
 
   mvn --quiet clean versions:set -DnewVersion="${version}"
+  mvn --quiet -f benchmarks/pom.xml versions:set -DnewVersion="${version}" -DgenerateBackupPoms=false
   mvn package
 
   mkdir -p "releases"
   cp "target/copysnap-${version}.jar" "releases/copysnap-${version}.jar"
 
-  git add pom.xml "releases/copysnap-${version}.jar"
+  git add pom.xml benchmarks/pom.xml "releases/copysnap-${version}.jar"
   git commit -m "chore: Release ${version}"
   if [[ ${tag} ]]; then
     git tag -a "${version}" -m "Release ${version}"
@@ -4,6 +4,8 @@ import com.github.johannesbuchholz.copysnap.logging.ConsolePrintingLogConsumer;
 import com.github.johannesbuchholz.copysnap.logging.Level;
 import com.github.johannesbuchholz.copysnap.model.Context;
 import com.github.johannesbuchholz.copysnap.model.Contexts;
+import com.github.johannesbuchholz.copysnap.service.diffing.ChangeDetectionRules;
+import com.github.johannesbuchholz.copysnap.util.RateLimiter;
 import io.github.johannesbuchholz.clihats.processor.annotations.Argument;
 import io.github.johannesbuchholz.clihats.processor.annotations.Command;
 import io.github.johannesbuchholz.clihats.processor.annotations.CommandLineInterface;
@@ -16,6 +18,7 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
@@ -51,16 +54,38 @@ public class Main {
     /**
      * Initialises a new CopySnap context sourcing the specified directory.
      * @param source The directory to take snapshots from.
+     * @param noFollowLinks If true, symbolic links in the source are recreated in snapshots instead of copying the files
+     *                      and directories they point to.
+     * @param changeDetection How files are checked for changes: One of mtime-size, sampled, checksum or paranoid,
+     *                        optionally followed by rules like :media/**=mtime-size:etc/**=paranoid applying other
+     *                        policies to matching files. Colons within glob patterns are escaped by a backslash.
+     *                        Defaults to checksum.
+     * @param checksumCache If true, checksums are cached in the extended attribute user.copysnap.checksum of source
+     *                      files. Unchanged files are then not read again when comparing or recomputing states.
+     * @param directIoMinMib Files of at least this many MiB are read and written bypassing the page cache, so that
+     *                       snapshots do not evict data cached for other processes. Disabled if negative.
      * @param ignore Glob patterns of files to exclude from this context. Such files are not part of any snapshot.
      */
     @Command
     public static void init(
             @Argument(necessity = REQUIRED, type = OPERAND) Path source,
+            @Argument(defaultValue = "false", flagValue = "true", name = "--no-follow-links") Boolean noFollowLinks,
+            @Argument(defaultValue = "checksum", name = "--change-detection") String changeDetection,
+            @Argument(defaultValue = "false", flagValue = "true", name = "--checksum-cache") Boolean checksumCache,
+            @Argument(defaultValue = "-1", name = "--direct-io-min-mib") Integer directIoMinMib,
             @Argument(type = ARRAY_OPERAND) String... ignore
     ) {
+        ChangeDetectionRules changeDetectionRules;
+        try {
+            changeDetectionRules = ChangeDetectionRules.parse(changeDetection);
+        } catch (IllegalArgumentException e) {
+            CONSOLE_PRINTER.consume(Level.ERROR, "Invalid change detection: " + e.getMessage());
+            return;
+        }
         Path cwd = Path.of(System.getProperty("user.dir"));
         Path sourceDirResolved = resolvePathToCwd(source);
-        Context context = Contexts.createNew(sourceDirResolved, cwd, ignore);
+        Context context = Contexts.createNew(sourceDirResolved, cwd, !noFollowLinks, changeDetectionRules, checksumCache,
+                directIoMinMib < 0 ? -1 : directIoMinMib * 1024L * 1024L, ignore);
         Contexts.write(context);
         CONSOLE_PRINTER.consume(Level.INFO, "Initialised context at " + context.getContextHome());
 
@@ -117,9 +142,41 @@ public class Main {
      * Creates a new differential snapshot using the currently loaded context. Files that did not change compared to the
      * latest snapshot will only reference the respective file in that snapshot instead of creating a copy of that file.
      * @param copy If true, the new snapshot will contain full copies of each file even if the respective file did not change.
+     * @param paranoid If true, compares checksums of all files regardless of the change detection of the context. Use
+     *                 this periodically to detect changes not reflected by the last modified time.
+     */
+    @Command
+    public static void snapshot(
+            @Argument(defaultValue = "false", flagValue = "true", name = "--copy") Boolean copy,
+            @Argument(defaultValue = "false", flagValue = "true", name = "--paranoid") Boolean paranoid
+    ) {
+        Optional<Context> contextOpt = getLatestLoadedContext();
+        if (contextOpt.isEmpty()) {
+            CONSOLE_PRINTER.consume(Level.INFO, "No context loaded.");
+            return;
+        }
+        Context context = contextOpt.get();
+        Optional<Path> inProgressDirOpt = context.getInProgressSnapshotDir();
+        if (inProgressDirOpt.isPresent()) {
+            CONSOLE_PRINTER.consume(Level.INFO, "Found unfinished snapshot %s. Continue it with 'resume' or delete it.".formatted(inProgressDirOpt.get()));
+            return;
+        }
+        context.addConsumer(CONSOLE_PRINTER);
+
+        context = context.loadLatestSnapshot()
+                .createSnapshot(copy, paranoid);
+        Contexts.write(context);
+
+        setAsCurrentContext(context);
+        status();
+    }
+
+    /**
+     * Continues an unfinished snapshot of the currently loaded context, for example after the machine has been
+     * rebooted. Files already written by the interrupted run are not copied again.
      */
     @Command
-    public static void snapshot(@Argument(defaultValue = "false", flagValue = "true", name = "--copy") Boolean copy) {
+    public static void resume() {
         Optional<Context> contextOpt = getLatestLoadedContext();
         if (contextOpt.isEmpty()) {
             CONSOLE_PRINTER.consume(Level.INFO, "No context loaded.");
@@ -129,7 +186,7 @@ public class Main {
         context.addConsumer(CONSOLE_PRINTER);
 
         context = context.loadLatestSnapshot()
-                .createSnapshot(copy);
+                .resumeSnapshot();
         Contexts.write(context);
 
         setAsCurrentContext(context);
@@ -140,10 +197,16 @@ public class Main {
      * Computes the file state of a specified directory and saves it as the latest file system state to the
      * current context.
      * Use this method to repair a broken or lost file system state of a previous snapshot.
+     * If the directory is the root of a snapshot, the file system state recorded in that snapshot is used.
+     * If any file can not be read, the latest file system state is left unchanged.
      * @param directory The directory to compute a new file state of.
+     * @param rehash If true, ignores recorded file system states and always reads all files.
      */
     @Command
-    public static void recompute(@Argument(necessity = REQUIRED, type = OPERAND) Path directory) {
+    public static void recompute(
+            @Argument(necessity = REQUIRED, type = OPERAND) Path directory,
+            @Argument(defaultValue = "false", flagValue = "true", name = "--rehash") Boolean rehash
+    ) {
         Path resolvedPath = resolvePathToCwd(directory);
         Optional<Context> contextOpt = getLatestLoadedContext();
         if (contextOpt.isEmpty()) {
@@ -156,7 +219,7 @@ public class Main {
         }
 
         context.addConsumer(CONSOLE_PRINTER);
-        context = context.recomputeFileSystemState(resolvedPath);
+        context = context.recomputeFileSystemState(resolvedPath, rehash);
         Contexts.write(context);
 
         setAsCurrentContext(context);
@@ -166,9 +229,12 @@ public class Main {
     /**
      * Creates a copy of the current context's snapshot as a new snapshot by replacing symlinks with actual file copies.
      * The resulting snapshot will only consist of "hard" file copies.
+     * @param link If true, creates hard links to the physical files instead of copying them where possible.
      */
     @Command
-    public static void solidify() {
+    public static void solidify(
+            @Argument(defaultValue = "false", flagValue = "true", name = "--link") Boolean link
+    ) {
         Optional<Context> contextOpt = getLatestLoadedContext();
         if (contextOpt.isEmpty()) {
             CONSOLE_PRINTER.consume(Level.INFO, "No context loaded.");
@@ -177,13 +243,127 @@ public class Main {
         Context context = contextOpt.get();
         context.addConsumer(CONSOLE_PRINTER);
 
-        context = context.solidify();
+        context = context.solidify(link);
         Contexts.write(context);
 
         setAsCurrentContext(context);
         status();
     }
 
+    /**
+     * Restores files from a snapshot of the current context. Restored files keep their path relative to the snapshot
+     * directory. Symbolic links into older snapshots are resolved and their physical files are copied.
+     * Restored files are verified against the file system state recorded in the snapshot.
+     * @param snapshot The snapshot directory to restore. May also be the name of a snapshot directory in the context home.
+     * @param target The directory to restore files into.
+     * @param subpath The path relative to the snapshot directory to restore, e.g. 'source/some/dir'. Defaults to the whole snapshot.
+     */
+    @Command
+    public static void restore(
+            @Argument(necessity = REQUIRED, type = OPERAND) Path snapshot,
+            @Argument(necessity = REQUIRED, type = OPERAND) Path target,
+            @Argument(type = OPERAND) Path subpath
+    ) {
+        Optional<Context> contextOpt = getLatestLoadedContext();
+        if (contextOpt.isEmpty()) {
+            CONSOLE_PRINTER.consume(Level.INFO, "No context loaded.");
+            return;
+        }
+        Context context = contextOpt.get();
+        Optional<Path> snapshotDir = resolveSnapshotDir(context, snapshot);
+        if (snapshotDir.isEmpty())
+            return;
+        context.addConsumer(CONSOLE_PRINTER);
+        context.loadLatestSnapshot()
+                .restore(snapshotDir.get(), Objects.requireNonNullElse(subpath, Path.of("")), resolvePathToCwd(target));
+    }
+
+    /**
+     * Verifies snapshots of the current context against the file system states recorded in these snapshots and
+     * reports missing, corrupted and unrecorded files as well as dangling symbolic links.
+     * @param snapshot The snapshot directory to verify. May also be the name of a snapshot directory in the context home. Defaults to the latest snapshot.
+     * @param all If true, verifies all snapshots of the current context.
+     * @param rate The maximum read rate in MB/s. Defaults to 0, which means unlimited.
+     */
+    @Command
+    public static void verify(
+            @Argument(type = OPERAND) Path snapshot,
+            @Argument(defaultValue = "false", flagValue = "true", name = "--all") Boolean all,
+            @Argument(defaultValue = "0", name = "--rate") Integer rate
+    ) {
+        Optional<Context> contextOpt = getLatestLoadedContext();
+        if (contextOpt.isEmpty()) {
+            CONSOLE_PRINTER.consume(Level.INFO, "No context loaded.");
+            return;
+        }
+        Context context = contextOpt.get();
+        List<Path> snapshotDirs = resolveSnapshotDirs(context, snapshot, all);
+        if (snapshotDirs.isEmpty()) {
+            CONSOLE_PRINTER.consume(Level.INFO, "No snapshot to verify.");
+            return;
+        }
+        context.addConsumer(CONSOLE_PRINTER);
+        boolean allClean = context.verify(snapshotDirs, RateLimiter.ofMegabytesPerSecond(rate));
+        CONSOLE_PRINTER.consume(Level.INFO, allClean ? "All verified snapshots are intact." : "Found defects in verified snapshots.");
+    }
+
+    /**
+     * Replaces chains of symbolic links through older snapshots by links pointing directly at the physical files.
+     * Snapshots created by older versions may contain such chains, which make reading unchanged files slower the older
+     * they are. New snapshots only contain direct links.
+     * @param snapshot The snapshot directory to flatten. May also be the name of a snapshot directory in the context home. Defaults to the latest snapshot.
+     * @param all If true, flattens all snapshots of the current context.
+     */
+    @Command
+    public static void flatten(
+            @Argument(type = OPERAND) Path snapshot,
+            @Argument(defaultValue = "false", flagValue = "true", name = "--all") Boolean all
+    ) {
+        Optional<Context> contextOpt = getLatestLoadedContext();
+        if (contextOpt.isEmpty()) {
+            CONSOLE_PRINTER.consume(Level.INFO, "No context loaded.");
+            return;
+        }
+        Context context = contextOpt.get();
+        List<Path> snapshotDirs = resolveSnapshotDirs(context, snapshot, all);
+        if (snapshotDirs.isEmpty()) {
+            CONSOLE_PRINTER.consume(Level.INFO, "No snapshot to flatten.");
+            return;
+        }
+        context.addConsumer(CONSOLE_PRINTER);
+        boolean allFlattened = context.flatten(snapshotDirs);
+        CONSOLE_PRINTER.consume(Level.INFO, allFlattened ? "All links are flat." : "Some links could not be flattened.");
+    }
+
+    /**
+     * @param snapshot A snapshot directory or the name of a snapshot directory in the context home.
+     *                 {@code null} selects the latest snapshot.
+     * @param all      If true, selects all snapshots regardless of the given snapshot.
+     * @return The selected snapshot directories. Empty if there is no snapshot or the given snapshot does not exist.
+     */
+    private static List<Path> resolveSnapshotDirs(Context context, /* nullable */ Path snapshot, boolean all) {
+        if (all)
+            return context.getSnapshotDirs();
+        if (snapshot != null)
+            return resolveSnapshotDir(context, snapshot).stream().toList();
+        return context.getLatestSnapshotDir().stream().toList();
+    }
+
+    /**
+     * Reports the snapshot directory if it can not be found.
+     * @param snapshot A snapshot directory or the name of a snapshot directory in the context home.
+     */
+    private static Optional<Path> resolveSnapshotDir(Context context, Path snapshot) {
+        Path snapshotDir = resolvePathToCwd(snapshot);
+        if (!Files.isDirectory(snapshotDir))
+            snapshotDir = context.getContextHome().resolve(snapshot);
+        if (!Files.isDirectory(snapshotDir)) {
+            CONSOLE_PRINTER.consume(Level.INFO, "Could not find snapshot directory: " + snapshot);
+            return Optional.empty();
+        }
+        return Optional.of(snapshotDir);
+    }
+
     private static Optional<Context> getLatestLoadedContext() {
         if (latestContext == null) {
             try {
@@ -9,9 +9,9 @@ import java.time.ZonedDateTime;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 public class AbstractLogProducer implements LogProducer {
 
@@ -50,15 +50,34 @@ public class AbstractLogProducer implements LogProducer {
     }
 
     protected void log(Level level, String message) {
-        getRelevantConsumers(level).forEach(mc -> mc.consume(level, message));
+        for (LogConsumer logConsumer : logConsumers) {
+            if (logConsumer.isLevelRelevant(level))
+                logConsumer.consume(level, message);
+        }
+    }
+
+    /**
+     * Like {@link #log(Level, String)} but only builds the message if any consumer is interested in the given level.
+     */
+    protected void log(Level level, Supplier<String> messageSupplier) {
+        if (isLevelRelevant(level))
+            log(level, messageSupplier.get());
     }
 
     protected void logStacktrace(Level level, Throwable e) {
-        getRelevantConsumers(level).forEach(logConsumer -> logConsumer.consume(level, getStackStrace(e)));
+        if (isLevelRelevant(level))
+            log(level, getStackStrace(e));
     }
 
-    private Stream<LogConsumer> getRelevantConsumers(Level level) {
-        return logConsumers.stream().filter(logConsumer -> logConsumer.isLevelRelevant(level));
+    /**
+     * @return true if any consumer is interested in messages of the given level.
+     */
+    protected boolean isLevelRelevant(Level level) {
+        for (LogConsumer logConsumer : logConsumers) {
+            if (logConsumer.isLevelRelevant(level))
+                return true;
+        }
+        return false;
     }
 
     private String getStackStrace(Throwable e) {
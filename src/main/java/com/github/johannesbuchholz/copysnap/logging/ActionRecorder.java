@@ -0,0 +1,46 @@
+package com.github.johannesbuchholz.copysnap.logging;
+
+import java.nio.file.Path;
+
+/**
+ * Implementing classes receive a record for every file action performed by a task, like copying or linking a file.
+ * Implementations must be thread safe.
+ */
+@FunctionalInterface
+public interface ActionRecorder {
+
+    ActionRecorder NONE = actionRecord -> {};
+
+    void record(ActionRecord actionRecord);
+
+    /**
+     * @return A recorder passing every record to this and then to the other recorder.
+     */
+    default ActionRecorder andThen(ActionRecorder other) {
+        return actionRecord -> {
+            record(actionRecord);
+            other.record(actionRecord);
+        };
+    }
+
+    /**
+     * @param type          A short name of the kind of action, like {@code COPY} or {@code LINK}.
+     * @param relPath       The path of the affected file relative to the snapshot directory.
+     * @param succeeded     Whether the action has been performed successfully.
+     * @param byteCount     The number of bytes written by the action.
+     * @param durationNanos The time it took to perform the action.
+     * @param error         The reason of the failure if the action did not succeed.
+     */
+    record ActionRecord(String type, Path relPath, boolean succeeded, long byteCount, long durationNanos, /* nullable */ String error) {
+
+        public static ActionRecord success(String type, Path relPath, long byteCount, long durationNanos) {
+            return new ActionRecord(type, relPath, true, byteCount, durationNanos, null);
+        }
+
+        public static ActionRecord failure(String type, Path relPath, long durationNanos, String error) {
+            return new ActionRecord(type, relPath, false, 0, durationNanos, error);
+        }
+
+    }
+
+}
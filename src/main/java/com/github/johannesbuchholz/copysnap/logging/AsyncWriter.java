@@ -0,0 +1,144 @@
+package com.github.johannesbuchholz.copysnap.logging;
+
+import com.github.johannesbuchholz.copysnap.util.MpscRingBuffer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes entries to a file on a background thread.
+ * <p>
+ * Submitting threads only enqueue entries and are only blocked if the writer falls behind by more than the buffer
+ * capacity. Entries are formatted on the writer thread, drained in batches and flushed whenever the writer runs out of
+ * entries. All entries submitted before {@link #close()} are written.
+ * </p>
+ * Thread safe.
+ */
+public class AsyncWriter<E> implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface EntryFormatter<E> {
+        void write(E entry, Writer writer) throws IOException;
+    }
+
+    private static final int BUFFER_CAPACITY = 1 << 14;
+    private static final int BATCH_SIZE = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final Writer writer;
+    private final EntryFormatter<E> formatter;
+    private final MpscRingBuffer<E> buffer = new MpscRingBuffer<>(BUFFER_CAPACITY);
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+    private volatile int maxPendingCount = 0;
+
+    /**
+     * Creates or truncates the file at the given path.
+     */
+    public static <E> AsyncWriter<E> at(Path path, EntryFormatter<E> formatter) {
+        OutputStream os;
+        try {
+            os = Files.newOutputStream(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create output stream at " + path, e);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 1 << 16);
+        return new AsyncWriter<>(writer, formatter, "copysnap-writer-" + path.getFileName());
+    }
+
+    private AsyncWriter(Writer writer, EntryFormatter<E> formatter, String threadName) {
+        this.writer = writer;
+        this.formatter = formatter;
+        this.writerThread = new Thread(this::writeUntilClosed, threadName);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Enqueues the entry. Entries submitted after closing are ignored.
+     */
+    public void submit(E entry) {
+        if (closed)
+            return;
+        while (!buffer.offer(entry)) {
+            // the writer fell behind
+            LockSupport.unpark(writerThread);
+            Thread.onSpinWait();
+            if (closed)
+                return;
+        }
+        int pendingCount = buffer.size();
+        if (pendingCount > maxPendingCount)
+            // concurrent updates may get lost, which is acceptable for statistics
+            maxPendingCount = pendingCount;
+    }
+
+    /**
+     * @return The largest number of entries observed waiting to be written.
+     */
+    public int getMaxPendingCount() {
+        return maxPendingCount;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Writes all pending entries and closes the file.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        boolean interrupted = false;
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void writeUntilClosed() {
+        try (writer) {
+            while (true) {
+                // read the flag before draining so that entries submitted before closing are not lost
+                boolean isClosed = closed;
+                int drainedCount = buffer.drain(this::write, BATCH_SIZE);
+                if (drainedCount == 0) {
+                    writer.flush();
+                    if (isClosed)
+                        return;
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // entries can no longer be written, stop blocking submitters
+            closed = true;
+            System.err.println("Could not write to file: " + e);
+        }
+    }
+
+    private void write(E entry) {
+        try {
+            formatter.write(entry, writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -1,45 +1,41 @@
 package com.github.johannesbuchholz.copysnap.logging;
 
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.io.UncheckedIOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 
 /**
- * Not thread save.
+ * Writes messages to a file on a background thread, see {@link AsyncWriter}. All messages consumed before
+ * {@link #close()} are written.
+ * <p>
+ * Thread safe.
+ * </p>
  */
 public class FilePrintingLogConsumer implements LogConsumer, AutoCloseable  {
 
-    private final PrintWriter writer;
+    private final AsyncWriter<Entry> writer;
     private final Level level;
-    private boolean closed = false;
 
     public static FilePrintingLogConsumer at(Path path) {
-        OutputStream os;
-        try {
-            os = Files.newOutputStream(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException e) {
-            throw new UncheckedIOException("Could not create output stream at " + path, e);
-        }
-        PrintWriter pw = new PrintWriter(os, true, StandardCharsets.UTF_8);
-        return new FilePrintingLogConsumer(Level.DEBUG, pw);
+        AsyncWriter<Entry> writer = AsyncWriter.at(path, (entry, w) -> {
+            w.write('[');
+            w.write(entry.level().name());
+            w.write("] ");
+            w.write(entry.message());
+            w.write(System.lineSeparator());
+        });
+        return new FilePrintingLogConsumer(Level.DEBUG, writer);
     }
 
-    private FilePrintingLogConsumer(Level level, PrintWriter writer) {
+    private FilePrintingLogConsumer(Level level, AsyncWriter<Entry> writer) {
         this.writer = writer;
         this.level = level;
     }
 
     @Override
     public void consume(Level level, String message) {
-        if (closed || !isLevelRelevant(level)) {
+        if (writer.isClosed() || !isLevelRelevant(level)) {
             return;
         }
-        writer.println("[%s] %s".formatted(level, message));
+        writer.submit(new Entry(level, message));
     }
 
     @Override
@@ -47,10 +43,21 @@ public class FilePrintingLogConsumer implements LogConsumer, AutoCloseable  {
         return level;
     }
 
+    /**
+     * @return The largest number of messages observed waiting to be written.
+     */
+    public int getMaxPendingCount() {
+        return writer.getMaxPendingCount();
+    }
+
+    /**
+     * Writes all pending messages and closes the file.
+     */
     @Override
     public void close() {
-        closed = true;
         writer.close();
     }
 
+    private record Entry(Level level, String message) {}
+
 }
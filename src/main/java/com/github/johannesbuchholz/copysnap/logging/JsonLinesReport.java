@@ -0,0 +1,188 @@
+package com.github.johannesbuchholz.copysnap.logging;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A machine-readable report holding one JSON object per line (newline-delimited JSON).
+ * <p>
+ * Every recorded action becomes one line like
+ * <pre>{"type":"action","action":"COPY","path":"r/a/f","status":"OK","bytes":1024,"micros":57}</pre>
+ * Failed actions have the status {@code ERROR} and an additional {@code error} field. On {@link #close()}, a single
+ * line of {@code "type":"summary"} is appended holding aggregated metrics of all recorded actions and any values
+ * added by {@link #putSummaryValue(String, Object)}.
+ * </p>
+ * Lines are written on a background thread, see {@link AsyncWriter}. Thread safe.
+ */
+public class JsonLinesReport implements ActionRecorder, AutoCloseable {
+
+    public static final String FILE_NAME = "report.ndjson";
+
+    private final AsyncWriter<Line> writer;
+    private final String task;
+    private final ZonedDateTime start;
+    private final LongAdder succeededCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder byteCount = new LongAdder();
+    private final LongAdder actionNanos = new LongAdder();
+    private final Map<String, LongAdder> countsByActionType = new ConcurrentHashMap<>();
+    private final Map<String, Object> summaryValues = new LinkedHashMap<>();
+
+    /**
+     * @param task  The name of the task this report describes, like {@code snapshot}.
+     * @param start The start of the task.
+     */
+    public static JsonLinesReport at(Path path, String task, ZonedDateTime start) {
+        return new JsonLinesReport(AsyncWriter.at(path, JsonLinesReport::writeLine), task, start);
+    }
+
+    private JsonLinesReport(AsyncWriter<Line> writer, String task, ZonedDateTime start) {
+        this.writer = writer;
+        this.task = task;
+        this.start = start;
+    }
+
+    @Override
+    public void record(ActionRecord actionRecord) {
+        if (actionRecord.succeeded())
+            succeededCount.increment();
+        else
+            failedCount.increment();
+        byteCount.add(actionRecord.byteCount());
+        actionNanos.add(actionRecord.durationNanos());
+        countsByActionType.computeIfAbsent(actionRecord.type(), t -> new LongAdder()).increment();
+        writer.submit(new ActionLine(actionRecord));
+    }
+
+    /**
+     * Adds a value to the summary line.
+     *
+     * @param value A number, a boolean or a string.
+     */
+    public synchronized void putSummaryValue(String key, Object value) {
+        summaryValues.put(key, value);
+    }
+
+    /**
+     * @return The largest number of lines observed waiting to be written.
+     */
+    public int getMaxPendingCount() {
+        return writer.getMaxPendingCount();
+    }
+
+    /**
+     * Appends the summary line and closes the report.
+     */
+    @Override
+    public void close() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("task", task);
+        summary.put("started", DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(start));
+        summary.put("durationMillis", Duration.between(start, ZonedDateTime.now()).toMillis());
+        summary.put("actions", succeededCount.sum() + failedCount.sum());
+        summary.put("succeeded", succeededCount.sum());
+        summary.put("failed", failedCount.sum());
+        summary.put("bytes", byteCount.sum());
+        summary.put("actionMicros", TimeUnit.NANOSECONDS.toMicros(actionNanos.sum()));
+        Map<String, Object> countsByType = new TreeMap<>();
+        countsByActionType.forEach((type, count) -> countsByType.put(type, count.sum()));
+        summary.put("actionsByType", countsByType);
+        synchronized (this) {
+            summary.putAll(summaryValues);
+        }
+        writer.submit(new SummaryLine(summary));
+        writer.close();
+    }
+
+    private sealed interface Line permits ActionLine, SummaryLine {}
+
+    private record ActionLine(ActionRecord actionRecord) implements Line {}
+
+    private record SummaryLine(Map<String, Object> values) implements Line {}
+
+    private static void writeLine(Line line, Writer w) throws IOException {
+        switch (line) {
+            case ActionLine(ActionRecord r) -> {
+                w.write("{\"type\":\"action\",\"action\":");
+                writeString(r.type(), w);
+                w.write(",\"path\":");
+                writeString(r.relPath().toString(), w);
+                w.write(r.succeeded() ? ",\"status\":\"OK\"" : ",\"status\":\"ERROR\"");
+                w.write(",\"bytes\":");
+                w.write(Long.toString(r.byteCount()));
+                w.write(",\"micros\":");
+                w.write(Long.toString(TimeUnit.NANOSECONDS.toMicros(r.durationNanos())));
+                if (r.error() != null) {
+                    w.write(",\"error\":");
+                    writeString(r.error(), w);
+                }
+                w.write('}');
+            }
+            case SummaryLine(Map<String, Object> values) -> {
+                w.write("{\"type\":\"summary\"");
+                for (Map.Entry<String, Object> entry : values.entrySet()) {
+                    w.write(',');
+                    writeString(entry.getKey(), w);
+                    w.write(':');
+                    writeValue(entry.getValue(), w);
+                }
+                w.write('}');
+            }
+        }
+        w.write('\n');
+    }
+
+    private static void writeValue(/* nullable */ Object value, Writer w) throws IOException {
+        if (value == null) {
+            w.write("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            w.write(value.toString());
+        } else if (value instanceof Map<?, ?> map) {
+            w.write('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!first)
+                    w.write(',');
+                first = false;
+                writeString(String.valueOf(entry.getKey()), w);
+                w.write(':');
+                writeValue(entry.getValue(), w);
+            }
+            w.write('}');
+        } else {
+            writeString(value.toString(), w);
+        }
+    }
+
+    static void writeString(String s, Writer w) throws IOException {
+        w.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> w.write("\\\"");
+                case '\\' -> w.write("\\\\");
+                case '\n' -> w.write("\\n");
+                case '\r' -> w.write("\\r");
+                case '\t' -> w.write("\\t");
+                default -> {
+                    if (c < 0x20)
+                        w.write("\\u%04x".formatted((int) c));
+                    else
+                        w.write(c);
+                }
+            }
+        }
+        w.write('"');
+    }
+
+}
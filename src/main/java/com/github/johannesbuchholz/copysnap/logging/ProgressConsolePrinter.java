@@ -20,12 +20,12 @@ public class ProgressConsolePrinter {
     /**
      * PREFIX [#########################---------------------------------------------------------------------------]  64/250 ( 26%)
      */
-    public void update(int completed, int total) {
+    public synchronized void update(int completed, int total) {
         double percentage = (double)completed/total * 100;
         OUT.printf(computeFormatString(completed, total), prefix, "#".repeat((int) percentage), "-".repeat(100 - (int) percentage), completed, total, percentage);
     }
 
-    public void newLine() {
+    public synchronized void newLine() {
         OUT.println();
     }
 }
@@ -0,0 +1,58 @@
+package com.github.johannesbuchholz.copysnap.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets of powers of two nanoseconds. Bucket {@code i} counts durations {@code d} with
+ * {@code 2^(i-1) <= d < 2^i}, bucket 0 counts durations of zero.
+ * <p>
+ * Thread safe and lock free.
+ * </p>
+ */
+public class LatencyHistogram {
+
+    static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sumNanos.add(value);
+        maxNanos.accumulateAndGet(value, Math::max);
+    }
+
+    static int bucketIndex(long nanos) {
+        return Long.SIZE - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * @return The exclusive upper bound of the durations counted in the specified bucket.
+     */
+    static long upperBoundNanos(int bucketIndex) {
+        return bucketIndex >= Long.SIZE - 1 ? Long.MAX_VALUE : 1L << bucketIndex;
+    }
+
+    long bucketCount(int bucketIndex) {
+        return buckets.get(bucketIndex);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sumNanos() {
+        return sumNanos.sum();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+}
@@ -0,0 +1,378 @@
+package com.github.johannesbuchholz.copysnap.metrics;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.service.diffing.ForwardingFileSystemAccessor;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delegates to another accessor and records latencies and transferred bytes of all operations.
+ * <p>
+ * Directory walks do not stat files one by one. Instead, the time the walk spends between two visited entries, without
+ * the time spent by the visitor itself, is recorded as the latency of the {@code walk} operation.
+ * </p>
+ * Thread safe.
+ */
+public class MeasuringFileSystemAccessor extends ForwardingFileSystemAccessor {
+
+    private final Metrics metrics;
+    private final LongAdder bytesRead;
+    private final LongAdder bytesWritten;
+
+    public MeasuringFileSystemAccessor(FileSystemAccessor delegate, Metrics metrics) {
+        super(delegate);
+        this.metrics = metrics;
+        this.bytesRead = metrics.counter("bytes_read_total");
+        this.bytesWritten = metrics.counter("bytes_written_total");
+    }
+
+    @Override
+    public Instant getLastModifiedTime(Path p) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getLastModifiedTime(p);
+        } finally {
+            metrics.operation("stat").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public BasicFileAttributes readAttributes(Path p) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.readAttributes(p);
+        } finally {
+            metrics.operation("stat").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Optional<String> readUserAttribute(Path p, String name) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.readUserAttribute(p, name);
+        } finally {
+            metrics.operation("xattr").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void writeUserAttribute(Path p, String name, String value) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.writeUserAttribute(p, name, value);
+        } finally {
+            metrics.operation("xattr").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean areChecksumsEqual(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.areChecksumsEqual(expectedChecksum, p);
+        } finally {
+            metrics.operation("hash").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean areChecksumsEqualUncached(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.areChecksumsEqualUncached(expectedChecksum, p);
+        } finally {
+            metrics.operation("hash").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean hasSameTail(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.hasSameTail(expectedChecksum, p);
+        } finally {
+            metrics.operation("hash").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public OutputStream createNewOutputStream(Path path) throws IOException {
+        long start = System.nanoTime();
+        OutputStream os;
+        try {
+            os = delegate.createNewOutputStream(path);
+        } finally {
+            metrics.operation("create").record(System.nanoTime() - start);
+        }
+        return measuring(os);
+    }
+
+    @Override
+    public OutputStream createNewOutputStream(Path path, long expectedSize) throws IOException {
+        long start = System.nanoTime();
+        OutputStream os;
+        try {
+            os = delegate.createNewOutputStream(path, expectedSize);
+        } finally {
+            metrics.operation("create").record(System.nanoTime() - start);
+        }
+        return measuring(os);
+    }
+
+    private OutputStream measuring(OutputStream os) {
+        return new FilterOutputStream(os) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesWritten.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesWritten.add(len);
+            }
+        };
+    }
+
+    @Override
+    public InputStream createNewInputStream(Path path) throws IOException {
+        long start = System.nanoTime();
+        InputStream is;
+        try {
+            is = delegate.createNewInputStream(path);
+        } finally {
+            metrics.operation("open").record(System.nanoTime() - start);
+        }
+        return measuring(is);
+    }
+
+    @Override
+    public InputStream createNewInputStream(Path path, long expectedSize) throws IOException {
+        long start = System.nanoTime();
+        InputStream is;
+        try {
+            is = delegate.createNewInputStream(path, expectedSize);
+        } finally {
+            metrics.operation("open").record(System.nanoTime() - start);
+        }
+        return measuring(is);
+    }
+
+    private InputStream measuring(InputStream is) {
+        return new FilterInputStream(is) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b > -1)
+                    bytesRead.increment();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int readCount = super.read(b, off, len);
+                if (readCount > 0)
+                    bytesRead.add(readCount);
+                return readCount;
+            }
+        };
+    }
+
+    @Override
+    public int read(Path path, byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        try {
+            int readCount = delegate.read(path, buffer, offset, length);
+            bytesRead.add(readCount);
+            return readCount;
+        } finally {
+            metrics.operation("read").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void write(Path path, byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.write(path, buffer, offset, length);
+            bytesWritten.add(length);
+        } finally {
+            metrics.operation("write").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void createDirectories(Path path) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.createDirectories(path);
+        } finally {
+            metrics.operation("mkdir").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void visitFiles(Path root, FileVisitor<Path> visitor) throws IOException {
+        delegate.visitFiles(root, new MeasuringFileVisitor(visitor));
+    }
+
+    @Override
+    public void visitFiles(Path root, FileVisitor<Path> visitor, boolean followLinks) throws IOException {
+        delegate.visitFiles(root, new MeasuringFileVisitor(visitor), followLinks);
+    }
+
+    @Override
+    public void createSymbolicLink(Path absDestination, Path absSource) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.createSymbolicLink(absDestination, absSource);
+        } finally {
+            metrics.operation("symlink").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void createLink(Path absDestination, Path absExisting) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.createLink(absDestination, absExisting);
+        } finally {
+            metrics.operation("hardlink").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Path toRealPath(Path p) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.toRealPath(p);
+        } finally {
+            metrics.operation("realpath").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Path readSymbolicLink(Path link) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.readSymbolicLink(link);
+        } finally {
+            metrics.operation("readlink").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void moveAtomically(Path source, Path target) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.moveAtomically(source, target);
+        } finally {
+            metrics.operation("rename").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void deleteIfExists(Path path) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.deleteIfExists(path);
+        } finally {
+            metrics.operation("delete").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public long transfer(Path absSource, Path absDestination) throws IOException {
+        long start = System.nanoTime();
+        try {
+            long transferredByteCount = delegate.transfer(absSource, absDestination);
+            bytesRead.add(transferredByteCount);
+            bytesWritten.add(transferredByteCount);
+            return transferredByteCount;
+        } finally {
+            metrics.operation("transfer").record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void setLastModifiedTime(Path p, Instant lastModified) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.setLastModifiedTime(p, lastModified);
+        } finally {
+            metrics.operation("touch").record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Not thread safe, as walks are performed on a single thread.
+     */
+    private class MeasuringFileVisitor implements FileVisitor<Path> {
+
+        private final FileVisitor<Path> visitor;
+        private final LatencyHistogram walkHistogram = metrics.operation("walk");
+        private final LongAdder visitedFiles = metrics.counter("files_visited_total");
+        private final LongAdder visitedDirectories = metrics.counter("directories_visited_total");
+        private long lastReturnNanos = System.nanoTime();
+
+        private MeasuringFileVisitor(FileVisitor<Path> visitor) {
+            this.visitor = visitor;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+            walkHistogram.record(System.nanoTime() - lastReturnNanos);
+            visitedDirectories.increment();
+            try {
+                return visitor.preVisitDirectory(dir, attrs);
+            } finally {
+                lastReturnNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            walkHistogram.record(System.nanoTime() - lastReturnNanos);
+            visitedFiles.increment();
+            try {
+                return visitor.visitFile(file, attrs);
+            } finally {
+                lastReturnNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+            try {
+                return visitor.visitFileFailed(file, exc);
+            } finally {
+                lastReturnNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+            try {
+                return visitor.postVisitDirectory(dir, exc);
+            } finally {
+                lastReturnNanos = System.nanoTime();
+            }
+        }
+
+    }
+
+}
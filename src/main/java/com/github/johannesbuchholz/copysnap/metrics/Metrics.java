@@ -0,0 +1,155 @@
+package com.github.johannesbuchholz.copysnap.metrics;
+
+import com.github.johannesbuchholz.copysnap.logging.ActionRecorder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects performance data of copysnap tasks:
+ * <ul>
+ *     <li>durations of task phases like walking the source directory or copying files,</li>
+ *     <li>latency histograms of single file system operations and file actions,</li>
+ *     <li>counters like read and written bytes and</li>
+ *     <li>gauges like the maximum depth of queues.</li>
+ * </ul>
+ * Metrics are exported in the Prometheus text format. Thread safe.
+ */
+public class Metrics implements ActionRecorder {
+
+    public static final String FILE_NAME = "metrics.prom";
+
+    private static final String PREFIX = "copysnap_";
+    // smallest and largest exported histogram bucket: about 1 µs to 69 s
+    private static final int MIN_EXPORTED_BUCKET = 10;
+    private static final int MAX_EXPORTED_BUCKET = 36;
+
+    private final Map<String, Long> phaseNanos = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> operationHistograms = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> actionHistograms = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, AtomicLong> gauges = new ConcurrentSkipListMap<>();
+
+    /**
+     * Starts measuring a phase which ends when {@link Phase#end()} is called on the returned phase.
+     */
+    public Phase startPhase(String name) {
+        return new Phase(name, System.nanoTime());
+    }
+
+    public void recordPhase(String name, Duration duration) {
+        phaseNanos.merge(name, duration.toNanos(), Long::sum);
+    }
+
+    public Duration getPhase(String name) {
+        return Duration.ofNanos(phaseNanos.getOrDefault(name, 0L));
+    }
+
+    /**
+     * @param operation The name of a single file system operation, like {@code stat}.
+     */
+    public LatencyHistogram operation(String operation) {
+        return operationHistograms.computeIfAbsent(operation, o -> new LatencyHistogram());
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public void setGauge(String name, long value) {
+        gauges.computeIfAbsent(name, n -> new AtomicLong()).set(value);
+    }
+
+    /**
+     * Sets the gauge to the given value if it is larger than the current value.
+     */
+    public void observeMax(String name, long value) {
+        gauges.computeIfAbsent(name, n -> new AtomicLong()).accumulateAndGet(value, Math::max);
+    }
+
+    @Override
+    public void record(ActionRecord actionRecord) {
+        actionHistograms.computeIfAbsent(actionRecord.type(), t -> new LatencyHistogram()).record(actionRecord.durationNanos());
+        counter(actionRecord.succeeded() ? "actions_succeeded_total" : "actions_failed_total").increment();
+    }
+
+    public void writePrometheus(Writer w) throws IOException {
+        writeType(w, "phase_duration_seconds", "gauge", "Duration of task phases.");
+        for (Map.Entry<String, Long> entry : phaseNanos.entrySet())
+            writeSample(w, "phase_duration_seconds", "phase", entry.getKey(), seconds(entry.getValue()));
+
+        writeType(w, "file_operation_seconds", "histogram", "Latency of single file system operations.");
+        for (Map.Entry<String, LatencyHistogram> entry : operationHistograms.entrySet())
+            writeHistogram(w, "file_operation_seconds", "operation", entry.getKey(), entry.getValue());
+
+        writeType(w, "action_seconds", "histogram", "Latency of file actions like copying or linking a file.");
+        for (Map.Entry<String, LatencyHistogram> entry : actionHistograms.entrySet())
+            writeHistogram(w, "action_seconds", "type", entry.getKey(), entry.getValue());
+
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            writeType(w, entry.getKey(), "counter", null);
+            writeSample(w, entry.getKey(), null, null, Long.toString(entry.getValue().sum()));
+        }
+        for (Map.Entry<String, AtomicLong> entry : gauges.entrySet()) {
+            writeType(w, entry.getKey(), "gauge", null);
+            writeSample(w, entry.getKey(), null, null, Long.toString(entry.getValue().get()));
+        }
+    }
+
+    private static void writeHistogram(Writer w, String name, String labelName, String labelValue, LatencyHistogram histogram) throws IOException {
+        long cumulativeCount = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            cumulativeCount += histogram.bucketCount(i);
+            if (i >= MIN_EXPORTED_BUCKET && i <= MAX_EXPORTED_BUCKET) {
+                String le = seconds(LatencyHistogram.upperBoundNanos(i));
+                w.write("%s%s_bucket{%s=\"%s\",le=\"%s\"} %d\n".formatted(PREFIX, name, labelName, labelValue, le, cumulativeCount));
+            }
+        }
+        w.write("%s%s_bucket{%s=\"%s\",le=\"+Inf\"} %d\n".formatted(PREFIX, name, labelName, labelValue, histogram.count()));
+        w.write("%s%s_sum{%s=\"%s\"} %s\n".formatted(PREFIX, name, labelName, labelValue, seconds(histogram.sumNanos())));
+        w.write("%s%s_count{%s=\"%s\"} %d\n".formatted(PREFIX, name, labelName, labelValue, histogram.count()));
+    }
+
+    private static void writeType(Writer w, String name, String type, /* nullable */ String help) throws IOException {
+        if (help != null)
+            w.write("# HELP %s%s %s\n".formatted(PREFIX, name, help));
+        w.write("# TYPE %s%s %s\n".formatted(PREFIX, name, type));
+    }
+
+    private static void writeSample(Writer w, String name, /* nullable */ String labelName, String labelValue, String value) throws IOException {
+        if (labelName == null)
+            w.write("%s%s %s\n".formatted(PREFIX, name, value));
+        else
+            w.write("%s%s{%s=\"%s\"} %s\n".formatted(PREFIX, name, labelName, labelValue, value));
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    public class Phase {
+
+        private final String name;
+        private final long startNanos;
+
+        private Phase(String name, long startNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Adds the time since the start of this phase to the duration of all phases of the same name.
+         */
+        public void end() {
+            recordPhase(name, Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+
+    }
+
+}
@@ -1,32 +1,49 @@
 package com.github.johannesbuchholz.copysnap.model;
 
 import com.github.johannesbuchholz.copysnap.logging.*;
-import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.metrics.MeasuringFileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.metrics.Metrics;
 import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import com.github.johannesbuchholz.copysnap.service.diffing.ActionJournal;
+import com.github.johannesbuchholz.copysnap.service.diffing.ChangeDetectionPolicy;
+import com.github.johannesbuchholz.copysnap.service.diffing.ChangeDetectionRules;
+import com.github.johannesbuchholz.copysnap.service.diffing.ChecksumCachingFileSystemAccessor;
 import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
 import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemDiff;
 import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemDiffService;
-import com.github.johannesbuchholz.copysnap.service.diffing.copy.CopyAction;
-import com.github.johannesbuchholz.copysnap.service.diffing.copy.PlainCopyAction;
+import com.github.johannesbuchholz.copysnap.service.flatten.FlattenService;
+import com.github.johannesbuchholz.copysnap.service.recompute.RecomputeService;
+import com.github.johannesbuchholz.copysnap.service.restore.RestoreService;
+import com.github.johannesbuchholz.copysnap.service.restore.SolidifyService;
+import com.github.johannesbuchholz.copysnap.service.verify.VerifyService;
+import com.github.johannesbuchholz.copysnap.util.RateLimiter;
 import com.github.johannesbuchholz.copysnap.util.TimeUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
-import java.nio.file.FileVisitOption;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class Context extends AbstractLogProducer {
 
+    // parameters of a snapshot recorded in its journal
+    private static final String JOURNAL_CREATED_KEY = "created";
+    private static final String JOURNAL_PLAIN_COPIES_ONLY_KEY = "plainCopiesOnly";
+    private static final String JOURNAL_PARANOID_KEY = "paranoid";
+
     /*
     We separated the actual file system state from the context and snapshot properties as loading the potentially large
     file system state might be too resource consuming and even unwanted for certain operations.
@@ -34,22 +51,84 @@ public class Context extends AbstractLogProducer {
     private final ContextProperties properties;
     // nullable
     private final FileSystemState latest;
+    // metrics of the operations performed since the latest snapshot has been loaded
+    private final Metrics metrics;
 
     Context(ContextProperties properties, FileSystemState latest) {
         this(properties, latest, new HashSet<>());
     }
 
     Context(ContextProperties properties, FileSystemState latest, Set<LogConsumer> logConsumers) {
+        this(properties, latest, logConsumers, new Metrics());
+    }
+
+    private Context(ContextProperties properties, FileSystemState latest, Set<LogConsumer> logConsumers, Metrics metrics) {
         super(logConsumers);
         this.properties = properties;
         this.latest = latest;
+        this.metrics = metrics;
     }
 
     public Context createSnapshot(boolean createPlainCopiesOnly) {
+        return createSnapshot(createPlainCopiesOnly, false);
+    }
+
+    /**
+     * @param paranoid If true, all files are checked by {@link ChangeDetectionPolicy#PARANOID} instead of the change
+     *                 detection rules of this context.
+     */
+    public Context createSnapshot(boolean createPlainCopiesOnly, boolean paranoid) {
         if (latest == null)
             throw new IllegalStateException("Can not create snapshot without a loaded latest file system state.");
         SnapshotName snapshotName = SnapshotName.getNew();
-        ZonedDateTime start = snapshotName.created();
+        Path inProgressDir = properties.snapshotsHomeDir().resolve(snapshotName.asString() + Contexts.IN_PROGRESS_SNAPSHOT_DIR_SUFFIX);
+        ActionJournal journal;
+        try {
+            Files.createDirectories(inProgressDir);
+            journal = ActionJournal.create(inProgressDir.resolve(ActionJournal.FILE_NAME), Map.of(
+                    JOURNAL_CREATED_KEY, snapshotName.created().toString(),
+                    JOURNAL_PLAIN_COPIES_ONLY_KEY, Boolean.toString(createPlainCopiesOnly),
+                    JOURNAL_PARANOID_KEY, Boolean.toString(paranoid)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return createSnapshot(snapshotName, inProgressDir, journal, createPlainCopiesOnly, paranoid);
+    }
+
+    /**
+     * Continues the latest unfinished snapshot, for example after the process has been killed. Actions recorded as
+     * completed in the journal of that snapshot are not performed again, all other files are compared and copied as
+     * usual. Reports of the interrupted run are replaced.
+     */
+    public Context resumeSnapshot() {
+        if (latest == null)
+            throw new IllegalStateException("Can not resume snapshot without a loaded latest file system state.");
+        Optional<Path> inProgressDirOpt = getInProgressSnapshotDir();
+        if (inProgressDirOpt.isEmpty()) {
+            log(Level.INFO, "No unfinished snapshot to resume.");
+            return this;
+        }
+        Path inProgressDir = inProgressDirOpt.get();
+        ActionJournal journal;
+        try {
+            journal = ActionJournal.resume(inProgressDir.resolve(ActionJournal.FILE_NAME));
+            // the state is written again from the replayed and the newly performed actions
+            Files.deleteIfExists(inProgressDir.resolve(Contexts.SNAPSHOT_FILE_STATE_FILE_NAME));
+        } catch (IOException e) {
+            throw new ContextIOException("Could not resume snapshot %s: %s".formatted(inProgressDir, e.getMessage()), e);
+        }
+        Map<String, String> parameters = journal.getParameters();
+        SnapshotName snapshotName = new SnapshotName(ZonedDateTime.parse(parameters.get(JOURNAL_CREATED_KEY)), null);
+        log(Level.INFO, "Resuming snapshot %s with %s completed actions".formatted(inProgressDir, journal.getCompletedCount()));
+        return createSnapshot(snapshotName, inProgressDir, journal,
+                Boolean.parseBoolean(parameters.get(JOURNAL_PLAIN_COPIES_ONLY_KEY)), Boolean.parseBoolean(parameters.get(JOURNAL_PARANOID_KEY)));
+    }
+
+    /**
+     * Writes the snapshot into the in-progress directory and renames that directory once the snapshot is complete.
+     */
+    private Context createSnapshot(SnapshotName snapshotName, Path inProgressDir, ActionJournal journal, boolean createPlainCopiesOnly, boolean paranoid) {
+        ZonedDateTime start = ZonedDateTime.now();
         Path newSnapshotDir = properties.snapshotsHomeDir().resolve(snapshotName.asString());
 
         Path latestRootLocation = null;
@@ -58,44 +137,95 @@ public class Context extends AbstractLogProducer {
             latestRootLocation = properties.snapshotProperties().rootDirLocation();
         }
 
-        FileSystemAccessor fsa = FileSystemAccessor.newDefaultAccessor();
-        try {
-            fsa.createDirectories(newSnapshotDir);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        FileSystemAccessor fsa = newMeasuredSourceAccessor();
 
         FileSystemState newState;
-        try (FilePrintingLogConsumer report = FilePrintingLogConsumer.at(newSnapshotDir.resolve("report.txt"))) {
+        try (
+                journal;
+                FilePrintingLogConsumer report = FilePrintingLogConsumer.at(inProgressDir.resolve("report.txt"));
+                JsonLinesReport structuredReport = JsonLinesReport.at(inProgressDir.resolve(JsonLinesReport.FILE_NAME), "snapshot", start)
+        ) {
             addConsumer(report);
-            logTaskStart(Level.INFO, "Creating new snapshot", start, "at", newSnapshotDir, "createPlainCopiesOnly", createPlainCopiesOnly);
+            logTaskStart(Level.INFO, "Creating new snapshot", start, "at", newSnapshotDir, "createPlainCopiesOnly", createPlainCopiesOnly, "paranoid", paranoid);
 
             FileSystemDiffService fileSystemDiffService = new FileSystemDiffService(fsa);
             logConsumers.forEach(fileSystemDiffService::addConsumer);
-            FileSystemDiff fileSystemDiff = fileSystemDiffService.computeDiff(properties.source(), latest, properties.ignorePathGlobPatterns());
+            long diffStart = System.nanoTime();
+            ChangeDetectionRules changeDetectionRules = paranoid ? ChangeDetectionRules.of(ChangeDetectionPolicy.PARANOID) : properties.changeDetectionRules();
+            FileSystemDiff fileSystemDiff = fileSystemDiffService.computeDiff(
+                    properties.source(), latest, properties.ignorePathGlobPatterns(), properties.followLinks(), changeDetectionRules);
+            // changed files are hashed in the background while walking, hence the walk includes waiting for the last
+            // verifications and the hash phase is the time spent hashing summed over all threads
+            metrics.recordPhase("walk", Duration.ofNanos(System.nanoTime() - diffStart));
+            metrics.recordPhase("hash", Duration.ofNanos(metrics.operation("hash").sumNanos()));
 
             FileSystemDiff.Actions copyActions;
             if (createPlainCopiesOnly) {
-                copyActions = fileSystemDiff.plainCopiesOnly(newSnapshotDir);
+                copyActions = fileSystemDiff.plainCopiesOnly(inProgressDir);
             } else {
-                copyActions = fileSystemDiff.computeCopyActions(newSnapshotDir, latestRootLocation);
+                copyActions = fileSystemDiff.computeCopyActions(inProgressDir, latestRootLocation);
             }
             logConsumers.forEach(copyActions::addConsumer);
-            newState = copyActions.apply(fsa);
+            Metrics.Phase copyPhase = metrics.startPhase("copy");
+            try {
+                newState = copyActions.apply(fsa, structuredReport.andThen(metrics), journal);
+            } finally {
+                copyPhase.end();
+            }
+            Metrics.Phase stateWritePhase = metrics.startPhase("state_write");
+            try {
+                writeSnapshotState(inProgressDir, newState, latestRootLocation, latest);
+            } finally {
+                stateWritePhase.end();
+            }
+
+            FileSystemDiff.Statistics diffStatistics = fileSystemDiff.statistics();
+            structuredReport.putSummaryValue("newFiles", diffStatistics.newCount());
+            structuredReport.putSummaryValue("changedFiles", diffStatistics.changedCount());
+            structuredReport.putSummaryValue("removedFiles", diffStatistics.removedCount());
+            structuredReport.putSummaryValue("unchangedFiles", diffStatistics.unchangedCount());
+            structuredReport.putSummaryValue("ignoredFiles", diffStatistics.ignoredCount());
+            structuredReport.putSummaryValue("diffErrors", diffStatistics.errorCount());
+            structuredReport.putSummaryValue("fileCount", newState.fileCount());
+
+            Duration copyDuration = metrics.getPhase("copy");
+            metrics.setGauge("copy_files_per_second", perSecond(metrics.counter("actions_succeeded_total").sum(), copyDuration));
+            metrics.setGauge("copy_bytes_per_second", perSecond(metrics.counter("bytes_written_total").sum(), copyDuration));
+            metrics.observeMax("report_queue_max_depth", report.getMaxPendingCount());
+            metrics.observeMax("report_queue_max_depth", structuredReport.getMaxPendingCount());
+            writeMetrics(inProgressDir);
         } catch (IOException e) {
             String errorMsg = "Could not create snapshot: " + e.getMessage();
             log(Level.ERROR, errorMsg);
             logStacktrace(Level.ERROR, e);
             throw new ContextIOException(errorMsg, e);
         }
+        try {
+            // a snapshot directory without suffix is always complete, the journal stays until then to allow resuming
+            Files.move(inProgressDir, newSnapshotDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            String errorMsg = "Could not complete snapshot %s: %s".formatted(inProgressDir, e.getMessage());
+            log(Level.ERROR, errorMsg);
+            throw new ContextIOException(errorMsg, e);
+        }
+        try {
+            Files.delete(newSnapshotDir.resolve(ActionJournal.FILE_NAME));
+        } catch (IOException e) {
+            // the snapshot is complete anyway
+            log(Level.ERROR, "Could not delete journal of snapshot %s: %s".formatted(newSnapshotDir, e.getMessage()));
+        }
         ContextProperties updatedProperties = properties.withSnapshotProperties(
                 new ContextProperties.SnapshotProperties(newSnapshotDir, snapshotName.created(), newState.fileCount()));
 
         logTaskEnd(Level.INFO, "Done creating new snapshot", Duration.between(start, ZonedDateTime.now()));
-        return new Context(updatedProperties, newState, logConsumers);
+        return new Context(updatedProperties, newState, logConsumers, metrics);
     }
 
-    public Context solidify() {
+    /**
+     * Creates a new snapshot from the latest snapshot by replacing all symbolic links with the files they point to.
+     * @param hardLink If true, hard links the physical files instead of copying them where possible.
+     */
+    public Context solidify(boolean hardLink) {
         if (properties.snapshotProperties() == null) {
             log(Level.INFO, "Unable to solidify context: No latest snapshot available.");
             return this;
@@ -105,7 +235,7 @@ public class Context extends AbstractLogProducer {
         SnapshotName snapshotName = SnapshotName.getNew().withSuffix("s");
         Path newSnapshotDir = properties.snapshotsHomeDir().resolve(snapshotName.asString());
 
-        FileSystemAccessor fsa = FileSystemAccessor.newDefaultAccessor();
+        FileSystemAccessor fsa = new MeasuringFileSystemAccessor(FileSystemAccessor.newDefaultAccessor(), metrics);
         try {
             fsa.createDirectories(newSnapshotDir);
         } catch (IOException e) {
@@ -113,36 +243,38 @@ public class Context extends AbstractLogProducer {
         }
 
         ZonedDateTime start = snapshotName.created();
-        try (FilePrintingLogConsumer report = FilePrintingLogConsumer.at(newSnapshotDir.resolve("report.txt"))) {
+        try (
+                FilePrintingLogConsumer report = FilePrintingLogConsumer.at(newSnapshotDir.resolve("report.txt"));
+                JsonLinesReport structuredReport = JsonLinesReport.at(newSnapshotDir.resolve(JsonLinesReport.FILE_NAME), "solidify", start)
+        ) {
             addConsumer(report);
             logTaskStart(Level.INFO, "Solidifying snapshots", start, "at", newSnapshotDir, "source snapshot", latestSnapshotRootLocation);
 
-            List<PlainCopyAction> copyActions;
-            try (Stream<Path> files = Files.walk(latestSnapshotRootLocation.resolve(properties.source().retrieveName()), FileVisitOption.FOLLOW_LINKS)) {
-                copyActions = files
-                        .filter(Files::isRegularFile)
-                        .map(p -> new PlainCopyAction(
-                                latestSnapshotRootLocation,
-                                newSnapshotDir,
-                                latestSnapshotRootLocation.relativize(p)))
-                        .toList();
+            SolidifyService solidifyService = new SolidifyService(fsa);
+            logConsumers.forEach(solidifyService::addConsumer);
+            Metrics.Phase solidifyPhase = metrics.startPhase("solidify");
+            try {
+                solidifyService.solidify(latestSnapshotRootLocation, properties.source().retrieveName(), newSnapshotDir, hardLink, structuredReport.andThen(metrics));
+            } finally {
+                solidifyPhase.end();
             }
-            ProgressConsolePrinter progressConsolePrinter = new ProgressConsolePrinter("Copying files");
-            int performedCount = 0;
-            progressConsolePrinter.update(performedCount, copyActions.size());
-            for (CopyAction copyAction : copyActions) {
-                log(Level.DEBUG, "Apply %s".formatted(copyAction));
+
+            // solidified snapshots must not depend on older snapshots, hence we never write a delta here
+            FileSystemState solidifiedState = latest;
+            if (solidifiedState == null)
+                solidifiedState = Contexts.readSnapshotState(latestSnapshotRootLocation).orElse(null);
+            if (solidifiedState != null) {
+                Metrics.Phase stateWritePhase = metrics.startPhase("state_write");
                 try {
-                    // we do not store file states as we only copy already known files from existing snapshots
-                    copyAction.perform(fsa);
-                } catch (IOException e) {
-                    String errorMsg = "Could not apply copy action " + copyAction + ": " + e;
-                    log(Level.ERROR, errorMsg);
-                    logStacktrace(Level.DEBUG, e);
+                    writeSnapshotState(newSnapshotDir, solidifiedState, null, null);
+                } finally {
+                    stateWritePhase.end();
                 }
-                progressConsolePrinter.update(++performedCount, copyActions.size());
             }
-            progressConsolePrinter.newLine();
+
+            metrics.observeMax("report_queue_max_depth", report.getMaxPendingCount());
+            metrics.observeMax("report_queue_max_depth", structuredReport.getMaxPendingCount());
+            writeMetrics(newSnapshotDir);
         } catch (IOException e) {
             String errorMsg = "Could not solidify snapshots: " + e.getMessage();
             log(Level.ERROR, errorMsg);
@@ -156,7 +288,7 @@ public class Context extends AbstractLogProducer {
 
         logTaskEnd(Level.INFO, "Done solidifying snapshots", Duration.between(start, ZonedDateTime.now()));
         // latest fss does not change as we did not read any new files from the source directory.
-        return new Context(newContextProperties, latest, logConsumers);
+        return new Context(newContextProperties, latest, logConsumers, metrics);
     }
 
     public Context loadLatestSnapshot() {
@@ -164,9 +296,16 @@ public class Context extends AbstractLogProducer {
         ZonedDateTime start = ZonedDateTime.now();
         logTaskStart(Level.INFO, "Loading latest snapshot file system state", start, "from", latestSnapshotFile);
         if (!Files.isRegularFile(latestSnapshotFile)) {
+            Optional<FileSystemState> recordedStateOpt = readRecordedStateOfLatestSnapshot();
+            if (recordedStateOpt.isPresent()) {
+                log(Level.INFO, "Could not find latest snapshot at %s. Loaded state recorded in %s.".formatted(latestSnapshotFile, properties.snapshotProperties().rootDirLocation()));
+                logTaskEnd(Level.INFO, "Done loading latest snapshot file system state", Duration.between(start, ZonedDateTime.now()));
+                metrics.recordPhase("load", Duration.between(start, ZonedDateTime.now()));
+                return new Context(properties, recordedStateOpt.get(), logConsumers, metrics);
+            }
             log(Level.INFO, "Could not find latest snapshot at %s. Loading with empty file system state.".formatted(latestSnapshotFile));
             ContextProperties newProperties = properties.withSnapshotProperties(null);
-            return new Context(newProperties, FileSystemState.empty(), logConsumers);
+            return new Context(newProperties, FileSystemState.empty(), logConsumers, metrics);
         }
         FileSystemState fss;
         try (InputStream is = Files.newInputStream(latestSnapshotFile)) {
@@ -174,32 +313,223 @@ public class Context extends AbstractLogProducer {
         } catch (IOException e) {
             throw new ContextIOException("Could not read latest FileSystemState from %s: %s".formatted(latestSnapshotFile, e.getMessage()), e);
         }
-        logTaskEnd(Level.INFO, "Done loading latest snapshot file system state", Duration.between(start, ZonedDateTime.now()));
-        return new Context(properties, fss, logConsumers);
+        Duration loadDuration = Duration.between(start, ZonedDateTime.now());
+        metrics.recordPhase("load", loadDuration);
+        logTaskEnd(Level.INFO, "Done loading latest snapshot file system state", loadDuration);
+        return new Context(properties, fss, logConsumers, metrics);
+    }
+
+    private Optional<FileSystemState> readRecordedStateOfLatestSnapshot() {
+        if (properties.snapshotProperties() == null)
+            return Optional.empty();
+        Path latestSnapshotDir = properties.snapshotProperties().rootDirLocation();
+        try {
+            return Contexts.readSnapshotState(latestSnapshotDir);
+        } catch (IOException e) {
+            log(Level.ERROR, "Could not read recorded file system state of snapshot %s: %s".formatted(latestSnapshotDir, e.getMessage()));
+            logStacktrace(Level.DEBUG, e);
+            return Optional.empty();
+        }
+    }
+
+    private void writeSnapshotState(Path snapshotDir, FileSystemState state, Path previousSnapshotDir, FileSystemState previousState) {
+        try {
+            Contexts.writeSnapshotState(snapshotDir, state, previousSnapshotDir, previousState);
+        } catch (IOException e) {
+            // the state is still written as latest state, hence we do not fail the snapshot
+            log(Level.ERROR, "Could not write file system state to snapshot %s: %s".formatted(snapshotDir, e.getMessage()));
+            logStacktrace(Level.DEBUG, e);
+        }
+    }
+
+    private void writeMetrics(Path snapshotDir) {
+        Path metricsFile = snapshotDir.resolve(Metrics.FILE_NAME);
+        try (Writer writer = Files.newBufferedWriter(metricsFile)) {
+            metrics.writePrometheus(writer);
+        } catch (IOException e) {
+            // metrics are informational only, hence we do not fail the snapshot
+            log(Level.ERROR, "Could not write metrics to %s: %s".formatted(metricsFile, e.getMessage()));
+            logStacktrace(Level.DEBUG, e);
+        }
+    }
+
+    /**
+     * @return An accessor for reading files of the source, caching checksums and using direct I/O if configured.
+     */
+    private FileSystemAccessor newSourceAccessor() {
+        return withChecksumCache(FileSystemAccessor.newDefaultAccessor(properties.directIoMinSize()));
+    }
+
+    /**
+     * Like {@link #newSourceAccessor()} but records metrics. The cache wraps the measured accessor, so that its
+     * attribute accesses are measured and cache hits are not counted as hashes.
+     */
+    private FileSystemAccessor newMeasuredSourceAccessor() {
+        return withChecksumCache(new MeasuringFileSystemAccessor(FileSystemAccessor.newDefaultAccessor(properties.directIoMinSize()), metrics));
+    }
+
+    private FileSystemAccessor withChecksumCache(FileSystemAccessor fsa) {
+        return properties.checksumCache() ? new ChecksumCachingFileSystemAccessor(fsa) : fsa;
+    }
+
+    private static long perSecond(long count, Duration duration) {
+        long nanos = duration.toNanos();
+        return nanos == 0 ? 0 : Math.round(count * 1e9 / nanos);
     }
 
     /**
      * Intended to reproduce a file system state of an older snapshot or to repair a broken file system state.
+     * If the directory is the root of a snapshot with a recorded file system state, that state is used instead of
+     * rehashing every file.
      * @param sourceDir The directory to compute the new state from.
+     * @param rehash If true, always recomputes the state from the actual files.
      */
-    public Context recomputeFileSystemState(Path sourceDir) {
+    public Context recomputeFileSystemState(Path sourceDir, boolean rehash) {
         Root rootToComputeStateFrom = Root.from(sourceDir);
         ZonedDateTime start = ZonedDateTime.now();
+        if (!rehash) {
+            Optional<FileSystemState> recordedStateOpt;
+            try {
+                recordedStateOpt = Contexts.readSnapshotState(rootToComputeStateFrom.rootDirLocation());
+            } catch (IOException e) {
+                log(Level.ERROR, "Could not read recorded file system state, recomputing instead: " + e.getMessage());
+                logStacktrace(Level.DEBUG, e);
+                recordedStateOpt = Optional.empty();
+            }
+            if (recordedStateOpt.isPresent()) {
+                FileSystemState recordedState = recordedStateOpt.get();
+                log(Level.INFO, "Using file system state recorded in " + rootToComputeStateFrom.rootDirLocation());
+                ContextProperties updatedProperties = properties
+                        .withSnapshotProperties(new ContextProperties.SnapshotProperties(rootToComputeStateFrom.rootDirLocation(), ZonedDateTime.now(), recordedState.fileCount()));
+                return new Context(updatedProperties, recordedState, logConsumers, metrics);
+            }
+        }
         logTaskStart(Level.INFO, "Recomputing file system state", start, "from", rootToComputeStateFrom.pathToRootDir());
-        FileSystemState.Builder builder = FileSystemState.builder();
-        try (Stream<Path> files = Files.walk(rootToComputeStateFrom.pathToRootDir(), FileVisitOption.FOLLOW_LINKS)) {
-            files
-                    .filter(Files::isRegularFile)
-                    .map(absPath -> FileState.readFileState(rootToComputeStateFrom.rootDirLocation(), absPath))
-                    .forEach(builder::add);
+        RecomputeService recomputeService = new RecomputeService(newSourceAccessor());
+        logConsumers.forEach(recomputeService::addConsumer);
+        RecomputeService.Result result;
+        try {
+            result = recomputeService.recompute(rootToComputeStateFrom);
         } catch (IOException e) {
             throw new ContextIOException("Could not iterate over directory contents at " + rootToComputeStateFrom.pathToRootDir() + ": " + e.getMessage(), e);
         }
-        FileSystemState newFss = builder.build();
+        if (!result.statistics().isComplete()) {
+            // an incomplete state would let the next snapshot copy the missing files again instead of linking them
+            String errorMsg = "Could not recompute file system state: %s files at %s could not be read".formatted(result.statistics().errorCount(), rootToComputeStateFrom.pathToRootDir());
+            log(Level.ERROR, errorMsg);
+            throw new ContextIOException(errorMsg, new IOException(result.statistics().toString()));
+        }
+        FileSystemState newFss = result.state();
         ContextProperties updatedProperties = properties
                 .withSnapshotProperties(new ContextProperties.SnapshotProperties(rootToComputeStateFrom.rootDirLocation(), ZonedDateTime.now(), newFss.fileCount()));
         logTaskEnd(Level.INFO, "Done recomputing file system state", Duration.between(start, ZonedDateTime.now()));
-        return new Context(updatedProperties, newFss, logConsumers);
+        return new Context(updatedProperties, newFss, logConsumers, metrics);
+    }
+
+    /**
+     * Restores files of a snapshot into the target directory. Restored files are verified against the file system
+     * state recorded in the snapshot or, if unavailable and the snapshot is the latest snapshot, the latest state.
+     *
+     * @param snapshotDir The snapshot directory to restore files from.
+     * @param relSubPath  The path relative to the snapshot directory to restore.
+     * @param targetDir   The directory to restore files into.
+     */
+    public void restore(Path snapshotDir, Path relSubPath, Path targetDir) {
+        FileSystemState expectedStates;
+        try {
+            expectedStates = Contexts.readSnapshotState(snapshotDir).orElse(null);
+        } catch (IOException e) {
+            log(Level.ERROR, "Could not read recorded file system state of snapshot %s: %s".formatted(snapshotDir, e.getMessage()));
+            logStacktrace(Level.DEBUG, e);
+            expectedStates = null;
+        }
+        if (expectedStates == null && latest != null && properties.snapshotProperties() != null && properties.snapshotProperties().rootDirLocation().equals(snapshotDir)) {
+            expectedStates = latest;
+        }
+        if (expectedStates == null) {
+            log(Level.INFO, "No recorded file system state available for %s. Restored files are not verified.".formatted(snapshotDir));
+            expectedStates = FileSystemState.empty();
+        }
+        RestoreService restoreService = new RestoreService(FileSystemAccessor.newDefaultAccessor());
+        logConsumers.forEach(restoreService::addConsumer);
+        try {
+            restoreService.restore(snapshotDir, relSubPath, targetDir, expectedStates);
+        } catch (IOException e) {
+            String errorMsg = "Could not restore snapshot: " + e.getMessage();
+            log(Level.ERROR, errorMsg);
+            logStacktrace(Level.ERROR, e);
+            throw new ContextIOException(errorMsg, e);
+        }
+    }
+
+    /**
+     * Verifies the files of the specified snapshots against the file system states recorded in these snapshots.
+     *
+     * @return true if all files of all snapshots are intact.
+     */
+    public boolean verify(List<Path> snapshotDirs, RateLimiter rateLimiter) {
+        VerifyService verifyService = new VerifyService(FileSystemAccessor.newDefaultAccessor(), rateLimiter);
+        logConsumers.forEach(verifyService::addConsumer);
+        boolean allClean = true;
+        for (Path snapshotDir : snapshotDirs) {
+            try {
+                Optional<FileSystemState> recordedStateOpt = Contexts.readSnapshotState(snapshotDir);
+                if (recordedStateOpt.isEmpty()) {
+                    log(Level.INFO, "Skipping %s: No recorded file system state available.".formatted(snapshotDir));
+                    continue;
+                }
+                allClean &= verifyService.verify(snapshotDir, recordedStateOpt.get()).isClean();
+            } catch (IOException e) {
+                allClean = false;
+                log(Level.ERROR, "Could not verify snapshot %s: %s".formatted(snapshotDir, e.getMessage()));
+                logStacktrace(Level.DEBUG, e);
+            }
+        }
+        return allClean;
+    }
+
+    /**
+     * Replaces chains of symbolic links in the given snapshots by direct links to the physical files.
+     * @return true if all links could be resolved and flattened.
+     */
+    public boolean flatten(List<Path> snapshotDirs) {
+        FlattenService flattenService = new FlattenService(FileSystemAccessor.newDefaultAccessor());
+        logConsumers.forEach(flattenService::addConsumer);
+        boolean allFlattened = true;
+        for (Path snapshotDir : snapshotDirs) {
+            try {
+                FlattenService.Statistics statistics = flattenService.flatten(snapshotDir);
+                allFlattened &= statistics.danglingLinkCount() == 0 && statistics.errorCount() == 0;
+            } catch (IOException e) {
+                allFlattened = false;
+                log(Level.ERROR, "Could not flatten snapshot %s: %s".formatted(snapshotDir, e.getMessage()));
+                logStacktrace(Level.DEBUG, e);
+            }
+        }
+        return allFlattened;
+    }
+
+    public List<Path> getSnapshotDirs() {
+        try {
+            return Contexts.listSnapshotDirs(properties.snapshotsHomeDir());
+        } catch (IOException e) {
+            throw new ContextIOException("Could not list snapshots in %s: %s".formatted(properties.snapshotsHomeDir(), e.getMessage()), e);
+        }
+    }
+
+    /**
+     * @return The directory of the latest snapshot that has been interrupted before completion.
+     */
+    public Optional<Path> getInProgressSnapshotDir() {
+        try {
+            return Contexts.findInProgressSnapshotDir(properties.snapshotsHomeDir());
+        } catch (IOException e) {
+            throw new ContextIOException("Could not list snapshots in %s: %s".formatted(properties.snapshotsHomeDir(), e.getMessage()), e);
+        }
+    }
+
+    public Optional<Path> getLatestSnapshotDir() {
+        return Optional.ofNullable(properties.snapshotProperties()).map(ContextProperties.SnapshotProperties::rootDirLocation);
     }
 
     FileSystemState getLatestFileSystemState() {
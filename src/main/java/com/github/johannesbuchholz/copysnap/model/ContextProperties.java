@@ -1,5 +1,6 @@
 package com.github.johannesbuchholz.copysnap.model;
 
+import com.github.johannesbuchholz.copysnap.service.diffing.ChangeDetectionRules;
 import com.github.johannesbuchholz.copysnap.util.TimeUtils;
 
 import java.nio.file.Path;
@@ -14,6 +15,10 @@ record ContextProperties(
         Path snapshotsHomeDir,
         ZonedDateTime created,
         List<String> ignorePathGlobPatterns,
+        boolean followLinks,
+        ChangeDetectionRules changeDetectionRules,
+        boolean checksumCache,
+        long directIoMinSize,
         /* nullable */
         SnapshotProperties snapshotProperties
 ) {
@@ -23,9 +28,17 @@ record ContextProperties(
     private static final String CREATED_KEY = "created";
     private static final String IGNORE_KEY = "ignore";
     private static final String IGNORE_PATTERN_DELIMITER = ":";
+    private static final String FOLLOW_LINKS_KEY = "followLinks";
+    private static final String CHANGE_DETECTION_KEY = "changeDetection";
+    private static final String CHECKSUM_CACHE_KEY = "checksumCache";
+    private static final String DIRECT_IO_MIN_SIZE_KEY = "directIoMinSize";
 
     static ContextProperties getNew(Path sourceDir, Path snapshotsHomeDir, String... ignorePatterns) {
-        return new ContextProperties(Root.from(sourceDir), snapshotsHomeDir, ZonedDateTime.now(), List.of(ignorePatterns), null);
+        return getNew(sourceDir, snapshotsHomeDir, true, ChangeDetectionRules.DEFAULT, false, -1, ignorePatterns);
+    }
+
+    static ContextProperties getNew(Path sourceDir, Path snapshotsHomeDir, boolean followLinks, ChangeDetectionRules changeDetectionRules, boolean checksumCache, long directIoMinSize, String... ignorePatterns) {
+        return new ContextProperties(Root.from(sourceDir), snapshotsHomeDir, ZonedDateTime.now(), List.of(ignorePatterns), followLinks, changeDetectionRules, checksumCache, directIoMinSize, null);
     }
 
     static ContextProperties fromProperties(Properties properties) {
@@ -42,8 +55,21 @@ record ContextProperties(
         List<String> excludedSubPaths = Optional.ofNullable(properties.getProperty(IGNORE_KEY))
                 .map(excludedPathString -> Arrays.stream(excludedPathString.split(IGNORE_PATTERN_DELIMITER)).toList())
                 .orElse(List.of());
+        // contexts created before links could be preserved follow them
+        boolean followLinks = Optional.ofNullable(properties.getProperty(FOLLOW_LINKS_KEY))
+                .map(Boolean::parseBoolean)
+                .orElse(true);
+        ChangeDetectionRules changeDetectionRules = Optional.ofNullable(properties.getProperty(CHANGE_DETECTION_KEY))
+                .map(ChangeDetectionRules::parse)
+                .orElse(ChangeDetectionRules.DEFAULT);
+        boolean checksumCache = Optional.ofNullable(properties.getProperty(CHECKSUM_CACHE_KEY))
+                .map(Boolean::parseBoolean)
+                .orElse(false);
+        long directIoMinSize = Optional.ofNullable(properties.getProperty(DIRECT_IO_MIN_SIZE_KEY))
+                .map(Long::parseLong)
+                .orElse(-1L);
         SnapshotProperties snapshotProperties = SnapshotProperties.fromProperties(properties);
-        return new ContextProperties(source, snapshotsHomeDir, created, excludedSubPaths, snapshotProperties);
+        return new ContextProperties(source, snapshotsHomeDir, created, excludedSubPaths, followLinks, changeDetectionRules, checksumCache, directIoMinSize, snapshotProperties);
     }
 
     private static IllegalPropertiesException illegalPropertiesException(Properties properties, String key) {
@@ -56,6 +82,10 @@ record ContextProperties(
         properties.put(SNAPSHOTS_HOME_DIR_KEY, snapshotsHomeDir.toString());
         properties.put(CREATED_KEY, TimeUtils.asString(created));
         properties.put(IGNORE_KEY, String.join(IGNORE_PATTERN_DELIMITER, ignorePathGlobPatterns));
+        properties.put(FOLLOW_LINKS_KEY, String.valueOf(followLinks));
+        properties.put(CHANGE_DETECTION_KEY, changeDetectionRules.serialize());
+        properties.put(CHECKSUM_CACHE_KEY, String.valueOf(checksumCache));
+        properties.put(DIRECT_IO_MIN_SIZE_KEY, String.valueOf(directIoMinSize));
         if(snapshotProperties != null) {
             properties.putAll(snapshotProperties.toProperties());
         }
@@ -68,14 +98,22 @@ record ContextProperties(
                 home   : %s
                 created: %s
                 ignore : %s
+                links  : %s
+                changes: %s
+                cache  : %s
+                direct : %s
                 latest snapshot
                 %s""".formatted(source.pathToRootDir(), snapshotsHomeDir, TimeUtils.asString(created),
                 ignorePathGlobPatterns.isEmpty() ? "None" : String.join(IGNORE_PATTERN_DELIMITER, ignorePathGlobPatterns),
+                followLinks ? "follow" : "preserve",
+                changeDetectionRules.serialize(),
+                checksumCache ? "xattr" : "none",
+                directIoMinSize < 0 ? "off" : "files of at least %s bytes".formatted(directIoMinSize),
                 snapshotProperties == null ? "none".indent(4).stripTrailing() : snapshotProperties.toDisplayString().indent(4).stripTrailing());
     }
 
     public ContextProperties withSnapshotProperties(SnapshotProperties snapshotProperties) {
-        return new ContextProperties(source, snapshotsHomeDir, created, ignorePathGlobPatterns, snapshotProperties);
+        return new ContextProperties(source, snapshotsHomeDir, created, ignorePathGlobPatterns, followLinks, changeDetectionRules, checksumCache, directIoMinSize, snapshotProperties);
     }
 
     record SnapshotProperties(Path rootDirLocation, ZonedDateTime created, int fileCount) {
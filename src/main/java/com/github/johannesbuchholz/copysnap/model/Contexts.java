@@ -2,15 +2,20 @@ package com.github.johannesbuchholz.copysnap.model;
 
 import com.github.johannesbuchholz.copysnap.Main;
 import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import com.github.johannesbuchholz.copysnap.model.state.FileSystemStateDelta;
+import com.github.johannesbuchholz.copysnap.service.diffing.ChangeDetectionRules;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.stream.Stream;
@@ -21,16 +26,34 @@ public class Contexts {
     private static final String COPYSNAP_HOME_DIR_POSTFIX = "copysnap";
     static final OpenOption[] CREATE_OVERWRITE_OPEN_OPTIONS = {StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING};
     static final String LATEST_FILE_STATE_FILE_NAME = ".latest";
+    static final String SNAPSHOT_FILE_STATE_FILE_NAME = ".state";
+    // snapshots are written into a directory with this suffix and renamed when complete
+    static final String IN_PROGRESS_SNAPSHOT_DIR_SUFFIX = ".partial";
+    private static final int MAX_DELTA_CHAIN_LENGTH = 16;
 
     private Contexts() {
         // do not instantiate
     }
 
     /**
+     * Creates a context following symbolic links in the source and comparing checksums of modified files.
      * @param sourceDir the directory to take snapshots from.
      * @param snapshotsHomeDirLocation the directory where the new context home directory should be created in.
      */
     public static Context createNew(Path sourceDir, Path snapshotsHomeDirLocation, String... ignorePatterns) {
+        return createNew(sourceDir, snapshotsHomeDirLocation, true, ChangeDetectionRules.DEFAULT, false, -1, ignorePatterns);
+    }
+
+    /**
+     * @param sourceDir the directory to take snapshots from.
+     * @param snapshotsHomeDirLocation the directory where the new context home directory should be created in.
+     * @param followLinks if false, symbolic links in the source are recreated in snapshots instead of copying their targets.
+     * @param changeDetectionRules how files are checked for changes since the latest snapshot.
+     * @param checksumCache if true, checksums are cached in extended attributes of the source files.
+     * @param directIoMinSize files of at least this size are read and written bypassing the page cache. Negative values
+     *                        disable direct I/O.
+     */
+    public static Context createNew(Path sourceDir, Path snapshotsHomeDirLocation, boolean followLinks, ChangeDetectionRules changeDetectionRules, boolean checksumCache, long directIoMinSize, String... ignorePatterns) {
         Path snapshotsHomeDir = snapshotsHomeDirLocation.resolve(sourceDir.getFileName().toString() + "-" + COPYSNAP_HOME_DIR_POSTFIX);
         final ContextProperties properties;
         if (Files.isDirectory(snapshotsHomeDir)) {
@@ -40,12 +63,12 @@ public class Contexts {
                         try {
                             return ContextProperties.fromProperties(props);
                         } catch (Exception e) {
-                            return ContextProperties.getNew(sourceDir, snapshotsHomeDir, ignorePatterns);
+                            return ContextProperties.getNew(sourceDir, snapshotsHomeDir, followLinks, changeDetectionRules, checksumCache, directIoMinSize, ignorePatterns);
                         }
                     })
-                    .orElse(ContextProperties.getNew(sourceDir, snapshotsHomeDir, ignorePatterns));
+                    .orElse(ContextProperties.getNew(sourceDir, snapshotsHomeDir, followLinks, changeDetectionRules, checksumCache, directIoMinSize, ignorePatterns));
         } else {
-            properties = ContextProperties.getNew(sourceDir, snapshotsHomeDir, ignorePatterns);
+            properties = ContextProperties.getNew(sourceDir, snapshotsHomeDir, followLinks, changeDetectionRules, checksumCache, directIoMinSize, ignorePatterns);
         }
         return new Context(properties, null);
     }
@@ -104,6 +127,87 @@ public class Contexts {
         }
     }
 
+    /**
+     * Writes the immutable file system state of a snapshot into the snapshot directory. The state is written as delta
+     * against the state file of the previous snapshot if that file describes the specified previous state.
+     *
+     * @param previousSnapshotDir The directory of the snapshot the new snapshot has been computed against. May be {@code null}.
+     * @param previousState The file system state the new snapshot has been computed against. May be {@code null}.
+     */
+    static void writeSnapshotState(Path snapshotDir, FileSystemState state, Path previousSnapshotDir, FileSystemState previousState) throws IOException {
+        FileSystemStateDelta delta = FileSystemStateDelta.full(state);
+        if (previousSnapshotDir != null && previousState != null && previousSnapshotDir.getParent() != null
+                && previousSnapshotDir.getParent().equals(snapshotDir.getParent())) {
+            Path previousStateFile = previousSnapshotDir.resolve(SNAPSHOT_FILE_STATE_FILE_NAME);
+            if (Files.isRegularFile(previousStateFile)) {
+                FileSystemStateDelta previousHeader;
+                try (InputStream is = Files.newInputStream(previousStateFile)) {
+                    previousHeader = FileSystemStateDelta.readHeader(is);
+                }
+                if (previousHeader.fingerprint() == previousState.fingerprint() && previousHeader.chainLength() < MAX_DELTA_CHAIN_LENGTH)
+                    delta = FileSystemStateDelta.between(
+                            previousSnapshotDir.getFileName().toString(), previousState, previousHeader.chainLength(), state);
+            }
+        }
+        try (OutputStream os = Files.newOutputStream(snapshotDir.resolve(SNAPSHOT_FILE_STATE_FILE_NAME), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            delta.write(os);
+        }
+    }
+
+    /**
+     * Reads the file system state recorded in a snapshot directory, following deltas to their base snapshots.
+     *
+     * @return The recorded state or empty if the snapshot directory does not contain a state file.
+     */
+    static Optional<FileSystemState> readSnapshotState(Path snapshotDir) throws IOException {
+        Path stateFile = snapshotDir.resolve(SNAPSHOT_FILE_STATE_FILE_NAME);
+        if (!Files.isRegularFile(stateFile))
+            return Optional.empty();
+        FileSystemStateDelta delta;
+        try (InputStream is = Files.newInputStream(stateFile)) {
+            delta = FileSystemStateDelta.read(is);
+        }
+        FileSystemState base = FileSystemState.empty();
+        if (delta.hasBase()) {
+            Path baseSnapshotDir = snapshotDir.resolveSibling(delta.baseName());
+            base = readSnapshotState(baseSnapshotDir)
+                    .orElseThrow(() -> new NoSuchFileException(baseSnapshotDir.resolve(SNAPSHOT_FILE_STATE_FILE_NAME).toString(), null,
+                            "Base state of " + stateFile + " is missing"));
+        }
+        return Optional.of(delta.applyTo(base));
+    }
+
+    /**
+     * @return All complete snapshot directories in the specified context home directory ordered by name.
+     */
+    static List<Path> listSnapshotDirs(Path snapshotsHomeDir) throws IOException {
+        try (Stream<Path> pathStream = Files.list(snapshotsHomeDir)) {
+            return pathStream
+                    .filter(Files::isDirectory)
+                    .filter(p -> !isInProgressSnapshotDir(p))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * @return The directory of the most recent snapshot that has not been completed.
+     */
+    static Optional<Path> findInProgressSnapshotDir(Path snapshotsHomeDir) throws IOException {
+        if (!Files.isDirectory(snapshotsHomeDir))
+            return Optional.empty();
+        try (Stream<Path> pathStream = Files.list(snapshotsHomeDir)) {
+            return pathStream
+                    .filter(Files::isDirectory)
+                    .filter(Contexts::isInProgressSnapshotDir)
+                    .max(Comparator.naturalOrder());
+        }
+    }
+
+    private static boolean isInProgressSnapshotDir(Path dir) {
+        return dir.getFileName().toString().endsWith(IN_PROGRESS_SNAPSHOT_DIR_SUFFIX);
+    }
+
     private static Optional<Properties> findAndReadProperties(Path path) {
         Optional<Path> pathToPropertiesOpt = findPathToProperties(path);
         if (pathToPropertiesOpt.isEmpty())
@@ -1,122 +1,379 @@
 package com.github.johannesbuchholz.copysnap.model.state;
 
+import com.github.johannesbuchholz.copysnap.util.BufferPool;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.stream.Collectors;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
-public record CheckpointChecksum(List<Long> checksums) {
+/**
+ * Checksums of the first 256, 512, 1024, ... bytes of a file up to the full file.
+ * <p>
+ * As every checkpoint covers all bytes from the start of the file, changes near the end only show at the last
+ * checkpoints. Hence, checksums created from content also record the size of the content and an independent checksum
+ * of its last {@value TAIL_BYTE_COUNT} bytes, the tail. These tell truncated, appended and tail-modified files apart
+ * from a few reads. Checksums recorded by earlier versions have no tail.
+ * </p>
+ * <p>
+ * The checksums are held in a primitive array as millions of instances are held by a {@link FileSystemState}.
+ * Immutable.
+ * </p>
+ */
+public final class CheckpointChecksum {
+
+    public static final int TAIL_BYTE_COUNT = 4096;
 
     private static final String CHECKSUM_SERDE_DELIMITER = ",";
-    private static final CheckpointChecksum UNDEFINED_CHECKSUM = new CheckpointChecksum(List.of(-1L));
+    private static final String TAIL_SERDE_DELIMITER = "/";
+    private static final long UNKNOWN_SIZE = -1;
+    private static final CheckpointChecksum UNDEFINED_CHECKSUM = CheckpointChecksum.of(-1L);
+    // 2^20 bytes: a little more than 1 MB
+    private static final BufferPool BUFFER_POOL = new BufferPool(1048576);
+    private static final BufferPool TAIL_BUFFER_POOL = new BufferPool(TAIL_BYTE_COUNT);
+
+    private final long[] checksums;
+    private final long size;
+    private final long tailChecksum;
 
     /**
      * Creates a checksum while transferring the given input stream to the specified output stream.
      */
     public static CheckpointChecksum byTransferring(InputStream is, OutputStream os) {
-        List<Long> checksums = new ArrayList<>();
-        new CheckpointIterator(is, os)
-                .forEachRemaining(checksums::add);
-        return new CheckpointChecksum(Collections.unmodifiableList(checksums));
+        byte[] buffer = BUFFER_POOL.borrow();
+        byte[] tail = TAIL_BUFFER_POOL.borrow();
+        try {
+            CheckpointIterator checkpointIterator = new CheckpointIterator(is, os, buffer, tail);
+            long[] checksums = checkpointIterator.collectRemaining();
+            return new CheckpointChecksum(checksums, checkpointIterator.totalReadByteCount, checkpointIterator.tailChecksum());
+        } finally {
+            TAIL_BUFFER_POOL.release(tail);
+            BUFFER_POOL.release(buffer);
+        }
     }
 
     public static CheckpointChecksum from(InputStream is) {
-        List<Long> checksums = new ArrayList<>();
-        new CheckpointIterator(is, OutputStream.nullOutputStream())
-                .forEachRemaining(checksums::add);
-        return new CheckpointChecksum(Collections.unmodifiableList(checksums));
+        return byTransferring(is, OutputStream.nullOutputStream());
+    }
+
+    /**
+     * Equals {@link #from(InputStream)} of a stream over the given bytes but neither copies nor buffers them.
+     */
+    public static CheckpointChecksum from(byte[] bytes, int offset, int length) {
+        Checksum checksum = new CRC32();
+        // at most one checkpoint per power of two below Integer.MAX_VALUE and a final one
+        long[] collected = new long[32];
+        int count = 0;
+        int checksummedByteCount = 0;
+        for (long checkpoint = CheckpointIterator.BASE_BYTE_COUNT; checkpoint <= length; checkpoint *= CheckpointIterator.CHECKPOINT_FACTOR) {
+            checksum.update(bytes, offset + checksummedByteCount, (int) checkpoint - checksummedByteCount);
+            checksummedByteCount = (int) checkpoint;
+            collected[count++] = checksum.getValue();
+        }
+        checksum.update(bytes, offset + checksummedByteCount, length - checksummedByteCount);
+        collected[count++] = checksum.getValue();
+        int tailLength = Math.min(length, TAIL_BYTE_COUNT);
+        return new CheckpointChecksum(Arrays.copyOf(collected, count), length, crc(bytes, offset + length - tailLength, tailLength));
+    }
+
+    /**
+     * @param checksums Copied.
+     * @return A checksum without tail.
+     */
+    public static CheckpointChecksum of(long... checksums) {
+        return new CheckpointChecksum(checksums.clone(), UNKNOWN_SIZE, 0);
     }
 
-    public CheckpointChecksum {
-        if (checksums.isEmpty())
+    /**
+     * @param checksums Not copied.
+     * @param size      The size of the checksummed content or -1 if there is no tail.
+     */
+    static CheckpointChecksum of(long[] checksums, long size, long tailChecksum) {
+        return new CheckpointChecksum(checksums, size, tailChecksum);
+    }
+
+    public CheckpointChecksum(List<Long> checksums) {
+        this(checksums.stream().mapToLong(Long::longValue).toArray(), UNKNOWN_SIZE, 0);
+    }
+
+    /**
+     * @param checksums Not copied.
+     */
+    private CheckpointChecksum(long[] checksums, long size, long tailChecksum) {
+        if (checksums.length == 0)
             throw new IllegalArgumentException("Empty checksums");
+        this.checksums = checksums;
+        this.size = size < 0 ? UNKNOWN_SIZE : size;
+        this.tailChecksum = size < 0 ? 0 : tailChecksum;
+    }
+
+    /**
+     * Expects numbers delimited by {@value CHECKSUM_SERDE_DELIMITER}, optionally followed by the size and the tail
+     * checksum, each preceded by {@value TAIL_SERDE_DELIMITER}.
+     */
+    public static CheckpointChecksum deserialize(String checksumString) {
+        String[] parts = checksumString.split(TAIL_SERDE_DELIMITER);
+        String[] checksumStrings = parts[0].split(CHECKSUM_SERDE_DELIMITER);
+        long[] checksums = new long[checksumStrings.length];
+        for (int i = 0; i < checksumStrings.length; i++)
+            checksums[i] = Long.parseLong(checksumStrings[i].trim());
+        if (parts.length == 1)
+            return new CheckpointChecksum(checksums, UNKNOWN_SIZE, 0);
+        if (parts.length != 3)
+            throw new IllegalArgumentException("Expected size and tail checksum: " + checksumString);
+        return new CheckpointChecksum(checksums, Long.parseLong(parts[1].trim()), Long.parseLong(parts[2].trim()));
+    }
+
+    public String serialize() {
+        StringBuilder sb = new StringBuilder(checksums.length * 11 + 24);
+        for (int i = 0; i < checksums.length; i++) {
+            if (i > 0)
+                sb.append(CHECKSUM_SERDE_DELIMITER);
+            sb.append(checksums[i]);
+        }
+        if (hasTail())
+            sb.append(TAIL_SERDE_DELIMITER).append(size).append(TAIL_SERDE_DELIMITER).append(tailChecksum);
+        return sb.toString();
+    }
+
+    private static long crc(byte[] bytes, int offset, int length) {
+        Checksum checksum = new CRC32();
+        checksum.update(bytes, offset, length);
+        return checksum.getValue();
+    }
+
+    /**
+     * @return An unmodifiable view of the checksums. Prefer {@link #count()} and {@link #get(int)} to avoid boxing.
+     */
+    public List<Long> checksums() {
+        return new AbstractList<>() {
+            @Override
+            public Long get(int index) {
+                return checksums[index];
+            }
+
+            @Override
+            public int size() {
+                return checksums.length;
+            }
+        };
+    }
+
+    /**
+     * @return The number of checkpoints.
+     */
+    public int count() {
+        return checksums.length;
+    }
+
+    /**
+     * @return The checksum at the given checkpoint.
+     */
+    public long get(int index) {
+        return checksums[index];
+    }
+
+    /**
+     * @return {@code true} if the size and the tail checksum of the content are known.
+     */
+    public boolean hasTail() {
+        return size >= 0;
     }
 
     /**
-     * Expects numbers delimited by {@value CHECKSUM_SERDE_DELIMITER}.
+     * @return The size of the checksummed content or -1 if there is no tail.
      */
-    static CheckpointChecksum deserialize(String checksumString) {
-        List<Long> checksums = Arrays.stream(checksumString.split(CHECKSUM_SERDE_DELIMITER))
-                .map(String::trim)
-                .map(Long::parseLong)
-                .toList();
-        return new CheckpointChecksum(checksums);
+    public long size() {
+        return size;
     }
 
-    String serialize() {
-        return checksums.stream().map(String::valueOf).collect(Collectors.joining(CHECKSUM_SERDE_DELIMITER));
+    /**
+     * @return The checksum of the last {@link #tailLength()} bytes. Meaningless if there is no tail.
+     */
+    public long tailChecksum() {
+        return tailChecksum;
+    }
+
+    /**
+     * @return The position of the tail within the checksummed content.
+     */
+    public long tailOffset() {
+        return size - tailLength();
+    }
+
+    public int tailLength() {
+        return (int) Math.min(Math.max(size, 0), TAIL_BYTE_COUNT);
+    }
+
+    /**
+     * @param bytes Expected to hold {@link #tailLength()} bytes read from {@link #tailOffset()}.
+     */
+    public boolean hasSameTail(byte[] bytes, int offset, int length) {
+        return hasTail() && length == tailLength() && crc(bytes, offset, length) == tailChecksum;
+    }
+
+    /**
+     * Like {@link #equals(Object)} but ignores the tail if one of both has none.
+     */
+    public boolean hasSameContentAs(CheckpointChecksum other) {
+        if (!Arrays.equals(checksums, other.checksums))
+            return false;
+        return !hasTail() || !other.hasTail() || (size == other.size && tailChecksum == other.tailChecksum);
     }
 
     /**
      * Implements a "fail fast" check comparing multiple checksums based on checkpoints.
      */
     public boolean hasSameChecksum(InputStream is) {
+        return hasSameChecksum(is, checksums.length);
+    }
+
+    /**
+     * Like {@link #hasSameChecksum(InputStream)} but compares at most the given number of checkpoints and reads only
+     * as many bytes as needed for these. Comparing fewer checkpoints than {@link #count()} does not detect changes
+     * behind the last compared checkpoint.
+     */
+    public boolean hasSameChecksum(InputStream is, int maxCheckpointCount) {
         if (this.equals(UNDEFINED_CHECKSUM))
             return false;
-        CheckpointIterator checkpointIterator = new CheckpointIterator(is, OutputStream.nullOutputStream());
-        for (Long expectedChecksum : checksums) {
-            if (checkpointIterator.hasNext()) {
-                if (!checkpointIterator.next().equals(expectedChecksum))
+        byte[] buffer = BUFFER_POOL.borrow();
+        try {
+            CheckpointIterator checkpointIterator = new CheckpointIterator(is, OutputStream.nullOutputStream(), buffer);
+            int comparedCount = Math.min(maxCheckpointCount, checksums.length);
+            for (int i = 0; i < comparedCount; i++) {
+                if (!checkpointIterator.hasNext() || checkpointIterator.nextLong() != checksums[i])
                     return false;
-            } else {
-                return false;
             }
+            return true;
+        } finally {
+            BUFFER_POOL.release(buffer);
         }
-        return true;
     }
 
-    private record CheckpointResult(Checksum checksum, long nextCheckpoint, long totalReadBytes, int latestReadByteCount) {}
+    /**
+     * Compares the recorded size if there is a tail. Otherwise, the number of checkpoints serves as a size class, as it
+     * only depends on the size of the checksummed content: A file whose size does not result in the same number of
+     * checkpoints must have changed. Sizes between two checkpoints are not told apart in that case.
+     * @return {@code false} if content of the given size can not have this checksum.
+     */
+    public boolean matchesSize(long size) {
+        if (hasTail())
+            return this.size == size;
+        return this.equals(UNDEFINED_CHECKSUM) || checkpointCount(size) == checksums.length;
+    }
 
     /**
-     * Not reusable.
+     * @return The number of checkpoints of content of the given size: One per checkpoint not exceeding the size and a
+     * final one.
      */
-    private static class CheckpointIterator implements Iterator<Long> {
+    static int checkpointCount(long size) {
+        int count = 1;
+        for (long checkpoint = CheckpointIterator.BASE_BYTE_COUNT; checkpoint <= size; checkpoint *= CheckpointIterator.CHECKPOINT_FACTOR)
+            count++;
+        return count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CheckpointChecksum other
+                && Arrays.equals(checksums, other.checksums)
+                && size == other.size
+                && tailChecksum == other.tailChecksum;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(checksums) * 31 + Long.hashCode(size * 31 + tailChecksum);
+    }
+
+    @Override
+    public String toString() {
+        if (!hasTail())
+            return "CheckpointChecksum[checksums=" + Arrays.toString(checksums) + "]";
+        return "CheckpointChecksum[checksums=%s, size=%s, tail=%s]".formatted(Arrays.toString(checksums), size, tailChecksum);
+    }
+
+    /**
+     * Not reusable. Does not own its buffers: Callers borrow them from {@link #BUFFER_POOL} and
+     * {@link #TAIL_BUFFER_POOL} and release them once done. Keeps the last read bytes in the tail buffer if one is
+     * given.
+     */
+    private static class CheckpointIterator implements PrimitiveIterator.OfLong {
 
         private static final int BASE_BYTE_COUNT = 256;
         private static final int CHECKPOINT_FACTOR = 2;
 
         private final InputStream is;
         private final OutputStream os;
+        private final Checksum checksum = new CRC32();
+        private final byte[] buffer;
+        /* nullable */
+        private final byte[] tail;
 
-        // 2^20 bytes: a little more than 1 MB
-        private final byte[] buffer = new byte[1048576];
+        // mutable state instead of a result object per checkpoint, so that comparing checksums does not allocate
+        private long nextCheckpoint = BASE_BYTE_COUNT;
+        private long totalReadByteCount = 0;
+        private int latestReadByteCount = 0;
+        // where the next read bytes are put into the ring of tail bytes
+        private int tailEnd = 0;
 
-        private CheckpointResult latestCheckpointResult = new CheckpointResult(new CRC32(), BASE_BYTE_COUNT, 0, 0);
+        private CheckpointIterator(InputStream is, OutputStream os, byte[] buffer) {
+            this(is, os, buffer, null);
+        }
 
-        private CheckpointIterator(InputStream is, OutputStream os) {
+        private CheckpointIterator(InputStream is, OutputStream os, byte[] buffer, byte[] tail) {
             this.is = is;
             this.os = os;
+            this.buffer = buffer;
+            this.tail = tail;
+        }
+
+        private void recordTail(int readByteCount) {
+            int length = Math.min(readByteCount, tail.length);
+            int from = readByteCount - length;
+            int firstLength = Math.min(length, tail.length - tailEnd);
+            System.arraycopy(buffer, from, tail, tailEnd, firstLength);
+            System.arraycopy(buffer, from + firstLength, tail, 0, length - firstLength);
+            tailEnd = (tailEnd + length) % tail.length;
+        }
+
+        /**
+         * @return The checksum over the last read bytes in the order they have been read.
+         */
+        private long tailChecksum() {
+            Checksum tailCrc = new CRC32();
+            if (totalReadByteCount < tail.length) {
+                tailCrc.update(tail, 0, (int) totalReadByteCount);
+            } else {
+                tailCrc.update(tail, tailEnd, tail.length - tailEnd);
+                tailCrc.update(tail, 0, tailEnd);
+            }
+            return tailCrc.getValue();
         }
 
-        private CheckpointResult getNextCheckpointChecksumValue(InputStream is, CheckpointResult latestCheckpointResult) throws IOException {
-            long totalReadByteCount = latestCheckpointResult.totalReadBytes();
-            Checksum checksum = latestCheckpointResult.checksum();
-            int latestReadByteCount;
-            while ((latestReadByteCount = is.read(buffer, 0, getBufferReadBoundary(buffer, latestCheckpointResult.nextCheckpoint(), totalReadByteCount))) > 0) {
+        /**
+         * Reads up to the next checkpoint or until the input stream is exhausted.
+         */
+        private void readToNextCheckpoint() throws IOException {
+            while ((latestReadByteCount = is.read(buffer, 0, getBufferReadBoundary(buffer, nextCheckpoint, totalReadByteCount))) > 0) {
                 totalReadByteCount += latestReadByteCount;
                 checksum.update(buffer, 0, latestReadByteCount);
                 os.write(buffer, 0, latestReadByteCount);
-                if (totalReadByteCount == latestCheckpointResult.nextCheckpoint()) {
+                if (tail != null)
+                    recordTail(latestReadByteCount);
+                if (totalReadByteCount == nextCheckpoint) {
                     // checkpoint is reached
-                    return new CheckpointResult(
-                            checksum,
-                            latestCheckpointResult.nextCheckpoint() * CHECKPOINT_FACTOR,
-                            totalReadByteCount,
-                            latestReadByteCount);
-                } else if (totalReadByteCount > latestCheckpointResult.nextCheckpoint()) {
-                    throw new IllegalStateException("Read more bytes than allowed: read=%s, checkpoint=%s".formatted(totalReadByteCount, latestCheckpointResult.nextCheckpoint()));
+                    nextCheckpoint *= CHECKPOINT_FACTOR;
+                    return;
+                } else if (totalReadByteCount > nextCheckpoint) {
+                    throw new IllegalStateException("Read more bytes than allowed: read=%s, checkpoint=%s".formatted(totalReadByteCount, nextCheckpoint));
                 }
             }
-            // if here, input stream is exhausted: return remaining checksum
-            return new CheckpointResult(
-                    checksum,
-                    latestCheckpointResult.nextCheckpoint() * CHECKPOINT_FACTOR,
-                    totalReadByteCount,
-                    latestReadByteCount);
+            // if here, input stream is exhausted
+            nextCheckpoint *= CHECKPOINT_FACTOR;
         }
 
         /**
@@ -131,20 +388,31 @@ public record CheckpointChecksum(List<Long> checksums) {
 
         @Override
         public boolean hasNext() {
-            return latestCheckpointResult.latestReadByteCount() > -1;
+            return latestReadByteCount > -1;
         }
 
         /**
          * @throws UncheckedIOException If an io exception occurs.
          */
         @Override
-        public Long next() {
+        public long nextLong() {
             try {
-                latestCheckpointResult = getNextCheckpointChecksumValue(is, latestCheckpointResult);
+                readToNextCheckpoint();
             } catch (IOException e) {
                 throw new UncheckedIOException("Could not get next checksum: " + e.getMessage(), e);
             }
-            return latestCheckpointResult.checksum().getValue();
+            return checksum.getValue();
+        }
+
+        private long[] collectRemaining() {
+            long[] collected = new long[8];
+            int count = 0;
+            while (hasNext()) {
+                if (count == collected.length)
+                    collected = Arrays.copyOf(collected, count * 2);
+                collected[count++] = nextLong();
+            }
+            return Arrays.copyOf(collected, count);
         }
 
     }
@@ -1,8 +1,10 @@
 package com.github.johannesbuchholz.copysnap.model.state;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.List;
@@ -32,8 +34,8 @@ public record FileState(Path path, Instant lastModified, CheckpointChecksum chec
             throw new UncheckedIOException("Could not read last modified from %s: %s".formatted(absPath, e.getMessage()), e);
         }
         CheckpointChecksum checksum;
-        try {
-            checksum = CheckpointChecksum.from(Files.newInputStream(absPath));
+        try (InputStream is = Files.newInputStream(absPath)) {
+            checksum = CheckpointChecksum.from(is);
         } catch (IOException e) {
             throw new UncheckedIOException("Could not create checksum from %s: %s".formatted(absPath, e.getMessage()), e);
         }
@@ -57,6 +59,24 @@ public record FileState(Path path, Instant lastModified, CheckpointChecksum chec
         return checksum;
     }
 
+    /**
+     * A 64-bit hash of all fields that is stable across runs. States without tail hash as before tails were recorded.
+     */
+    long fingerprint() {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : path.toString().getBytes(StandardCharsets.UTF_8))
+            hash = (hash ^ b) * 0x100000001b3L;
+        hash = (hash ^ lastModified.getEpochSecond()) * 0x100000001b3L;
+        hash = (hash ^ lastModified.getNano()) * 0x100000001b3L;
+        for (int i = 0; i < checksum.count(); i++)
+            hash = (hash ^ checksum.get(i)) * 0x100000001b3L;
+        if (checksum.hasTail()) {
+            hash = (hash ^ checksum.size()) * 0x100000001b3L;
+            hash = (hash ^ checksum.tailChecksum()) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
     public String serialize() {
         return String.join(FIELD_SERDE_SEPARATOR, List.of(checksum.serialize(), lastModified.toString(), path.toString()));
     }
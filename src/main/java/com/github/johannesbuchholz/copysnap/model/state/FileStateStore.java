@@ -0,0 +1,43 @@
+package com.github.johannesbuchholz.copysnap.model.state;
+
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Holds the file states of a {@link FileSystemState} keyed by their path.
+ */
+interface FileStateStore {
+
+    Optional<FileState> get(Path path);
+
+    boolean contains(Path path);
+
+    /**
+     * Replaces any state of the same path.
+     */
+    void put(FileState fileState);
+
+    void remove(Path path);
+
+    int size();
+
+    void forEach(Consumer<FileState> action);
+
+    /**
+     * @return An unmodifiable view of all contained paths.
+     */
+    Set<Path> paths();
+
+    /**
+     * @return A new store of the same kind containing all states of this store.
+     */
+    FileStateStore copy();
+
+    /**
+     * @return A new empty store of the same kind.
+     */
+    FileStateStore newEmpty();
+
+}
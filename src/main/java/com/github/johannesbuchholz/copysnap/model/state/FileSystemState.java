@@ -5,21 +5,65 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.*;
-
-import static java.util.function.Predicate.not;
+import java.util.function.Predicate;
 
 public class FileSystemState {
 
+    /**
+     * Where file states are held in memory.
+     */
+    public enum Storage {
+        /** A map of file state objects. Fast, but takes several hundred bytes per file. */
+        HEAP,
+        /** A compact hash table outside the heap, see {@link OffHeapFileStateStore}. File states are created on lookup. */
+        OFF_HEAP;
+
+        /**
+         * The system property selecting the default storage, like {@code -Dcopysnap.state.storage=off-heap}.
+         */
+        public static final String PROPERTY_NAME = "copysnap.state.storage";
+
+        private static Storage fromSystemProperty() {
+            String value = System.getProperty(PROPERTY_NAME);
+            if (value == null)
+                return HEAP;
+            return Storage.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+
+        private FileStateStore newStore(boolean concurrent) {
+            return switch (this) {
+                case HEAP -> concurrent ? HeapFileStateStore.concurrent() : HeapFileStateStore.create();
+                case OFF_HEAP -> concurrent ? OffHeapFileStateStore.concurrent() : OffHeapFileStateStore.create();
+            };
+        }
+    }
+
+    private static final Storage DEFAULT_STORAGE = Storage.fromSystemProperty();
+
     public static FileSystemState empty() {
-        return new FileSystemState(Map.of());
+        return new FileSystemState(DEFAULT_STORAGE.newStore(false));
     }
 
     public static FileSystemState.Builder builder() {
-        return new Builder();
+        return builder(DEFAULT_STORAGE);
+    }
+
+    public static FileSystemState.Builder builder(Storage storage) {
+        return new Builder(storage.newStore(false));
     }
 
+    /**
+     * @return A builder holding the states of the existing state in the same kind of storage.
+     */
     public static FileSystemState.Builder builder(FileSystemState existingState) {
-        return new Builder(existingState.statesByPath);
+        return new Builder(existingState.store.copy());
+    }
+
+    /**
+     * @return A builder that may be used by multiple threads concurrently.
+     */
+    public static FileSystemState.Builder concurrentBuilder() {
+        return new Builder(DEFAULT_STORAGE.newStore(true));
     }
 
     /**
@@ -62,46 +106,64 @@ public class FileSystemState {
         return Optional.empty();
     }
 
-    private final Map<Path, FileState> statesByPath;
+    private final FileStateStore store;
 
-    private FileSystemState(Map<Path, FileState> statesByPath) {
-        this.statesByPath = statesByPath;
+    private FileSystemState(FileStateStore store) {
+        this.store = store;
     }
 
     public Optional<FileState> get(Path relativePath) {
-        return Optional.ofNullable(statesByPath.get(relativePath));
+        return store.get(relativePath);
     }
 
     /**
      * @return A new state with all states from this that are contained in the specified paths.
      */
     public FileSystemState newBySetUnion(Set<Path> otherPaths) {
-        Builder builder = FileSystemState.builder(this);
-        statesByPath.keySet().stream()
-                .filter(not(otherPaths::contains))
-                .forEach(builder::remove);
-        return builder.build();
+        return filter(fileState -> otherPaths.contains(fileState.getPath()));
     }
 
     /**
      * @return A new state with all states from this that are not contained in the specified state.
      */
     public FileSystemState newBySetMinus(FileSystemState other) {
-        Builder builder = FileSystemState.builder(this);
-        statesByPath.keySet().stream()
-                .filter(other.statesByPath::containsKey)
-                .forEach(builder::remove);
-        return builder.build();
+        return filter(fileState -> !other.store.contains(fileState.getPath()));
+    }
+
+    private FileSystemState filter(Predicate<FileState> predicate) {
+        FileStateStore filteredStore = store.newEmpty();
+        store.forEach(fileState -> {
+            if (predicate.test(fileState))
+                filteredStore.put(fileState);
+        });
+        return new FileSystemState(filteredStore);
     }
 
     public int fileCount() {
-        return statesByPath.size();
+        return store.size();
+    }
+
+    /**
+     * @return A hash over all contained file states that does not depend on their order.
+     */
+    public long fingerprint() {
+        long[] fingerprint = {store.size()};
+        store.forEach(fileState -> fingerprint[0] += fileState.fingerprint());
+        return fingerprint[0];
     }
 
     public void write(OutputStream os) throws IOException {
         try (OutputStreamWriter writer = new OutputStreamWriter(os)) {
-            for (FileState fileState : statesByPath.values()) {
-                writeLine(writer, fileState.serialize());
+            try {
+                store.forEach(fileState -> {
+                    try {
+                        writeLine(writer, fileState.serialize());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
             writer.flush();
         }
@@ -120,37 +182,43 @@ public class FileSystemState {
     }
 
     public Set<Path> paths() {
-        return Collections.unmodifiableSet(statesByPath.keySet());
+        return store.paths();
     }
 
     /**
-     * Not thread safe
+     * Not thread safe unless created by {@link #concurrentBuilder()}.
      */
     public static class Builder {
 
-        private final Map<Path, FileState> statesByPath;
+        private final FileStateStore store;
 
-        private Builder() {
-            this(Map.of());
-        }
-
-        private Builder(Map<Path, FileState> statesByPath) {
-            this.statesByPath = new HashMap<>(statesByPath);
+        /**
+         * @param store The store to fill. Not copied.
+         */
+        private Builder(FileStateStore store) {
+            this.store = store;
         }
 
         public Builder add(FileState fileState) {
             if (fileState.getPath().isAbsolute())
                 throw new IllegalArgumentException("Can not add absolute path: " + fileState.getPath());
-            statesByPath.put(fileState.getPath(), fileState);
+            store.put(fileState);
             return this;
         }
 
         public void remove(Path path) {
-            statesByPath.remove(path);
+            store.remove(path);
+        }
+
+        /**
+         * @return The state added so far or contained in the initial state.
+         */
+        public Optional<FileState> get(Path path) {
+            return store.get(path);
         }
 
         public FileSystemState build() {
-            return new FileSystemState(Collections.unmodifiableMap(statesByPath));
+            return new FileSystemState(store);
         }
 
     }
@@ -0,0 +1,213 @@
+package com.github.johannesbuchholz.copysnap.model.state;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The changes of a file system state compared to the state of an earlier snapshot (the base).
+ * A delta without a base describes a complete file system state.
+ * <p>
+ * Deltas are written in a compact binary form: Entries are sorted by path, paths are prefix-compressed against their
+ * predecessor and the whole content is gzip-compressed.
+ * </p>
+ *
+ * @param baseName        The name of the snapshot directory holding the base state. {@code null} if this delta is complete.
+ * @param baseFingerprint The {@link FileSystemState#fingerprint()} of the base state. Ignored if there is no base.
+ * @param chainLength     The number of deltas that need to be applied to reconstruct the full state, including this one.
+ * @param fingerprint     The {@link FileSystemState#fingerprint()} of the state after applying this delta.
+ * @param upserts         New or changed file states.
+ * @param removals        Paths no longer present.
+ */
+public record FileSystemStateDelta(
+        /* nullable */ String baseName,
+        long baseFingerprint,
+        int chainLength,
+        long fingerprint,
+        List<FileState> upserts,
+        Set<Path> removals
+) {
+
+    private static final int MAGIC = 0x43534e50;
+    // version 2 added the size and tail checksum of each file state
+    private static final byte FORMAT_VERSION = 2;
+
+    /**
+     * @return A delta without base describing the complete specified state.
+     */
+    public static FileSystemStateDelta full(FileSystemState state) {
+        List<FileState> upserts = state.paths().stream()
+                .map(p -> state.get(p).orElseThrow())
+                .toList();
+        return new FileSystemStateDelta(null, 0, 1, state.fingerprint(), upserts, Set.of());
+    }
+
+    /**
+     * @param baseName  The name of the snapshot directory holding the base state.
+     * @param base      The state of the base snapshot.
+     * @param baseChain The chain length of the delta the base state has been written with.
+     */
+    public static FileSystemStateDelta between(String baseName, FileSystemState base, int baseChain, FileSystemState target) {
+        List<FileState> upserts = new ArrayList<>();
+        for (Path path : target.paths()) {
+            FileState targetState = target.get(path).orElseThrow();
+            if (!base.get(path).map(targetState::equals).orElse(false))
+                upserts.add(targetState);
+        }
+        Set<Path> removals = new HashSet<>(base.newBySetMinus(target).paths());
+        return new FileSystemStateDelta(baseName, base.fingerprint(), baseChain + 1, target.fingerprint(), upserts, removals);
+    }
+
+    public boolean hasBase() {
+        return baseName != null;
+    }
+
+    /**
+     * @param base The state described by the base of this delta. Must be empty if this delta has no base.
+     * @throws IOException If the resulting state does not match the recorded fingerprint.
+     */
+    public FileSystemState applyTo(FileSystemState base) throws IOException {
+        if (hasBase() && base.fingerprint() != baseFingerprint)
+            throw new IOException("Base state does not match the state this delta has been computed against: base=%s".formatted(baseName));
+        FileSystemState.Builder builder = FileSystemState.builder(base);
+        removals.forEach(builder::remove);
+        upserts.forEach(builder::add);
+        FileSystemState result = builder.build();
+        if (result.fingerprint() != fingerprint)
+            throw new IOException("Reconstructed file system state does not match recorded fingerprint");
+        return result;
+    }
+
+    public void write(OutputStream os) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(os, 1 << 16), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeBoolean(hasBase());
+            if (hasBase()) {
+                out.writeUTF(baseName);
+                out.writeLong(baseFingerprint);
+            }
+            out.writeInt(chainLength);
+            out.writeLong(fingerprint);
+
+            List<FileState> sortedUpserts = upserts.stream()
+                    .sorted(Comparator.comparing(fs -> fs.getPath().toString()))
+                    .toList();
+            out.writeInt(sortedUpserts.size());
+            PathEncoder upsertPaths = new PathEncoder();
+            for (FileState fileState : sortedUpserts) {
+                upsertPaths.write(out, fileState.getPath());
+                out.writeLong(fileState.getLastModified().getEpochSecond());
+                out.writeInt(fileState.getLastModified().getNano());
+                CheckpointChecksum checksum = fileState.getChecksum();
+                out.writeInt(checksum.count());
+                for (int i = 0; i < checksum.count(); i++)
+                    out.writeLong(checksum.get(i));
+                out.writeLong(checksum.size());
+                out.writeLong(checksum.tailChecksum());
+            }
+
+            List<Path> sortedRemovals = removals.stream()
+                    .sorted(Comparator.comparing(Path::toString))
+                    .toList();
+            out.writeInt(sortedRemovals.size());
+            PathEncoder removalPaths = new PathEncoder();
+            for (Path removal : sortedRemovals)
+                removalPaths.write(out, removal);
+        }
+    }
+
+    /**
+     * Reads only the header of a delta, without upserts and removals.
+     */
+    public static FileSystemStateDelta readHeader(InputStream is) throws IOException {
+        return read(is, true);
+    }
+
+    public static FileSystemStateDelta read(InputStream is) throws IOException {
+        return read(is, false);
+    }
+
+    private static FileSystemStateDelta read(InputStream is, boolean headerOnly) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(is, 1 << 16), 1 << 16));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a file system state delta");
+        byte version = in.readByte();
+        if (version < 1 || version > FORMAT_VERSION)
+            throw new IOException("Unsupported file system state delta version: " + version);
+        String baseName = null;
+        long baseFingerprint = 0;
+        if (in.readBoolean()) {
+            baseName = in.readUTF();
+            baseFingerprint = in.readLong();
+        }
+        int chainLength = in.readInt();
+        long fingerprint = in.readLong();
+        if (headerOnly)
+            return new FileSystemStateDelta(baseName, baseFingerprint, chainLength, fingerprint, List.of(), Set.of());
+
+        int upsertCount = in.readInt();
+        List<FileState> upserts = new ArrayList<>(upsertCount);
+        PathDecoder upsertPaths = new PathDecoder();
+        for (int i = 0; i < upsertCount; i++) {
+            Path path = upsertPaths.read(in);
+            Instant lastModified = Instant.ofEpochSecond(in.readLong(), in.readInt());
+            int checksumCount = in.readInt();
+            long[] checksums = new long[checksumCount];
+            for (int j = 0; j < checksumCount; j++)
+                checksums[j] = in.readLong();
+            CheckpointChecksum checksum = version == 1
+                    ? CheckpointChecksum.of(checksums)
+                    : CheckpointChecksum.of(checksums, in.readLong(), in.readLong());
+            upserts.add(new FileState(path, lastModified, checksum));
+        }
+        int removalCount = in.readInt();
+        Set<Path> removals = new HashSet<>(removalCount);
+        PathDecoder removalPaths = new PathDecoder();
+        for (int i = 0; i < removalCount; i++)
+            removals.add(removalPaths.read(in));
+        return new FileSystemStateDelta(baseName, baseFingerprint, chainLength, fingerprint, upserts, removals);
+    }
+
+    /**
+     * Writes paths as the length of the prefix shared with the previously written path followed by the remaining bytes.
+     */
+    private static class PathEncoder {
+
+        private byte[] previous = new byte[0];
+
+        void write(DataOutputStream out, Path path) throws IOException {
+            byte[] current = path.toString().getBytes(StandardCharsets.UTF_8);
+            int maxPrefix = Math.min(previous.length, current.length);
+            int mismatch = Arrays.mismatch(previous, 0, maxPrefix, current, 0, maxPrefix);
+            int prefixLength = mismatch < 0 ? maxPrefix : mismatch;
+            out.writeInt(prefixLength);
+            out.writeInt(current.length - prefixLength);
+            out.write(current, prefixLength, current.length - prefixLength);
+            previous = current;
+        }
+
+    }
+
+    private static class PathDecoder {
+
+        private byte[] previous = new byte[0];
+
+        Path read(DataInputStream in) throws IOException {
+            int prefixLength = in.readInt();
+            int suffixLength = in.readInt();
+            if (prefixLength > previous.length || suffixLength < 0)
+                throw new IOException("Corrupt path encoding: prefix=%s, suffix=%s".formatted(prefixLength, suffixLength));
+            byte[] current = Arrays.copyOf(previous, prefixLength + suffixLength);
+            in.readFully(current, prefixLength, suffixLength);
+            previous = current;
+            return Path.of(new String(current, StandardCharsets.UTF_8));
+        }
+
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.github.johannesbuchholz.copysnap.model.state;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Holds file states in a map on the heap. Thread safe if created by {@link #concurrent()}.
+ */
+class HeapFileStateStore implements FileStateStore {
+
+    private final Map<Path, FileState> statesByPath;
+
+    static HeapFileStateStore create() {
+        return new HeapFileStateStore(new HashMap<>());
+    }
+
+    static HeapFileStateStore concurrent() {
+        return new HeapFileStateStore(new ConcurrentHashMap<>());
+    }
+
+    private HeapFileStateStore(Map<Path, FileState> statesByPath) {
+        this.statesByPath = statesByPath;
+    }
+
+    @Override
+    public Optional<FileState> get(Path path) {
+        return Optional.ofNullable(statesByPath.get(path));
+    }
+
+    @Override
+    public boolean contains(Path path) {
+        return statesByPath.containsKey(path);
+    }
+
+    @Override
+    public void put(FileState fileState) {
+        statesByPath.put(fileState.getPath(), fileState);
+    }
+
+    @Override
+    public void remove(Path path) {
+        statesByPath.remove(path);
+    }
+
+    @Override
+    public int size() {
+        return statesByPath.size();
+    }
+
+    @Override
+    public void forEach(Consumer<FileState> action) {
+        statesByPath.values().forEach(action);
+    }
+
+    @Override
+    public Set<Path> paths() {
+        return Collections.unmodifiableSet(statesByPath.keySet());
+    }
+
+    @Override
+    public FileStateStore copy() {
+        return new HeapFileStateStore(new HashMap<>(statesByPath));
+    }
+
+    @Override
+    public FileStateStore newEmpty() {
+        return create();
+    }
+
+}
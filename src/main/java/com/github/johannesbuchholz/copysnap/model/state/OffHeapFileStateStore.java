@@ -0,0 +1,437 @@
+package com.github.johannesbuchholz.copysnap.model.state;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Holds file states outside the heap in an open addressing hash table keyed by a hash of the path.
+ * <p>
+ * Entries are appended to a slab of direct buffers as
+ * <pre>[int path byte count][path bytes][long epoch seconds][int nanos][int checksum count][long checksums...][long size][long tail checksum]</pre>
+ * Each table slot holds the 64-bit path hash and the address of the entry within the slab. File states are only
+ * created on lookup. Replaced and removed entries stay in the slab until the store is copied.
+ * </p>
+ * Thread safe if created by {@link #concurrent()}: Writes are then exclusive, while reads may run concurrently with
+ * each other. Iterating over {@link #paths()} must not run concurrently with writes in any case.
+ */
+class OffHeapFileStateStore implements FileStateStore {
+
+    private static final int CHUNK_SIZE = 1 << 24;
+    private static final int SLOT_SIZE = 2 * Long.BYTES;
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    // keeps the table buffer below 2 GiB
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final int MAX_LOAD_PERCENT = 60;
+    // slots hold the entry address plus one, hence zero marks a slot that has never been used
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -1;
+
+    private final /* nullable */ ReadWriteLock lock;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private int writeOffset = 0;
+
+    private ByteBuffer table;
+    private int capacity;
+    private int size = 0;
+    // occupied and removed slots
+    private int usedSlotCount = 0;
+
+    static OffHeapFileStateStore create() {
+        return new OffHeapFileStateStore(null);
+    }
+
+    static OffHeapFileStateStore concurrent() {
+        return new OffHeapFileStateStore(new ReentrantReadWriteLock());
+    }
+
+    private OffHeapFileStateStore(ReadWriteLock lock) {
+        this.lock = lock;
+        this.capacity = INITIAL_CAPACITY;
+        this.table = allocate(capacity * SLOT_SIZE);
+    }
+
+    @Override
+    public Optional<FileState> get(Path path) {
+        byte[] pathBytes = encode(path);
+        return locked(readLock(), () -> {
+            int slot = find(pathBytes, hash(pathBytes));
+            if (slot < 0)
+                return Optional.empty();
+            return Optional.of(decode(slotEntry(slot) - 1));
+        });
+    }
+
+    @Override
+    public boolean contains(Path path) {
+        byte[] pathBytes = encode(path);
+        return locked(readLock(), () -> find(pathBytes, hash(pathBytes)) >= 0);
+    }
+
+    @Override
+    public void put(FileState fileState) {
+        byte[] pathBytes = encode(fileState.getPath());
+        locked(writeLock(), () -> {
+            long address = append(pathBytes, fileState.getLastModified(), fileState.getChecksum());
+            insert(hash(pathBytes), pathBytes, address);
+            return null;
+        });
+    }
+
+    @Override
+    public void remove(Path path) {
+        byte[] pathBytes = encode(path);
+        locked(writeLock(), () -> {
+            int slot = find(pathBytes, hash(pathBytes));
+            if (slot >= 0) {
+                table.putLong(slot * SLOT_SIZE + Long.BYTES, REMOVED);
+                size--;
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public int size() {
+        return locked(readLock(), () -> size);
+    }
+
+    @Override
+    public void forEach(Consumer<FileState> action) {
+        locked(readLock(), () -> {
+            for (int slot = 0; slot < capacity; slot++) {
+                long entry = slotEntry(slot);
+                if (entry > 0)
+                    action.accept(decode(entry - 1));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Set<Path> paths() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Path> iterator() {
+                return new PathIterator();
+            }
+
+            @Override
+            public int size() {
+                return OffHeapFileStateStore.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Path path && OffHeapFileStateStore.this.contains(path);
+            }
+        };
+    }
+
+    /**
+     * Copies only current entries, hence the copy does not contain replaced or removed entries.
+     */
+    @Override
+    public FileStateStore copy() {
+        OffHeapFileStateStore copy = create();
+        return locked(readLock(), () -> {
+            for (int slot = 0; slot < capacity; slot++) {
+                long entry = slotEntry(slot);
+                if (entry > 0)
+                    copy.insertCopy(slotHash(slot), this, entry - 1);
+            }
+            return copy;
+        });
+    }
+
+    @Override
+    public FileStateStore newEmpty() {
+        return create();
+    }
+
+    private /* nullable */ Lock readLock() {
+        return lock == null ? null : lock.readLock();
+    }
+
+    private /* nullable */ Lock writeLock() {
+        return lock == null ? null : lock.writeLock();
+    }
+
+    private static <T> T locked(/* nullable */ Lock lock, Supplier<T> supplier) {
+        if (lock == null)
+            return supplier.get();
+        lock.lock();
+        try {
+            return supplier.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void insertCopy(long hash, OffHeapFileStateStore source, long sourceAddress) {
+        ByteBuffer sourceChunk = source.chunk(sourceAddress);
+        int sourceOffset = offset(sourceAddress);
+        int length = entryLength(sourceChunk, sourceOffset);
+        long address = reserve(length);
+        chunk(address).put(offset(address), sourceChunk, sourceOffset, length);
+        // paths are unique in the source, hence we do not need to compare them
+        ensureCapacity();
+        int slot = index(hash);
+        while (slotEntry(slot) != EMPTY)
+            slot = nextSlot(slot);
+        writeSlot(slot, hash, address);
+        usedSlotCount++;
+        size++;
+    }
+
+    private void insert(long hash, byte[] pathBytes, long address) {
+        ensureCapacity();
+        int slot = index(hash);
+        int firstRemovedSlot = -1;
+        while (true) {
+            long entry = slotEntry(slot);
+            if (entry == EMPTY) {
+                if (firstRemovedSlot < 0) {
+                    writeSlot(slot, hash, address);
+                    usedSlotCount++;
+                } else {
+                    writeSlot(firstRemovedSlot, hash, address);
+                }
+                size++;
+                return;
+            } else if (entry == REMOVED) {
+                if (firstRemovedSlot < 0)
+                    firstRemovedSlot = slot;
+            } else if (slotHash(slot) == hash && pathEquals(entry - 1, pathBytes)) {
+                writeSlot(slot, hash, address);
+                return;
+            }
+            slot = nextSlot(slot);
+        }
+    }
+
+    /**
+     * @return The slot holding the given path or -1.
+     */
+    private int find(byte[] pathBytes, long hash) {
+        int slot = index(hash);
+        while (true) {
+            long entry = slotEntry(slot);
+            if (entry == EMPTY)
+                return -1;
+            if (entry != REMOVED && slotHash(slot) == hash && pathEquals(entry - 1, pathBytes))
+                return slot;
+            slot = nextSlot(slot);
+        }
+    }
+
+    private void ensureCapacity() {
+        if ((usedSlotCount + 1) * 100L <= (long) capacity * MAX_LOAD_PERCENT)
+            return;
+        // only grow if the table is not mostly filled by removed slots
+        int newCapacity = (size + 1) * 100L > (long) capacity * MAX_LOAD_PERCENT / 2 ? capacity * 2 : capacity;
+        if (newCapacity > MAX_CAPACITY)
+            throw new IllegalStateException("Can not hold more than %s file states".formatted((long) MAX_CAPACITY * MAX_LOAD_PERCENT / 100));
+        ByteBuffer oldTable = table;
+        int oldCapacity = capacity;
+        table = allocate(newCapacity * SLOT_SIZE);
+        capacity = newCapacity;
+        usedSlotCount = 0;
+        for (int oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+            long entry = oldTable.getLong(oldSlot * SLOT_SIZE + Long.BYTES);
+            if (entry > 0) {
+                long hash = oldTable.getLong(oldSlot * SLOT_SIZE);
+                int slot = index(hash);
+                while (slotEntry(slot) != EMPTY)
+                    slot = nextSlot(slot);
+                writeSlot(slot, hash, entry - 1);
+                usedSlotCount++;
+            }
+        }
+    }
+
+    private long append(byte[] pathBytes, Instant lastModified, CheckpointChecksum checksum) {
+        int length = Integer.BYTES + pathBytes.length + Long.BYTES + Integer.BYTES + Integer.BYTES + checksum.count() * Long.BYTES + 2 * Long.BYTES;
+        long address = reserve(length);
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address);
+        chunk.putInt(offset, pathBytes.length);
+        offset += Integer.BYTES;
+        chunk.put(offset, pathBytes);
+        offset += pathBytes.length;
+        chunk.putLong(offset, lastModified.getEpochSecond());
+        offset += Long.BYTES;
+        chunk.putInt(offset, lastModified.getNano());
+        offset += Integer.BYTES;
+        chunk.putInt(offset, checksum.count());
+        offset += Integer.BYTES;
+        for (int i = 0; i < checksum.count(); i++) {
+            chunk.putLong(offset, checksum.get(i));
+            offset += Long.BYTES;
+        }
+        chunk.putLong(offset, checksum.size());
+        offset += Long.BYTES;
+        chunk.putLong(offset, checksum.tailChecksum());
+        return address;
+    }
+
+    private FileState decode(long address) {
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address);
+        byte[] pathBytes = new byte[chunk.getInt(offset)];
+        offset += Integer.BYTES;
+        chunk.get(offset, pathBytes);
+        offset += pathBytes.length;
+        long epochSecond = chunk.getLong(offset);
+        offset += Long.BYTES;
+        int nanos = chunk.getInt(offset);
+        offset += Integer.BYTES;
+        long[] checksums = new long[chunk.getInt(offset)];
+        offset += Integer.BYTES;
+        for (int i = 0; i < checksums.length; i++) {
+            checksums[i] = chunk.getLong(offset);
+            offset += Long.BYTES;
+        }
+        long size = chunk.getLong(offset);
+        offset += Long.BYTES;
+        long tailChecksum = chunk.getLong(offset);
+        return new FileState(
+                Path.of(new String(pathBytes, StandardCharsets.UTF_8)),
+                Instant.ofEpochSecond(epochSecond, nanos),
+                CheckpointChecksum.of(checksums, size, tailChecksum));
+    }
+
+    private Path decodePath(long address) {
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address);
+        byte[] pathBytes = new byte[chunk.getInt(offset)];
+        chunk.get(offset + Integer.BYTES, pathBytes);
+        return Path.of(new String(pathBytes, StandardCharsets.UTF_8));
+    }
+
+    private static int entryLength(ByteBuffer chunk, int offset) {
+        int pathByteCount = chunk.getInt(offset);
+        int checksumCountOffset = offset + Integer.BYTES + pathByteCount + Long.BYTES + Integer.BYTES;
+        return checksumCountOffset + Integer.BYTES + chunk.getInt(checksumCountOffset) * Long.BYTES + 2 * Long.BYTES - offset;
+    }
+
+    private boolean pathEquals(long address, byte[] pathBytes) {
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address);
+        if (chunk.getInt(offset) != pathBytes.length)
+            return false;
+        offset += Integer.BYTES;
+        for (int i = 0; i < pathBytes.length; i++) {
+            if (chunk.get(offset + i) != pathBytes[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The address of a new region of the given length. Regions never span multiple chunks.
+     */
+    private long reserve(int length) {
+        if (chunks.isEmpty() || chunks.getLast().capacity() - writeOffset < length) {
+            chunks.add(allocate(Math.max(CHUNK_SIZE, length)));
+            writeOffset = 0;
+        }
+        long address = ((long) (chunks.size() - 1) << 32) | writeOffset;
+        writeOffset += length;
+        return address;
+    }
+
+    private ByteBuffer chunk(long address) {
+        return chunks.get((int) (address >>> 32));
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private long slotHash(int slot) {
+        return table.getLong(slot * SLOT_SIZE);
+    }
+
+    private long slotEntry(int slot) {
+        return table.getLong(slot * SLOT_SIZE + Long.BYTES);
+    }
+
+    private void writeSlot(int slot, long hash, long address) {
+        table.putLong(slot * SLOT_SIZE, hash);
+        table.putLong(slot * SLOT_SIZE + Long.BYTES, address + 1);
+    }
+
+    private int index(long hash) {
+        // spreads the bits of the hash before dropping the upper bits
+        long mixed = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        mixed ^= mixed >>> 33;
+        return (int) (mixed & (capacity - 1));
+    }
+
+    private int nextSlot(int slot) {
+        return (slot + 1) & (capacity - 1);
+    }
+
+    private static byte[] encode(Path path) {
+        return path.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * FNV-1a
+     */
+    private static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes)
+            hash = (hash ^ b) * 0x100000001b3L;
+        return hash;
+    }
+
+    private static ByteBuffer allocate(int byteCount) {
+        return ByteBuffer.allocateDirect(byteCount).order(ByteOrder.nativeOrder());
+    }
+
+    private class PathIterator implements Iterator<Path> {
+
+        private int nextSlot = -1;
+
+        private PathIterator() {
+            advance();
+        }
+
+        private void advance() {
+            do {
+                nextSlot++;
+            } while (nextSlot < capacity && slotEntry(nextSlot) <= 0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextSlot < capacity;
+        }
+
+        @Override
+        public Path next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Path path = decodePath(slotEntry(nextSlot) - 1);
+            advance();
+            return path;
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.service.diffing.copy.CopyAction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An append-only record of the copy actions completed while writing a snapshot, so that an interrupted snapshot can be
+ * resumed without performing these actions again.
+ * <p>
+ * Like the lines of a file system state, every entry is finished by {@link Character#MIN_VALUE} and a new line, as
+ * paths may contain new line characters. An entry is either a parameter {@code P;key;value}, a completed action
+ * together with the state of the written file {@code S;type;state} or a completed action without state
+ * {@code A;type;path}.
+ * </p>
+ * <p>
+ * Entries are buffered and forced to the storage device at checkpoints taking place every
+ * {@link #CHECKPOINT_INTERVAL_ENTRIES} entries or {@link #CHECKPOINT_INTERVAL}, whatever comes first. An entry torn by
+ * a crash is discarded when resuming.
+ * </p>
+ * Not thread safe.
+ */
+public class ActionJournal implements AutoCloseable {
+
+    public static final String FILE_NAME = ".journal";
+    private static final int CHECKPOINT_INTERVAL_ENTRIES = 1024;
+    private static final Duration CHECKPOINT_INTERVAL = Duration.ofSeconds(10);
+    private static final String PARAMETER_KIND = "P";
+    private static final String STATE_KIND = "S";
+    private static final String ACTION_KIND = "A";
+    private static final String FIELD_SEPARATOR = ";";
+    private static final char ENTRY_END = Character.MIN_VALUE;
+
+    private final FileChannel channel;
+    private final Writer writer;
+    private final Map<String, String> parameters;
+    private final Map<Path, Entry> completedEntries;
+    private final boolean resumed;
+    private int uncheckpointedCount = 0;
+    private long lastCheckpointNanos = System.nanoTime();
+
+    /**
+     * Fails if the journal already exists.
+     * @param parameters Arbitrary values needed to resume the task recorded by the journal.
+     */
+    public static ActionJournal create(Path path, Map<String, String> parameters) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        ActionJournal journal = new ActionJournal(channel, new LinkedHashMap<>(parameters), Map.of(), false);
+        for (Map.Entry<String, String> parameter : parameters.entrySet())
+            journal.append(PARAMETER_KIND, parameter.getKey(), parameter.getValue());
+        journal.checkpoint();
+        return journal;
+    }
+
+    /**
+     * Reads all complete entries of an existing journal and continues it.
+     */
+    public static ActionJournal resume(Path path) throws IOException {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        Map<Path, Entry> completedEntries = new HashMap<>();
+        long completeLength = 0;
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+            ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+            long position = 0;
+            int nextByte;
+            while ((nextByte = is.read()) > -1) {
+                position++;
+                if (nextByte != ENTRY_END) {
+                    entryBytes.write(nextByte);
+                    continue;
+                }
+                // skip new line character
+                position += is.skip(1);
+                String[] fields = entryBytes.toString(StandardCharsets.UTF_8).split(FIELD_SEPARATOR, 3);
+                entryBytes.reset();
+                if (fields.length != 3)
+                    throw new IOException("Corrupt journal entry at byte %s of %s".formatted(completeLength, path));
+                switch (fields[0]) {
+                    case PARAMETER_KIND -> parameters.put(fields[1], fields[2]);
+                    case STATE_KIND -> {
+                        FileState state;
+                        try {
+                            state = FileState.deserialize(fields[2]);
+                        } catch (RuntimeException e) {
+                            throw new IOException("Corrupt journal entry at byte %s of %s: %s".formatted(completeLength, path, e.getMessage()), e);
+                        }
+                        completedEntries.put(state.getPath(), new Entry(fields[1], state.getPath(), state));
+                    }
+                    case ACTION_KIND -> completedEntries.put(Path.of(fields[2]), new Entry(fields[1], Path.of(fields[2]), null));
+                    default -> throw new IOException("Unknown journal entry kind %s at byte %s of %s".formatted(fields[0], completeLength, path));
+                }
+                completeLength = position;
+            }
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        try {
+            // discards an entry torn by a crash
+            channel.truncate(completeLength);
+            channel.position(completeLength);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new ActionJournal(channel, parameters, completedEntries, true);
+    }
+
+    private ActionJournal(FileChannel channel, Map<String, String> parameters, Map<Path, Entry> completedEntries, boolean resumed) {
+        this.channel = channel;
+        this.writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), 1 << 16);
+        this.parameters = parameters;
+        this.completedEntries = completedEntries;
+        this.resumed = resumed;
+    }
+
+    public Map<String, String> getParameters() {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    /**
+     * @return true if this journal continues an existing journal.
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * @return The number of completed actions read when resuming.
+     */
+    public int getCompletedCount() {
+        return completedEntries.size();
+    }
+
+    /**
+     * @return The entry of the completed action affecting the given path read when resuming.
+     */
+    Optional<Entry> getCompleted(Path relPath) {
+        return Optional.ofNullable(completedEntries.get(relPath));
+    }
+
+    /**
+     * Records a completed action. The entry is durable after the next checkpoint.
+     * @param newState The state of the file written by the action if available.
+     */
+    void record(CopyAction copyAction, /* nullable */ FileState newState) throws IOException {
+        if (newState != null)
+            append(STATE_KIND, copyAction.getType(), newState.serialize());
+        else
+            append(ACTION_KIND, copyAction.getType(), copyAction.getRelPath().toString());
+    }
+
+    private void append(String kind, String key, String value) throws IOException {
+        writer.write(String.join(FIELD_SEPARATOR, kind, key, value));
+        writer.write(ENTRY_END);
+        writer.write('\n');
+        uncheckpointedCount++;
+        if (uncheckpointedCount >= CHECKPOINT_INTERVAL_ENTRIES || System.nanoTime() - lastCheckpointNanos >= CHECKPOINT_INTERVAL.toNanos())
+            checkpoint();
+    }
+
+    /**
+     * Forces all recorded entries to the storage device.
+     */
+    public void checkpoint() throws IOException {
+        writer.flush();
+        channel.force(false);
+        uncheckpointedCount = 0;
+        lastCheckpointNanos = System.nanoTime();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (writer) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * @param state The state of the written file. {@code null} if the action did not write a regular file.
+     */
+    record Entry(String type, Path relPath, /* nullable */ FileState state) {}
+
+}
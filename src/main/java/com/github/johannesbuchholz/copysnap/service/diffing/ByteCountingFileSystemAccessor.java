@@ -0,0 +1,64 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * Delegates to another accessor and counts the bytes written through output streams created by this accessor or
+ * transferred by {@link #transfer(Path, Path)} or {@link #write(Path, byte[], int, int)}.
+ * Not thread safe.
+ */
+class ByteCountingFileSystemAccessor extends ForwardingFileSystemAccessor {
+
+    private long writtenByteCount = 0;
+
+    ByteCountingFileSystemAccessor(FileSystemAccessor delegate) {
+        super(delegate);
+    }
+
+    long getWrittenByteCount() {
+        return writtenByteCount;
+    }
+
+    @Override
+    public OutputStream createNewOutputStream(Path path) throws IOException {
+        return counting(delegate.createNewOutputStream(path));
+    }
+
+    @Override
+    public OutputStream createNewOutputStream(Path path, long expectedSize) throws IOException {
+        return counting(delegate.createNewOutputStream(path, expectedSize));
+    }
+
+    private OutputStream counting(OutputStream os) {
+        return new FilterOutputStream(os) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                writtenByteCount++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                writtenByteCount += len;
+            }
+        };
+    }
+
+    @Override
+    public void write(Path path, byte[] buffer, int offset, int length) throws IOException {
+        delegate.write(path, buffer, offset, length);
+        writtenByteCount += length;
+    }
+
+    @Override
+    public long transfer(Path absSource, Path absDestination) throws IOException {
+        long transferredByteCount = delegate.transfer(absSource, absDestination);
+        writtenByteCount += transferredByteCount;
+        return transferredByteCount;
+    }
+
+}
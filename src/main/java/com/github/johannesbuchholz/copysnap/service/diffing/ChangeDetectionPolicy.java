@@ -0,0 +1,54 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import java.util.Arrays;
+
+/**
+ * How to decide whether a file recorded in the previous snapshot has changed. Policies trade read I/O for certainty.
+ * Every policy considers a file changed if its size no longer fits the recorded checksum, see
+ * {@link com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum#matchesSize(long)}.
+ */
+public enum ChangeDetectionPolicy {
+
+    /**
+     * A file with an advanced last modified time is considered changed without reading it.
+     */
+    MTIME_SIZE("mtime-size"),
+    /**
+     * A file with an advanced last modified time is considered changed if the checksums of its first
+     * {@link #SAMPLED_CHECKPOINT_COUNT} checkpoints differ.
+     */
+    SAMPLED("sampled"),
+    /**
+     * A file with an advanced last modified time is considered changed if its checksum differs.
+     */
+    CHECKSUM("checksum"),
+    /**
+     * Every file is considered changed if its checksum differs regardless of its last modified time. Cached checksums
+     * are not trusted, every file is read.
+     */
+    PARANOID("paranoid");
+
+    /**
+     * Covers the first 1 MiB of a file.
+     */
+    public static final int SAMPLED_CHECKPOINT_COUNT = 13;
+
+    private final String name;
+
+    ChangeDetectionPolicy(String name) {
+        this.name = name;
+    }
+
+    public static ChangeDetectionPolicy fromName(String name) {
+        return Arrays.stream(values())
+                .filter(policy -> policy.name.equals(name.trim()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown change detection policy %s, expected one of %s"
+                        .formatted(name, Arrays.stream(values()).map(ChangeDetectionPolicy::getName).toList())));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Selects the {@link ChangeDetectionPolicy} of a file by the first rule whose glob pattern matches the path of the
+ * file relative to the source root location, like {@code r/media/**}. Files not matched by any rule use the default
+ * policy.
+ * <p>
+ * Serialized as the default policy followed by rules of the form {@code glob=policy}, all delimited by
+ * {@value RULE_DELIMITER}, like {@code checksum:r/media/**=mtime-size:r/etc/**=paranoid}. A delimiter within a glob
+ * pattern is escaped by a backslash, like {@code r/backup\:2024/**}. Other backslashes belong to the glob pattern.
+ * </p>
+ */
+public final class ChangeDetectionRules {
+
+    public static final ChangeDetectionRules DEFAULT = new ChangeDetectionRules(ChangeDetectionPolicy.CHECKSUM, List.of());
+
+    private static final char RULE_DELIMITER = ':';
+    private static final char POLICY_DELIMITER = '=';
+    private static final char ESCAPE = '\\';
+
+    /**
+     * @throws IllegalArgumentException If the string does not describe valid rules. The message names the offending
+     *                                  part.
+     */
+    public static ChangeDetectionRules parse(String rulesString) {
+        List<String> elements = split(rulesString);
+        ChangeDetectionPolicy defaultPolicy = ChangeDetectionPolicy.fromName(elements.get(0));
+        List<Rule> rules = new ArrayList<>(elements.size() - 1);
+        for (int i = 1; i < elements.size(); i++) {
+            String element = elements.get(i);
+            // policy names never contain the delimiter, glob patterns may
+            int policyDelimiterIndex = element.lastIndexOf(POLICY_DELIMITER);
+            if (policyDelimiterIndex < 1)
+                throw new IllegalArgumentException("Change detection rule '%s' is not of the form glob%spolicy".formatted(element, POLICY_DELIMITER));
+            String globPattern = element.substring(0, policyDelimiterIndex);
+            try {
+                FileSystemAccessor.getGlobPathMatcher(globPattern);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Change detection rule '%s' has an invalid glob pattern: %s".formatted(element, e.getMessage()), e);
+            }
+            rules.add(new Rule(globPattern, ChangeDetectionPolicy.fromName(element.substring(policyDelimiterIndex + 1))));
+        }
+        return new ChangeDetectionRules(defaultPolicy, rules);
+    }
+
+    /**
+     * Splits at unescaped delimiters and removes their escapes. Any other backslash belongs to the glob pattern.
+     */
+    private static List<String> split(String rulesString) {
+        List<String> elements = new ArrayList<>();
+        StringBuilder element = new StringBuilder();
+        for (int i = 0; i < rulesString.length(); i++) {
+            char c = rulesString.charAt(i);
+            if (c == ESCAPE && i + 1 < rulesString.length() && rulesString.charAt(i + 1) == RULE_DELIMITER) {
+                element.append(RULE_DELIMITER);
+                i++;
+            } else if (c == RULE_DELIMITER) {
+                elements.add(element.toString());
+                element.setLength(0);
+            } else {
+                element.append(c);
+            }
+        }
+        elements.add(element.toString());
+        return elements;
+    }
+
+    /**
+     * @return Rules applying the given policy to all files.
+     */
+    public static ChangeDetectionRules of(ChangeDetectionPolicy policy) {
+        return new ChangeDetectionRules(policy, List.of());
+    }
+
+    private final ChangeDetectionPolicy defaultPolicy;
+    private final List<Rule> rules;
+    private final List<PathMatcher> matchers;
+
+    public ChangeDetectionRules(ChangeDetectionPolicy defaultPolicy, List<Rule> rules) {
+        this.defaultPolicy = Objects.requireNonNull(defaultPolicy);
+        this.rules = List.copyOf(rules);
+        this.matchers = rules.stream().map(rule -> FileSystemAccessor.getGlobPathMatcher(rule.globPattern())).toList();
+    }
+
+    public ChangeDetectionPolicy policyFor(Path relPath) {
+        for (int i = 0; i < rules.size(); i++)
+            if (matchers.get(i).matches(relPath))
+                return rules.get(i).policy();
+        return defaultPolicy;
+    }
+
+    public ChangeDetectionPolicy defaultPolicy() {
+        return defaultPolicy;
+    }
+
+    public List<Rule> rules() {
+        return rules;
+    }
+
+    public String serialize() {
+        StringBuilder sb = new StringBuilder(defaultPolicy.getName());
+        for (Rule rule : rules)
+            sb.append(RULE_DELIMITER)
+                    .append(rule.globPattern().replace(String.valueOf(RULE_DELIMITER), "" + ESCAPE + RULE_DELIMITER))
+                    .append(POLICY_DELIMITER)
+                    .append(rule.policy().getName());
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ChangeDetectionRules other && defaultPolicy == other.defaultPolicy && rules.equals(other.rules);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(defaultPolicy, rules);
+    }
+
+    @Override
+    public String toString() {
+        return serialize();
+    }
+
+    public record Rule(String globPattern, ChangeDetectionPolicy policy) {
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+
+/**
+ * Delegates to another accessor and caches checksums in the extended attribute {@value USER_NAMESPACE}{@value ATTRIBUTE_NAME}
+ * of the checksummed files. Attributes are read and written through the delegate. The cache may be shared by every
+ * context snapshotting the same files as well as by other tools.
+ * <p>
+ * An entry records the checksum algorithm, the last modified time and the size of the file at the time it has been
+ * hashed. It is only used while the file still has the same last modified time and size. Writing an entry does not
+ * change the last modified time of the file.
+ * </p>
+ * <p>
+ * The cache is best effort: On file systems without user defined attributes, on read-only files or on malformed
+ * entries, the cache is bypassed silently.
+ * </p>
+ */
+public class ChecksumCachingFileSystemAccessor extends ForwardingFileSystemAccessor {
+
+    static final String USER_NAMESPACE = "user.";
+    static final String ATTRIBUTE_NAME = "copysnap.checksum";
+    static final String ALGORITHM = "crc32-checkpoints";
+
+    private static final String FIELD_DELIMITER = ";";
+
+    public ChecksumCachingFileSystemAccessor(FileSystemAccessor delegate) {
+        super(delegate);
+    }
+
+    /**
+     * @return The cached checksum of the file if it has been recorded for the given last modified time and size.
+     */
+    @Override
+    public Optional<CheckpointChecksum> getCachedChecksum(Path p, Instant lastModified, long size) {
+        try {
+            return delegate.readUserAttribute(p, ATTRIBUTE_NAME).flatMap(entry -> decode(entry, lastModified, size));
+        } catch (IOException | UnsupportedOperationException e) {
+            // not cached or not supported
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Checksums without size and tail are not cached as they can not be validated against the size of the file.
+     */
+    @Override
+    public void cacheChecksum(Path p, Instant lastModified, CheckpointChecksum checksum) {
+        if (!checksum.hasTail())
+            return;
+        try {
+            delegate.writeUserAttribute(p, ATTRIBUTE_NAME, encode(lastModified, checksum));
+        } catch (IOException | UnsupportedOperationException e) {
+            // the cache is optional
+        }
+    }
+
+    static String encode(Instant lastModified, CheckpointChecksum checksum) {
+        return String.join(FIELD_DELIMITER, ALGORITHM, lastModified.toString(), String.valueOf(checksum.size()), checksum.serialize());
+    }
+
+    static Optional<CheckpointChecksum> decode(String entry, Instant lastModified, long size) {
+        String[] fields = entry.split(FIELD_DELIMITER);
+        if (fields.length != 4 || !ALGORITHM.equals(fields[0]))
+            return Optional.empty();
+        try {
+            if (!Instant.parse(fields[1]).equals(lastModified) || Long.parseLong(fields[2]) != size)
+                return Optional.empty();
+            CheckpointChecksum checksum = CheckpointChecksum.deserialize(fields[3]);
+            return checksum.hasTail() && checksum.size() == size ? Optional.of(checksum) : Optional.empty();
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Compares against a valid cached checksum without reading the file. Otherwise, reads the file and caches the
+     * expected checksum if it matches.
+     */
+    @Override
+    public boolean areChecksumsEqual(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        BasicFileAttributes attrs = delegate.readAttributes(p);
+        Instant lastModified = attrs.lastModifiedTime().toInstant();
+        Optional<CheckpointChecksum> cachedChecksum = getCachedChecksum(p, lastModified, attrs.size());
+        if (cachedChecksum.isPresent())
+            return cachedChecksum.get().hasSameContentAs(expectedChecksum);
+        boolean areChecksumsEqual = delegate.areChecksumsEqual(expectedChecksum, p);
+        if (areChecksumsEqual && expectedChecksum.hasTail() && expectedChecksum.size() == attrs.size())
+            cacheChecksum(p, lastModified, expectedChecksum);
+        return areChecksumsEqual;
+    }
+
+    /**
+     * Reads the file without consulting the cache. Caches the expected checksum if it matches.
+     */
+    @Override
+    public boolean areChecksumsEqualUncached(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        BasicFileAttributes attrs = delegate.readAttributes(p);
+        boolean areChecksumsEqual = delegate.areChecksumsEqualUncached(expectedChecksum, p);
+        if (areChecksumsEqual && expectedChecksum.hasTail() && expectedChecksum.size() == attrs.size())
+            cacheChecksum(p, attrs.lastModifiedTime().toInstant(), expectedChecksum);
+        return areChecksumsEqual;
+    }
+
+}
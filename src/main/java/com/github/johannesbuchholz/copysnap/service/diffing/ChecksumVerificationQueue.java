@@ -0,0 +1,180 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.util.BoundedExecutor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Compares checksums of files in the background so that walking the source does not wait for hashing. Large files
+ * are hashed on their own workers and can not hold up small files. Small files are hashed in batches to keep the
+ * scheduling overhead per file low.
+ * <p>
+ * Verdicts are collected and handed to {@link #drainVerdicts(Consumer)}, so that the walking thread remains the only
+ * one modifying the {@link FileSystemNode} tree. Submitting blocks if too many verifications are pending.
+ * </p>
+ * <p>
+ * If the expected checksum has a tail, the size and the tail are compared first, so that most changes to the end of a
+ * file are found from a few reads.
+ * </p>
+ */
+class ChecksumVerificationQueue implements AutoCloseable {
+
+    /**
+     * Files of at least this size are hashed by the workers for large files.
+     */
+    static final long LARGE_FILE_MIN_SIZE = 64L * 1024 * 1024;
+    private static final int SMALL_FILE_BATCH_SIZE = 32;
+    private static final long SMALL_FILE_BATCH_MAX_BYTES = 8L * 1024 * 1024;
+
+    enum Change {UNCHANGED, MODIFIED}
+
+    private final FileSystemAccessor fileSystemAccessor;
+    private final BoundedExecutor smallFileExecutor;
+    private final BoundedExecutor largeFileExecutor;
+    private final Queue<Verdict> verdicts = new ConcurrentLinkedQueue<>();
+
+    // only accessed by the submitting thread
+    private List<Verification> pendingBatch = new ArrayList<>();
+    private long pendingBatchByteCount = 0;
+
+    /**
+     * @param parallelism The number of threads hashing small files. A quarter of it, but at least one thread, hashes
+     *                    large files.
+     */
+    ChecksumVerificationQueue(FileSystemAccessor fileSystemAccessor, int parallelism) {
+        this.fileSystemAccessor = fileSystemAccessor;
+        this.smallFileExecutor = BoundedExecutor.withParallelism(parallelism);
+        this.largeFileExecutor = BoundedExecutor.withParallelism(Math.max(1, parallelism / 4));
+    }
+
+    /**
+     * Not thread safe.
+     */
+    void submit(Verification verification) {
+        if (verification.size() >= LARGE_FILE_MIN_SIZE) {
+            largeFileExecutor.submit(() -> verify(verification));
+            return;
+        }
+        pendingBatch.add(verification);
+        pendingBatchByteCount += Math.max(0, verification.size());
+        if (pendingBatch.size() >= SMALL_FILE_BATCH_SIZE || pendingBatchByteCount >= SMALL_FILE_BATCH_MAX_BYTES)
+            submitPendingBatch();
+    }
+
+    private void submitPendingBatch() {
+        if (pendingBatch.isEmpty())
+            return;
+        List<Verification> batch = pendingBatch;
+        pendingBatch = new ArrayList<>();
+        pendingBatchByteCount = 0;
+        smallFileExecutor.submit(() -> batch.forEach(this::verify));
+    }
+
+    private void verify(Verification verification) {
+        try {
+            verdicts.add(new Verdict(verification, compare(verification), null));
+        } catch (IOException e) {
+            addFailedVerdict(verification, e);
+        } catch (UncheckedIOException e) {
+            // thrown while reading checkpoints
+            addFailedVerdict(verification, e.getCause());
+        }
+    }
+
+    private void addFailedVerdict(Verification verification, IOException e) {
+        String errorMsg = "Could not determine hash at %s: %s".formatted(verification.absPath(), e.getMessage());
+        verdicts.add(new Verdict(verification, Change.MODIFIED, new IOException(errorMsg, e)));
+    }
+
+    private Change compare(Verification verification) throws IOException {
+        CheckpointChecksum expected = verification.expectedChecksum();
+        if (expected.hasTail()) {
+            if (verification.size() != expected.size() || !fileSystemAccessor.hasSameTail(expected, verification.absPath()))
+                return Change.MODIFIED;
+        }
+        return hasSameChecksum(verification) ? Change.UNCHANGED : Change.MODIFIED;
+    }
+
+    private boolean hasSameChecksum(Verification verification) throws IOException {
+        if (verification.isFull() && verification.paranoid())
+            return fileSystemAccessor.areChecksumsEqualUncached(verification.expectedChecksum(), verification.absPath());
+        if (verification.isFull())
+            return fileSystemAccessor.areChecksumsEqual(verification.expectedChecksum(), verification.absPath());
+        try (InputStream is = fileSystemAccessor.createNewInputStream(verification.absPath())) {
+            return verification.expectedChecksum().hasSameChecksum(is, verification.maxCheckpointCount());
+        }
+    }
+
+    /**
+     * Hands all verdicts arrived so far to the given consumer on the calling thread.
+     */
+    void drainVerdicts(Consumer<Verdict> verdictConsumer) {
+        Verdict verdict;
+        while ((verdict = verdicts.poll()) != null)
+            verdictConsumer.accept(verdict);
+    }
+
+    /**
+     * Blocks until all submitted verifications have a verdict. Not thread safe.
+     */
+    void awaitCompletion() {
+        submitPendingBatch();
+        smallFileExecutor.awaitCompletion();
+        largeFileExecutor.awaitCompletion();
+    }
+
+    @Override
+    public void close() {
+        try {
+            smallFileExecutor.close();
+        } finally {
+            largeFileExecutor.close();
+        }
+    }
+
+    /**
+     * @param size               The size of the file as seen while walking. Compared to the recorded size if the
+     *                           expected checksum has a tail.
+     * @param maxCheckpointCount The number of leading checkpoints to compare.
+     * @param paranoid           If true, the file is read even if a valid cached checksum is available.
+     */
+    record Verification(FileSystemNode node, Path absPath, CheckpointChecksum expectedChecksum, long size, int maxCheckpointCount, boolean paranoid) {
+
+        /**
+         * Compares all checkpoints.
+         */
+        Verification(FileSystemNode node, Path absPath, CheckpointChecksum expectedChecksum, long size) {
+            this(node, absPath, expectedChecksum, size, Integer.MAX_VALUE, false);
+        }
+
+        Verification(FileSystemNode node, Path absPath, CheckpointChecksum expectedChecksum, long size, int maxCheckpointCount) {
+            this(node, absPath, expectedChecksum, size, maxCheckpointCount, false);
+        }
+
+        boolean isFull() {
+            return maxCheckpointCount >= expectedChecksum.count();
+        }
+
+    }
+
+    /**
+     * @param exception Set if the checksum could not be determined. The file is considered modified in that case.
+     */
+    record Verdict(Verification verification, Change change, IOException exception) {
+
+        boolean changed() {
+            return change != Change.UNCHANGED;
+        }
+
+    }
+
+}
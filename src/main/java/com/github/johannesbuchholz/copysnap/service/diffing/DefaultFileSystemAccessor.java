@@ -5,24 +5,109 @@ import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
 import java.time.Instant;
+import java.util.Optional;
 import java.util.Set;
 
+/**
+ * Accesses files through {@link Files} and {@link FileChannel}. Optionally reads and writes large files with
+ * {@code com.sun.nio.file.ExtendedOpenOption.DIRECT}, so that streaming a snapshot does not evict the page cache of
+ * other processes. Falls back to cached I/O where direct I/O is not supported.
+ * <p>
+ * Blocks of zeros in large files are not written, which preserves holes of sparse files, see
+ * {@link SparseOutputStream}.
+ * </p>
+ */
 public class DefaultFileSystemAccessor implements FileSystemAccessor {
 
+    private final long directIoMinSize;
+
+    public DefaultFileSystemAccessor() {
+        this(-1);
+    }
+
+    /**
+     * @param directIoMinSize Files expected to have at least this size are accessed with direct I/O. Negative values
+     *                        disable direct I/O.
+     */
+    public DefaultFileSystemAccessor(long directIoMinSize) {
+        this.directIoMinSize = directIoMinSize;
+    }
+
+    private boolean isDirectIoSize(long expectedSize) {
+        return directIoMinSize >= 0 && expectedSize >= directIoMinSize;
+    }
+
     @Override
     public Instant getLastModifiedTime(Path p) throws IOException {
         return Files.getLastModifiedTime(p).toInstant();
     }
 
+    @Override
+    public BasicFileAttributes readAttributes(Path p) throws IOException {
+        return Files.readAttributes(p, BasicFileAttributes.class);
+    }
+
+    @Override
+    public Optional<String> readUserAttribute(Path p, String name) throws IOException {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(p, UserDefinedFileAttributeView.class);
+        if (view == null)
+            return Optional.empty();
+        ByteBuffer buffer = ByteBuffer.allocate(view.size(name));
+        view.read(name, buffer);
+        return Optional.of(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void writeUserAttribute(Path p, String name, String value) throws IOException {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(p, UserDefinedFileAttributeView.class);
+        if (view == null)
+            throw new UnsupportedOperationException("User defined attributes are not supported: " + p);
+        view.write(name, ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
     @Override
     public boolean areChecksumsEqual(CheckpointChecksum expectedChecksum, Path p) throws IOException {
-        try (InputStream is = Files.newInputStream(p)) {
+        try (InputStream is = createNewInputStream(p, expectedChecksum.hasTail() ? expectedChecksum.size() : -1)) {
             return expectedChecksum.hasSameChecksum(is);
         }
     }
 
+    @Override
+    public boolean areChecksumsEqualUncached(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        return areChecksumsEqual(expectedChecksum, p);
+    }
+
+    @Override
+    public boolean hasSameTail(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        if (!expectedChecksum.hasTail())
+            return false;
+        ByteBuffer tail = ByteBuffer.allocate(expectedChecksum.tailLength());
+        try (FileChannel channel = FileChannel.open(p, StandardOpenOption.READ)) {
+            while (tail.hasRemaining())
+                if (channel.read(tail, expectedChecksum.tailOffset() + tail.position()) < 0)
+                    return false;
+        }
+        return expectedChecksum.hasSameTail(tail.array(), 0, tail.capacity());
+    }
+
+    @Override
+    public Optional<CheckpointChecksum> getCachedChecksum(Path p, Instant lastModified, long size) {
+        return Optional.empty();
+    }
+
+    @Override
+    public void cacheChecksum(Path p, Instant lastModified, CheckpointChecksum checksum) {
+        // no cache
+    }
+
     @Override
     public OutputStream createNewOutputStream(Path path) throws IOException {
         return Files.newOutputStream(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
@@ -33,6 +118,73 @@ public class DefaultFileSystemAccessor implements FileSystemAccessor {
         return Files.newInputStream(path);
     }
 
+    @Override
+    public OutputStream createNewOutputStream(Path path, long expectedSize) throws IOException {
+        if (isDirectIoSize(expectedSize)) {
+            try {
+                return DirectOutputStream.open(path);
+            } catch (FileAlreadyExistsException e) {
+                throw e;
+            } catch (IOException | UnsupportedOperationException e) {
+                // the file might have been created before direct I/O has been refused
+                Files.deleteIfExists(path);
+            }
+        }
+        if (expectedSize >= SparseOutputStream.SPARSE_MIN_SIZE)
+            return SparseOutputStream.open(path);
+        return createNewOutputStream(path);
+    }
+
+    @Override
+    public InputStream createNewInputStream(Path path, long expectedSize) throws IOException {
+        if (isDirectIoSize(expectedSize)) {
+            try {
+                return DirectInputStream.open(path);
+            } catch (IOException | UnsupportedOperationException e) {
+                // not supported by the file store, actual errors are reported by the cached fallback
+            }
+        }
+        return createNewInputStream(path);
+    }
+
+    @Override
+    public int read(Path path, byte[] buffer, int offset, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readFully(channel::read, ByteBuffer.wrap(buffer, offset, length));
+        }
+    }
+
+    /**
+     * Single reads may return fewer bytes than requested before the end of the file, for example on network file
+     * systems. Hence, reads are repeated until the buffer is full or the end of the file is reached.
+     * @param buffer Receives the bytes from position 0 of the file on.
+     * @return The number of bytes read.
+     */
+    static int readFully(PositionalReader reader, ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining())
+            if (reader.read(buffer, buffer.position() - start) < 0)
+                break;
+        return buffer.position() - start;
+    }
+
+    /**
+     * Like {@link FileChannel#read(ByteBuffer, long)}.
+     */
+    @FunctionalInterface
+    interface PositionalReader {
+        int read(ByteBuffer buffer, long position) throws IOException;
+    }
+
+    @Override
+    public void write(Path path, byte[] buffer, int offset, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length);
+            while (byteBuffer.hasRemaining())
+                channel.write(byteBuffer);
+        }
+    }
+
     @Override
     public void createDirectories(Path path) throws IOException {
         Files.createDirectories(path);
@@ -40,7 +192,13 @@ public class DefaultFileSystemAccessor implements FileSystemAccessor {
 
     @Override
     public void visitFiles(Path root, FileVisitor<Path> visitor) throws IOException {
-        Files.walkFileTree(root, Set.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, visitor);
+        visitFiles(root, visitor, true);
+    }
+
+    @Override
+    public void visitFiles(Path root, FileVisitor<Path> visitor, boolean followLinks) throws IOException {
+        Set<FileVisitOption> options = followLinks ? Set.of(FileVisitOption.FOLLOW_LINKS) : Set.of();
+        Files.walkFileTree(root, options, Integer.MAX_VALUE, visitor);
     }
 
     @Override
@@ -48,4 +206,53 @@ public class DefaultFileSystemAccessor implements FileSystemAccessor {
         Files.createSymbolicLink(absDestination, absSource);
     }
 
+    @Override
+    public void createLink(Path absDestination, Path absExisting) throws IOException {
+        Files.createLink(absDestination, absExisting);
+    }
+
+    @Override
+    public Path toRealPath(Path p) throws IOException {
+        return p.toRealPath();
+    }
+
+    @Override
+    public Path readSymbolicLink(Path link) throws IOException {
+        return Files.readSymbolicLink(link);
+    }
+
+    @Override
+    public void moveAtomically(Path source, Path target) throws IOException {
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void deleteIfExists(Path path) throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public long transfer(Path absSource, Path absDestination) throws IOException {
+        try (
+                FileChannel sourceChannel = FileChannel.open(absSource, StandardOpenOption.READ);
+                FileChannel destinationChannel = FileChannel.open(absDestination, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)
+        ) {
+            long size = sourceChannel.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = sourceChannel.transferTo(position, size - position, destinationChannel);
+                if (transferred <= 0)
+                    // the source has been truncated while copying
+                    break;
+                position += transferred;
+            }
+            return position;
+        }
+    }
+
+    @Override
+    public void setLastModifiedTime(Path p, Instant lastModified) throws IOException {
+        Files.setLastModifiedTime(p, FileTime.from(lastModified));
+    }
+
 }
@@ -0,0 +1,111 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file sequentially with {@code com.sun.nio.file.ExtendedOpenOption.DIRECT}, bypassing the page cache. Reads are issued in
+ * chunks of {@link #CHUNK_SIZE} bytes into a buffer aligned to the block size of the file store, so that every read
+ * starts at an aligned position.
+ */
+class DirectInputStream extends InputStream {
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+    /**
+     * {@code null} if the runtime does not provide direct I/O.
+     */
+    private static final OpenOption DIRECT_OPTION = lookUpDirectOption();
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int blockSize;
+    private boolean endOfFile = false;
+
+    /**
+     * @throws IOException If the file can not be opened or its file store does not support direct I/O.
+     * @throws UnsupportedOperationException If the runtime does not provide direct I/O.
+     */
+    static DirectInputStream open(Path path) throws IOException {
+        int blockSize = Math.toIntExact(Files.getFileStore(path).getBlockSize());
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, directOption());
+        return new DirectInputStream(channel, ByteBuffer.allocateDirect(CHUNK_SIZE + blockSize).alignedSlice(blockSize), blockSize);
+    }
+
+    /**
+     * The option is looked up reflectively, as it is not part of the public API of the JDK.
+     */
+    private static OpenOption lookUpDirectOption() {
+        try {
+            Class<?> optionClass = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            for (Object constant : optionClass.getEnumConstants())
+                if (constant instanceof OpenOption option && ((Enum<?>) constant).name().equals("DIRECT"))
+                    return option;
+        } catch (ClassNotFoundException | LinkageError e) {
+            // not provided by this runtime
+        }
+        return null;
+    }
+
+    /**
+     * @throws UnsupportedOperationException If the runtime does not provide direct I/O.
+     */
+    static OpenOption directOption() {
+        if (DIRECT_OPTION == null)
+            throw new UnsupportedOperationException("Direct I/O is not provided by this runtime");
+        return DIRECT_OPTION;
+    }
+
+    private DirectInputStream(FileChannel channel, ByteBuffer buffer, int blockSize) {
+        this.channel = channel;
+        this.buffer = buffer.limit(0);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return {@code false} if the end of the file has been reached.
+     */
+    private boolean fill() throws IOException {
+        if (buffer.hasRemaining())
+            return true;
+        if (endOfFile)
+            return false;
+        buffer.clear().limit(CHUNK_SIZE);
+        while (buffer.hasRemaining()) {
+            // a read ending at an unaligned position has reached the end of the file, reading on is not possible
+            if (channel.read(buffer) <= 0 || channel.position() % blockSize != 0) {
+                endOfFile = true;
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.hasRemaining();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!fill())
+            return -1;
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
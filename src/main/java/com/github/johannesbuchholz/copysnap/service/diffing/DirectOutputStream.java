@@ -0,0 +1,113 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a new file sequentially with {@code com.sun.nio.file.ExtendedOpenOption.DIRECT}, bypassing the page cache. Bytes are collected
+ * in a buffer aligned to the block size of the file store and written in chunks of
+ * {@link DirectInputStream#CHUNK_SIZE} bytes. On closing, the last chunk is padded to a multiple of the block size
+ * and the file is truncated to the number of bytes actually written.
+ * <p>
+ * Like {@link SparseOutputStream}, blocks of zeros are skipped except for the last block.
+ * {@link #flush()} does not write partial chunks, as direct writes must cover whole blocks.
+ * </p>
+ */
+class DirectOutputStream extends OutputStream {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final ByteBuffer zeroBlock;
+    private final int blockSize;
+    private long writtenByteCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Fails if the file already exists.
+     * @throws IOException If the file can not be created or its file store does not support direct I/O.
+     * @throws UnsupportedOperationException If the runtime does not provide direct I/O.
+     */
+    static DirectOutputStream open(Path path) throws IOException {
+        int blockSize = Math.toIntExact(Files.getFileStore(path.getParent()).getBlockSize());
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW, DirectInputStream.directOption());
+        int chunkSize = DirectInputStream.CHUNK_SIZE;
+        return new DirectOutputStream(channel, ByteBuffer.allocateDirect(chunkSize + blockSize).alignedSlice(blockSize).limit(chunkSize), blockSize);
+    }
+
+    private DirectOutputStream(FileChannel channel, ByteBuffer buffer, int blockSize) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.zeroBlock = ByteBuffer.allocate(blockSize);
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining())
+            writeChunk(false);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining())
+                writeChunk(false);
+            int count = Math.min(len, buffer.remaining());
+            buffer.put(b, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    private void writeChunk(boolean isLast) throws IOException {
+        int byteCount = buffer.position();
+        // pads the last chunk with zeros up to the next block boundary
+        int paddedByteCount = (byteCount + blockSize - 1) / blockSize * blockSize;
+        while (buffer.position() < paddedByteCount)
+            buffer.put((byte) 0);
+        int dataStart = -1;
+        for (int blockStart = 0; blockStart < paddedByteCount; blockStart += blockSize) {
+            boolean isLastBlock = isLast && blockStart + blockSize == paddedByteCount;
+            if (!isLastBlock && buffer.slice(blockStart, blockSize).mismatch(zeroBlock) < 0) {
+                if (dataStart >= 0)
+                    writeFully(dataStart, blockStart);
+                dataStart = -1;
+            } else if (dataStart < 0) {
+                dataStart = blockStart;
+            }
+        }
+        if (dataStart >= 0)
+            writeFully(dataStart, paddedByteCount);
+        writtenByteCount += byteCount;
+        buffer.clear().limit(DirectInputStream.CHUNK_SIZE);
+    }
+
+    /**
+     * Slices of the aligned buffer starting at block boundaries are aligned as well.
+     */
+    private void writeFully(int from, int to) throws IOException {
+        ByteBuffer slice = buffer.slice(from, to - from);
+        while (slice.hasRemaining())
+            channel.write(slice, writtenByteCount + from + slice.position());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try (channel) {
+            if (buffer.position() > 0) {
+                writeChunk(true);
+                channel.truncate(writtenByteCount);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers directories known to exist so that files sharing a directory do not create it over and over again. A
+ * created directory and all of its ancestors are remembered, so that a missing directory below a known one is created
+ * by a single call. Missing ancestors are created top-down by {@link FileSystemAccessor#createDirectories(Path)}.
+ * <p>
+ * Directories removed by others after being cached are not recreated. Thread safe.
+ * </p>
+ */
+public class DirectoryCache {
+
+    private final Set<Path> existingDirectories = ConcurrentHashMap.newKeySet();
+
+    public void createDirectories(Path directory, FileSystemAccessor fsa) throws IOException {
+        if (existingDirectories.contains(directory))
+            return;
+        // creating an existing directory does no harm in case of a concurrent call
+        fsa.createDirectories(directory);
+        Path existing = directory;
+        while (existing != null && existingDirectories.add(existing))
+            existing = existing.getParent();
+    }
+
+    /**
+     * Creates the parent directory of the given path if there is one.
+     */
+    public void createParentDirectories(Path path, FileSystemAccessor fsa) throws IOException {
+        Path parent = path.getParent();
+        if (parent != null)
+            createDirectories(parent, fsa);
+    }
+
+}
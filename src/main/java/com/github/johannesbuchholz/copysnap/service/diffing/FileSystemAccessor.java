@@ -9,7 +9,9 @@ import java.nio.file.FileSystems;
 import java.nio.file.FileVisitor;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
+import java.util.Optional;
 
 public interface FileSystemAccessor {
 
@@ -17,20 +19,133 @@ public interface FileSystemAccessor {
         return new DefaultFileSystemAccessor();
     }
 
+    /**
+     * @param directIoMinSize Files of at least this size are read and written bypassing the page cache if possible.
+     *                        Negative values disable direct I/O.
+     */
+    static FileSystemAccessor newDefaultAccessor(long directIoMinSize) {
+        return new DefaultFileSystemAccessor(directIoMinSize);
+    }
+
     Instant getLastModifiedTime(Path p) throws IOException;
 
+    /**
+     * Reads the basic attributes of a file, following symbolic links.
+     */
+    BasicFileAttributes readAttributes(Path p) throws IOException;
+
+    /**
+     * @return The value of the user defined attribute with the given name. Empty if the file system does not support
+     * user defined attributes.
+     * @throws IOException If the attribute is not set or can not be read.
+     */
+    Optional<String> readUserAttribute(Path p, String name) throws IOException;
+
+    /**
+     * Sets the user defined attribute with the given name without changing the last modified time of the file.
+     * @throws UnsupportedOperationException If the file system does not support user defined attributes.
+     */
+    void writeUserAttribute(Path p, String name, String value) throws IOException;
+
     boolean areChecksumsEqual(CheckpointChecksum expectedChecksum, Path p) throws IOException;
 
+    /**
+     * Like {@link #areChecksumsEqual(CheckpointChecksum, Path)}, but always reads the file even if a valid cached
+     * checksum is available.
+     */
+    boolean areChecksumsEqualUncached(CheckpointChecksum expectedChecksum, Path p) throws IOException;
+
+    /**
+     * Reads only the bytes where the tail of the given checksum has been recorded.
+     * @return {@code true} if the file holds the expected tail at its recorded position. {@code false} if the file
+     * is too short or the checksum has no tail.
+     */
+    boolean hasSameTail(CheckpointChecksum expectedChecksum, Path p) throws IOException;
+
+    /**
+     * @return A checksum of the file recorded earlier by {@link #cacheChecksum(Path, Instant, CheckpointChecksum)}
+     * if the file still has the given last modified time and size. Empty if this accessor does not cache checksums.
+     */
+    Optional<CheckpointChecksum> getCachedChecksum(Path p, Instant lastModified, long size) throws IOException;
+
+    /**
+     * Records the checksum of a file that had the given last modified time while being hashed. Does nothing if this
+     * accessor does not cache checksums.
+     */
+    void cacheChecksum(Path p, Instant lastModified, CheckpointChecksum checksum) throws IOException;
+
     OutputStream createNewOutputStream(Path path) throws IOException;
 
     InputStream createNewInputStream(Path path) throws IOException;
 
+    /**
+     * Like {@link #createNewOutputStream(Path)} for a file expected to reach the given size, or -1 if unknown.
+     * Accessors may bypass the page cache for large files.
+     */
+    OutputStream createNewOutputStream(Path path, long expectedSize) throws IOException;
+
+    /**
+     * Like {@link #createNewInputStream(Path)} for a file expected to have the given size, or -1 if unknown, and to be
+     * read once sequentially. Accessors may bypass the page cache for large files.
+     */
+    InputStream createNewInputStream(Path path, long expectedSize) throws IOException;
+
+    /**
+     * Reads the beginning of a file into the given buffer until the buffer is full or the end of the file is reached.
+     * Meant for small files whose size is known up front.
+     * @return The number of bytes read. A count equal to {@code length} indicates that the file might be longer.
+     */
+    int read(Path path, byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Creates a new file with the given content.
+     */
+    void write(Path path, byte[] buffer, int offset, int length) throws IOException;
+
     void createDirectories(Path path) throws IOException;
 
     void visitFiles(Path root, FileVisitor<Path> visitor) throws IOException;
 
+    /**
+     * Like {@link #visitFiles(Path, FileVisitor)} but optionally reports symbolic links as files instead of following them.
+     */
+    void visitFiles(Path root, FileVisitor<Path> visitor, boolean followLinks) throws IOException;
+
     void createSymbolicLink(Path absDestination, Path absSource) throws IOException;
 
+    /**
+     * Creates a hard link to an existing file.
+     */
+    void createLink(Path absDestination, Path absExisting) throws IOException;
+
+    /**
+     * Resolves all symbolic links along the given path.
+     */
+    Path toRealPath(Path p) throws IOException;
+
+    /**
+     * @return The target of a symbolic link as stored in the link, which may be relative to the link's directory.
+     */
+    Path readSymbolicLink(Path link) throws IOException;
+
+    /**
+     * Atomically moves a file or symbolic link to the target path, replacing the target if it exists.
+     */
+    void moveAtomically(Path source, Path target) throws IOException;
+
+    /**
+     * Deletes a file or symbolic link without following it. Does nothing if the path does not exist.
+     */
+    void deleteIfExists(Path path) throws IOException;
+
+    /**
+     * Copies the content of a file to a new file without passing the data through the application if possible.
+     * @return The number of copied bytes.
+     */
+    long transfer(Path absSource, Path absDestination) throws IOException;
+
+    void setLastModifiedTime(Path p, Instant lastModified) throws IOException;
+
     static PathMatcher getGlobPathMatcher(String globPattern) {
         return FileSystems.getDefault().getPathMatcher("glob:" + globPattern);
     }
@@ -1,16 +1,25 @@
 package com.github.johannesbuchholz.copysnap.service.diffing;
 
 import com.github.johannesbuchholz.copysnap.logging.AbstractLogProducer;
+import com.github.johannesbuchholz.copysnap.logging.ActionRecorder;
 import com.github.johannesbuchholz.copysnap.logging.Level;
 import com.github.johannesbuchholz.copysnap.logging.ProgressConsolePrinter;
 import com.github.johannesbuchholz.copysnap.model.Root;
+import com.github.johannesbuchholz.copysnap.model.state.FileState;
 import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
 import com.github.johannesbuchholz.copysnap.service.diffing.copy.CopyAction;
+import com.github.johannesbuchholz.copysnap.service.diffing.copy.HardLinkCopyAction;
 import com.github.johannesbuchholz.copysnap.service.diffing.copy.PlainCopyAction;
 import com.github.johannesbuchholz.copysnap.service.diffing.copy.SymbolicLinkCopyAction;
+import com.github.johannesbuchholz.copysnap.service.diffing.copy.SymbolicLinkRecreationAction;
+import com.github.johannesbuchholz.copysnap.util.BoundedExecutor;
+import com.github.johannesbuchholz.copysnap.util.BufferPool;
 
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.*;
@@ -31,24 +40,42 @@ public record FileSystemDiff(
         Set<CopyAction> copyActions = new HashSet<>();
         for (FileSystemNode file : diffTree.getLeafs()) {
             if (file.isChanged()) {
-                copyActions.add(new PlainCopyAction(sourceRoot.rootDirLocation(), destination, file.getPath()));
+                copyActions.add(newCopyAction(destination, oldRootLocation, file));
             } else {
                 Path upperMostUnchanged = file.getUppermostUnchanged().getPath();
                 copyActions.add(new SymbolicLinkCopyAction(oldRootLocation, destination, upperMostUnchanged));
             }
         }
-        return new Actions(copyActions);
+        return new Actions(copyActions, destination);
     }
 
     public Actions plainCopiesOnly(Path destination) {
         List<CopyAction> plainCopyActions = diffTree.getLeafs().stream()
-                .map(FileSystemNode::getPath)
-                .map(p -> new PlainCopyAction(sourceRoot.rootDirLocation(), destination, p))
+                .map(file -> newCopyAction(destination, null, file))
                 .collect(Collectors.toList());
-        return new Actions(plainCopyActions);
+        return new Actions(plainCopyActions, destination);
     }
 
-    record Statistics(int newCount, int removedCount, int changedCount, int unchangedCount, int ignoredCount, int errorCount) {
+    /**
+     * @param oldRootLocation Where unchanged primaries of hard links reside in. Can be {@code null}, in which case
+     *                        every primary is expected in the destination.
+     */
+    private CopyAction newCopyAction(Path destination, Path oldRootLocation, FileSystemNode file) {
+        if (file.isSymbolicLink())
+            return new SymbolicLinkRecreationAction(sourceRoot.rootDirLocation(), destination, file.getPath());
+        FileSystemNode primary = file.getHardLinkPrimary();
+        if (primary == null)
+            return newPlainCopyAction(destination, file);
+        Path existingRootLocation = primary.isChanged() || oldRootLocation == null ? destination : oldRootLocation;
+        return new HardLinkCopyAction(
+                sourceRoot.rootDirLocation(), destination, file.getPath(), existingRootLocation, primary.getPath(), newPlainCopyAction(destination, file));
+    }
+
+    private PlainCopyAction newPlainCopyAction(Path destination, FileSystemNode file) {
+        return new PlainCopyAction(sourceRoot.rootDirLocation(), destination, file.getPath(), file.getLastModified(), file.getSize());
+    }
+
+    public record Statistics(int newCount, int removedCount, int changedCount, int unchangedCount, int ignoredCount, int errorCount) {
         @Override
         public String toString() {
             return """
@@ -66,39 +93,309 @@ public record FileSystemDiff(
     public class Actions extends AbstractLogProducer {
 
         private static final ProgressConsolePrinter PROGRESS_CONSOLE_PRINTER = new ProgressConsolePrinter("Writing files");
+        private static final int SMALL_FILE_BATCH_SIZE = 64;
+        // every batched file reserves room for the largest small file and one more byte to detect growth
+        private static final int SMALL_FILE_SLOT_SIZE = PlainCopyAction.SMALL_FILE_MAX_SIZE + 1;
+        private static final BufferPool SMALL_FILE_BATCH_BUFFER_POOL = new BufferPool(SMALL_FILE_BATCH_SIZE * SMALL_FILE_SLOT_SIZE);
+        // small files of a batch are read and written by this many threads, keeping requests queued at the device
+        private static final int SMALL_FILE_IO_PARALLELISM = 16;
 
         private final Collection<CopyAction> copyActions;
+        private final Path destinationRootLocation;
 
-        private Actions(Collection<CopyAction> copyActions) {
+        private Actions(Collection<CopyAction> copyActions, Path destinationRootLocation) {
             this.copyActions = copyActions;
+            this.destinationRootLocation = destinationRootLocation;
         }
 
         /**
          * @return The new file system state.
          */
         public FileSystemState apply(FileSystemAccessor fsa) {
+            return apply(fsa, ActionRecorder.NONE);
+        }
+
+        /**
+         * @param actionRecorder Receives a record of every performed action.
+         * @return The new file system state.
+         */
+        public FileSystemState apply(FileSystemAccessor fsa, ActionRecorder actionRecorder) {
+            return apply(fsa, actionRecorder, null);
+        }
+
+        /**
+         * @param actionRecorder Receives a record of every performed action.
+         * @param journal        Receives every completed action. If the journal has been resumed, actions it records
+         *                       as completed are skipped as long as their files are intact. Whatever an interrupted
+         *                       earlier run may have left at the destination of any other action is deleted first,
+         *                       just like everything not belonging to any action, except for files directly in the
+         *                       destination directory.
+         * @return The new file system state.
+         */
+        public FileSystemState apply(FileSystemAccessor fsa, ActionRecorder actionRecorder, /* nullable */ ActionJournal journal) {
             ZonedDateTime start = ZonedDateTime.now();
             logTaskStart(Level.INFO, "Applying copy actions", start, "count", copyActions.size());
-            int performedCount = 0;
-            PROGRESS_CONSOLE_PRINTER.update(performedCount, copyActions.size());
             FileSystemState.Builder newStateBuilder = FileSystemState.builder(oldStatesOfNotDeletedFiles);
-            for (CopyAction copyAction : new TreeSet<>(copyActions)) {
-                log(Level.DEBUG, "Apply %s".formatted(copyAction));
-                try {
-                    copyAction.perform(fsa)
-                            .ifPresent(newStateBuilder::add);
-                } catch (IOException e) {
-                    String errorMsg = "Could not apply copy action " + copyAction + ": " + e;
-                    log(Level.ERROR, errorMsg);
-                    logStacktrace(Level.DEBUG, e);
+            // sorting keeps files of the same directory together
+            List<CopyAction> sortedCopyActions = new ArrayList<>(new TreeSet<>(copyActions));
+            int replayedCount = 0;
+            if (journal != null && journal.isResumed()) {
+                deleteLeftovers(fsa);
+                int actionCount = sortedCopyActions.size();
+                sortedCopyActions.removeIf(copyAction -> replay(copyAction, fsa, journal, newStateBuilder));
+                replayedCount = actionCount - sortedCopyActions.size();
+                log(Level.INFO, "Skipping %s actions completed by an earlier run".formatted(replayedCount));
+            }
+            int performedCount = 0;
+            PROGRESS_CONSOLE_PRINTER.update(replayedCount, copyActions.size());
+            DirectoryCache directoryCache = new DirectoryCache();
+            // hard links need their primary to be written first
+            List<HardLinkCopyAction> hardLinkCopyActions = new ArrayList<>();
+            sortedCopyActions.removeIf(copyAction -> copyAction instanceof HardLinkCopyAction hardLinkCopyAction && hardLinkCopyActions.add(hardLinkCopyAction));
+            try (BoundedExecutor ioExecutor = BoundedExecutor.withParallelism(SMALL_FILE_IO_PARALLELISM)) {
+                while (performedCount < sortedCopyActions.size()) {
+                    List<PlainCopyAction> smallFileBatch = collectSmallFileBatch(sortedCopyActions, performedCount);
+                    if (smallFileBatch.size() > 1) {
+                        applySmallFileBatch(smallFileBatch, fsa, ioExecutor, directoryCache, newStateBuilder, actionRecorder, journal);
+                        performedCount += smallFileBatch.size();
+                    } else {
+                        apply(sortedCopyActions.get(performedCount), fsa, directoryCache, newStateBuilder, actionRecorder, journal);
+                        performedCount++;
+                    }
+                    PROGRESS_CONSOLE_PRINTER.update(replayedCount + performedCount, copyActions.size());
                 }
-                PROGRESS_CONSOLE_PRINTER.update(++performedCount, copyActions.size());
+            }
+            for (HardLinkCopyAction hardLinkCopyAction : hardLinkCopyActions) {
+                CopyAction copyAction = newStateBuilder.get(hardLinkCopyAction.getPrimaryRelPath())
+                        .map(hardLinkCopyAction::withPrimaryState)
+                        .orElse(hardLinkCopyAction);
+                apply(copyAction, fsa, directoryCache, newStateBuilder, actionRecorder, journal);
+                PROGRESS_CONSOLE_PRINTER.update(replayedCount + ++performedCount, copyActions.size());
             }
             PROGRESS_CONSOLE_PRINTER.newLine();
             logTaskEnd(Level.INFO,  "Done applying copy actions", Duration.between(start, ZonedDateTime.now()));
             return newStateBuilder.build();
         }
 
+        private void apply(CopyAction copyAction, FileSystemAccessor fsa, DirectoryCache directoryCache, FileSystemState.Builder newStateBuilder, ActionRecorder actionRecorder, ActionJournal journal) {
+            log(Level.DEBUG, () -> "Apply %s".formatted(copyAction));
+            ByteCountingFileSystemAccessor countingFsa = new ByteCountingFileSystemAccessor(fsa);
+            long actionStart = System.nanoTime();
+            try {
+                Optional<FileState> newState = copyAction.perform(countingFsa, directoryCache);
+                newState.ifPresent(newStateBuilder::add);
+                actionRecorder.record(ActionRecorder.ActionRecord.success(
+                        copyAction.getType(), copyAction.getRelPath(), countingFsa.getWrittenByteCount(), System.nanoTime() - actionStart));
+                recordCompletion(copyAction, newState.orElse(null), journal);
+            } catch (IOException e) {
+                recordFailure(copyAction, e, System.nanoTime() - actionStart, actionRecorder);
+            }
+        }
+
+        /**
+         * @return true if the journal records the action as completed and its file is intact. Otherwise, deletes
+         * whatever an interrupted earlier attempt of the action may have left at its destination.
+         */
+        private boolean replay(CopyAction copyAction, FileSystemAccessor fsa, ActionJournal journal, FileSystemState.Builder newStateBuilder) {
+            Optional<ActionJournal.Entry> entryOpt = journal.getCompleted(copyAction.getRelPath())
+                    .filter(entry -> entry.type().equals(copyAction.getType()))
+                    .filter(entry -> isUpToDate(entry, copyAction));
+            if (entryOpt.isPresent() && isIntact(entryOpt.get(), copyAction.getDestination(), fsa)) {
+                if (entryOpt.get().state() != null)
+                    newStateBuilder.add(entryOpt.get().state());
+                return true;
+            }
+            // directories at the destination of an action have already been deleted as leftovers
+            try {
+                fsa.deleteIfExists(copyAction.getDestination());
+            } catch (IOException e) {
+                // the action fails on its own if the destination is still occupied
+                log(Level.ERROR, "Could not delete %s: %s".formatted(copyAction.getDestination(), e));
+                logStacktrace(Level.DEBUG, e);
+            }
+            return false;
+        }
+
+        /**
+         * Deletes files and directories an interrupted earlier run has written for paths without an action, for
+         * example because the path has been deleted from the source since. A directory at the destination of an
+         * action is deleted including its content. Files directly in the destination directory are kept, as these
+         * belong to copysnap itself.
+         */
+        private void deleteLeftovers(FileSystemAccessor fsa) {
+            Set<Path> destinations = new HashSet<>();
+            Set<Path> expectedDirectories = new HashSet<>();
+            for (CopyAction copyAction : copyActions) {
+                destinations.add(copyAction.getDestination());
+                for (Path dir = copyAction.getDestination().getParent(); dir != null && dir.startsWith(destinationRootLocation); dir = dir.getParent())
+                    expectedDirectories.add(dir);
+            }
+            // children are collected before their parents
+            List<Path> leftovers = new ArrayList<>();
+            try {
+                fsa.visitFiles(destinationRootLocation, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (!file.getParent().equals(destinationRootLocation) && !destinations.contains(file))
+                            leftovers.add(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                        if (!dir.equals(destinationRootLocation) && !expectedDirectories.contains(dir))
+                            leftovers.add(dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+                }, false);
+            } catch (IOException e) {
+                log(Level.ERROR, "Could not visit %s for leftovers of an earlier run: %s".formatted(destinationRootLocation, e));
+                logStacktrace(Level.DEBUG, e);
+                return;
+            }
+            for (Path leftover : leftovers) {
+                try {
+                    fsa.deleteIfExists(leftover);
+                    log(Level.DEBUG, () -> "Deleted leftover %s".formatted(leftover));
+                } catch (IOException e) {
+                    log(Level.ERROR, "Could not delete leftover %s: %s".formatted(leftover, e));
+                    logStacktrace(Level.DEBUG, e);
+                }
+            }
+            if (!leftovers.isEmpty())
+                log(Level.INFO, "Deleted %s leftovers of an earlier run".formatted(leftovers.size()));
+        }
+
+        /**
+         * @return false if the source file has been modified since the action has been completed.
+         */
+        private static boolean isUpToDate(ActionJournal.Entry entry, CopyAction copyAction) {
+            return !(copyAction instanceof PlainCopyAction plainCopyAction)
+                    || plainCopyAction.getLastModified() == null
+                    || entry.state() == null
+                    || plainCopyAction.getLastModified().equals(entry.state().getLastModified());
+        }
+
+        /**
+         * Files written shortly before the machine crashed may be lost or truncated despite their journal entry.
+         * Checking size and tail catches this without reading whole files.
+         */
+        private static boolean isIntact(ActionJournal.Entry entry, Path destination, FileSystemAccessor fsa) {
+            try {
+                if (entry.state() == null) {
+                    // actions without state create symbolic links
+                    fsa.readSymbolicLink(destination);
+                    return true;
+                }
+                return !entry.state().getChecksum().hasTail() || fsa.hasSameTail(entry.state().getChecksum(), destination);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private void recordCompletion(CopyAction copyAction, /* nullable */ FileState newState, /* nullable */ ActionJournal journal) {
+            if (journal == null)
+                return;
+            try {
+                journal.record(copyAction, newState);
+            } catch (IOException e) {
+                // the snapshot itself is not affected, the action would only be performed again when resuming
+                log(Level.ERROR, "Could not record %s in journal: %s".formatted(copyAction, e.getMessage()));
+                logStacktrace(Level.DEBUG, e);
+            }
+        }
+
+        /**
+         * @return Consecutive small file copies into the same directory starting at the given index. Might be empty.
+         */
+        private List<PlainCopyAction> collectSmallFileBatch(List<CopyAction> sortedCopyActions, int fromIndex) {
+            List<PlainCopyAction> batch = new ArrayList<>();
+            for (int i = fromIndex; i < sortedCopyActions.size() && batch.size() < SMALL_FILE_BATCH_SIZE; i++) {
+                if (!(sortedCopyActions.get(i) instanceof PlainCopyAction plainCopyAction) || !plainCopyAction.isSmall())
+                    break;
+                if (!batch.isEmpty() && !batch.get(0).getDestinationDirectory().equals(plainCopyAction.getDestinationDirectory()))
+                    break;
+                batch.add(plainCopyAction);
+            }
+            return batch;
+        }
+
+        /**
+         * Ensures the common destination directory once, reads all files into one buffer and writes them afterward.
+         * Reads and writes are issued concurrently by the given executor, so that the device sees many requests at once
+         * instead of one blocking request per file. Results are recorded on the calling thread.
+         */
+        private void applySmallFileBatch(List<PlainCopyAction> batch, FileSystemAccessor fsa, BoundedExecutor ioExecutor, DirectoryCache directoryCache, FileSystemState.Builder newStateBuilder, ActionRecorder actionRecorder, ActionJournal journal) {
+            long directoryStart = System.nanoTime();
+            try {
+                directoryCache.createDirectories(batch.get(0).getDestinationDirectory(), fsa);
+            } catch (IOException e) {
+                long duration = System.nanoTime() - directoryStart;
+                batch.forEach(copyAction -> recordFailure(copyAction, e, duration, actionRecorder));
+                return;
+            }
+            byte[] buffer = SMALL_FILE_BATCH_BUFFER_POOL.borrow();
+            try {
+                int[] readCounts = new int[batch.size()];
+                long[] durations = new long[batch.size()];
+                IOException[] exceptions = new IOException[batch.size()];
+                FileState[] newStates = new FileState[batch.size()];
+                for (int i = 0; i < batch.size(); i++) {
+                    int index = i;
+                    ioExecutor.submit(() -> {
+                        long actionStart = System.nanoTime();
+                        try {
+                            readCounts[index] = batch.get(index).readSmall(fsa, buffer, index * SMALL_FILE_SLOT_SIZE);
+                        } catch (IOException e) {
+                            exceptions[index] = e;
+                        }
+                        durations[index] = System.nanoTime() - actionStart;
+                    });
+                }
+                ioExecutor.awaitCompletion();
+                for (int i = 0; i < batch.size(); i++) {
+                    if (exceptions[i] != null || readCounts[i] > PlainCopyAction.SMALL_FILE_MAX_SIZE)
+                        continue;
+                    int index = i;
+                    ioExecutor.submit(() -> {
+                        long actionStart = System.nanoTime();
+                        try {
+                            newStates[index] = batch.get(index).writeSmall(fsa, buffer, index * SMALL_FILE_SLOT_SIZE, readCounts[index]);
+                        } catch (IOException e) {
+                            exceptions[index] = e;
+                        }
+                        durations[index] += System.nanoTime() - actionStart;
+                    });
+                }
+                ioExecutor.awaitCompletion();
+                for (int i = 0; i < batch.size(); i++) {
+                    PlainCopyAction copyAction = batch.get(i);
+                    log(Level.DEBUG, () -> "Apply %s".formatted(copyAction));
+                    if (exceptions[i] != null) {
+                        recordFailure(copyAction, exceptions[i], durations[i], actionRecorder);
+                    } else if (readCounts[i] > PlainCopyAction.SMALL_FILE_MAX_SIZE) {
+                        // the file has grown since the walk
+                        apply(copyAction, fsa, directoryCache, newStateBuilder, actionRecorder, journal);
+                    } else {
+                        newStateBuilder.add(newStates[i]);
+                        actionRecorder.record(ActionRecorder.ActionRecord.success(
+                                copyAction.getType(), copyAction.getRelPath(), readCounts[i], durations[i]));
+                        recordCompletion(copyAction, newStates[i], journal);
+                    }
+                }
+            } finally {
+                SMALL_FILE_BATCH_BUFFER_POOL.release(buffer);
+            }
+        }
+
+        private void recordFailure(CopyAction copyAction, IOException e, long durationNanos, ActionRecorder actionRecorder) {
+            String errorMsg = "Could not apply copy action " + copyAction + ": " + e;
+            log(Level.ERROR, errorMsg);
+            logStacktrace(Level.DEBUG, e);
+            actionRecorder.record(ActionRecorder.ActionRecord.failure(
+                    copyAction.getType(), copyAction.getRelPath(), durationNanos, e.toString()));
+        }
+
         public Set<CopyAction> getActions() {
             return new HashSet<>(copyActions);
         }
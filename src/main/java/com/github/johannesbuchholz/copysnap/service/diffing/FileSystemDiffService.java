@@ -3,10 +3,13 @@ package com.github.johannesbuchholz.copysnap.service.diffing;
 import com.github.johannesbuchholz.copysnap.logging.AbstractLogProducer;
 import com.github.johannesbuchholz.copysnap.logging.Level;
 import com.github.johannesbuchholz.copysnap.model.Root;
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
 import com.github.johannesbuchholz.copysnap.model.state.FileState;
 import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import com.github.johannesbuchholz.copysnap.util.BoundedExecutor;
 
 import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
@@ -15,41 +18,79 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class FileSystemDiffService extends AbstractLogProducer {
 
     private final FileSystemAccessor fileSystemAccessor;
+    private final int verificationParallelism;
 
     public FileSystemDiffService(FileSystemAccessor fileSystemAccessor) {
+        this(fileSystemAccessor, BoundedExecutor.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param verificationParallelism The number of threads comparing checksums of files modified since the last
+     *                                snapshot while the source is walked.
+     */
+    public FileSystemDiffService(FileSystemAccessor fileSystemAccessor, int verificationParallelism) {
         this.fileSystemAccessor = fileSystemAccessor;
+        this.verificationParallelism = verificationParallelism;
     }
 
     /**
-     * This method accesses the file system.
+     * This method accesses the file system. Symbolic links are followed.
      *
      * @param sourceRoot The root object to take a snapshot from.
      */
     public FileSystemDiff computeDiff(Root sourceRoot, FileSystemState oldSystemState, List<String> excludeGlobPatterns) throws IOException {
+        return computeDiff(sourceRoot, oldSystemState, excludeGlobPatterns, true);
+    }
+
+    /**
+     * This method accesses the file system. Files reachable by more than one path, like hard links or files behind
+     * followed symbolic links, are remembered so that their content is only copied once.
+     *
+     * @param sourceRoot The root object to take a snapshot from.
+     * @param followLinks If false, symbolic links are not followed but recreated.
+     */
+    public FileSystemDiff computeDiff(Root sourceRoot, FileSystemState oldSystemState, List<String> excludeGlobPatterns, boolean followLinks) throws IOException {
+        return computeDiff(sourceRoot, oldSystemState, excludeGlobPatterns, followLinks, ChangeDetectionRules.DEFAULT);
+    }
+
+    /**
+     * Like {@link #computeDiff(Root, FileSystemState, List, boolean)}.
+     *
+     * @param changeDetectionRules Decide how files recorded in the old state are checked for changes.
+     */
+    public FileSystemDiff computeDiff(Root sourceRoot, FileSystemState oldSystemState, List<String> excludeGlobPatterns, boolean followLinks, ChangeDetectionRules changeDetectionRules) throws IOException {
         ZonedDateTime start = ZonedDateTime.now();
-        logTaskStart(Level.INFO, "Computing file differences", start, "at", sourceRoot.pathToRootDir());
-
-        DetectChangeVisitor detectChangeVisitor = new DetectChangeVisitor(
-                sourceRoot,
-                oldSystemState,
-                fileSystemAccessor,
-                excludeGlobPatterns,
-                this::logFileVisitingError,
-                msg -> log(Level.DEBUG, msg)
-        );
-        fileSystemAccessor.visitFiles(sourceRoot.pathToRootDir(), detectChangeVisitor);
-        FileSystemDiff fileSystemDiff = detectChangeVisitor.collectDiffResults();
+        logTaskStart(Level.INFO, "Computing file differences", start, "at", sourceRoot.pathToRootDir(), "follow links", followLinks, "change detection", changeDetectionRules);
+
+        FileSystemDiff fileSystemDiff;
+        try (ChecksumVerificationQueue verificationQueue = new ChecksumVerificationQueue(fileSystemAccessor, verificationParallelism)) {
+            DetectChangeVisitor detectChangeVisitor = new DetectChangeVisitor(
+                    sourceRoot,
+                    oldSystemState,
+                    verificationQueue,
+                    excludeGlobPatterns,
+                    changeDetectionRules,
+                    this::logFileVisitingError,
+                    msg -> log(Level.DEBUG, msg)
+            );
+            fileSystemAccessor.visitFiles(sourceRoot.pathToRootDir(), detectChangeVisitor, followLinks);
+            verificationQueue.awaitCompletion();
+            fileSystemDiff = detectChangeVisitor.collectDiffResults();
+        }
 
         log(Level.INFO, fileSystemDiff.statistics().toString());
         logTaskEnd(Level.INFO, "Done computing file differences", Duration.between(start, ZonedDateTime.now()));
@@ -62,11 +103,12 @@ public class FileSystemDiffService extends AbstractLogProducer {
     }
 
     /**
-     * Not thread safe, not reusable.
+     * Not thread safe, not reusable. Files modified since the last snapshot are verified by the given queue and
+     * marked as soon as their verdict is drained.
      */
     private static class DetectChangeVisitor extends SimpleFileVisitor<Path> {
 
-        private enum FileChangeState {UNCHANGED, CHANGED, NEW}
+        private enum FileChangeState {UNCHANGED, CHANGED, NEW, PENDING}
 
         private final AtomicInteger newCount = new AtomicInteger();
         private final AtomicInteger changedCount = new AtomicInteger();
@@ -76,23 +118,27 @@ public class FileSystemDiffService extends AbstractLogProducer {
 
         private final Root sourceRoot;
         private final FileSystemState oldSystemState;
-        private final FileSystemAccessor fileSystemAccessor;
+        private final ChecksumVerificationQueue verificationQueue;
+        private final ChangeDetectionRules changeDetectionRules;
         private final BiConsumer<Path, IOException> exceptionHandler;
-        private final Consumer<String> messageHandler;
+        private final Consumer<Supplier<String>> messageHandler;
         private final List<PathMatcher> ignorePathMatchers;
 
         private final Set<Path> processedNewFiles = new HashSet<>();
+        private final Map<Object, FileSystemNode> nodesByFileKey = new HashMap<>();
         private final FileSystemNode systemDiffTree = FileSystemNode.getNew();
 
         public DetectChangeVisitor(
                 Root sourceRoot,
                 FileSystemState oldSystemState,
-                FileSystemAccessor fileSystemAccessor,
+                ChecksumVerificationQueue verificationQueue,
                 List<String> ignoreGlobPatterns,
-                BiConsumer<Path, IOException> exceptionHandler, Consumer<String> messageHandler) {
+                ChangeDetectionRules changeDetectionRules,
+                BiConsumer<Path, IOException> exceptionHandler, Consumer<Supplier<String>> messageHandler) {
             this.sourceRoot = sourceRoot;
             this.oldSystemState = oldSystemState;
-            this.fileSystemAccessor = fileSystemAccessor;
+            this.verificationQueue = verificationQueue;
+            this.changeDetectionRules = changeDetectionRules;
             this.exceptionHandler = exceptionHandler;
             this.messageHandler = messageHandler;
             ignorePathMatchers = ignoreGlobPatterns.stream().map(FileSystemAccessor::getGlobPathMatcher).toList();
@@ -104,7 +150,7 @@ public class FileSystemDiffService extends AbstractLogProducer {
             Path relDir = sourceRoot.rootDirLocation().relativize(dir);
             if (isExcluded(relDir)) {
                 ignoredCount.getAndIncrement();
-                messageHandler.accept("IGNORED (including subtree): " + relDir);
+                messageHandler.accept(() -> "IGNORED (including subtree): " + relDir);
                 return FileVisitResult.SKIP_SUBTREE;
             }
             return FileVisitResult.CONTINUE;
@@ -112,79 +158,133 @@ public class FileSystemDiffService extends AbstractLogProducer {
 
         @Override
         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            verificationQueue.drainVerdicts(this::applyVerdict);
             Path currentNewPath = sourceRoot.rootDirLocation().relativize(file);
 
             if (isExcluded(currentNewPath)) {
                 ignoredCount.getAndIncrement();
-                messageHandler.accept("IGNORED: " + currentNewPath);
+                messageHandler.accept(() -> "IGNORED: " + currentNewPath);
+            } else if (attrs.isSymbolicLink()) {
+                // only reported if links are not followed, links are not part of the state and always recreated
+                FileSystemNode newNode = systemDiffTree.insert(currentNewPath);
+                newNode.markAsSymbolicLink();
+                newNode.markAsChanged();
+                messageHandler.accept(() -> "SYMBOLIC LINK: " + currentNewPath);
+                return FileVisitResult.CONTINUE;
             } else {
                 FileSystemNode newNode = systemDiffTree.insert(currentNewPath);
-                try {
-                    switch (determineChange(oldSystemState, sourceRoot.rootDirLocation(), currentNewPath, attrs)) {
-                        case UNCHANGED -> unchangedCount.getAndIncrement();
-                        case CHANGED -> {
-                            changedCount.getAndIncrement();
-                            newNode.markAsChanged();
-                        }
-                        case NEW -> {
-                            newCount.getAndIncrement();
-                            newNode.markAsChanged();
-                        }
+                newNode.setAttributes(attrs.lastModifiedTime().toInstant(), attrs.size());
+                rememberFileKey(newNode, attrs);
+                switch (determineChange(oldSystemState, newNode, sourceRoot.rootDirLocation(), currentNewPath, attrs)) {
+                    case UNCHANGED -> unchangedCount.getAndIncrement();
+                    case CHANGED -> {
+                        changedCount.getAndIncrement();
+                        newNode.markAsChanged();
+                    }
+                    case NEW -> {
+                        newCount.getAndIncrement();
+                        newNode.markAsChanged();
+                    }
+                    case PENDING -> {
+                        // counted and marked once the verdict arrives
                     }
-                } catch (IOException e) {
-                    errorCount.getAndIncrement();
-                    newNode.markAsChanged();
-                    exceptionHandler.accept(file, e);
                 }
             }
             processedNewFiles.add(currentNewPath);
             return FileVisitResult.CONTINUE;
         }
 
+        private void rememberFileKey(FileSystemNode node, BasicFileAttributes attrs) {
+            Object fileKey = attrs.fileKey();
+            if (fileKey == null || !attrs.isRegularFile())
+                return;
+            FileSystemNode primary = nodesByFileKey.putIfAbsent(fileKey, node);
+            if (primary != null) {
+                node.markAsHardLinkOf(primary);
+                messageHandler.accept(() -> "SAME FILE: " + node.getPath() + " as " + primary.getPath());
+            }
+        }
+
         private boolean isExcluded(Path path) {
             return ignorePathMatchers.stream().anyMatch(matcher -> matcher.matches(path));
         }
 
         private FileChangeState determineChange(
                 FileSystemState oldSystemState,
+                FileSystemNode newNode,
                 Path root,
                 Path newRelFilePath,
                 BasicFileAttributes attrs
-        ) throws IOException {
+        ) {
             Path newAbsFilePath = root.resolve(newRelFilePath);
             Instant newLastModified = attrs.lastModifiedTime().toInstant();
             Optional<FileState> lastCapturedState = oldSystemState.get(newRelFilePath);
             if (lastCapturedState.isPresent()) {
                 FileState oldFileState = lastCapturedState.get();
-                if (newLastModified.isAfter(oldFileState.getLastModified())) {
-                    boolean hasChecksumChanged;
-                    try {
-                        hasChecksumChanged = !fileSystemAccessor.areChecksumsEqual(oldFileState.getChecksum(), newAbsFilePath);
-                    } catch (IOException e) {
-                        String errorMsg = "Could not determine hash at %s: %s".formatted(newAbsFilePath, e.getMessage());
-                        throw new IOException(errorMsg, e);
+                CheckpointChecksum oldChecksum = oldFileState.getChecksum();
+                ChangeDetectionPolicy policy = changeDetectionRules.policyFor(newRelFilePath);
+                if (!oldChecksum.matchesSize(attrs.size())) {
+                    messageHandler.accept(() -> FileChangeState.CHANGED + " (size): " + newAbsFilePath);
+                    return FileChangeState.CHANGED;
+                }
+                boolean isModified = newLastModified.isAfter(oldFileState.getLastModified());
+                switch (policy) {
+                    case MTIME_SIZE -> {
+                        if (isModified) {
+                            messageHandler.accept(() -> FileChangeState.CHANGED + " (modified): " + newAbsFilePath);
+                            return FileChangeState.CHANGED;
+                        }
                     }
-                    if (hasChecksumChanged) {
-                        messageHandler.accept(FileChangeState.CHANGED + ": " + newAbsFilePath);
-                        return FileChangeState.CHANGED;
+                    case SAMPLED, CHECKSUM, PARANOID -> {
+                        if (isModified || policy == ChangeDetectionPolicy.PARANOID) {
+                            int maxCheckpointCount = policy == ChangeDetectionPolicy.SAMPLED ? ChangeDetectionPolicy.SAMPLED_CHECKPOINT_COUNT : Integer.MAX_VALUE;
+                            verificationQueue.submit(new ChecksumVerificationQueue.Verification(
+                                    newNode, newAbsFilePath, oldChecksum, attrs.size(), maxCheckpointCount, policy == ChangeDetectionPolicy.PARANOID));
+                            return FileChangeState.PENDING;
+                        }
                     }
                 }
                 // we assume that newModified less or equal oldModified indicates an unchanged file
             } else {
-                messageHandler.accept(FileChangeState.NEW + ": " + newAbsFilePath);
+                messageHandler.accept(() -> FileChangeState.NEW + ": " + newAbsFilePath);
                 return FileChangeState.NEW;
             }
-            messageHandler.accept(FileChangeState.UNCHANGED + ": " + newAbsFilePath);
+            messageHandler.accept(() -> FileChangeState.UNCHANGED + ": " + newAbsFilePath);
             return FileChangeState.UNCHANGED;
         }
 
+        private void applyVerdict(ChecksumVerificationQueue.Verdict verdict) {
+            ChecksumVerificationQueue.Verification verification = verdict.verification();
+            if (verdict.exception() != null) {
+                errorCount.getAndIncrement();
+                verification.node().markAsChanged();
+                exceptionHandler.accept(verification.absPath(), verdict.exception());
+            } else if (verdict.changed()) {
+                changedCount.getAndIncrement();
+                verification.node().markAsChanged();
+                messageHandler.accept(() -> FileChangeState.CHANGED + " (" + verdict.change().name().toLowerCase() + "): " + verification.absPath());
+            } else {
+                unchangedCount.getAndIncrement();
+                messageHandler.accept(() -> FileChangeState.UNCHANGED + ": " + verification.absPath());
+            }
+        }
+
         @Override
         public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            if (exc instanceof FileSystemLoopException) {
+                ignoredCount.getAndIncrement();
+                messageHandler.accept(() -> "IGNORED (file system cycle): " + sourceRoot.rootDirLocation().relativize(file));
+                return FileVisitResult.CONTINUE;
+            }
             exceptionHandler.accept(file, exc);
             return FileVisitResult.CONTINUE;
         }
 
+        /**
+         * Expects all verifications to be completed.
+         */
         public FileSystemDiff collectDiffResults() {
+            verificationQueue.drainVerdicts(this::applyVerdict);
             // determine no longer present files and mark former containing directories as changed
             FileSystemState oldStatesOfNotDeletedFiles = oldSystemState.newBySetUnion(processedNewFiles);
             FileSystemState removedStates = oldSystemState.newBySetMinus(oldStatesOfNotDeletedFiles);
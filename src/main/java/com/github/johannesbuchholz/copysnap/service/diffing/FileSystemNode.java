@@ -1,6 +1,7 @@
 package com.github.johannesbuchholz.copysnap.service.diffing;
 
 import java.nio.file.Path;
+import java.time.Instant;
 import java.util.*;
 
 class FileSystemNode {
@@ -12,6 +13,13 @@ class FileSystemNode {
     private final Map<Path, FileSystemNode> children = new HashMap<>();
 
     private boolean changed = false;
+    // attributes of files as seen while walking the source
+    private Instant lastModified = null;
+    private long size = -1;
+    // another node referring to the same file, only set for files seen more than once
+    private FileSystemNode hardLinkPrimary = null;
+    // set if the file is a symbolic link to be recreated instead of followed
+    private boolean symbolicLink = false;
 
     static FileSystemNode getNew() {
         return new FileSystemNode();
@@ -115,6 +123,44 @@ class FileSystemNode {
         return current;
     }
 
+    void setAttributes(Instant lastModified, long size) {
+        this.lastModified = lastModified;
+        this.size = size;
+    }
+
+    /**
+     * @return The last modified time seen while walking or {@code null} if unknown.
+     */
+    public Instant getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return The size seen while walking or -1 if unknown.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    void markAsHardLinkOf(FileSystemNode primary) {
+        this.hardLinkPrimary = primary;
+    }
+
+    /**
+     * @return The first visited node referring to the same file as this or {@code null} if this is the first one.
+     */
+    public FileSystemNode getHardLinkPrimary() {
+        return hardLinkPrimary;
+    }
+
+    void markAsSymbolicLink() {
+        this.symbolicLink = true;
+    }
+
+    public boolean isSymbolicLink() {
+        return symbolicLink;
+    }
+
     public boolean isRoot() {
         return ROOT_PATH.equals(path);
     }
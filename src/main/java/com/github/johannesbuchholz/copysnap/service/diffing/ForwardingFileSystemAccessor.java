@@ -0,0 +1,155 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitor;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Forwards every operation to another accessor. Decorators override only the operations they change.
+ */
+public abstract class ForwardingFileSystemAccessor implements FileSystemAccessor {
+
+    protected final FileSystemAccessor delegate;
+
+    protected ForwardingFileSystemAccessor(FileSystemAccessor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Instant getLastModifiedTime(Path p) throws IOException {
+        return delegate.getLastModifiedTime(p);
+    }
+
+    @Override
+    public BasicFileAttributes readAttributes(Path p) throws IOException {
+        return delegate.readAttributes(p);
+    }
+
+    @Override
+    public Optional<String> readUserAttribute(Path p, String name) throws IOException {
+        return delegate.readUserAttribute(p, name);
+    }
+
+    @Override
+    public void writeUserAttribute(Path p, String name, String value) throws IOException {
+        delegate.writeUserAttribute(p, name, value);
+    }
+
+    @Override
+    public boolean areChecksumsEqual(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        return delegate.areChecksumsEqual(expectedChecksum, p);
+    }
+
+    @Override
+    public boolean areChecksumsEqualUncached(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        return delegate.areChecksumsEqualUncached(expectedChecksum, p);
+    }
+
+    @Override
+    public boolean hasSameTail(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        return delegate.hasSameTail(expectedChecksum, p);
+    }
+
+    @Override
+    public Optional<CheckpointChecksum> getCachedChecksum(Path p, Instant lastModified, long size) throws IOException {
+        return delegate.getCachedChecksum(p, lastModified, size);
+    }
+
+    @Override
+    public void cacheChecksum(Path p, Instant lastModified, CheckpointChecksum checksum) throws IOException {
+        delegate.cacheChecksum(p, lastModified, checksum);
+    }
+
+    @Override
+    public OutputStream createNewOutputStream(Path path) throws IOException {
+        return delegate.createNewOutputStream(path);
+    }
+
+    @Override
+    public InputStream createNewInputStream(Path path) throws IOException {
+        return delegate.createNewInputStream(path);
+    }
+
+    @Override
+    public OutputStream createNewOutputStream(Path path, long expectedSize) throws IOException {
+        return delegate.createNewOutputStream(path, expectedSize);
+    }
+
+    @Override
+    public InputStream createNewInputStream(Path path, long expectedSize) throws IOException {
+        return delegate.createNewInputStream(path, expectedSize);
+    }
+
+    @Override
+    public int read(Path path, byte[] buffer, int offset, int length) throws IOException {
+        return delegate.read(path, buffer, offset, length);
+    }
+
+    @Override
+    public void write(Path path, byte[] buffer, int offset, int length) throws IOException {
+        delegate.write(path, buffer, offset, length);
+    }
+
+    @Override
+    public void createDirectories(Path path) throws IOException {
+        delegate.createDirectories(path);
+    }
+
+    @Override
+    public void visitFiles(Path root, FileVisitor<Path> visitor) throws IOException {
+        delegate.visitFiles(root, visitor);
+    }
+
+    @Override
+    public void visitFiles(Path root, FileVisitor<Path> visitor, boolean followLinks) throws IOException {
+        delegate.visitFiles(root, visitor, followLinks);
+    }
+
+    @Override
+    public void createSymbolicLink(Path absDestination, Path absSource) throws IOException {
+        delegate.createSymbolicLink(absDestination, absSource);
+    }
+
+    @Override
+    public void createLink(Path absDestination, Path absExisting) throws IOException {
+        delegate.createLink(absDestination, absExisting);
+    }
+
+    @Override
+    public Path toRealPath(Path p) throws IOException {
+        return delegate.toRealPath(p);
+    }
+
+    @Override
+    public Path readSymbolicLink(Path link) throws IOException {
+        return delegate.readSymbolicLink(link);
+    }
+
+    @Override
+    public void moveAtomically(Path source, Path target) throws IOException {
+        delegate.moveAtomically(source, target);
+    }
+
+    @Override
+    public void deleteIfExists(Path path) throws IOException {
+        delegate.deleteIfExists(path);
+    }
+
+    @Override
+    public long transfer(Path absSource, Path absDestination) throws IOException {
+        return delegate.transfer(absSource, absDestination);
+    }
+
+    @Override
+    public void setLastModifiedTime(Path p, Instant lastModified) throws IOException {
+        delegate.setLastModifiedTime(p, lastModified);
+    }
+
+}
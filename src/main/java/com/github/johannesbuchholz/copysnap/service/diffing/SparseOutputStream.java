@@ -0,0 +1,111 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes a new file sequentially but skips blocks consisting of zeros only, which leaves holes in the file where the
+ * file system supports sparse files. The block containing the last byte is always written, so that the file reaches
+ * its full size. Copies of sparse files like disk images thereby stay sparse.
+ * <p>
+ * Bytes are collected in a buffer holding a multiple of the block size of the file store. {@link #flush()} does not
+ * write partial buffers, as skipped blocks must be aligned to the blocks of the file.
+ * </p>
+ */
+class SparseOutputStream extends OutputStream {
+
+    /**
+     * Smaller files are rarely sparse and are not worth the block-wise inspection.
+     */
+    static final long SPARSE_MIN_SIZE = 1024 * 1024;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final FileChannel channel;
+    private final int blockSize;
+    private final byte[] buffer;
+    private final byte[] zeroBlock;
+    private int bufferedByteCount = 0;
+    // the position of the first buffered byte within the file
+    private long position = 0;
+    private boolean closed = false;
+
+    /**
+     * Fails if the file already exists.
+     */
+    static SparseOutputStream open(Path path) throws IOException {
+        int blockSize = Math.toIntExact(Files.getFileStore(path.getParent()).getBlockSize());
+        return new SparseOutputStream(FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW), blockSize);
+    }
+
+    private SparseOutputStream(FileChannel channel, int blockSize) {
+        this.channel = channel;
+        this.blockSize = blockSize;
+        this.buffer = new byte[blockSize * Math.max(1, BUFFER_SIZE / blockSize)];
+        this.zeroBlock = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (bufferedByteCount == buffer.length)
+            writeBuffer(false);
+        buffer[bufferedByteCount++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (bufferedByteCount == buffer.length)
+                writeBuffer(false);
+            int count = Math.min(len, buffer.length - bufferedByteCount);
+            System.arraycopy(b, off, buffer, bufferedByteCount, count);
+            bufferedByteCount += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Writes consecutive blocks containing data with one call each and skips blocks of zeros.
+     */
+    private void writeBuffer(boolean isLast) throws IOException {
+        int dataStart = -1;
+        for (int blockStart = 0; blockStart < bufferedByteCount; blockStart += blockSize) {
+            int blockEnd = Math.min(blockStart + blockSize, bufferedByteCount);
+            boolean isLastBlock = isLast && blockEnd == bufferedByteCount;
+            if (!isLastBlock && Arrays.equals(buffer, blockStart, blockEnd, zeroBlock, 0, blockEnd - blockStart)) {
+                if (dataStart >= 0)
+                    writeFully(dataStart, blockStart);
+                dataStart = -1;
+            } else if (dataStart < 0) {
+                dataStart = blockStart;
+            }
+        }
+        if (dataStart >= 0)
+            writeFully(dataStart, bufferedByteCount);
+        position += bufferedByteCount;
+        bufferedByteCount = 0;
+    }
+
+    private void writeFully(int from, int to) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, from, to - from);
+        while (byteBuffer.hasRemaining())
+            channel.write(byteBuffer, position + byteBuffer.position());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try (channel) {
+            writeBuffer(true);
+        }
+    }
+
+}
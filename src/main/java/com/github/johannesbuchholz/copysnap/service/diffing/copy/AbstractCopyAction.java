@@ -1,8 +1,5 @@
 package com.github.johannesbuchholz.copysnap.service.diffing.copy;
 
-import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
-
-import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Objects;
 
@@ -18,10 +15,14 @@ abstract class AbstractCopyAction implements CopyAction, Comparable<AbstractCopy
         this.relPath = Objects.requireNonNull(relPath);
     }
 
-    void createParentDirs(Path p, FileSystemAccessor fsa) throws IOException {
-        Path parent = p.getParent();
-        if (parent != null)
-            fsa.createDirectories(parent);
+    @Override
+    public Path getRelPath() {
+        return relPath;
+    }
+
+    @Override
+    public Path getDestination() {
+        return destinationRootLocation.resolve(relPath);
     }
 
     @Override
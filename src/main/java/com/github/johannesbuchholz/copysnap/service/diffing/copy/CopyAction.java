@@ -1,17 +1,41 @@
 package com.github.johannesbuchholz.copysnap.service.diffing.copy;
 
 import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.service.diffing.DirectoryCache;
 import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Optional;
 
-@FunctionalInterface
 public interface CopyAction {
 
     /**
      * @return The FileState of the copied file if available.
      */
-    Optional<FileState> perform(FileSystemAccessor fsa) throws IOException;
+    default Optional<FileState> perform(FileSystemAccessor fsa) throws IOException {
+        return perform(fsa, new DirectoryCache());
+    }
+
+    /**
+     * @param directoryCache Shared by all actions written to the same destination.
+     * @return The FileState of the copied file if available.
+     */
+    Optional<FileState> perform(FileSystemAccessor fsa, DirectoryCache directoryCache) throws IOException;
+
+    /**
+     * @return A short name of the kind of this action used in reports, like {@code COPY}.
+     */
+    String getType();
+
+    /**
+     * @return The path of the affected file relative to the source and destination root locations.
+     */
+    Path getRelPath();
+
+    /**
+     * @return The path of the file or link created by this action.
+     */
+    Path getDestination();
 
 }
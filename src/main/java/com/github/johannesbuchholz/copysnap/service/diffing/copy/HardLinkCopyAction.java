@@ -0,0 +1,72 @@
+package com.github.johannesbuchholz.copysnap.service.diffing.copy;
+
+import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.service.diffing.DirectoryCache;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Creates a hard link to an already written copy of the same source file instead of copying its content again. Falls
+ * back to a plain copy if the primary copy is unknown or can not be linked, for example across file systems.
+ */
+public class HardLinkCopyAction extends AbstractCopyAction {
+
+    private final Path existingRootLocation;
+    private final Path primaryRelPath;
+    private final PlainCopyAction fallback;
+    /* nullable */
+    private final FileState primaryState;
+
+    /**
+     * @param existingRootLocation The root the primary copy resides in. This is either the destination or the root of
+     *                             a previous snapshot.
+     * @param primaryRelPath       The path of the primary copy relative to the existing root location.
+     */
+    public HardLinkCopyAction(Path sourceRootLocation, Path destinationRootLocation, Path relPath, Path existingRootLocation, Path primaryRelPath, PlainCopyAction fallback) {
+        this(sourceRootLocation, destinationRootLocation, relPath, existingRootLocation, primaryRelPath, fallback, null);
+    }
+
+    private HardLinkCopyAction(Path sourceRootLocation, Path destinationRootLocation, Path relPath, Path existingRootLocation, Path primaryRelPath, PlainCopyAction fallback, FileState primaryState) {
+        super(sourceRootLocation, destinationRootLocation, relPath);
+        this.existingRootLocation = Objects.requireNonNull(existingRootLocation);
+        this.primaryRelPath = Objects.requireNonNull(primaryRelPath);
+        this.fallback = Objects.requireNonNull(fallback);
+        this.primaryState = primaryState;
+    }
+
+    @Override
+    public String getType() {
+        return "HARDLINK";
+    }
+
+    public Path getPrimaryRelPath() {
+        return primaryRelPath;
+    }
+
+    /**
+     * @param primaryState The state of the primary copy after it has been written. The new state of this file is
+     *                     derived from it.
+     */
+    public HardLinkCopyAction withPrimaryState(FileState primaryState) {
+        return new HardLinkCopyAction(sourceRootLocation, destinationRootLocation, relPath, existingRootLocation, primaryRelPath, fallback, primaryState);
+    }
+
+    @Override
+    public Optional<FileState> perform(FileSystemAccessor fsa, DirectoryCache directoryCache) throws IOException {
+        if (primaryState == null)
+            return fallback.perform(fsa, directoryCache);
+        Path absDestination = destinationRootLocation.resolve(relPath);
+        directoryCache.createParentDirectories(absDestination, fsa);
+        try {
+            fsa.createLink(absDestination, fsa.toRealPath(existingRootLocation.resolve(primaryRelPath)));
+        } catch (IOException | UnsupportedOperationException e) {
+            return fallback.perform(fsa, directoryCache);
+        }
+        return Optional.of(new FileState(relPath, primaryState.getLastModified(), primaryState.getChecksum()));
+    }
+
+}
@@ -2,7 +2,9 @@ package com.github.johannesbuchholz.copysnap.service.diffing.copy;
 
 import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
 import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.service.diffing.DirectoryCache;
 import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.util.BufferPool;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -13,27 +15,112 @@ import java.util.Optional;
 
 public class PlainCopyAction extends AbstractCopyAction {
 
+    /**
+     * Files up to this size known from the walk are read and written with a single call each.
+     */
+    public static final int SMALL_FILE_MAX_SIZE = 16384;
+
+    private static final BufferPool SMALL_FILE_BUFFER_POOL = new BufferPool(SMALL_FILE_MAX_SIZE + 1);
+
+    private final Instant lastModified;
+    private final long size;
+
     public PlainCopyAction(Path sourceRootLocation, Path destinationRootLocation, Path relPath) {
+        this(sourceRootLocation, destinationRootLocation, relPath, null, -1);
+    }
+
+    /**
+     * @param lastModified The last modified time of the source file as seen while walking the source or {@code null}
+     *                     if unknown. Saves another access to the source file.
+     * @param size         The size of the source file as seen while walking the source or -1 if unknown.
+     */
+    public PlainCopyAction(Path sourceRootLocation, Path destinationRootLocation, Path relPath, Instant lastModified, long size) {
         super(sourceRootLocation, destinationRootLocation, relPath);
+        this.lastModified = lastModified;
+        this.size = size;
     }
 
     @Override
-    public Optional<FileState> perform(FileSystemAccessor fsa) throws IOException {
+    public String getType() {
+        return "COPY";
+    }
+
+    /**
+     * @return {@code true} if the source file is known to be small enough for {@link #readSmall(FileSystemAccessor, byte[], int)}.
+     */
+    public boolean isSmall() {
+        return lastModified != null && size >= 0 && size <= SMALL_FILE_MAX_SIZE;
+    }
+
+    /**
+     * @return The last modified time of the source file as seen while walking the source or {@code null} if unknown.
+     */
+    public Instant getLastModified() {
+        return lastModified;
+    }
+
+    public Path getDestinationDirectory() {
+        return destinationRootLocation.resolve(relPath).getParent();
+    }
+
+    @Override
+    public Optional<FileState> perform(FileSystemAccessor fsa, DirectoryCache directoryCache) throws IOException {
+        if (isSmall())
+            return performSmall(fsa, directoryCache);
         CheckpointChecksum checksum;
         Instant lastModified;
         Path absSource = sourceRootLocation.resolve(relPath);
         Path absDestination = destinationRootLocation.resolve(relPath);
 
-        createParentDirs(absDestination, fsa);
+        directoryCache.createParentDirectories(absDestination, fsa);
         try (
-                InputStream is = fsa.createNewInputStream(absSource);
-                OutputStream os = fsa.createNewOutputStream(absDestination)
+                InputStream is = fsa.createNewInputStream(absSource, size);
+                OutputStream os = fsa.createNewOutputStream(absDestination, size)
         ) {
             checksum = CheckpointChecksum.byTransferring(is, os);
-            lastModified = fsa.getLastModifiedTime(absSource);
+            lastModified = this.lastModified != null ? this.lastModified : fsa.getLastModifiedTime(absSource);
             os.flush();
         }
+        if (this.lastModified != null)
+            // only the last modified time seen before reading is known to be not newer than the content
+            fsa.cacheChecksum(absSource, this.lastModified, checksum);
         return Optional.of(new FileState(relPath, lastModified, checksum));
     }
 
+    private Optional<FileState> performSmall(FileSystemAccessor fsa, DirectoryCache directoryCache) throws IOException {
+        byte[] buffer = SMALL_FILE_BUFFER_POOL.borrow();
+        try {
+            int readCount = readSmall(fsa, buffer, 0);
+            if (readCount > SMALL_FILE_MAX_SIZE)
+                // the file has grown since the walk, hence its attributes are outdated
+                return new PlainCopyAction(sourceRootLocation, destinationRootLocation, relPath).perform(fsa, directoryCache);
+            directoryCache.createParentDirectories(destinationRootLocation.resolve(relPath), fsa);
+            return Optional.of(writeSmall(fsa, buffer, 0, readCount));
+        } finally {
+            SMALL_FILE_BUFFER_POOL.release(buffer);
+        }
+    }
+
+    /**
+     * Reads the whole source file of a {@link #isSmall() small} copy into the given buffer without creating or writing
+     * any destination file.
+     * @param buffer Must provide {@link #SMALL_FILE_MAX_SIZE} + 1 bytes starting at the given offset.
+     * @return The number of read bytes. A count greater than {@link #SMALL_FILE_MAX_SIZE} indicates that the file has
+     * grown since the walk and must be copied by {@link #perform(FileSystemAccessor, DirectoryCache)} instead.
+     */
+    public int readSmall(FileSystemAccessor fsa, byte[] buffer, int offset) throws IOException {
+        return fsa.read(sourceRootLocation.resolve(relPath), buffer, offset, SMALL_FILE_MAX_SIZE + 1);
+    }
+
+    /**
+     * Writes the content previously read by {@link #readSmall(FileSystemAccessor, byte[], int)}. Expects the
+     * {@link #getDestinationDirectory() destination directory} to exist.
+     */
+    public FileState writeSmall(FileSystemAccessor fsa, byte[] buffer, int offset, int length) throws IOException {
+        fsa.write(destinationRootLocation.resolve(relPath), buffer, offset, length);
+        CheckpointChecksum checksum = CheckpointChecksum.from(buffer, offset, length);
+        fsa.cacheChecksum(sourceRootLocation.resolve(relPath), lastModified, checksum);
+        return new FileState(relPath, lastModified, checksum);
+    }
+
 }
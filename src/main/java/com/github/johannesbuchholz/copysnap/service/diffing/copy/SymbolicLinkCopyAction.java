@@ -1,6 +1,7 @@
 package com.github.johannesbuchholz.copysnap.service.diffing.copy;
 
 import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.service.diffing.DirectoryCache;
 import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
 
 import java.io.IOException;
@@ -14,12 +15,32 @@ public class SymbolicLinkCopyAction extends AbstractCopyAction {
     }
 
     @Override
-    public Optional<FileState> perform(FileSystemAccessor fsa) throws IOException {
+    public String getType() {
+        return "LINK";
+    }
+
+    @Override
+    public Optional<FileState> perform(FileSystemAccessor fsa, DirectoryCache directoryCache) throws IOException {
         Path absSource = sourceRootLocation.resolve(relPath);
         Path absDestination = destinationRootLocation.resolve(relPath);
-        createParentDirs(absDestination, fsa);
-        fsa.createSymbolicLink(absDestination, absSource);
+        directoryCache.createParentDirectories(absDestination, fsa);
+        fsa.createSymbolicLink(absDestination, resolveOrigin(absSource, fsa));
         return Optional.empty();
     }
 
+    /**
+     * Links to the physical origin of the source instead of the source itself. Otherwise, files unchanged for many
+     * snapshots end up behind a chain of links through all of these snapshots.
+     *
+     * @return The real path of the source or the source itself if it can not be resolved.
+     */
+    private static Path resolveOrigin(Path absSource, FileSystemAccessor fsa) {
+        try {
+            return fsa.toRealPath(absSource);
+        } catch (IOException e) {
+            // keep the previous behaviour of linking to the given path, a dangling link is reported by verify
+            return absSource;
+        }
+    }
+
 }
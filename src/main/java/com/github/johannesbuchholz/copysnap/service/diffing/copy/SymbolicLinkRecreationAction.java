@@ -0,0 +1,35 @@
+package com.github.johannesbuchholz.copysnap.service.diffing.copy;
+
+import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.service.diffing.DirectoryCache;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Creates a symbolic link with the same target as a symbolic link in the source. Relative targets are kept relative.
+ */
+public class SymbolicLinkRecreationAction extends AbstractCopyAction {
+
+    public SymbolicLinkRecreationAction(Path sourceRootLocation, Path destinationRootLocation, Path relPath) {
+        super(sourceRootLocation, destinationRootLocation, relPath);
+    }
+
+    @Override
+    public String getType() {
+        return "SYMLINK";
+    }
+
+    @Override
+    public Optional<FileState> perform(FileSystemAccessor fsa, DirectoryCache directoryCache) throws IOException {
+        Path absSource = sourceRootLocation.resolve(relPath);
+        Path absDestination = destinationRootLocation.resolve(relPath);
+        Path target = fsa.readSymbolicLink(absSource);
+        directoryCache.createParentDirectories(absDestination, fsa);
+        fsa.createSymbolicLink(absDestination, target);
+        return Optional.empty();
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.github.johannesbuchholz.copysnap.service.flatten;
+
+import com.github.johannesbuchholz.copysnap.logging.AbstractLogProducer;
+import com.github.johannesbuchholz.copysnap.logging.Level;
+import com.github.johannesbuchholz.copysnap.logging.ProgressConsolePrinter;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.util.BoundedExecutor;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replaces symbolic links of a snapshot pointing at other links by links pointing directly at the physical files or
+ * directories. Snapshots created by older versions link every unchanged subtree to the same path in the previous
+ * snapshot, which results in chains of links through all snapshots a file has been unchanged in.
+ * <p>
+ * Links are replaced atomically, so that snapshots stay readable while being flattened. Links pointing outside the
+ * snapshots home directory are left untouched.
+ * </p>
+ */
+public class FlattenService extends AbstractLogProducer {
+
+    private static final ProgressConsolePrinter PROGRESS_CONSOLE_PRINTER = new ProgressConsolePrinter("Flattening links");
+    private static final String TEMPORARY_LINK_SUFFIX = ".copysnap-flatten";
+
+    private final FileSystemAccessor fileSystemAccessor;
+    private final int parallelism;
+
+    public FlattenService(FileSystemAccessor fileSystemAccessor) {
+        this(fileSystemAccessor, BoundedExecutor.DEFAULT_PARALLELISM);
+    }
+
+    public FlattenService(FileSystemAccessor fileSystemAccessor, int parallelism) {
+        this.fileSystemAccessor = fileSystemAccessor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param snapshotDir The snapshot directory to flatten links in. Linked directories are not entered.
+     */
+    public Statistics flatten(Path snapshotDir) throws IOException {
+        ZonedDateTime start = ZonedDateTime.now();
+        logTaskStart(Level.INFO, "Flattening links", start, "at", snapshotDir, "parallelism", parallelism);
+
+        Counters counters = new Counters();
+        Path snapshotsHomeDir = fileSystemAccessor.toRealPath(snapshotDir.getParent());
+        try (BoundedExecutor executor = BoundedExecutor.withParallelism(parallelism)) {
+            fileSystemAccessor.visitFiles(snapshotDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isSymbolicLink()) {
+                        counters.discovered.getAndIncrement();
+                        executor.submit(() -> flattenLink(file, snapshotsHomeDir, counters));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    counters.errors.getAndIncrement();
+                    log(Level.ERROR, "Could not visit %s: %s".formatted(file, exc));
+                    logStacktrace(Level.DEBUG, exc);
+                    return FileVisitResult.CONTINUE;
+                }
+            }, false);
+        }
+        PROGRESS_CONSOLE_PRINTER.newLine();
+
+        Statistics statistics = counters.toStatistics();
+        log(statistics.errorCount() == 0 ? Level.INFO : Level.ERROR, statistics.toString());
+        logTaskEnd(Level.INFO, "Done flattening links", Duration.between(start, ZonedDateTime.now()));
+        return statistics;
+    }
+
+    private void flattenLink(Path link, Path snapshotsHomeDir, Counters counters) {
+        try {
+            Path linkTarget = fileSystemAccessor.readSymbolicLink(link);
+            if (!linkTarget.isAbsolute()) {
+                // links of snapshots are absolute, relative links stem from the source
+                counters.flat.getAndIncrement();
+                return;
+            }
+            Path target = linkTarget.normalize();
+            Path origin;
+            try {
+                origin = fileSystemAccessor.toRealPath(link);
+            } catch (IOException e) {
+                if (!target.startsWith(snapshotsHomeDir)) {
+                    // links recreated from the source may dangle
+                    counters.flat.getAndIncrement();
+                    return;
+                }
+                counters.danglingLinks.getAndIncrement();
+                log(Level.ERROR, "DANGLING LINK: %s -> %s".formatted(link, target));
+                return;
+            }
+            if (origin.equals(target) || !origin.startsWith(snapshotsHomeDir)) {
+                // links pointing outside the snapshots home are recreated from the source and kept as they are
+                counters.flat.getAndIncrement();
+            } else {
+                Path temporaryLink = link.resolveSibling(link.getFileName() + TEMPORARY_LINK_SUFFIX);
+                fileSystemAccessor.createSymbolicLink(temporaryLink, origin);
+                fileSystemAccessor.moveAtomically(temporaryLink, link);
+                counters.flattened.getAndIncrement();
+                log(Level.DEBUG, () -> "FLATTENED: %s -> %s instead of %s".formatted(link, origin, target));
+            }
+        } catch (IOException e) {
+            counters.errors.getAndIncrement();
+            log(Level.ERROR, "Could not flatten %s: %s".formatted(link, e));
+            logStacktrace(Level.DEBUG, e);
+        } finally {
+            PROGRESS_CONSOLE_PRINTER.update(counters.processed.incrementAndGet(), counters.discovered.get());
+        }
+    }
+
+    private static class Counters {
+        private final AtomicInteger discovered = new AtomicInteger();
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicInteger flattened = new AtomicInteger();
+        private final AtomicInteger flat = new AtomicInteger();
+        private final AtomicInteger danglingLinks = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+
+        Statistics toStatistics() {
+            return new Statistics(flattened.get(), flat.get(), danglingLinks.get(), errors.get());
+        }
+    }
+
+    public record Statistics(int flattenedCount, int alreadyFlatCount, int danglingLinkCount, int errorCount) {
+        @Override
+        public String toString() {
+            return """
+                    Flatten statistics:
+                        flattened: %s
+                        already flat: %s
+                        dangling links: %s
+                        erroneous: %s"""
+                    .formatted(flattenedCount, alreadyFlatCount, danglingLinkCount, errorCount);
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.github.johannesbuchholz.copysnap.service.recompute;
+
+import com.github.johannesbuchholz.copysnap.logging.AbstractLogProducer;
+import com.github.johannesbuchholz.copysnap.logging.Level;
+import com.github.johannesbuchholz.copysnap.logging.ProgressConsolePrinter;
+import com.github.johannesbuchholz.copysnap.model.Root;
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.util.BoundedExecutor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes the file system state of a directory by reading every file. Files with a checksum cached by the
+ * {@link FileSystemAccessor} for their current last modified time and size are not read.
+ * <p>
+ * The directory tree is walked on the calling thread while files are hashed on a bounded worker pool. The walk only
+ * blocks if too many files are waiting to be hashed, so the number of files in flight stays bounded.
+ * </p>
+ * <p>
+ * Files that can not be visited or read are logged, counted as errors and left out of the computed state.
+ * </p>
+ */
+public class RecomputeService extends AbstractLogProducer {
+
+    private static final ProgressConsolePrinter PROGRESS_CONSOLE_PRINTER = new ProgressConsolePrinter("Hashing files");
+
+    private final FileSystemAccessor fileSystemAccessor;
+    private final int parallelism;
+
+    public RecomputeService(FileSystemAccessor fileSystemAccessor) {
+        this(fileSystemAccessor, BoundedExecutor.DEFAULT_PARALLELISM);
+    }
+
+    public RecomputeService(FileSystemAccessor fileSystemAccessor, int parallelism) {
+        this.fileSystemAccessor = fileSystemAccessor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return The computed state together with statistics. The state is incomplete if the statistics contain errors.
+     */
+    public Result recompute(Root root) throws IOException {
+        ZonedDateTime start = ZonedDateTime.now();
+        logTaskStart(Level.INFO, "Hashing files", start, "at", root.pathToRootDir(), "parallelism", parallelism);
+
+        FileSystemState.Builder builder = FileSystemState.concurrentBuilder();
+        Counters counters = new Counters();
+        try (BoundedExecutor executor = BoundedExecutor.withParallelism(parallelism)) {
+            fileSystemAccessor.visitFiles(root.pathToRootDir(), new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        counters.discovered.getAndIncrement();
+                        Instant lastModified = attrs.lastModifiedTime().toInstant();
+                        executor.submit(() -> hashFile(root.rootDirLocation(), file, lastModified, attrs.size(), builder, counters));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    counters.errors.getAndIncrement();
+                    log(Level.ERROR, "Could not visit %s: %s".formatted(file, exc));
+                    logStacktrace(Level.DEBUG, exc);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        PROGRESS_CONSOLE_PRINTER.newLine();
+
+        Statistics statistics = counters.toStatistics();
+        log(statistics.isComplete() ? Level.INFO : Level.ERROR, statistics.toString());
+        logTaskEnd(Level.INFO, "Done hashing files", Duration.between(start, ZonedDateTime.now()));
+        return new Result(builder.build(), statistics);
+    }
+
+    private void hashFile(Path rootDirLocation, Path absFile, Instant lastModified, long size, FileSystemState.Builder builder, Counters counters) {
+        try {
+            Optional<CheckpointChecksum> cachedChecksum = fileSystemAccessor.getCachedChecksum(absFile, lastModified, size);
+            CheckpointChecksum checksum;
+            if (cachedChecksum.isPresent()) {
+                checksum = cachedChecksum.get();
+                counters.cached.getAndIncrement();
+            } else {
+                try (InputStream is = fileSystemAccessor.createNewInputStream(absFile, size)) {
+                    checksum = CheckpointChecksum.from(is);
+                }
+                fileSystemAccessor.cacheChecksum(absFile, lastModified, checksum);
+                counters.hashed.getAndIncrement();
+                counters.hashedBytes.getAndAdd(size);
+            }
+            builder.add(new FileState(rootDirLocation.relativize(absFile), lastModified, checksum));
+        } catch (IOException | RuntimeException e) {
+            counters.errors.getAndIncrement();
+            log(Level.ERROR, "Could not hash %s: %s".formatted(absFile, e));
+            logStacktrace(Level.DEBUG, e);
+        }
+        PROGRESS_CONSOLE_PRINTER.update(counters.processed.incrementAndGet(), counters.discovered.get());
+    }
+
+    private static class Counters {
+        private final AtomicInteger discovered = new AtomicInteger();
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicInteger hashed = new AtomicInteger();
+        private final AtomicLong hashedBytes = new AtomicLong();
+        private final AtomicInteger cached = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+
+        Statistics toStatistics() {
+            return new Statistics(hashed.get(), hashedBytes.get(), cached.get(), errors.get());
+        }
+    }
+
+    public record Result(FileSystemState state, Statistics statistics) {}
+
+    public record Statistics(int hashedCount, long hashedByteCount, int cachedCount, int errorCount) {
+
+        /**
+         * @return {@code true} if every file has been hashed or found in the cache.
+         */
+        public boolean isComplete() {
+            return errorCount == 0;
+        }
+
+        @Override
+        public String toString() {
+            return """
+                    Recompute statistics:
+                        hashed: %s (%s bytes)
+                        cached: %s
+                        erroneous: %s"""
+                    .formatted(hashedCount, hashedByteCount, cachedCount, errorCount);
+        }
+    }
+
+}
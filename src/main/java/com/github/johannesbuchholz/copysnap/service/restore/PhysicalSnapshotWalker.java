@@ -0,0 +1,140 @@
+package com.github.johannesbuchholz.copysnap.service.restore;
+
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Walks a snapshot directory and reports every file together with its physical location and its logical location
+ * within the snapshot.
+ * <p>
+ * Snapshots consist of real files and symbolic links into older snapshots which may again point to even older
+ * snapshots. Instead of resolving these chains for every single file, the uppermost link of every linked subtree is
+ * resolved once and the physical directory it points to is walked directly.
+ * </p>
+ * <p>
+ * Relative links and links pointing outside the snapshots home directory are not followed. Such links have been
+ * recreated from the source, for example by contexts not following links, and are reported as they are.
+ * </p>
+ * Not thread safe, not reusable.
+ */
+class PhysicalSnapshotWalker {
+
+    interface Visitor {
+
+        /**
+         * @param physicalFile The location of the file without any symbolic links.
+         * @param logicalFile  The location of the file as seen from within the snapshot.
+         */
+        void visitFile(Path physicalFile, Path logicalFile);
+
+        /**
+         * @param logicalLink The location of a link recreated from the source as seen from within the snapshot.
+         * @param target      The target as stored in the link, which may be relative to the link's directory.
+         */
+        void visitForeignLink(Path logicalLink, Path target);
+
+        void visitFailed(String message, /* nullable */ Exception e);
+
+    }
+
+    private final FileSystemAccessor fileSystemAccessor;
+    private final Path snapshotsHomeDir;
+    private final Visitor visitor;
+    // directories of links currently being followed, used to detect links pointing to their own ancestors
+    private final Deque<Path> linkDirsInWalk = new ArrayDeque<>();
+
+    /**
+     * @param snapshotsHomeDir The directory containing all snapshots links may point into.
+     */
+    PhysicalSnapshotWalker(FileSystemAccessor fileSystemAccessor, Path snapshotsHomeDir, Visitor visitor) throws IOException {
+        this.fileSystemAccessor = fileSystemAccessor;
+        this.snapshotsHomeDir = fileSystemAccessor.toRealPath(snapshotsHomeDir);
+        this.visitor = visitor;
+    }
+
+    /**
+     * Walks the given path after resolving all symbolic links along it.
+     */
+    void walk(Path start) throws IOException {
+        walk(fileSystemAccessor.toRealPath(start), start);
+    }
+
+    /**
+     * Walks the physical directory without following links. Every visited path is mapped to its logical location.
+     *
+     * @param physicalDir The directory or file to walk. Must not contain symbolic links.
+     * @param logicalDir  The location of the physical directory as seen from within the snapshot.
+     */
+    private void walk(Path physicalDir, Path logicalDir) throws IOException {
+        fileSystemAccessor.visitFiles(physicalDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path logicalFile = logicalDir.resolve(physicalDir.relativize(file));
+                if (attrs.isSymbolicLink()) {
+                    visitLink(file, logicalFile);
+                } else {
+                    visitor.visitFile(file, logicalFile);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                visitor.visitFailed("Could not visit %s: %s".formatted(file, exc), exc);
+                return FileVisitResult.CONTINUE;
+            }
+        }, false);
+    }
+
+    /**
+     * Resolves the complete link chain once and continues with the physical location.
+     */
+    private void visitLink(Path link, Path logicalLink) throws IOException {
+        Path target;
+        try {
+            target = fileSystemAccessor.readSymbolicLink(link);
+        } catch (IOException e) {
+            visitor.visitFailed("Could not read symbolic link %s: %s".formatted(link, e), e);
+            return;
+        }
+        if (!target.isAbsolute()) {
+            // links of snapshots are absolute, relative links stem from the source
+            visitor.visitForeignLink(logicalLink, target);
+            return;
+        }
+        Path realPath;
+        try {
+            realPath = fileSystemAccessor.toRealPath(link);
+        } catch (IOException e) {
+            if (link.resolveSibling(target).normalize().startsWith(snapshotsHomeDir))
+                visitor.visitFailed("Could not resolve symbolic link %s: %s".formatted(link, e), e);
+            else
+                visitor.visitForeignLink(logicalLink, target);
+            return;
+        }
+        if (!realPath.startsWith(snapshotsHomeDir)) {
+            visitor.visitForeignLink(logicalLink, target);
+            return;
+        }
+        // the parent of a link found during a walk is physical, as links are not followed
+        Path linkParent = link.getParent();
+        if ((linkParent != null && linkParent.startsWith(realPath)) || linkDirsInWalk.stream().anyMatch(dir -> dir.startsWith(realPath))) {
+            visitor.visitFailed("Skipping symbolic link %s: Points to its own ancestor %s".formatted(link, realPath), null);
+            return;
+        }
+        linkDirsInWalk.push(linkParent == null ? link : linkParent);
+        try {
+            walk(realPath, logicalLink);
+        } finally {
+            linkDirsInWalk.pop();
+        }
+    }
+
+}
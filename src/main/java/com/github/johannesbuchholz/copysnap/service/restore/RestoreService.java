@@ -0,0 +1,175 @@
+package com.github.johannesbuchholz.copysnap.service.restore;
+
+import com.github.johannesbuchholz.copysnap.logging.AbstractLogProducer;
+import com.github.johannesbuchholz.copysnap.logging.Level;
+import com.github.johannesbuchholz.copysnap.logging.ProgressConsolePrinter;
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import com.github.johannesbuchholz.copysnap.service.diffing.DirectoryCache;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.util.BoundedExecutor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies the files of a snapshot out of the snapshot directory.
+ * <p>
+ * Symbolic links into older snapshots are resolved once per linked subtree, see {@link PhysicalSnapshotWalker}. Links
+ * pointing elsewhere are restored as links.
+ * </p>
+ */
+public class RestoreService extends AbstractLogProducer {
+
+    private static final ProgressConsolePrinter PROGRESS_CONSOLE_PRINTER = new ProgressConsolePrinter("Restoring files");
+
+    private final FileSystemAccessor fileSystemAccessor;
+    private final int parallelism;
+
+    public RestoreService(FileSystemAccessor fileSystemAccessor) {
+        this(fileSystemAccessor, BoundedExecutor.DEFAULT_PARALLELISM);
+    }
+
+    public RestoreService(FileSystemAccessor fileSystemAccessor, int parallelism) {
+        this.fileSystemAccessor = fileSystemAccessor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Restores all files at and below {@code snapshotDir.resolve(relSubPath)} into the target directory. Restored
+     * files keep their path relative to the snapshot directory. Files directly in the snapshot directory, like reports
+     * and the recorded state, are not restored.
+     *
+     * @param snapshotDir    The snapshot directory to restore files from.
+     * @param relSubPath     The path relative to the snapshot directory to restore. Use an empty path to restore everything.
+     * @param targetDir      The directory to restore files into.
+     * @param expectedStates The file states to verify restored files against. Files without a known state are
+     *                       restored without verification.
+     */
+    public Statistics restore(Path snapshotDir, Path relSubPath, Path targetDir, FileSystemState expectedStates) throws IOException {
+        if (relSubPath.isAbsolute())
+            throw new IllegalArgumentException("Sub path must be relative: " + relSubPath);
+        Path start = snapshotDir.resolve(relSubPath);
+        ZonedDateTime startTime = ZonedDateTime.now();
+        logTaskStart(Level.INFO, "Restoring files", startTime, "from", start, "to", targetDir, "parallelism", parallelism);
+
+        Counters counters = new Counters();
+        DirectoryCache directoryCache = new DirectoryCache();
+        try (BoundedExecutor executor = BoundedExecutor.withParallelism(parallelism)) {
+            new PhysicalSnapshotWalker(fileSystemAccessor, snapshotDir.getParent(), new PhysicalSnapshotWalker.Visitor() {
+                @Override
+                public void visitFile(Path physicalFile, Path logicalFile) {
+                    Path relPath = snapshotDir.relativize(logicalFile);
+                    if (relPath.getNameCount() <= 1)
+                        // files directly in the snapshot directory are files of copysnap itself, like reports.
+                        return;
+                    counters.discovered.getAndIncrement();
+                    executor.submit(() -> restoreFile(physicalFile, relPath, targetDir, expectedStates, directoryCache, counters));
+                }
+
+                @Override
+                public void visitForeignLink(Path logicalLink, Path target) {
+                    counters.discovered.getAndIncrement();
+                    Path relPath = snapshotDir.relativize(logicalLink);
+                    executor.submit(() -> restoreLink(relPath, target, targetDir, directoryCache, counters));
+                }
+
+                @Override
+                public void visitFailed(String message, Exception e) {
+                    counters.errors.getAndIncrement();
+                    log(Level.ERROR, message);
+                }
+            }).walk(start);
+        }
+        PROGRESS_CONSOLE_PRINTER.newLine();
+
+        Statistics statistics = counters.toStatistics();
+        log(Level.INFO, statistics.toString());
+        logTaskEnd(Level.INFO, "Done restoring files", Duration.between(startTime, ZonedDateTime.now()));
+        return statistics;
+    }
+
+    private void restoreFile(Path absPhysicalSource, Path relPath, Path targetDir, FileSystemState expectedStates, DirectoryCache directoryCache, Counters counters) {
+        Path absDestination = targetDir.resolve(relPath);
+        try {
+            directoryCache.createParentDirectories(absDestination, fileSystemAccessor);
+            Optional<FileState> expectedState = expectedStates.get(relPath);
+            if (expectedState.isPresent()) {
+                CheckpointChecksum actualChecksum;
+                CheckpointChecksum expectedChecksum = expectedState.get().getChecksum();
+                long expectedSize = expectedChecksum.hasTail() ? expectedChecksum.size() : -1;
+                try (
+                        InputStream is = fileSystemAccessor.createNewInputStream(absPhysicalSource, expectedSize);
+                        OutputStream os = fileSystemAccessor.createNewOutputStream(absDestination, expectedSize)
+                ) {
+                    actualChecksum = CheckpointChecksum.byTransferring(is, os);
+                }
+                fileSystemAccessor.setLastModifiedTime(absDestination, expectedState.get().getLastModified());
+                if (actualChecksum.hasSameContentAs(expectedChecksum)) {
+                    counters.verified.getAndIncrement();
+                } else {
+                    counters.mismatched.getAndIncrement();
+                    log(Level.ERROR, "Checksum mismatch: Restored file %s does not match the recorded state of %s".formatted(absDestination, relPath));
+                }
+            } else {
+                fileSystemAccessor.transfer(absPhysicalSource, absDestination);
+            }
+            counters.restored.getAndIncrement();
+            log(Level.DEBUG, () -> "RESTORED: %s -> %s".formatted(absPhysicalSource, absDestination));
+        } catch (IOException e) {
+            counters.errors.getAndIncrement();
+            log(Level.ERROR, "Could not restore %s to %s: %s".formatted(absPhysicalSource, absDestination, e));
+            logStacktrace(Level.DEBUG, e);
+        }
+        PROGRESS_CONSOLE_PRINTER.update(counters.processed.incrementAndGet(), counters.discovered.get());
+    }
+
+    private void restoreLink(Path relPath, Path target, Path targetDir, DirectoryCache directoryCache, Counters counters) {
+        Path absDestination = targetDir.resolve(relPath);
+        try {
+            directoryCache.createParentDirectories(absDestination, fileSystemAccessor);
+            fileSystemAccessor.createSymbolicLink(absDestination, target);
+            counters.restored.getAndIncrement();
+            log(Level.DEBUG, () -> "RESTORED LINK: %s -> %s".formatted(absDestination, target));
+        } catch (IOException e) {
+            counters.errors.getAndIncrement();
+            log(Level.ERROR, "Could not restore link %s to %s: %s".formatted(absDestination, target, e));
+            logStacktrace(Level.DEBUG, e);
+        }
+        PROGRESS_CONSOLE_PRINTER.update(counters.processed.incrementAndGet(), counters.discovered.get());
+    }
+
+    private static class Counters {
+        private final AtomicInteger discovered = new AtomicInteger();
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicInteger restored = new AtomicInteger();
+        private final AtomicInteger verified = new AtomicInteger();
+        private final AtomicInteger mismatched = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+
+        Statistics toStatistics() {
+            return new Statistics(restored.get(), verified.get(), mismatched.get(), errors.get());
+        }
+    }
+
+    public record Statistics(int restoredCount, int verifiedCount, int mismatchCount, int errorCount) {
+        @Override
+        public String toString() {
+            return """
+                    Restore statistics:
+                        restored: %s
+                        verified: %s
+                        checksum mismatch: %s
+                        erroneous: %s"""
+                    .formatted(restoredCount, verifiedCount, mismatchCount, errorCount);
+        }
+    }
+
+}
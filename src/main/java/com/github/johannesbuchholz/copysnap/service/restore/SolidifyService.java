@@ -0,0 +1,187 @@
+package com.github.johannesbuchholz.copysnap.service.restore;
+
+import com.github.johannesbuchholz.copysnap.logging.AbstractLogProducer;
+import com.github.johannesbuchholz.copysnap.logging.ActionRecorder;
+import com.github.johannesbuchholz.copysnap.logging.Level;
+import com.github.johannesbuchholz.copysnap.logging.ProgressConsolePrinter;
+import com.github.johannesbuchholz.copysnap.service.diffing.DirectoryCache;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.util.BoundedExecutor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates a snapshot without any symbolic links from an existing snapshot.
+ * <p>
+ * Symbolic links into older snapshots are resolved once per linked subtree, see {@link PhysicalSnapshotWalker}. Links
+ * pointing elsewhere are recreated as they are.
+ * Files are copied without passing their content through the application if possible and are never hashed, as their
+ * file states are already known from the source snapshot. If requested, files are hard linked instead of copied. Hard
+ * links keep the new snapshot independent of the deletion of older snapshots while not occupying additional space.
+ * </p>
+ */
+public class SolidifyService extends AbstractLogProducer {
+
+    private static final ProgressConsolePrinter PROGRESS_CONSOLE_PRINTER = new ProgressConsolePrinter("Copying files");
+    private static final String COPY_ACTION_TYPE = "COPY";
+    private static final String HARD_LINK_ACTION_TYPE = "HARDLINK";
+    private static final String SYMBOLIC_LINK_ACTION_TYPE = "SYMLINK";
+
+    private final FileSystemAccessor fileSystemAccessor;
+    private final int parallelism;
+
+    public SolidifyService(FileSystemAccessor fileSystemAccessor) {
+        this(fileSystemAccessor, BoundedExecutor.DEFAULT_PARALLELISM);
+    }
+
+    public SolidifyService(FileSystemAccessor fileSystemAccessor, int parallelism) {
+        this.fileSystemAccessor = fileSystemAccessor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Copies all files at and below {@code sourceSnapshotDir.resolve(relSubPath)} into the new snapshot directory.
+     * Copied files keep their path relative to the snapshot directory.
+     *
+     * @param sourceSnapshotDir The snapshot directory to copy files from.
+     * @param relSubPath        The path relative to the snapshot directory to copy.
+     * @param newSnapshotDir    The directory of the new snapshot.
+     * @param hardLink          If true, tries to create hard links instead of copies. Falls back to copying if the
+     *                          file system does not support hard links between the involved directories.
+     */
+    public Statistics solidify(Path sourceSnapshotDir, Path relSubPath, Path newSnapshotDir, boolean hardLink) throws IOException {
+        return solidify(sourceSnapshotDir, relSubPath, newSnapshotDir, hardLink, ActionRecorder.NONE);
+    }
+
+    /**
+     * Like {@link #solidify(Path, Path, Path, boolean)}.
+     *
+     * @param actionRecorder Receives a record of every copied or linked file.
+     */
+    public Statistics solidify(Path sourceSnapshotDir, Path relSubPath, Path newSnapshotDir, boolean hardLink, ActionRecorder actionRecorder) throws IOException {
+        if (relSubPath.isAbsolute())
+            throw new IllegalArgumentException("Sub path must be relative: " + relSubPath);
+        Path start = sourceSnapshotDir.resolve(relSubPath);
+        ZonedDateTime startTime = ZonedDateTime.now();
+        logTaskStart(Level.INFO, "Solidifying files", startTime, "from", start, "to", newSnapshotDir, "hard links", hardLink, "parallelism", parallelism);
+
+        Counters counters = new Counters();
+        DirectoryCache directoryCache = new DirectoryCache();
+        AtomicBoolean tryHardLinks = new AtomicBoolean(hardLink);
+        try (BoundedExecutor executor = BoundedExecutor.withParallelism(parallelism)) {
+            new PhysicalSnapshotWalker(fileSystemAccessor, sourceSnapshotDir.getParent(), new PhysicalSnapshotWalker.Visitor() {
+                @Override
+                public void visitFile(Path physicalFile, Path logicalFile) {
+                    counters.discovered.getAndIncrement();
+                    Path relPath = sourceSnapshotDir.relativize(logicalFile);
+                    executor.submit(() -> solidifyFile(physicalFile, relPath, newSnapshotDir, tryHardLinks, actionRecorder, directoryCache, counters));
+                }
+
+                @Override
+                public void visitForeignLink(Path logicalLink, Path target) {
+                    counters.discovered.getAndIncrement();
+                    Path relPath = sourceSnapshotDir.relativize(logicalLink);
+                    executor.submit(() -> solidifyLink(relPath, target, newSnapshotDir, actionRecorder, directoryCache, counters));
+                }
+
+                @Override
+                public void visitFailed(String message, Exception e) {
+                    counters.errors.getAndIncrement();
+                    log(Level.ERROR, message);
+                }
+            }).walk(start);
+        }
+        PROGRESS_CONSOLE_PRINTER.newLine();
+
+        Statistics statistics = counters.toStatistics();
+        log(statistics.errorCount() == 0 ? Level.INFO : Level.ERROR, statistics.toString());
+        logTaskEnd(Level.INFO, "Done solidifying files", Duration.between(startTime, ZonedDateTime.now()));
+        return statistics;
+    }
+
+    private void solidifyFile(Path absPhysicalSource, Path relPath, Path newSnapshotDir, AtomicBoolean tryHardLinks, ActionRecorder actionRecorder, DirectoryCache directoryCache, Counters counters) {
+        Path absDestination = newSnapshotDir.resolve(relPath);
+        long start = System.nanoTime();
+        try {
+            directoryCache.createParentDirectories(absDestination, fileSystemAccessor);
+            if (tryHardLinks.get() && tryHardLink(absPhysicalSource, absDestination, tryHardLinks)) {
+                counters.linked.getAndIncrement();
+                actionRecorder.record(ActionRecorder.ActionRecord.success(HARD_LINK_ACTION_TYPE, relPath, 0, System.nanoTime() - start));
+                log(Level.DEBUG, () -> "LINKED: %s -> %s".formatted(absPhysicalSource, absDestination));
+            } else {
+                long byteCount = fileSystemAccessor.transfer(absPhysicalSource, absDestination);
+                counters.copied.getAndIncrement();
+                actionRecorder.record(ActionRecorder.ActionRecord.success(COPY_ACTION_TYPE, relPath, byteCount, System.nanoTime() - start));
+                log(Level.DEBUG, () -> "COPIED: %s -> %s".formatted(absPhysicalSource, absDestination));
+            }
+        } catch (IOException e) {
+            counters.errors.getAndIncrement();
+            actionRecorder.record(ActionRecorder.ActionRecord.failure(COPY_ACTION_TYPE, relPath, System.nanoTime() - start, e.toString()));
+            log(Level.ERROR, "Could not solidify %s to %s: %s".formatted(absPhysicalSource, absDestination, e));
+            logStacktrace(Level.DEBUG, e);
+        }
+        PROGRESS_CONSOLE_PRINTER.update(counters.processed.incrementAndGet(), counters.discovered.get());
+    }
+
+    private void solidifyLink(Path relPath, Path target, Path newSnapshotDir, ActionRecorder actionRecorder, DirectoryCache directoryCache, Counters counters) {
+        Path absDestination = newSnapshotDir.resolve(relPath);
+        long start = System.nanoTime();
+        try {
+            directoryCache.createParentDirectories(absDestination, fileSystemAccessor);
+            fileSystemAccessor.createSymbolicLink(absDestination, target);
+            counters.copied.getAndIncrement();
+            actionRecorder.record(ActionRecorder.ActionRecord.success(SYMBOLIC_LINK_ACTION_TYPE, relPath, 0, System.nanoTime() - start));
+            log(Level.DEBUG, () -> "RECREATED LINK: %s -> %s".formatted(absDestination, target));
+        } catch (IOException e) {
+            counters.errors.getAndIncrement();
+            actionRecorder.record(ActionRecorder.ActionRecord.failure(SYMBOLIC_LINK_ACTION_TYPE, relPath, System.nanoTime() - start, e.toString()));
+            log(Level.ERROR, "Could not recreate link %s to %s: %s".formatted(absDestination, target, e));
+            logStacktrace(Level.DEBUG, e);
+        }
+        PROGRESS_CONSOLE_PRINTER.update(counters.processed.incrementAndGet(), counters.discovered.get());
+    }
+
+    /**
+     * @return true if the hard link has been created. Hard links are not tried again after the first failure.
+     */
+    private boolean tryHardLink(Path absPhysicalSource, Path absDestination, AtomicBoolean tryHardLinks) {
+        try {
+            fileSystemAccessor.createLink(absDestination, absPhysicalSource);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            if (tryHardLinks.getAndSet(false))
+                log(Level.INFO, "Could not create hard link %s, copying files instead: %s".formatted(absDestination, e));
+            return false;
+        }
+    }
+
+    private static class Counters {
+        private final AtomicInteger discovered = new AtomicInteger();
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicInteger copied = new AtomicInteger();
+        private final AtomicInteger linked = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+
+        Statistics toStatistics() {
+            return new Statistics(copied.get(), linked.get(), errors.get());
+        }
+    }
+
+    public record Statistics(int copiedCount, int linkedCount, int errorCount) {
+        @Override
+        public String toString() {
+            return """
+                    Solidify statistics:
+                        copied: %s
+                        hard linked: %s
+                        erroneous: %s"""
+                    .formatted(copiedCount, linkedCount, errorCount);
+        }
+    }
+
+}
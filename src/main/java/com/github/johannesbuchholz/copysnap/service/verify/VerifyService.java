@@ -0,0 +1,215 @@
+package com.github.johannesbuchholz.copysnap.service.verify;
+
+import com.github.johannesbuchholz.copysnap.logging.AbstractLogProducer;
+import com.github.johannesbuchholz.copysnap.logging.Level;
+import com.github.johannesbuchholz.copysnap.logging.ProgressConsolePrinter;
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.util.BoundedExecutor;
+import com.github.johannesbuchholz.copysnap.util.RateLimiter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Detects files of a snapshot that do not match the file system state recorded for that snapshot.
+ * <p>
+ * Files reached through symbolic links are verified at their physical location. Physical files shared by multiple
+ * verified snapshots are only read once per instance of this service. Links pointing outside the snapshots home
+ * directory are not followed, as they have been recreated from the source.
+ * </p>
+ */
+public class VerifyService extends AbstractLogProducer {
+
+    private static final ProgressConsolePrinter PROGRESS_CONSOLE_PRINTER = new ProgressConsolePrinter("Verifying files");
+
+    private final FileSystemAccessor fileSystemAccessor;
+    private final RateLimiter rateLimiter;
+    private final int parallelism;
+    // verdicts by physical file and expected checksum
+    private final Map<VerdictKey, Boolean> verdictsByPhysicalFile = new ConcurrentHashMap<>();
+
+    public VerifyService(FileSystemAccessor fileSystemAccessor, RateLimiter rateLimiter) {
+        this(fileSystemAccessor, rateLimiter, BoundedExecutor.DEFAULT_PARALLELISM);
+    }
+
+    public VerifyService(FileSystemAccessor fileSystemAccessor, RateLimiter rateLimiter, int parallelism) {
+        this.fileSystemAccessor = fileSystemAccessor;
+        this.rateLimiter = rateLimiter;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param snapshotDir    The snapshot directory to verify.
+     * @param recordedStates The states recorded for the snapshot with paths relative to the snapshot directory.
+     */
+    public Statistics verify(Path snapshotDir, FileSystemState recordedStates) throws IOException {
+        ZonedDateTime start = ZonedDateTime.now();
+        logTaskStart(Level.INFO, "Verifying snapshot", start, "at", snapshotDir, "file count", recordedStates.fileCount(), "parallelism", parallelism);
+
+        Counters counters = new Counters();
+        Set<Path> visitedPaths = new HashSet<>();
+        Path snapshotsHomeDir = fileSystemAccessor.toRealPath(snapshotDir.getParent());
+        try (BoundedExecutor executor = BoundedExecutor.withParallelism(parallelism)) {
+            fileSystemAccessor.visitFiles(snapshotDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(snapshotDir) && !isInSnapshotsHome(dir, snapshotsHomeDir)) {
+                        log(Level.DEBUG, () -> "FOREIGN LINK: " + snapshotDir.relativize(dir));
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    Path relPath = snapshotDir.relativize(file);
+                    if (relPath.getNameCount() <= 1) {
+                        // files directly in the snapshot directory are files of copysnap itself, like reports.
+                        return FileVisitResult.CONTINUE;
+                    }
+                    visitedPaths.add(relPath);
+                    Optional<FileState> recordedState = recordedStates.get(relPath);
+                    if (attrs.isSymbolicLink()) {
+                        // if here, the link could not be followed
+                        if (isForeignDanglingLink(file, snapshotsHomeDir)) {
+                            log(Level.DEBUG, () -> "FOREIGN LINK: " + relPath);
+                        } else {
+                            counters.danglingLinks.getAndIncrement();
+                            log(Level.ERROR, "DANGLING LINK: " + relPath);
+                        }
+                    } else if (recordedState.isEmpty() && !isInSnapshotsHome(file, snapshotsHomeDir)) {
+                        log(Level.DEBUG, () -> "FOREIGN LINK: " + relPath);
+                    } else if (recordedState.isEmpty()) {
+                        counters.unrecorded.getAndIncrement();
+                        log(Level.INFO, "UNRECORDED: " + relPath);
+                    } else {
+                        counters.discovered.getAndIncrement();
+                        executor.submit(() -> verifyFile(file, attrs.fileKey(), recordedState.get(), counters));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    counters.unreadable.getAndIncrement();
+                    log(Level.ERROR, "Could not visit %s: %s".formatted(file, exc));
+                    logStacktrace(Level.DEBUG, exc);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        PROGRESS_CONSOLE_PRINTER.newLine();
+
+        for (Path recordedPath : recordedStates.paths()) {
+            if (!visitedPaths.contains(recordedPath)) {
+                counters.missing.getAndIncrement();
+                log(Level.ERROR, "MISSING: " + recordedPath);
+            }
+        }
+
+        Statistics statistics = counters.toStatistics();
+        log(statistics.isClean() ? Level.INFO : Level.ERROR, statistics.toString());
+        logTaskEnd(Level.INFO, "Done verifying snapshot", Duration.between(start, ZonedDateTime.now()));
+        return statistics;
+    }
+
+    /**
+     * Links pointing outside the snapshots home have been recreated from the source and are not part of the snapshot.
+     * @return false if the path resolves outside the snapshots home.
+     */
+    private boolean isInSnapshotsHome(Path path, Path snapshotsHomeDir) {
+        try {
+            return fileSystemAccessor.toRealPath(path).startsWith(snapshotsHomeDir);
+        } catch (IOException e) {
+            // the path is reported when visited
+            return true;
+        }
+    }
+
+    private boolean isForeignDanglingLink(Path link, Path snapshotsHomeDir) {
+        try {
+            return !link.resolveSibling(fileSystemAccessor.readSymbolicLink(link)).normalize().startsWith(snapshotsHomeDir);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void verifyFile(Path absFile, /* nullable */ Object fileKey, FileState recordedState, Counters counters) {
+        try {
+            CheckpointChecksum expectedChecksum = recordedState.getChecksum();
+            Boolean isIntact = fileKey == null ? null : verdictsByPhysicalFile.get(new VerdictKey(fileKey, expectedChecksum));
+            if (isIntact == null) {
+                try (InputStream is = rateLimiter.limit(fileSystemAccessor.createNewInputStream(absFile))) {
+                    isIntact = expectedChecksum.hasSameChecksum(is);
+                }
+                if (fileKey != null)
+                    verdictsByPhysicalFile.put(new VerdictKey(fileKey, expectedChecksum), isIntact);
+            }
+            if (isIntact) {
+                counters.intact.getAndIncrement();
+                log(Level.DEBUG, () -> "INTACT: " + recordedState.getPath());
+            } else {
+                counters.corrupted.getAndIncrement();
+                log(Level.ERROR, "CORRUPTED: " + recordedState.getPath());
+            }
+        } catch (IOException | RuntimeException e) {
+            counters.unreadable.getAndIncrement();
+            log(Level.ERROR, "Could not read %s: %s".formatted(absFile, e));
+            logStacktrace(Level.DEBUG, e);
+        }
+        PROGRESS_CONSOLE_PRINTER.update(counters.processed.incrementAndGet(), counters.discovered.get());
+    }
+
+    private record VerdictKey(Object fileKey, CheckpointChecksum expectedChecksum) {}
+
+    private static class Counters {
+        private final AtomicInteger discovered = new AtomicInteger();
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicInteger intact = new AtomicInteger();
+        private final AtomicInteger corrupted = new AtomicInteger();
+        private final AtomicInteger missing = new AtomicInteger();
+        private final AtomicInteger danglingLinks = new AtomicInteger();
+        private final AtomicInteger unrecorded = new AtomicInteger();
+        private final AtomicInteger unreadable = new AtomicInteger();
+
+        Statistics toStatistics() {
+            return new Statistics(intact.get(), corrupted.get(), missing.get(), danglingLinks.get(), unrecorded.get(), unreadable.get());
+        }
+    }
+
+    public record Statistics(int intactCount, int corruptedCount, int missingCount, int danglingLinkCount, int unrecordedCount, int errorCount) {
+
+        public boolean isClean() {
+            return corruptedCount == 0 && missingCount == 0 && danglingLinkCount == 0 && errorCount == 0;
+        }
+
+        @Override
+        public String toString() {
+            return """
+                    Verification statistics:
+                        intact: %s
+                        corrupted: %s
+                        missing: %s
+                        dangling links: %s
+                        unrecorded: %s
+                        erroneous: %s"""
+                    .formatted(intactCount, corruptedCount, missingCount, danglingLinkCount, unrecordedCount, errorCount);
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.github.johannesbuchholz.copysnap.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Executes tasks on a fixed number of threads while bounding the number of submitted but not yet completed tasks.
+ * Submitting threads block as long as the bound is reached. This keeps memory bounded when tasks are produced
+ * faster than they can be processed, for example when walking a file tree while copying files.
+ * <p>
+ * Tasks are expected to handle their own errors. The first unhandled exception of any task is rethrown by
+ * {@link #awaitCompletion()}.
+ * </p>
+ */
+public class BoundedExecutor implements AutoCloseable {
+
+    public static final int DEFAULT_PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int IN_FLIGHT_FACTOR = 4;
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final ExecutorService executorService;
+    private final Semaphore inFlightPermits;
+    private final int maxInFlight;
+    private final AtomicReference<RuntimeException> firstFailure = new AtomicReference<>();
+
+    public static BoundedExecutor withDefaultParallelism() {
+        return withParallelism(DEFAULT_PARALLELISM);
+    }
+
+    public static BoundedExecutor withParallelism(int parallelism) {
+        return new BoundedExecutor(parallelism, parallelism * IN_FLIGHT_FACTOR);
+    }
+
+    public BoundedExecutor(int parallelism, int maxInFlight) {
+        if (parallelism < 1 || maxInFlight < parallelism)
+            throw new IllegalArgumentException("Invalid bounds: parallelism=%s, maxInFlight=%s".formatted(parallelism, maxInFlight));
+        this.executorService = Executors.newFixedThreadPool(parallelism, newThreadFactory());
+        this.inFlightPermits = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        int poolNumber = POOL_COUNT.incrementAndGet();
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "copysnap-%s-worker-%s".formatted(poolNumber, threadCount.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Blocks until the task could be submitted.
+     */
+    public void submit(Runnable task) {
+        try {
+            inFlightPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to submit task", e);
+        }
+        try {
+            executorService.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    firstFailure.compareAndSet(null, e);
+                } finally {
+                    inFlightPermits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlightPermits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of submitted tasks that have not yet completed.
+     */
+    public int inFlightCount() {
+        return maxInFlight - inFlightPermits.availablePermits();
+    }
+
+    /**
+     * Blocks until all submitted tasks have completed. The executor remains usable afterwards.
+     */
+    public void awaitCompletion() {
+        try {
+            inFlightPermits.acquire(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for tasks to complete", e);
+        }
+        inFlightPermits.release(maxInFlight);
+        RuntimeException failure = firstFailure.getAndSet(null);
+        if (failure != null)
+            throw failure;
+    }
+
+    @Override
+    public void close() {
+        try {
+            awaitCompletion();
+        } finally {
+            executorService.shutdown();
+            try {
+                if (!executorService.awaitTermination(1, TimeUnit.MINUTES))
+                    executorService.shutdownNow();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executorService.shutdownNow();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.github.johannesbuchholz.copysnap.util;
+
+/**
+ * Hands out byte arrays of a fixed size and keeps one released array per thread for reuse. Hashing and copying files
+ * borrow their buffer for the duration of a single file, hence each thread only ever needs one buffer at a time.
+ * Borrowing again before releasing allocates a new array.
+ * <p>
+ * Intended for long-lived platform threads like the main thread and the threads of a {@link BoundedExecutor}. Thread
+ * safe.
+ * </p>
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final ThreadLocal<byte[]> freeBuffers = new ThreadLocal<>();
+
+    public BufferPool(int bufferSize) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return A buffer of {@link #bufferSize()} bytes with arbitrary contents.
+     */
+    public byte[] borrow() {
+        byte[] buffer = freeBuffers.get();
+        if (buffer == null)
+            return new byte[bufferSize];
+        freeBuffers.set(null);
+        return buffer;
+    }
+
+    /**
+     * Makes the buffer available to the next {@link #borrow()} of the current thread. The buffer must not be used
+     * afterward.
+     */
+    public void release(byte[] buffer) {
+        if (buffer.length == bufferSize)
+            freeBuffers.set(buffer);
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+}
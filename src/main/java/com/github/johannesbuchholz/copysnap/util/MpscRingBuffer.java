@@ -0,0 +1,107 @@
+package com.github.johannesbuchholz.copysnap.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded lock-free queue for many producing threads and a single consuming thread.
+ * <p>
+ * Every slot carries a sequence number telling whether it is free for the producer of a given position or holds an
+ * element for the consumer. Producers claim positions by a compare-and-set on a shared counter, the consumer never
+ * contends with producers.
+ * </p>
+ * {@link #poll()} and {@link #drain(Consumer, int)} must only be called by one thread at a time.
+ */
+public class MpscRingBuffer<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerPosition = new AtomicLong();
+    // only written by the consumer
+    private final AtomicLong consumerPosition = new AtomicLong();
+
+    /**
+     * @param capacity The maximum number of elements. Must be a power of two.
+     */
+    public MpscRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a positive power of two: " + capacity);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.elements = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            sequences.set(i, i);
+    }
+
+    /**
+     * @return false if the buffer is full.
+     */
+    public boolean offer(E element) {
+        while (true) {
+            long position = producerPosition.get();
+            int slot = (int) (position & mask);
+            long sequence = sequences.get(slot);
+            if (sequence == position) {
+                if (producerPosition.compareAndSet(position, position + 1)) {
+                    elements.set(slot, element);
+                    // publishes the element to the consumer
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                // the slot still holds an element from the previous round
+                return false;
+            }
+            // another producer claimed this position, retry
+        }
+    }
+
+    /**
+     * @return The oldest element or null if the buffer is empty.
+     */
+    public E poll() {
+        long position = consumerPosition.get();
+        int slot = (int) (position & mask);
+        if (sequences.get(slot) != position + 1)
+            return null;
+        E element = elements.get(slot);
+        elements.set(slot, null);
+        // frees the slot for the producer of the next round
+        sequences.set(slot, position + capacity);
+        consumerPosition.lazySet(position + 1);
+        return element;
+    }
+
+    /**
+     * Passes at most {@code limit} elements to the consumer in insertion order.
+     *
+     * @return The number of drained elements.
+     */
+    public int drain(Consumer<? super E> consumer, int limit) {
+        int count = 0;
+        E element;
+        while (count < limit && (element = poll()) != null) {
+            consumer.accept(element);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return The approximate number of elements in the buffer.
+     */
+    public int size() {
+        long size = producerPosition.get() - consumerPosition.get();
+        return (int) Math.max(0, Math.min(capacity, size));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+}
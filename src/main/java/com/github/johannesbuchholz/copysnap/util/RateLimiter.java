@@ -0,0 +1,89 @@
+package com.github.johannesbuchholz.copysnap.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limits the throughput of byte transfers across all threads sharing this instance.
+ * <p>
+ * Bytes are accounted after they have been transferred. Callers are blocked until the consumed bytes are covered by
+ * the configured rate, which allows for bursts of at most one second.
+ * </p>
+ */
+public class RateLimiter {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final long bytesPerSecond;
+    // the point in time until which all bytes consumed so far are covered by the rate
+    private long coveredUntilNanos;
+
+    public static RateLimiter unlimited() {
+        return new RateLimiter(0);
+    }
+
+    public static RateLimiter ofMegabytesPerSecond(long megabytesPerSecond) {
+        return new RateLimiter(megabytesPerSecond * 1024 * 1024);
+    }
+
+    /**
+     * @param bytesPerSecond The maximum rate. Values less or equal to zero disable limiting.
+     */
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.coveredUntilNanos = System.nanoTime();
+    }
+
+    public boolean isLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    /**
+     * Accounts for the specified number of transferred bytes and blocks if the rate is exceeded.
+     */
+    public void consume(long byteCount) {
+        if (!isLimited() || byteCount <= 0)
+            return;
+        long waitUntilNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            // do not accumulate credit for more than one second of inactivity
+            coveredUntilNanos = Math.max(coveredUntilNanos, now - NANOS_PER_SECOND);
+            coveredUntilNanos += byteCount * NANOS_PER_SECOND / bytesPerSecond;
+            waitUntilNanos = coveredUntilNanos;
+        }
+        long remainingNanos;
+        while ((remainingNanos = waitUntilNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remainingNanos);
+            if (Thread.currentThread().isInterrupted())
+                return;
+        }
+    }
+
+    /**
+     * @return An input stream accounting all bytes read from the given stream against this limiter.
+     */
+    public InputStream limit(InputStream is) {
+        if (!isLimited())
+            return is;
+        return new FilterInputStream(is) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b > -1)
+                    consume(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int readCount = super.read(b, off, len);
+                consume(readCount);
+                return readCount;
+            }
+        };
+    }
+
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -78,4 +79,18 @@ class AbstractLogProducerTest {
                 testConsumerError.getLogs());
     }
 
-}
\ No newline at end of file
+    @Test
+    void testLazyMessagesAreOnlyBuiltIfRelevant() {
+        TestProducer testProducer = new TestProducer();
+        TestConsumer testConsumerInfo = new TestConsumer(Level.INFO);
+        testProducer.addConsumer(testConsumerInfo);
+        AtomicInteger supplierCallCount = new AtomicInteger();
+
+        testProducer.log(Level.DEBUG, () -> "debug-message-" + supplierCallCount.incrementAndGet());
+        testProducer.log(Level.INFO, () -> "info-message-" + supplierCallCount.incrementAndGet());
+
+        assertEquals(1, supplierCallCount.get());
+        assertEquals(List.of(new TestConsumer.Log(Level.INFO, "info-message-1")), testConsumerInfo.getLogs());
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.github.johannesbuchholz.copysnap.logging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FilePrintingLogConsumerTest {
+
+    @TempDir
+    Path tmpDir;
+
+    @Test
+    void close_writesAllConsumedMessages() throws IOException {
+        // given
+        Path reportFile = tmpDir.resolve("report.txt");
+        int messageCount = 50_000;
+
+        // when
+        try (FilePrintingLogConsumer consumer = FilePrintingLogConsumer.at(reportFile)) {
+            IntStream.range(0, messageCount).parallel()
+                    .forEach(i -> consumer.consume(Level.DEBUG, "message-" + i));
+            consumer.consume(Level.NONE, "last");
+        }
+
+        // then
+        List<String> lines = Files.readAllLines(reportFile);
+        assertEquals(messageCount + 1, lines.size());
+        assertEquals(messageCount, lines.stream().filter(line -> line.startsWith("[DEBUG] message-")).distinct().count());
+        assertEquals("[NONE] last", lines.get(lines.size() - 1));
+    }
+
+    @Test
+    void consume_ignoredAfterClose() throws IOException {
+        // given
+        Path reportFile = tmpDir.resolve("report.txt");
+        FilePrintingLogConsumer consumer = FilePrintingLogConsumer.at(reportFile);
+        consumer.consume(Level.INFO, "first");
+        consumer.close();
+
+        // when
+        consumer.consume(Level.INFO, "second");
+
+        // then
+        assertEquals(new ArrayList<>(List.of("[INFO] first")), Files.readAllLines(reportFile));
+    }
+
+}
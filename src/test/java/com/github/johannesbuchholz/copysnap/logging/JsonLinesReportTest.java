@@ -0,0 +1,44 @@
+package com.github.johannesbuchholz.copysnap.logging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonLinesReportTest {
+
+    @TempDir
+    Path tmpDir;
+
+    @Test
+    void close_writesActionsAndSummary() throws IOException {
+        // given
+        Path reportFile = tmpDir.resolve(JsonLinesReport.FILE_NAME);
+        ZonedDateTime start = ZonedDateTime.of(2024, 5, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+
+        // when
+        try (JsonLinesReport report = JsonLinesReport.at(reportFile, "snapshot", start)) {
+            report.record(ActionRecorder.ActionRecord.success("COPY", Path.of("r/a"), 1024, 2_000));
+            report.record(ActionRecorder.ActionRecord.failure("LINK", Path.of("r/\"b\""), 1_000, "line1\nline2"));
+            report.putSummaryValue("newFiles", 1);
+        }
+
+        // then
+        List<String> lines = Files.readAllLines(reportFile);
+        assertEquals(3, lines.size());
+        assertEquals("{\"type\":\"action\",\"action\":\"COPY\",\"path\":\"r/a\",\"status\":\"OK\",\"bytes\":1024,\"micros\":2}", lines.get(0));
+        assertEquals("{\"type\":\"action\",\"action\":\"LINK\",\"path\":\"r/\\\"b\\\"\",\"status\":\"ERROR\",\"bytes\":0,\"micros\":1,\"error\":\"line1\\nline2\"}", lines.get(1));
+        String summary = lines.get(2);
+        assertTrue(summary.startsWith("{\"type\":\"summary\",\"task\":\"snapshot\",\"started\":\"2024-05-01T10:00:00Z\","));
+        assertTrue(summary.contains("\"actions\":2,\"succeeded\":1,\"failed\":1,\"bytes\":1024,\"actionMicros\":3,\"actionsByType\":{\"COPY\":1,\"LINK\":1},\"newFiles\":1}"));
+    }
+
+}
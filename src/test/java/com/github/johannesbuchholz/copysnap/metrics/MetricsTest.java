@@ -0,0 +1,67 @@
+package com.github.johannesbuchholz.copysnap.metrics;
+
+import com.github.johannesbuchholz.copysnap.logging.ActionRecorder;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+
+    @Test
+    void latencyHistogram_bucketsByPowersOfTwo() {
+        // given
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // when
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(1000);
+        histogram.record(1023);
+        histogram.record(1024);
+
+        // then
+        assertEquals(1, histogram.bucketCount(0));
+        assertEquals(1, histogram.bucketCount(1));
+        assertEquals(2, histogram.bucketCount(10));
+        assertEquals(1, histogram.bucketCount(11));
+        assertEquals(5, histogram.count());
+        assertEquals(3048, histogram.sumNanos());
+        assertEquals(1024, histogram.maxNanos());
+        assertEquals(1024, LatencyHistogram.upperBoundNanos(10));
+    }
+
+    @Test
+    void writePrometheus() throws IOException {
+        // given
+        Metrics metrics = new Metrics();
+        metrics.recordPhase("copy", Duration.ofMillis(1500));
+        metrics.operation("stat").record(1000);
+        metrics.record(ActionRecorder.ActionRecord.success("COPY", Path.of("r/f"), 5, 2000));
+        metrics.record(ActionRecorder.ActionRecord.failure("COPY", Path.of("r/g"), 3000, "boom"));
+        metrics.counter("bytes_written_total").add(5);
+        metrics.observeMax("report_queue_max_depth", 7);
+        metrics.observeMax("report_queue_max_depth", 3);
+
+        // when
+        StringWriter writer = new StringWriter();
+        metrics.writePrometheus(writer);
+
+        // then
+        String text = writer.toString();
+        assertTrue(text.contains("copysnap_phase_duration_seconds{phase=\"copy\"} 1.500000000\n"), text);
+        assertTrue(text.contains("copysnap_file_operation_seconds_bucket{operation=\"stat\",le=\"0.000001024\"} 1\n"), text);
+        assertTrue(text.contains("copysnap_file_operation_seconds_count{operation=\"stat\"} 1\n"), text);
+        assertTrue(text.contains("copysnap_action_seconds_count{type=\"COPY\"} 2\n"), text);
+        assertTrue(text.contains("copysnap_actions_succeeded_total 1\n"), text);
+        assertTrue(text.contains("copysnap_actions_failed_total 1\n"), text);
+        assertTrue(text.contains("copysnap_bytes_written_total 5\n"), text);
+        assertTrue(text.contains("copysnap_report_queue_max_depth 7\n"), text);
+    }
+
+}
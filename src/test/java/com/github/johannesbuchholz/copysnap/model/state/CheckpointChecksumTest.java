@@ -7,6 +7,7 @@ import org.junit.jupiter.params.provider.ValueSource;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
@@ -187,4 +188,109 @@ class CheckpointChecksumTest {
         assertArrayEquals(bytes, os.toByteArray());
     }
 
-}
\ No newline at end of file
+    @Test
+    void representationsAreInterchangeable() {
+        // given
+        byte[] bytes = new byte[1_000];
+        new Random(42).nextBytes(bytes);
+
+        // when
+        CheckpointChecksum checksum = CheckpointChecksum.from(new ByteArrayInputStream(bytes));
+        CheckpointChecksum fromList = new CheckpointChecksum(checksum.checksums());
+        CheckpointChecksum deserialized = CheckpointChecksum.deserialize(checksum.serialize());
+
+        // then
+        // checkpoints after 256 and 512 bytes and at the end of the stream
+        assertEquals(3, checksum.count());
+        // checkpoints alone do not carry the tail
+        assertFalse(fromList.hasTail());
+        assertTrue(checksum.hasSameContentAs(fromList));
+        assertEquals(checksum.checksums(), fromList.checksums());
+        assertEquals(checksum, deserialized);
+        assertEquals(checksum.hashCode(), deserialized.hashCode());
+        assertEquals(checksum.checksums(), deserialized.checksums());
+        assertThrows(IllegalArgumentException.class, () -> CheckpointChecksum.of());
+    }
+
+    @Test
+    void fromBytesEqualsFromStream() {
+        Random rng = new Random(42);
+        for (int length : new int[]{0, 1, 255, 256, 257, 512, 1_000, 4_096, 16_385}) {
+            // given
+            byte[] bytes = new byte[length + 10];
+            rng.nextBytes(bytes);
+
+            // when
+            CheckpointChecksum fromBytes = CheckpointChecksum.from(bytes, 5, length);
+
+            // then
+            assertEquals(CheckpointChecksum.from(new ByteArrayInputStream(bytes, 5, length)), fromBytes, "length " + length);
+        }
+    }
+
+    @Test
+    void matchesSize_onlyForSizesOfTheSameCheckpointCount() {
+        for (int length : new int[]{0, 1, 255, 256, 257, 511, 512, 1_000, 4_096}) {
+            // given
+            CheckpointChecksum checksum = CheckpointChecksum.from(new byte[length], 0, length);
+
+            // then
+            assertTrue(checksum.matchesSize(length), "length " + length);
+            assertEquals(checksum.count(), CheckpointChecksum.checkpointCount(length), "length " + length);
+            assertFalse(checksum.matchesSize(2L * length + 256), "length " + length);
+        }
+    }
+
+    @Test
+    void tail_recordsSizeAndLastBytes() {
+        // given
+        byte[] bytes = new byte[10_000];
+        new Random(42).nextBytes(bytes);
+
+        // when
+        CheckpointChecksum checksum = CheckpointChecksum.byTransferring(new ByteArrayInputStream(bytes), OutputStream.nullOutputStream());
+
+        // then
+        assertTrue(checksum.hasTail());
+        assertEquals(10_000L, checksum.size());
+        assertEquals(10_000L - CheckpointChecksum.TAIL_BYTE_COUNT, checksum.tailOffset());
+        assertTrue(checksum.hasSameTail(bytes, (int) checksum.tailOffset(), checksum.tailLength()));
+        assertFalse(checksum.hasSameTail(bytes, 0, checksum.tailLength()));
+        assertTrue(checksum.matchesSize(10_000));
+        assertFalse(checksum.matchesSize(10_001));
+    }
+
+    @Test
+    void deserialize_checksumsWithoutTailAreStillReadable() {
+        // given
+        CheckpointChecksum withTail = CheckpointChecksum.from(new byte[]{1, 2, 3}, 0, 3);
+
+        // when
+        CheckpointChecksum withoutTail = CheckpointChecksum.deserialize(withTail.serialize().split("/")[0]);
+
+        // then
+        assertFalse(withoutTail.hasTail());
+        assertNotEquals(withTail, withoutTail);
+        assertTrue(withTail.hasSameContentAs(withoutTail));
+        assertTrue(withoutTail.matchesSize(3));
+        assertEquals(withTail, CheckpointChecksum.deserialize(withTail.serialize()));
+    }
+
+    @Test
+    void hasSameChecksum_limitedCheckpointsIgnoreLaterChanges() {
+        // given
+        byte[] bytes = new byte[4_096];
+        new Random(42).nextBytes(bytes);
+        CheckpointChecksum checksum = CheckpointChecksum.from(bytes, 0, bytes.length);
+        byte[] changedTail = bytes.clone();
+        changedTail[4_000]++;
+        byte[] changedHead = bytes.clone();
+        changedHead[10]++;
+
+        // then
+        assertTrue(checksum.hasSameChecksum(new ByteArrayInputStream(changedTail), 3));
+        assertFalse(checksum.hasSameChecksum(new ByteArrayInputStream(changedTail)));
+        assertFalse(checksum.hasSameChecksum(new ByteArrayInputStream(changedHead), 3));
+    }
+
+}
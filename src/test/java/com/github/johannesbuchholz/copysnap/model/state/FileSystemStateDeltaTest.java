@@ -0,0 +1,108 @@
+package com.github.johannesbuchholz.copysnap.model.state;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSystemStateDeltaTest {
+
+    private static final Instant TIME = Instant.parse("2024-05-01T10:15:30.123456789Z");
+
+    @Test
+    void full_serde() throws IOException {
+        // given
+        FileSystemState state = FileSystemState.builder()
+                .add(fileState("r/a/b/file-1.txt", 1, 2, 3))
+                .add(fileState("r/a/b/file-2.txt", 4))
+                .add(fileState("r/a/x\ny;z", 5))
+                .add(fileState("r/a/b", 6))
+                .build();
+
+        // when
+        FileSystemStateDelta delta = FileSystemStateDelta.full(state);
+        FileSystemStateDelta deserialized = serde(delta);
+
+        // then
+        assertFalse(deserialized.hasBase());
+        assertEquals(1, deserialized.chainLength());
+        assertEquals(state.fingerprint(), deserialized.fingerprint());
+        FileSystemState actual = deserialized.applyTo(FileSystemState.empty());
+        assertEquals(state.paths(), actual.paths());
+        for (Path p : state.paths())
+            assertEquals(state.get(p), actual.get(p));
+    }
+
+    @Test
+    void delta_containsOnlyChanges() throws IOException {
+        // given
+        FileState unchanged = fileState("r/unchanged", 1);
+        FileState removed = fileState("r/removed", 2);
+        FileState changedOld = fileState("r/changed", 3);
+        FileState changedNew = fileState("r/changed", 4);
+        FileState added = fileState("r/added", 5);
+        FileSystemState base = FileSystemState.builder().add(unchanged).add(removed).add(changedOld).build();
+        FileSystemState target = FileSystemState.builder().add(unchanged).add(changedNew).add(added).build();
+
+        // when
+        FileSystemStateDelta delta = serde(FileSystemStateDelta.between("base-snapshot", base, 1, target));
+
+        // then
+        assertEquals("base-snapshot", delta.baseName());
+        assertEquals(2, delta.chainLength());
+        assertEquals(Set.of(changedNew, added), Set.copyOf(delta.upserts()));
+        assertEquals(Set.of(removed.getPath()), delta.removals());
+        FileSystemState actual = delta.applyTo(base);
+        assertEquals(target.paths(), actual.paths());
+        assertEquals(target.fingerprint(), actual.fingerprint());
+    }
+
+    @Test
+    void delta_failsOnWrongBase() {
+        // given
+        FileSystemState base = FileSystemState.builder().add(fileState("r/a", 1)).build();
+        FileSystemState otherBase = FileSystemState.builder().add(fileState("r/a", 2)).build();
+        FileSystemState target = FileSystemState.builder().add(fileState("r/b", 3)).build();
+
+        // when
+        FileSystemStateDelta delta = FileSystemStateDelta.between("base-snapshot", base, 1, target);
+
+        // then
+        assertThrows(IOException.class, () -> delta.applyTo(otherBase));
+    }
+
+    @Test
+    void readHeader() throws IOException {
+        // given
+        FileSystemState base = FileSystemState.builder().add(fileState("r/a", 1)).build();
+        FileSystemState target = FileSystemState.builder().add(fileState("r/b", 3)).build();
+        FileSystemStateDelta delta = FileSystemStateDelta.between("base-snapshot", base, 3, target);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        delta.write(os);
+
+        // when
+        FileSystemStateDelta header = FileSystemStateDelta.readHeader(new ByteArrayInputStream(os.toByteArray()));
+
+        // then
+        assertEquals(new FileSystemStateDelta("base-snapshot", base.fingerprint(), 4, target.fingerprint(), List.of(), Set.of()), header);
+    }
+
+    private static FileSystemStateDelta serde(FileSystemStateDelta delta) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        delta.write(os);
+        return FileSystemStateDelta.read(new ByteArrayInputStream(os.toByteArray()));
+    }
+
+    private static FileState fileState(String path, long... checksums) {
+        return new FileState(Path.of(path), TIME, new CheckpointChecksum(Arrays.stream(checksums).boxed().toList()));
+    }
+
+}
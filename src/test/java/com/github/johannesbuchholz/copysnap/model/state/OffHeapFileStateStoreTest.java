@@ -0,0 +1,122 @@
+package com.github.johannesbuchholz.copysnap.model.state;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapFileStateStoreTest {
+
+    @Test
+    void putGetRemove_behaveLikeMap() {
+        // given
+        OffHeapFileStateStore store = OffHeapFileStateStore.create();
+        int count = 5_000;
+        for (int i = 0; i < count; i++)
+            store.put(fileState("r/d" + (i % 17) + "/f" + i, i));
+
+        // when
+        store.put(fileState("r/d3/f3", -3));
+        for (int i = 0; i < count; i += 2)
+            store.remove(Path.of("r/d" + (i % 17) + "/f" + i));
+
+        // then
+        assertEquals(count / 2, store.size());
+        assertEquals(Optional.of(fileState("r/d3/f3", -3)), store.get(Path.of("r/d3/f3")));
+        assertEquals(Optional.of(fileState("r/d1/f4999", 4999)), store.get(Path.of("r/d1/f4999")));
+        assertEquals(Optional.empty(), store.get(Path.of("r/d0/f0")));
+        assertFalse(store.contains(Path.of("r/d0/f0")));
+        assertTrue(store.contains(Path.of("r/d1/f1")));
+
+        Set<Path> paths = new HashSet<>(store.paths());
+        assertEquals(count / 2, paths.size());
+        assertTrue(paths.contains(Path.of("r/d1/f1")));
+        assertTrue(store.paths().contains(Path.of("r/d1/f1")));
+    }
+
+    @Test
+    void copy_containsCurrentEntriesOnly() {
+        // given
+        OffHeapFileStateStore store = OffHeapFileStateStore.create();
+        store.put(fileState("r/a", 1));
+        store.put(fileState("r/b", 2));
+        store.put(fileState("r/a", 3));
+        store.remove(Path.of("r/b"));
+
+        // when
+        FileStateStore copy = store.copy();
+        store.put(fileState("r/c", 4));
+
+        // then
+        assertEquals(1, copy.size());
+        assertEquals(Optional.of(fileState("r/a", 3)), copy.get(Path.of("r/a")));
+        assertFalse(copy.contains(Path.of("r/c")));
+    }
+
+    @Test
+    void concurrent_readsWhileWriting() throws InterruptedException {
+        // given
+        OffHeapFileStateStore store = OffHeapFileStateStore.concurrent();
+        int count = 20_000;
+        store.put(fileState("r/first", 0));
+        AtomicInteger failedReadCount = new AtomicInteger();
+
+        // when: reads run while writes grow the table and the slab
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < count; i++)
+                if (!store.get(Path.of("r/first")).equals(Optional.of(fileState("r/first", 0))))
+                    failedReadCount.incrementAndGet();
+        });
+        reader.start();
+        for (int i = 1; i < count; i++)
+            store.put(fileState("r/d" + (i % 17) + "/f" + i, i));
+        reader.join();
+
+        // then
+        assertEquals(0, failedReadCount.get());
+        assertEquals(count, store.size());
+    }
+
+    @Test
+    void fileSystemState_sameContentRegardlessOfStorage() throws IOException {
+        // given
+        FileSystemState.Builder heapBuilder = FileSystemState.builder(FileSystemState.Storage.HEAP);
+        FileSystemState.Builder offHeapBuilder = FileSystemState.builder(FileSystemState.Storage.OFF_HEAP);
+        for (int i = 0; i < 100; i++) {
+            heapBuilder.add(fileState("r/a b/f\n" + i, i));
+            offHeapBuilder.add(fileState("r/a b/f\n" + i, i));
+        }
+        FileSystemState heapState = heapBuilder.build();
+        FileSystemState offHeapState = offHeapBuilder.build();
+
+        // when
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        offHeapState.write(os);
+        FileSystemState readState = FileSystemState.read(new ByteArrayInputStream(os.toByteArray()));
+        FileSystemState union = offHeapState.newBySetUnion(Set.of(Path.of("r/a b/f\n1"), Path.of("r/x")));
+
+        // then
+        assertEquals(heapState.fingerprint(), offHeapState.fingerprint());
+        assertEquals(heapState.fingerprint(), readState.fingerprint());
+        assertEquals(heapState.paths(), offHeapState.paths());
+        assertEquals(Set.of(Path.of("r/a b/f\n1")), union.paths());
+        assertEquals(heapState.newBySetMinus(union).paths(), offHeapState.newBySetMinus(union).paths());
+    }
+
+    private static FileState fileState(String path, long checksum) {
+        return new FileState(Path.of(path), Instant.ofEpochSecond(1_700_000_000L + checksum, 123), new CheckpointChecksum(List.of(checksum, checksum * 31)));
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.service.diffing.copy.PlainCopyAction;
+import com.github.johannesbuchholz.copysnap.service.diffing.copy.SymbolicLinkCopyAction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ActionJournalTest {
+
+    @Test
+    void resume_readsCompleteEntriesAndDiscardsTornEntry(@TempDir Path tmpDir) throws IOException {
+        // given
+        Path journalFile = tmpDir.resolve(ActionJournal.FILE_NAME);
+        Path root = Path.of("/r");
+        Path destination = Path.of("/d");
+        FileState state = new FileState(Path.of("a/f;with\nnew line"), Instant.parse("2024-01-01T00:00:00Z"), CheckpointChecksum.from(new byte[3], 0, 3));
+        try (ActionJournal journal = ActionJournal.create(journalFile, Map.of("key", "value;with separator"))) {
+            journal.record(new PlainCopyAction(root, destination, state.getPath()), state);
+            journal.record(new SymbolicLinkCopyAction(root, destination, Path.of("a/l")), null);
+        }
+        // and given: a crash while appending an entry
+        Files.writeString(journalFile, "S;COPY;torn", StandardOpenOption.APPEND);
+
+        // when
+        try (ActionJournal journal = ActionJournal.resume(journalFile)) {
+            // then
+            assertTrue(journal.isResumed());
+            assertEquals(Map.of("key", "value;with separator"), journal.getParameters());
+            assertEquals(2, journal.getCompletedCount());
+            assertEquals(Optional.of(new ActionJournal.Entry("COPY", state.getPath(), state)), journal.getCompleted(state.getPath()));
+            assertEquals(Optional.of(new ActionJournal.Entry("LINK", Path.of("a/l"), null)), journal.getCompleted(Path.of("a/l")));
+
+            // when appending after the discarded entry
+            journal.record(new SymbolicLinkCopyAction(root, destination, Path.of("a/m")), null);
+        }
+
+        // then
+        try (ActionJournal journal = ActionJournal.resume(journalFile)) {
+            assertEquals(3, journal.getCompletedCount());
+            assertFalse(journal.getCompleted(Path.of("torn")).isPresent());
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChangeDetectionRulesTest {
+
+    @Test
+    void parse_firstMatchingRuleWins() {
+        // given
+        String rulesString = "sampled:r/media/**=mtime-size:r/**.conf=paranoid:r/media/raw/**=checksum";
+
+        // when
+        ChangeDetectionRules rules = ChangeDetectionRules.parse(rulesString);
+
+        // then
+        assertEquals(ChangeDetectionPolicy.MTIME_SIZE, rules.policyFor(Path.of("r/media/raw/a.cr2")));
+        assertEquals(ChangeDetectionPolicy.PARANOID, rules.policyFor(Path.of("r/etc/app.conf")));
+        assertEquals(ChangeDetectionPolicy.SAMPLED, rules.policyFor(Path.of("r/docs/a.txt")));
+        assertEquals(rulesString, rules.serialize());
+        assertEquals(rules, ChangeDetectionRules.parse(rules.serialize()));
+    }
+
+    @Test
+    void parse_defaultPolicyOnly() {
+        assertEquals(ChangeDetectionRules.DEFAULT, ChangeDetectionRules.parse("checksum"));
+        assertEquals(List.of(), ChangeDetectionRules.parse("paranoid").rules());
+    }
+
+    @Test
+    void parse_escapedDelimiterInGlob() {
+        // given
+        String rulesString = "checksum:r/backup\\:2024/**=mtime-size:r/\\*\\:x=paranoid";
+
+        // when
+        ChangeDetectionRules rules = ChangeDetectionRules.parse(rulesString);
+
+        // then
+        assertEquals(List.of(
+                new ChangeDetectionRules.Rule("r/backup:2024/**", ChangeDetectionPolicy.MTIME_SIZE),
+                new ChangeDetectionRules.Rule("r/\\*:x", ChangeDetectionPolicy.PARANOID)), rules.rules());
+        assertEquals(ChangeDetectionPolicy.MTIME_SIZE, rules.policyFor(Path.of("r/backup:2024/a.tar")));
+        assertEquals(ChangeDetectionPolicy.PARANOID, rules.policyFor(Path.of("r/*:x")));
+        assertEquals(ChangeDetectionPolicy.CHECKSUM, rules.policyFor(Path.of("r/a:x")));
+        assertEquals(rulesString, rules.serialize());
+        assertEquals(rules, ChangeDetectionRules.parse(rules.serialize()));
+    }
+
+    @Test
+    void parse_invalid() {
+        assertThrows(IllegalArgumentException.class, () -> ChangeDetectionRules.parse("crc"));
+        assertThrows(IllegalArgumentException.class, () -> ChangeDetectionRules.parse("checksum:r/**"));
+        assertThrows(IllegalArgumentException.class, () -> ChangeDetectionRules.parse("checksum:r/**=fast"));
+        assertThrows(IllegalArgumentException.class, () -> ChangeDetectionRules.parse("checksum:"));
+        assertThrows(IllegalArgumentException.class, () -> ChangeDetectionRules.parse("checksum:r/[a=paranoid"));
+    }
+
+}
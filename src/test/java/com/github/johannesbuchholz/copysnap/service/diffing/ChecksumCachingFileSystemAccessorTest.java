@@ -0,0 +1,105 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.service.diffing.testutils.InMemoryFileSystemAccessor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChecksumCachingFileSystemAccessorTest {
+
+    @Test
+    void decode_onlyMatchingEntriesAreValid() {
+        // given
+        Instant time = Instant.parse("2024-01-01T00:00:00.123456789Z");
+        CheckpointChecksum checksum = CheckpointChecksum.from(new byte[300], 0, 300);
+        String entry = ChecksumCachingFileSystemAccessor.encode(time, checksum);
+
+        // then
+        assertEquals(Optional.of(checksum), ChecksumCachingFileSystemAccessor.decode(entry, time, 300));
+        assertEquals(Optional.empty(), ChecksumCachingFileSystemAccessor.decode(entry, time.plusNanos(1), 300));
+        assertEquals(Optional.empty(), ChecksumCachingFileSystemAccessor.decode(entry, time, 301));
+        assertEquals(Optional.empty(), ChecksumCachingFileSystemAccessor.decode(entry.replace(ChecksumCachingFileSystemAccessor.ALGORITHM, "sha256"), time, 300));
+        assertEquals(Optional.empty(), ChecksumCachingFileSystemAccessor.decode("garbage", time, 300));
+    }
+
+    /**
+     * Assumes a file system supporting user defined attributes.
+     */
+    @Test
+    void areChecksumsEqual_unchangedFilesAreReadOnce(@TempDir Path tmpDir) throws IOException {
+        // given
+        Path file = tmpDir.resolve("f");
+        Files.writeString(file, "content");
+        CheckpointChecksum expected = CheckpointChecksum.from("content".getBytes(), 0, 7);
+        CheckpointChecksum other = CheckpointChecksum.from("CONTENT".getBytes(), 0, 7);
+        AtomicInteger readCount = new AtomicInteger();
+        FileSystemAccessor fsa = new ChecksumCachingFileSystemAccessor(new DefaultFileSystemAccessor() {
+            @Override
+            public boolean areChecksumsEqual(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+                readCount.incrementAndGet();
+                return super.areChecksumsEqual(expectedChecksum, p);
+            }
+        });
+
+        // when
+        boolean firstComparison = fsa.areChecksumsEqual(expected, file);
+        boolean secondComparison = fsa.areChecksumsEqual(expected, file);
+        boolean otherComparison = fsa.areChecksumsEqual(other, file);
+
+        // then
+        assertTrue(firstComparison);
+        assertTrue(secondComparison);
+        assertFalse(otherComparison);
+        assertEquals(1, readCount.get());
+
+        // when the file is touched
+        Files.setLastModifiedTime(file, FileTime.from(Files.getLastModifiedTime(file).toInstant().plusSeconds(1)));
+        boolean touchedComparison = fsa.areChecksumsEqual(expected, file);
+
+        // then
+        assertTrue(touchedComparison);
+        assertEquals(2, readCount.get());
+    }
+
+    @Test
+    void areChecksumsEqual_attributesAreAccessedThroughTheDelegate() throws IOException {
+        // given
+        Path file = Path.of("/source/f");
+        Instant lastModified = Instant.parse("2024-01-01T00:00:00Z");
+        CheckpointChecksum expected = CheckpointChecksum.from("content".getBytes(), 0, 7);
+        AtomicInteger readCount = new AtomicInteger();
+        InMemoryFileSystemAccessor inMemoryFsa = new InMemoryFileSystemAccessor() {
+            @Override
+            public boolean areChecksumsEqual(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+                readCount.incrementAndGet();
+                return super.areChecksumsEqual(expectedChecksum, p);
+            }
+        };
+        inMemoryFsa.putFile(file, "content".getBytes(), lastModified);
+        FileSystemAccessor fsa = new ChecksumCachingFileSystemAccessor(inMemoryFsa);
+
+        // when
+        boolean firstComparison = fsa.areChecksumsEqual(expected, file);
+        boolean secondComparison = fsa.areChecksumsEqual(expected, file);
+
+        // then
+        assertTrue(firstComparison);
+        assertTrue(secondComparison);
+        assertEquals(1, readCount.get());
+        assertEquals(Optional.of(ChecksumCachingFileSystemAccessor.encode(lastModified, expected)),
+                inMemoryFsa.readUserAttribute(file, ChecksumCachingFileSystemAccessor.ATTRIBUTE_NAME));
+    }
+
+}
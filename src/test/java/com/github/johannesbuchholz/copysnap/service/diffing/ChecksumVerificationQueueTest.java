@@ -0,0 +1,160 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.service.diffing.testutils.InMemoryFileSystemAccessor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChecksumVerificationQueueTest {
+
+    /**
+     * /r
+     * ├── f0 ... f99   (small, every third one changed)
+     * ├── large        (reported as large, changed)
+     * └── missing      (not existing)
+     */
+    @Test
+    void awaitCompletion_everySubmittedFileHasAVerdict() throws IOException {
+        // given
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        FileSystemNode root = FileSystemNode.getNew();
+        Instant time = Instant.parse("2024-01-01T00:00:00Z");
+        Map<Path, Boolean> expectedChangeByPath = new HashMap<>();
+        try (ChecksumVerificationQueue queue = new ChecksumVerificationQueue(fsa, 4)) {
+            for (int i = 0; i < 100; i++) {
+                Path file = Path.of("/r/f" + i);
+                byte[] content = bytes("content-" + i);
+                fsa.putFile(file, content, time);
+                boolean changed = i % 3 == 0;
+                CheckpointChecksum expected = checksum(changed ? "old-content-" + i : "content-" + i);
+                queue.submit(new ChecksumVerificationQueue.Verification(root.insert(Path.of("r/f" + i)), file, expected, content.length));
+                expectedChangeByPath.put(file, changed);
+            }
+            Path large = Path.of("/r/large");
+            fsa.putFile(large, bytes("new-large-content"), time);
+            queue.submit(new ChecksumVerificationQueue.Verification(
+                    root.insert(Path.of("r/large")), large, checksum("old-large-content"), ChecksumVerificationQueue.LARGE_FILE_MIN_SIZE));
+            expectedChangeByPath.put(large, true);
+            Path missing = Path.of("/r/missing");
+            queue.submit(new ChecksumVerificationQueue.Verification(root.insert(Path.of("r/missing")), missing, checksum("gone"), 4));
+
+            // when
+            queue.awaitCompletion();
+
+            // then
+            Map<Path, ChecksumVerificationQueue.Verdict> verdictByPath = new HashMap<>();
+            queue.drainVerdicts(verdict -> verdictByPath.put(verdict.verification().absPath(), verdict));
+            assertEquals(102, verdictByPath.size());
+            expectedChangeByPath.forEach((path, changed) -> {
+                assertEquals(changed, verdictByPath.get(path).changed(), path.toString());
+                assertNull(verdictByPath.get(path).exception());
+            });
+            assertTrue(verdictByPath.get(missing).changed());
+            assertNotNull(verdictByPath.get(missing).exception());
+            queue.drainVerdicts(verdict -> assertFalse(true, "unexpected verdict " + verdict));
+        }
+    }
+
+    /**
+     * /r
+     * ├── intact      (same content)
+     * ├── appended    (old content followed by new lines)
+     * ├── truncated   (shorter)
+     * └── tail        (same size, last byte differs)
+     */
+    @Test
+    void compare_sizeAndTailFindChangesAtTheEnd() throws IOException {
+        // given
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        FileSystemNode root = FileSystemNode.getNew();
+        Instant time = Instant.parse("2024-01-01T00:00:00Z");
+        byte[] old = new byte[10_000];
+        new Random(42).nextBytes(old);
+        CheckpointChecksum expected = CheckpointChecksum.from(old, 0, old.length);
+
+        byte[] appended = Arrays.copyOf(old, old.length + 100);
+        byte[] truncated = Arrays.copyOf(old, old.length - 1);
+        byte[] tail = old.clone();
+        tail[old.length - 1]++;
+        Map<String, byte[]> contentByName = Map.of("intact", old, "appended", appended, "truncated", truncated, "tail", tail);
+
+        Map<Path, ChecksumVerificationQueue.Verdict> verdictByPath = new HashMap<>();
+        try (ChecksumVerificationQueue queue = new ChecksumVerificationQueue(fsa, 2)) {
+            for (Map.Entry<String, byte[]> entry : contentByName.entrySet()) {
+                Path file = Path.of("/r/" + entry.getKey());
+                fsa.putFile(file, entry.getValue(), time);
+                queue.submit(new ChecksumVerificationQueue.Verification(
+                        root.insert(Path.of("r/" + entry.getKey())), file, expected, entry.getValue().length));
+            }
+
+            // when
+            queue.awaitCompletion();
+            queue.drainVerdicts(verdict -> verdictByPath.put(verdict.verification().absPath(), verdict));
+        }
+
+        // then
+        assertEquals(ChecksumVerificationQueue.Change.UNCHANGED, verdictByPath.get(Path.of("/r/intact")).change());
+        assertEquals(ChecksumVerificationQueue.Change.MODIFIED, verdictByPath.get(Path.of("/r/appended")).change());
+        assertEquals(ChecksumVerificationQueue.Change.MODIFIED, verdictByPath.get(Path.of("/r/truncated")).change());
+        assertEquals(ChecksumVerificationQueue.Change.MODIFIED, verdictByPath.get(Path.of("/r/tail")).change());
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static CheckpointChecksum checksum(String content) throws IOException {
+        return CheckpointChecksum.from(new ByteArrayInputStream(bytes(content)));
+    }
+
+    /**
+     * Assumes a file system supporting user defined attributes.
+     */
+    @Test
+    void awaitCompletion_paranoidVerificationsReadFilesDespiteCachedChecksums(@TempDir Path tmpDir) throws IOException {
+        // given
+        byte[] original = new byte[1 << 16];
+        new Random(7).nextBytes(original);
+        byte[] modified = Arrays.copyOf(original, original.length);
+        modified[0]++;
+        CheckpointChecksum expected = CheckpointChecksum.from(original, 0, original.length);
+        Path file = tmpDir.resolve("f");
+        Files.write(file, modified);
+        FileSystemAccessor fsa = new ChecksumCachingFileSystemAccessor(FileSystemAccessor.newDefaultAccessor());
+        // a valid cache entry not matching the content, as left behind by silent corruption
+        fsa.cacheChecksum(file, Files.getLastModifiedTime(file).toInstant(), expected);
+        FileSystemNode root = FileSystemNode.getNew();
+
+        Map<Boolean, ChecksumVerificationQueue.Change> changeByParanoid = new HashMap<>();
+        try (ChecksumVerificationQueue queue = new ChecksumVerificationQueue(fsa, 2)) {
+            queue.submit(new ChecksumVerificationQueue.Verification(root.insert(Path.of("r/f")), file, expected, modified.length, Integer.MAX_VALUE, false));
+            queue.submit(new ChecksumVerificationQueue.Verification(root.insert(Path.of("r/f")), file, expected, modified.length, Integer.MAX_VALUE, true));
+
+            // when
+            queue.awaitCompletion();
+            queue.drainVerdicts(verdict -> changeByParanoid.put(verdict.verification().paranoid(), verdict.change()));
+        }
+
+        // then
+        assertEquals(ChecksumVerificationQueue.Change.UNCHANGED, changeByParanoid.get(false));
+        assertEquals(ChecksumVerificationQueue.Change.MODIFIED, changeByParanoid.get(true));
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DefaultFileSystemAccessorTest {
+
+    /**
+     * Uses direct I/O if supported by the file system of the temporary directory, cached I/O otherwise.
+     */
+    @Test
+    void directIo_contentIsTransferredExactly(@TempDir Path tmpDir) throws IOException {
+        // given
+        FileSystemAccessor fsa = new DefaultFileSystemAccessor(0);
+        Random rng = new Random(42);
+        for (int size : new int[]{0, 1, 4095, 4096, 4097, DirectInputStream.CHUNK_SIZE, DirectInputStream.CHUNK_SIZE + 1, 3 * DirectInputStream.CHUNK_SIZE + 17}) {
+            byte[] content = new byte[size];
+            rng.nextBytes(content);
+            Path source = tmpDir.resolve("source-" + size);
+            Path destination = tmpDir.resolve("destination-" + size);
+            Files.write(source, content);
+
+            // when
+            CheckpointChecksum checksum;
+            try (InputStream is = fsa.createNewInputStream(source, size); OutputStream os = fsa.createNewOutputStream(destination, size)) {
+                checksum = CheckpointChecksum.byTransferring(is, os);
+            }
+
+            // then
+            assertArrayEquals(content, Files.readAllBytes(destination), "size " + size);
+            assertTrue(checksum.hasSameContentAs(CheckpointChecksum.from(content, 0, size)), "size " + size);
+            assertTrue(fsa.areChecksumsEqual(checksum, destination), "size " + size);
+        }
+    }
+
+    @Test
+    void zeroBlocks_contentIsTransferredExactly(@TempDir Path tmpDir) throws IOException {
+        // given
+        int size = 3 * DirectInputStream.CHUNK_SIZE + 17;
+        byte[] content = new byte[size];
+        Random rng = new Random(42);
+        // data in the middle, zeros at the beginning and at the end
+        for (int i = DirectInputStream.CHUNK_SIZE + 5; i < 2 * DirectInputStream.CHUNK_SIZE; i++)
+            content[i] = (byte) rng.nextInt();
+        Path source = tmpDir.resolve("source");
+        Files.write(source, content);
+
+        for (FileSystemAccessor fsa : List.of(new DefaultFileSystemAccessor(), new DefaultFileSystemAccessor(0))) {
+            Path destination = tmpDir.resolve("destination-" + fsa.hashCode());
+
+            // when
+            CheckpointChecksum checksum;
+            try (InputStream is = fsa.createNewInputStream(source, size); OutputStream os = fsa.createNewOutputStream(destination, size)) {
+                checksum = CheckpointChecksum.byTransferring(is, os);
+            }
+
+            // then
+            assertArrayEquals(content, Files.readAllBytes(destination));
+            assertTrue(checksum.hasSameContentAs(CheckpointChecksum.from(content, 0, size)));
+        }
+    }
+
+    @Test
+    void readFully_repeatsShortReads() throws IOException {
+        // given
+        byte[] content = new byte[10_000];
+        new Random(42).nextBytes(content);
+        // serves at most 1000 bytes per read like some network file systems
+        DefaultFileSystemAccessor.PositionalReader shortReader = (buffer, position) -> {
+            if (position >= content.length)
+                return -1;
+            int count = Math.min(Math.min(1000, buffer.remaining()), content.length - (int) position);
+            buffer.put(content, (int) position, count);
+            return count;
+        };
+        byte[] buffer = new byte[20_000];
+        byte[] limitedBuffer = new byte[4_500];
+
+        // when
+        int readCount = DefaultFileSystemAccessor.readFully(shortReader, ByteBuffer.wrap(buffer, 5, 16_385));
+        int limitedReadCount = DefaultFileSystemAccessor.readFully(shortReader, ByteBuffer.wrap(limitedBuffer));
+
+        // then
+        assertEquals(content.length, readCount);
+        assertArrayEquals(content, Arrays.copyOfRange(buffer, 5, 5 + content.length));
+        assertEquals(limitedBuffer.length, limitedReadCount);
+        assertArrayEquals(Arrays.copyOf(content, limitedBuffer.length), limitedBuffer);
+    }
+
+}
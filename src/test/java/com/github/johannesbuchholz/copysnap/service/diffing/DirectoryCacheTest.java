@@ -0,0 +1,73 @@
+package com.github.johannesbuchholz.copysnap.service.diffing;
+
+import com.github.johannesbuchholz.copysnap.metrics.MeasuringFileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.metrics.Metrics;
+import com.github.johannesbuchholz.copysnap.service.diffing.testutils.InMemoryFileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.util.BoundedExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectoryCacheTest {
+
+    /**
+     * /d
+     * └── r
+     *     ├── a
+     *     │   └── b
+     *     └── c
+     */
+    @Test
+    void createDirectories_createsEachDirectoryOnce() throws IOException {
+        // given
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        Metrics metrics = new Metrics();
+        FileSystemAccessor measuringFsa = new MeasuringFileSystemAccessor(fsa, metrics);
+        DirectoryCache directoryCache = new DirectoryCache();
+
+        // when
+        directoryCache.createParentDirectories(Path.of("/d/r/a/b/f1"), measuringFsa);
+        directoryCache.createParentDirectories(Path.of("/d/r/a/b/f2"), measuringFsa);
+        directoryCache.createParentDirectories(Path.of("/d/r/a/f3"), measuringFsa);
+        directoryCache.createParentDirectories(Path.of("/d/r/c/f4"), measuringFsa);
+        directoryCache.createDirectories(Path.of("/d/r"), measuringFsa);
+
+        // then
+        // "a" is known as ancestor of "b"
+        assertEquals(2, metrics.operation("mkdir").count());
+        assertTrue(fsa.exists(Path.of("/d/r/a/b")));
+        assertTrue(fsa.exists(Path.of("/d/r/c")));
+    }
+
+    @Test
+    void createDirectories_concurrently() {
+        // given
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        DirectoryCache directoryCache = new DirectoryCache();
+
+        // when
+        try (BoundedExecutor executor = BoundedExecutor.withParallelism(8)) {
+            for (int i = 0; i < 1000; i++) {
+                Path file = Path.of("/d/r/dir" + i % 10 + "/sub" + i % 3 + "/f" + i);
+                executor.submit(() -> {
+                    try {
+                        directoryCache.createParentDirectories(file, fsa);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        }
+
+        // then
+        for (int i = 0; i < 10; i++)
+            for (int j = 0; j < 3; j++)
+                assertTrue(fsa.exists(Path.of("/d/r/dir" + i + "/sub" + j)));
+    }
+
+}
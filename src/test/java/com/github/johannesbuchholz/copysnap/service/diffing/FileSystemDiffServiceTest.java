@@ -1,5 +1,8 @@
 package com.github.johannesbuchholz.copysnap.service.diffing;
 
+import com.github.johannesbuchholz.copysnap.logging.ActionRecorder;
+import com.github.johannesbuchholz.copysnap.metrics.MeasuringFileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.metrics.Metrics;
 import com.github.johannesbuchholz.copysnap.model.Root;
 import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
 import com.github.johannesbuchholz.copysnap.model.state.FileState;
@@ -7,19 +10,26 @@ import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
 import com.github.johannesbuchholz.copysnap.service.diffing.copy.CopyAction;
 import com.github.johannesbuchholz.copysnap.service.diffing.copy.PlainCopyAction;
 import com.github.johannesbuchholz.copysnap.service.diffing.copy.SymbolicLinkCopyAction;
+import com.github.johannesbuchholz.copysnap.service.diffing.testutils.InMemoryFileSystemAccessor;
 import com.github.johannesbuchholz.copysnap.service.diffing.testutils.TestFileSystemAccessor;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 /**
@@ -360,4 +370,275 @@ public class FileSystemDiffServiceTest {
         return CheckpointChecksum.from(new ByteArrayInputStream(stringContent.getBytes()));
     }
 
+    /**
+     * /x/r
+     * ├── a
+     * │   ├── big
+     * │   ├── f0
+     * │   ├── ...
+     * │   └── f99
+     * └── b
+     *     └── f
+     */
+    @Test
+    public void test_apply_smallFilesAreBatchedPerDirectory() throws IOException {
+        // given
+        Root sourceRoot = Root.from(Path.of("/x/r"));
+        Path destination = Path.of("/d");
+        Instant time = Instant.parse("2024-01-01T00:00:00Z");
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        Random rng = new Random(42);
+        Map<Path, byte[]> contentByRelPath = new HashMap<>();
+        for (int i = 0; i < 100; i++)
+            contentByRelPath.put(Path.of("r/a/f" + i), new byte[rng.nextInt(4096)]);
+        contentByRelPath.put(Path.of("r/a/big"), new byte[PlainCopyAction.SMALL_FILE_MAX_SIZE + 1]);
+        contentByRelPath.put(Path.of("r/b/f"), new byte[10]);
+        contentByRelPath.forEach((relPath, content) -> {
+            rng.nextBytes(content);
+            fsa.putFile(sourceRoot.rootDirLocation().resolve(relPath), content, time);
+        });
+        FileSystemDiff diff = new FileSystemDiffService(fsa).computeDiff(sourceRoot, FileSystemState.empty(), List.of());
+        Metrics metrics = new Metrics();
+
+        // when
+        FileSystemState newState = diff.computeCopyActions(destination, null).apply(new MeasuringFileSystemAccessor(fsa, metrics));
+
+        // then
+        // once for "r/a" and once for "r/b"
+        assertEquals(2, metrics.operation("mkdir").count());
+        // only the big file is streamed, all last modified times are known from the walk
+        assertEquals(1, metrics.operation("open").count());
+        assertEquals(0, metrics.operation("stat").count());
+        assertEquals(contentByRelPath.size(), newState.fileCount());
+        for (Map.Entry<Path, byte[]> entry : contentByRelPath.entrySet()) {
+            FileState fileState = newState.get(entry.getKey()).orElseThrow();
+            assertEquals(time, fileState.lastModified());
+            assertEquals(CheckpointChecksum.from(new ByteArrayInputStream(entry.getValue())), fileState.getChecksum());
+            assertTrue(fileState.getChecksum().hasSameChecksum(fsa.createNewInputStream(destination.resolve(entry.getKey()))));
+        }
+    }
+
+    /**
+     * /x/r
+     * ├── f0 ... f9
+     * ├── grown     (grown beyond the small file size after the walk)
+     * └── removed   (removed after the walk)
+     */
+    @Test
+    public void test_apply_smallFileBatchRecordsEveryAction() throws IOException {
+        // given
+        Root sourceRoot = Root.from(Path.of("/x/r"));
+        Path destination = Path.of("/d");
+        Instant time = Instant.parse("2024-01-01T00:00:00Z");
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        for (int i = 0; i < 10; i++)
+            fsa.putFile(sourceRoot.rootDirLocation().resolve("r/f" + i), ("content-" + i).getBytes(), time);
+        Path grown = sourceRoot.rootDirLocation().resolve("r/grown");
+        Path removed = sourceRoot.rootDirLocation().resolve("r/removed");
+        fsa.putFile(grown, new byte[1], time);
+        fsa.putFile(removed, new byte[1], time);
+        FileSystemDiff diff = new FileSystemDiffService(fsa).computeDiff(sourceRoot, FileSystemState.empty(), List.of());
+        fsa.putFile(grown, new byte[PlainCopyAction.SMALL_FILE_MAX_SIZE + 1], time);
+        fsa.delete(removed);
+        Map<Path, ActionRecorder.ActionRecord> recordByRelPath = new HashMap<>();
+
+        // when
+        FileSystemState newState = diff.computeCopyActions(destination, null)
+                .apply(fsa, actionRecord -> recordByRelPath.put(actionRecord.relPath(), actionRecord));
+
+        // then
+        assertEquals(12, recordByRelPath.size());
+        assertFalse(recordByRelPath.get(Path.of("r/removed")).succeeded());
+        assertTrue(recordByRelPath.get(Path.of("r/grown")).succeeded());
+        assertEquals(11, newState.fileCount());
+        assertEquals(CheckpointChecksum.from(new byte[PlainCopyAction.SMALL_FILE_MAX_SIZE + 1], 0, PlainCopyAction.SMALL_FILE_MAX_SIZE + 1),
+                newState.get(Path.of("r/grown")).orElseThrow().getChecksum());
+        for (int i = 0; i < 10; i++)
+            assertTrue(fsa.exists(destination.resolve("r/f" + i)));
+    }
+
+    @Test
+    public void test_apply_resumedJournalSkipsIntactCompletedActions(@TempDir Path tmpDir) throws IOException {
+        // given
+        Root sourceRoot = Root.from(Path.of("/x/r"));
+        Path destination = Path.of("/d");
+        Instant time = Instant.parse("2024-01-01T00:00:00Z");
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        for (int i = 0; i < 10; i++)
+            fsa.putFile(sourceRoot.rootDirLocation().resolve("r/f" + i), ("content-" + i).getBytes(), time);
+        FileSystemDiff diff = new FileSystemDiffService(fsa).computeDiff(sourceRoot, FileSystemState.empty(), List.of());
+        Path journalFile = tmpDir.resolve(ActionJournal.FILE_NAME);
+        FileSystemState firstState;
+        try (ActionJournal journal = ActionJournal.create(journalFile, Map.of())) {
+            firstState = diff.computeCopyActions(destination, null).apply(fsa, ActionRecorder.NONE, journal);
+        }
+        // and given: an interruption lost one file and truncated another
+        fsa.delete(destination.resolve("r/f3"));
+        fsa.putFile(destination.resolve("r/f5"), "content".getBytes(), time);
+        Map<Path, ActionRecorder.ActionRecord> recordByRelPath = new HashMap<>();
+
+        // when
+        FileSystemState resumedState;
+        try (ActionJournal journal = ActionJournal.resume(journalFile)) {
+            resumedState = diff.computeCopyActions(destination, null)
+                    .apply(fsa, actionRecord -> recordByRelPath.put(actionRecord.relPath(), actionRecord), journal);
+        }
+
+        // then
+        assertEquals(Set.of(Path.of("r/f3"), Path.of("r/f5")), recordByRelPath.keySet());
+        assertTrue(recordByRelPath.values().stream().allMatch(ActionRecorder.ActionRecord::succeeded));
+        assertEquals(firstState.fingerprint(), resumedState.fingerprint());
+        assertTrue(fsa.exists(destination.resolve("r/f3")));
+    }
+
+    @Test
+    public void test_apply_resumedJournalFollowsSourceChanges(@TempDir Path tmpDir) throws IOException {
+        // given
+        Root sourceRoot = Root.from(Path.of("/x/r"));
+        Path destination = Path.of("/d");
+        Instant time = Instant.parse("2024-01-01T00:00:00Z");
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        for (int i = 0; i < 5; i++)
+            fsa.putFile(sourceRoot.rootDirLocation().resolve("r/f" + i), ("content-" + i).getBytes(), time);
+        fsa.putFile(sourceRoot.rootDirLocation().resolve("r/gone/f"), "content".getBytes(), time);
+        fsa.putFile(destination.resolve("report.txt"), "report".getBytes(), time);
+        Path journalFile = tmpDir.resolve(ActionJournal.FILE_NAME);
+        try (ActionJournal journal = ActionJournal.create(journalFile, Map.of())) {
+            new FileSystemDiffService(fsa).computeDiff(sourceRoot, FileSystemState.empty(), List.of())
+                    .computeCopyActions(destination, null)
+                    .apply(fsa, ActionRecorder.NONE, journal);
+        }
+        // and given: the source changes before resuming
+        fsa.delete(sourceRoot.rootDirLocation().resolve("r/f1"));
+        fsa.delete(sourceRoot.rootDirLocation().resolve("r/gone"));
+        fsa.putFile(sourceRoot.rootDirLocation().resolve("r/f2"), "changed".getBytes(), time.plusSeconds(1));
+        fsa.putFile(sourceRoot.rootDirLocation().resolve("r/new"), "new".getBytes(), time);
+        FileSystemDiff diff = new FileSystemDiffService(fsa).computeDiff(sourceRoot, FileSystemState.empty(), List.of());
+        Map<Path, ActionRecorder.ActionRecord> recordByRelPath = new HashMap<>();
+
+        // when
+        FileSystemState resumedState;
+        try (ActionJournal journal = ActionJournal.resume(journalFile)) {
+            resumedState = diff.computeCopyActions(destination, null)
+                    .apply(fsa, actionRecord -> recordByRelPath.put(actionRecord.relPath(), actionRecord), journal);
+        }
+
+        // then
+        assertEquals(Set.of(Path.of("r/f2"), Path.of("r/new")), recordByRelPath.keySet());
+        assertEquals(5, resumedState.fileCount());
+        assertEquals(checksum("changed"), resumedState.get(Path.of("r/f2")).orElseThrow().getChecksum());
+        assertFalse(fsa.exists(destination.resolve("r/f1")));
+        assertFalse(fsa.exists(destination.resolve("r/gone")));
+        assertTrue(fsa.exists(destination.resolve("r/new")));
+        assertTrue(fsa.exists(destination.resolve("report.txt")));
+        assertEquals(diff.computeCopyActions(Path.of("/fresh"), null).apply(fsa).fingerprint(), resumedState.fingerprint());
+    }
+
+    /**
+     * r
+     * ├── docs
+     * │   ├── grown     (unchanged last modified time, content appended)
+     * │   ├── silent    (unchanged last modified time, changed content)
+     * │   └── touched   (advanced last modified time, unchanged content)
+     * ├── etc
+     * │   └── silent    (unchanged last modified time, changed content, paranoid)
+     * └── media
+     *     └── touched   (advanced last modified time, unchanged content, mtime-size)
+     */
+    @Test
+    void test_computeDiff_changeDetectionRules() throws IOException {
+        // given
+        Root sourceRoot = Root.from(Path.of("/x/r"));
+        Instant time = Instant.parse("2024-01-01T00:00:00Z");
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        FileSystemState.Builder oldStateBuilder = FileSystemState.builder();
+        Map<String, String[]> oldAndNewContentByFile = Map.of(
+                "r/docs/grown", new String[]{"content", "content".repeat(100)},
+                "r/docs/silent", new String[]{"content", "CONTENT"},
+                "r/docs/touched", new String[]{"content", "content"},
+                "r/etc/silent", new String[]{"content", "CONTENT"},
+                "r/media/touched", new String[]{"content", "content"});
+        oldAndNewContentByFile.forEach((file, contents) -> {
+            Path relPath = Path.of(file);
+            oldStateBuilder.add(new FileState(relPath, time, checksum(contents[0])));
+            fsa.putFile(sourceRoot.rootDirLocation().resolve(relPath), contents[1].getBytes(), file.endsWith("touched") ? time.plusSeconds(1) : time);
+        });
+        ChangeDetectionRules rules = ChangeDetectionRules.parse("checksum:r/media/**=mtime-size:r/etc/**=paranoid");
+
+        // when
+        FileSystemDiff diff = new FileSystemDiffService(fsa).computeDiff(sourceRoot, oldStateBuilder.build(), List.of(), true, rules);
+
+        // then
+        Set<Path> changed = diff.diffTree().getLeafs().stream()
+                .filter(FileSystemNode::isChanged)
+                .map(FileSystemNode::getPath)
+                .collect(Collectors.toSet());
+        assertEquals(Set.of(Path.of("r/docs/grown"), Path.of("r/etc/silent"), Path.of("r/media/touched")), changed);
+        assertEquals(new FileSystemDiff.Statistics(0, 0, 3, 2, 0, 0), diff.statistics());
+    }
+
+    /**
+     * Uses the default file system accessor and assumes a file system supporting hard and symbolic links.
+     * <pre>
+     * r
+     * ├── a
+     * │   └── f
+     * ├── b
+     * │   └── f (hard link to a/f)
+     * └── l (symbolic link to a/f)
+     * </pre>
+     */
+    @Test
+    void test_apply_hardLinksAreLinkedAndSymbolicLinksAreRecreated(@TempDir Path tmpDir) throws IOException {
+        // given
+        Path sourceDir = tmpDir.resolve("r");
+        Files.createDirectories(sourceDir.resolve("a"));
+        Files.createDirectories(sourceDir.resolve("b"));
+        Files.writeString(sourceDir.resolve("a/f"), "content-f");
+        Files.createLink(sourceDir.resolve("b/f"), sourceDir.resolve("a/f"));
+        Files.createSymbolicLink(sourceDir.resolve("l"), Path.of("a/f"));
+        Root sourceRoot = Root.from(sourceDir);
+        Path destination = tmpDir.resolve("snapshot");
+        FileSystemAccessor fsa = FileSystemAccessor.newDefaultAccessor();
+
+        // when
+        FileSystemDiff diff = new FileSystemDiffService(fsa).computeDiff(sourceRoot, FileSystemState.empty(), List.of(), false);
+        FileSystemState newState = diff.computeCopyActions(destination, null).apply(fsa);
+
+        // then
+        Set<String> actionTypes = diff.computeCopyActions(destination, null).getActions().stream()
+                .map(CopyAction::getType)
+                .collect(Collectors.toSet());
+        assertEquals(Set.of("COPY", "HARDLINK", "SYMLINK"), actionTypes);
+        assertTrue(Files.isSameFile(destination.resolve("r/a/f"), destination.resolve("r/b/f")));
+        assertEquals(newState.get(Path.of("r/a/f")).orElseThrow().getChecksum(), newState.get(Path.of("r/b/f")).orElseThrow().getChecksum());
+        assertEquals(Path.of("a/f"), Files.readSymbolicLink(destination.resolve("r/l")));
+        assertEquals(2, newState.fileCount());
+    }
+
+    /**
+     * Assumes a file system supporting symbolic links.
+     * <pre>
+     * r
+     * ├── f
+     * └── loop (symbolic link to r)
+     * </pre>
+     */
+    @Test
+    void test_computeDiff_followedCycleIsIgnored(@TempDir Path tmpDir) throws IOException {
+        // given
+        Path sourceDir = tmpDir.resolve("r");
+        Files.createDirectories(sourceDir);
+        Files.writeString(sourceDir.resolve("f"), "content-f");
+        Files.createSymbolicLink(sourceDir.resolve("loop"), sourceDir);
+        Root sourceRoot = Root.from(sourceDir);
+
+        // when
+        FileSystemDiff diff = new FileSystemDiffService(FileSystemAccessor.newDefaultAccessor())
+                .computeDiff(sourceRoot, FileSystemState.empty(), List.of(), true);
+
+        // then
+        assertEquals(new FileSystemDiff.Statistics(1, 0, 0, 0, 1, 0), diff.statistics());
+    }
+
 }
@@ -1,6 +1,7 @@
 package com.github.johannesbuchholz.copysnap.service.diffing.copy;
 
 import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.service.diffing.DirectoryCache;
 import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
 import org.junit.jupiter.api.Test;
 
@@ -26,7 +27,12 @@ class AbstractCopyActionTest {
         }
 
         @Override
-        public Optional<FileState> perform(FileSystemAccessor fsa) {
+        public String getType() {
+            return "TEST";
+        }
+
+        @Override
+        public Optional<FileState> perform(FileSystemAccessor fsa, DirectoryCache directoryCache) {
             return Optional.empty();
         }
 
@@ -52,4 +52,33 @@ class PlainCopyActionTest {
         assertArrayEquals(bytes, toFileSink.toByteArray());
     }
 
-}
\ No newline at end of file
+    @Test
+    void testPlainCopy_smallFileWithKnownAttributes() throws IOException {
+        // given
+        Path sourceRoot = Path.of("/source/root");
+        Path relPath = Path.of("some/where/to/file.txt");
+        Instant walkedLastModified = Instant.parse("2024-01-01T00:00:00Z");
+        byte[] bytes = new byte[300];
+        RNG.nextBytes(bytes);
+        Path destinationRoot = Path.of("/destination/root");
+        ByteArrayOutputStream toFileSink = new ByteArrayOutputStream();
+
+        PlainCopyAction pca = new PlainCopyAction(sourceRoot, destinationRoot, relPath, walkedLastModified, bytes.length);
+
+        TestFileSystemAccessor fsaMock = TestFileSystemAccessor.builder()
+                .setDataSinksByPath(Map.of(destinationRoot.resolve(relPath), toFileSink))
+                .setContentByPath(Map.of(sourceRoot.resolve(relPath), bytes))
+                .build();
+
+        // when
+        Optional<FileState> fileStateOpt = pca.perform(fsaMock);
+
+        // then
+        assertTrue(pca.isSmall());
+        FileState fileState = fileStateOpt.orElseThrow();
+        assertEquals(walkedLastModified, fileState.lastModified());
+        assertEquals(CheckpointChecksum.from(new ByteArrayInputStream(bytes)), fileState.getChecksum());
+        assertArrayEquals(bytes, toFileSink.toByteArray());
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.github.johannesbuchholz.copysnap.service.diffing.copy;
+
+import com.github.johannesbuchholz.copysnap.service.diffing.testutils.InMemoryFileSystemAccessor;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SymbolicLinkCopyActionTest {
+
+    /**
+     * /s1/r/a/f
+     * /s2/r/a -> /s1/r/a
+     * /s3/r/a (about to be linked)
+     */
+    @Test
+    void perform_linksToPhysicalOrigin() throws IOException {
+        // given
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        fsa.putFile(Path.of("/s1/r/a/f"), new byte[]{1}, Instant.EPOCH);
+        fsa.createSymbolicLink(Path.of("/s2/r/a"), Path.of("/s1/r/a"));
+        SymbolicLinkCopyAction action = new SymbolicLinkCopyAction(Path.of("/s2"), Path.of("/s3"), Path.of("r/a"));
+
+        // when
+        action.perform(fsa);
+
+        // then
+        assertEquals(Path.of("/s1/r/a"), fsa.readSymbolicLink(Path.of("/s3/r/a")));
+    }
+
+    @Test
+    void perform_keepsUnresolvableSource() throws IOException {
+        // given
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        SymbolicLinkCopyAction action = new SymbolicLinkCopyAction(Path.of("/s2"), Path.of("/s3"), Path.of("r/a"));
+
+        // when
+        action.perform(fsa);
+
+        // then
+        assertEquals(Path.of("/s2/r/a"), fsa.readSymbolicLink(Path.of("/s3/r/a")));
+    }
+
+}
@@ -0,0 +1,365 @@
+package com.github.johannesbuchholz.copysnap.service.diffing.testutils;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotLinkException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * A mutable file system held in memory. Unlike {@link TestFileSystemAccessor}, files written through this accessor can
+ * be read, visited and hashed afterwards. This allows running services on large synthetic file trees without measuring
+ * disk access.
+ * <p>
+ * Directories are visited in lexicographic order of their entries. Symbolic links are resolved without detecting
+ * cycles. Thread safe.
+ * </p>
+ */
+public class InMemoryFileSystemAccessor implements FileSystemAccessor {
+
+    /**
+     * User defined attributes belong to the file like extended attributes belong to an inode, hence they are shared
+     * by hard links.
+     */
+    private record InMemoryFile(byte[] content, Instant lastModified, Map<String, String> userAttributes) {}
+
+    private final Map<Path, InMemoryFile> filesByPath = new ConcurrentHashMap<>();
+    private final Map<Path, Path> linkTargetsByPath = new ConcurrentHashMap<>();
+    private final Map<Path, NavigableSet<Path>> childrenByDirectory = new ConcurrentHashMap<>();
+
+    /**
+     * Creates or replaces the file at the given path including all missing parent directories.
+     */
+    public void putFile(Path path, byte[] content, Instant lastModified) {
+        Path normalizedPath = path.normalize();
+        registerInParent(normalizedPath);
+        filesByPath.put(normalizedPath, new InMemoryFile(content, lastModified, new ConcurrentHashMap<>()));
+    }
+
+    /**
+     * Removes all files, links and directories below and including the given path.
+     */
+    public void delete(Path path) {
+        Path normalizedPath = path.normalize();
+        NavigableSet<Path> children = childrenByDirectory.remove(normalizedPath);
+        if (children != null)
+            children.forEach(this::delete);
+        filesByPath.remove(normalizedPath);
+        linkTargetsByPath.remove(normalizedPath);
+        Path parent = normalizedPath.getParent();
+        if (parent != null && childrenByDirectory.containsKey(parent))
+            childrenByDirectory.get(parent).remove(normalizedPath);
+    }
+
+    public boolean exists(Path path) {
+        Path normalizedPath = path.normalize();
+        return filesByPath.containsKey(normalizedPath)
+                || linkTargetsByPath.containsKey(normalizedPath)
+                || childrenByDirectory.containsKey(normalizedPath);
+    }
+
+    public int fileCount() {
+        return filesByPath.size();
+    }
+
+    @Override
+    public Instant getLastModifiedTime(Path p) throws IOException {
+        return getFile(p).lastModified();
+    }
+
+    @Override
+    public BasicFileAttributes readAttributes(Path p) throws IOException {
+        Path realPath = toRealPath(p);
+        if (childrenByDirectory.containsKey(realPath))
+            return new InMemoryFileAttributes(Instant.EPOCH, 0, true, false);
+        InMemoryFile file = getFile(realPath);
+        return new InMemoryFileAttributes(file.lastModified(), file.content().length, false, false);
+    }
+
+    @Override
+    public Optional<String> readUserAttribute(Path p, String name) throws IOException {
+        String value = getFile(p).userAttributes().get(name);
+        if (value == null)
+            throw new NoSuchFileException(p.toString(), null, "No attribute " + name);
+        return Optional.of(value);
+    }
+
+    @Override
+    public void writeUserAttribute(Path p, String name, String value) throws IOException {
+        getFile(p).userAttributes().put(name, value);
+    }
+
+    @Override
+    public boolean areChecksumsEqual(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        return expectedChecksum.hasSameChecksum(createNewInputStream(p));
+    }
+
+    @Override
+    public boolean areChecksumsEqualUncached(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        return areChecksumsEqual(expectedChecksum, p);
+    }
+
+    @Override
+    public boolean hasSameTail(CheckpointChecksum expectedChecksum, Path p) throws IOException {
+        byte[] content = getFile(p).content();
+        if (!expectedChecksum.hasTail() || content.length < expectedChecksum.size())
+            return false;
+        return expectedChecksum.hasSameTail(content, (int) expectedChecksum.tailOffset(), expectedChecksum.tailLength());
+    }
+
+    @Override
+    public Optional<CheckpointChecksum> getCachedChecksum(Path p, Instant lastModified, long size) {
+        return Optional.empty();
+    }
+
+    @Override
+    public void cacheChecksum(Path p, Instant lastModified, CheckpointChecksum checksum) {
+        // no cache
+    }
+
+    @Override
+    public OutputStream createNewOutputStream(Path path) throws IOException {
+        Path normalizedPath = path.normalize();
+        if (exists(normalizedPath))
+            throw new FileAlreadyExistsException(normalizedPath.toString());
+        putFile(normalizedPath, new byte[0], Instant.now());
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                putFile(normalizedPath, toByteArray(), Instant.now());
+            }
+        };
+    }
+
+    @Override
+    public InputStream createNewInputStream(Path path) throws IOException {
+        return new ByteArrayInputStream(getFile(path).content());
+    }
+
+    @Override
+    public OutputStream createNewOutputStream(Path path, long expectedSize) throws IOException {
+        return createNewOutputStream(path);
+    }
+
+    @Override
+    public InputStream createNewInputStream(Path path, long expectedSize) throws IOException {
+        return createNewInputStream(path);
+    }
+
+    @Override
+    public int read(Path path, byte[] buffer, int offset, int length) throws IOException {
+        byte[] content = getFile(path).content();
+        int readCount = Math.min(length, content.length);
+        System.arraycopy(content, 0, buffer, offset, readCount);
+        return readCount;
+    }
+
+    @Override
+    public void write(Path path, byte[] buffer, int offset, int length) throws IOException {
+        Path normalizedPath = path.normalize();
+        if (exists(normalizedPath))
+            throw new FileAlreadyExistsException(normalizedPath.toString());
+        putFile(normalizedPath, Arrays.copyOfRange(buffer, offset, offset + length), Instant.now());
+    }
+
+    @Override
+    public void createDirectories(Path path) {
+        Path normalizedPath = path.normalize();
+        if (childrenByDirectory.containsKey(normalizedPath))
+            return;
+        registerInParent(normalizedPath);
+        childrenByDirectory.putIfAbsent(normalizedPath, new ConcurrentSkipListSet<>());
+    }
+
+    @Override
+    public void visitFiles(Path root, FileVisitor<Path> visitor) throws IOException {
+        visitFiles(root, visitor, true);
+    }
+
+    @Override
+    public void visitFiles(Path root, FileVisitor<Path> visitor, boolean followLinks) throws IOException {
+        walk(root.normalize(), visitor, followLinks);
+    }
+
+    private FileVisitResult walk(Path path, FileVisitor<Path> visitor, boolean followLinks) throws IOException {
+        if (!followLinks && linkTargetsByPath.containsKey(path))
+            return visitor.visitFile(path, new InMemoryFileAttributes(Instant.EPOCH, 0, false, true));
+        Path resolvedPath;
+        try {
+            // paths below followed links are not known by themselves
+            resolvedPath = followLinks ? toRealPath(path) : path;
+        } catch (IOException e) {
+            return visitor.visitFileFailed(path, e);
+        }
+        NavigableSet<Path> children = childrenByDirectory.get(resolvedPath);
+        if (children != null) {
+            FileVisitResult result = visitor.preVisitDirectory(path, new InMemoryFileAttributes(Instant.EPOCH, 0, true, false));
+            if (result == FileVisitResult.SKIP_SUBTREE || result == FileVisitResult.SKIP_SIBLINGS)
+                return FileVisitResult.CONTINUE;
+            if (result == FileVisitResult.TERMINATE)
+                return result;
+            for (Path child : children) {
+                result = walk(path.resolve(child.getFileName()), visitor, followLinks);
+                if (result == FileVisitResult.TERMINATE)
+                    return result;
+                if (result == FileVisitResult.SKIP_SIBLINGS)
+                    break;
+            }
+            return visitor.postVisitDirectory(path, null);
+        }
+        InMemoryFile file = filesByPath.get(resolvedPath);
+        if (file == null)
+            return visitor.visitFileFailed(path, new FileNotFoundException(path.toString()));
+        return visitor.visitFile(path, new InMemoryFileAttributes(file.lastModified(), file.content().length, false, false));
+    }
+
+    @Override
+    public void createSymbolicLink(Path absDestination, Path absSource) throws IOException {
+        Path normalizedDestination = absDestination.normalize();
+        if (exists(normalizedDestination))
+            throw new FileAlreadyExistsException(normalizedDestination.toString());
+        registerInParent(normalizedDestination);
+        linkTargetsByPath.put(normalizedDestination, absSource.normalize());
+    }
+
+    @Override
+    public void createLink(Path absDestination, Path absExisting) throws IOException {
+        Path normalizedDestination = absDestination.normalize();
+        if (exists(normalizedDestination))
+            throw new FileAlreadyExistsException(normalizedDestination.toString());
+        InMemoryFile existingFile = getFile(absExisting);
+        registerInParent(normalizedDestination);
+        // the content is never modified in place, hence sharing the array behaves like a hard link
+        filesByPath.put(normalizedDestination, existingFile);
+    }
+
+    @Override
+    public Path toRealPath(Path p) throws IOException {
+        Path resolvedPath = Path.of("/");
+        for (Path name : p.toAbsolutePath().normalize()) {
+            resolvedPath = resolvedPath.resolve(name);
+            Path linkTarget;
+            while ((linkTarget = linkTargetsByPath.get(resolvedPath)) != null)
+                resolvedPath = resolvedPath.resolveSibling(linkTarget).normalize();
+        }
+        if (!exists(resolvedPath))
+            throw new FileNotFoundException(p.toString());
+        return resolvedPath;
+    }
+
+    @Override
+    public Path readSymbolicLink(Path link) throws IOException {
+        Path linkTarget = linkTargetsByPath.get(link.normalize());
+        if (linkTarget == null)
+            throw new NotLinkException(link.toString());
+        return linkTarget;
+    }
+
+    /**
+     * Supports files and symbolic links.
+     */
+    @Override
+    public void moveAtomically(Path source, Path target) throws IOException {
+        Path normalizedSource = source.normalize();
+        Path normalizedTarget = target.normalize();
+        Path linkTarget = linkTargetsByPath.get(normalizedSource);
+        InMemoryFile file = filesByPath.get(normalizedSource);
+        if (linkTarget == null && file == null)
+            throw new FileNotFoundException(source.toString());
+        delete(normalizedTarget);
+        registerInParent(normalizedTarget);
+        if (linkTarget != null)
+            linkTargetsByPath.put(normalizedTarget, linkTarget);
+        else
+            filesByPath.put(normalizedTarget, file);
+        delete(normalizedSource);
+    }
+
+    @Override
+    public void deleteIfExists(Path path) {
+        delete(path);
+    }
+
+    @Override
+    public long transfer(Path absSource, Path absDestination) throws IOException {
+        try (InputStream is = createNewInputStream(absSource); OutputStream os = createNewOutputStream(absDestination)) {
+            return is.transferTo(os);
+        }
+    }
+
+    @Override
+    public void setLastModifiedTime(Path p, Instant lastModified) throws IOException {
+        Path realPath = toRealPath(p);
+        InMemoryFile file = filesByPath.get(realPath);
+        if (file != null)
+            filesByPath.put(realPath, new InMemoryFile(file.content(), lastModified, file.userAttributes()));
+    }
+
+    private InMemoryFile getFile(Path p) throws IOException {
+        InMemoryFile file = filesByPath.get(toRealPath(p));
+        if (file == null)
+            throw new FileNotFoundException(p.toString());
+        return file;
+    }
+
+    private void registerInParent(Path path) {
+        Path parent = path.getParent();
+        if (parent == null)
+            return;
+        createDirectories(parent);
+        childrenByDirectory.get(parent).add(path);
+    }
+
+    record InMemoryFileAttributes(Instant lastModified, long size, boolean isDirectory, boolean isSymbolicLink) implements BasicFileAttributes {
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.from(lastModified);
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return !isDirectory && !isSymbolicLink;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+
+}
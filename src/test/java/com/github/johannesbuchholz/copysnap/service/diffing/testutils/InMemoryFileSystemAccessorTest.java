@@ -0,0 +1,84 @@
+package com.github.johannesbuchholz.copysnap.service.diffing.testutils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryFileSystemAccessorTest {
+
+    /**
+     * /r
+     * ├── a
+     * │   └── f1
+     * ├── f2
+     * └── l -> /r/a
+     */
+    @Test
+    void visitFiles_followsLinksInLexicographicOrder() throws IOException {
+        // given
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        fsa.putFile(Path.of("/r/f2"), new byte[0], Instant.EPOCH);
+        fsa.putFile(Path.of("/r/a/f1"), new byte[0], Instant.EPOCH);
+        fsa.createSymbolicLink(Path.of("/r/l"), Path.of("/r/a"));
+
+        // when
+        List<Path> followedFiles = visit(fsa, true);
+        List<Path> notFollowedFiles = visit(fsa, false);
+
+        // then
+        assertEquals(List.of(Path.of("/r/a/f1"), Path.of("/r/f2"), Path.of("/r/l/f1")), followedFiles);
+        assertEquals(List.of(Path.of("/r/a/f1"), Path.of("/r/f2"), Path.of("/r/l")), notFollowedFiles);
+        assertEquals(Path.of("/r/a/f1"), fsa.toRealPath(Path.of("/r/l/f1")));
+    }
+
+    @Test
+    void writtenFilesCanBeReadAndDeleted() throws IOException {
+        // given
+        InMemoryFileSystemAccessor fsa = new InMemoryFileSystemAccessor();
+        byte[] content = "content".getBytes(StandardCharsets.UTF_8);
+        try (OutputStream os = fsa.createNewOutputStream(Path.of("/r/a/f"))) {
+            os.write(content);
+        }
+
+        // when
+        fsa.transfer(Path.of("/r/a/f"), Path.of("/s/f"));
+        fsa.delete(Path.of("/r"));
+
+        // then
+        try (InputStream is = fsa.createNewInputStream(Path.of("/s/f"))) {
+            assertArrayEquals(content, is.readAllBytes());
+        }
+        assertFalse(fsa.exists(Path.of("/r/a/f")));
+        assertFalse(fsa.exists(Path.of("/r")));
+        assertTrue(fsa.exists(Path.of("/s")));
+        assertEquals(1, fsa.fileCount());
+    }
+
+    private static List<Path> visit(InMemoryFileSystemAccessor fsa, boolean followLinks) throws IOException {
+        List<Path> visitedFiles = new ArrayList<>();
+        fsa.visitFiles(Path.of("/r"), new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                visitedFiles.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        }, followLinks);
+        return visitedFiles;
+    }
+
+}
@@ -16,13 +16,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 public record TestFileSystemAccessor(
         Map<Path, Instant> lastModified,
         Map<Path, CheckpointChecksum> checksums,
         Map<Path, List<Path>> pathsByRootDir,
         Map<Path, byte[]> contentByPath,
-        Map<Path, OutputStream> dataSinksByPath
+        Map<Path, OutputStream> dataSinksByPath,
+        Set<Path> danglingLinks
 ) implements FileSystemAccessor {
 
     public static Builder builder() {
@@ -38,11 +40,52 @@ public record TestFileSystemAccessor(
         return Objects.requireNonNull(lastModified.get(p), p.toString());
     }
 
+    @Override
+    public BasicFileAttributes readAttributes(Path p) {
+        // files are as large as the content of their checksum if known
+        long size = Optional.ofNullable(checksums.get(p)).filter(CheckpointChecksum::hasTail).map(CheckpointChecksum::size).orElse(0L);
+        return new DummyFileAttribute(getLastModifiedTime(p), size, danglingLinks.contains(p));
+    }
+
+    @Override
+    public Optional<String> readUserAttribute(Path p, String name) {
+        // not supported
+        return Optional.empty();
+    }
+
+    @Override
+    public void writeUserAttribute(Path p, String name, String value) {
+        throw new UnsupportedOperationException("User defined attributes are not supported");
+    }
+
     @Override
     public boolean areChecksumsEqual(CheckpointChecksum expectedChecksum, Path p) {
         return Optional.ofNullable(checksums.get(p)).map(expectedChecksum::equals).orElseThrow();
     }
 
+    @Override
+    public boolean areChecksumsEqualUncached(CheckpointChecksum expectedChecksum, Path p) {
+        return areChecksumsEqual(expectedChecksum, p);
+    }
+
+    @Override
+    public boolean hasSameTail(CheckpointChecksum expectedChecksum, Path p) {
+        // files consist of the content of their checksum only
+        CheckpointChecksum actualChecksum = Optional.ofNullable(checksums.get(p)).orElseThrow();
+        return expectedChecksum.hasTail() && actualChecksum.hasTail()
+                && expectedChecksum.size() <= actualChecksum.size() && expectedChecksum.tailChecksum() == actualChecksum.tailChecksum();
+    }
+
+    @Override
+    public Optional<CheckpointChecksum> getCachedChecksum(Path p, Instant lastModified, long size) {
+        return Optional.empty();
+    }
+
+    @Override
+    public void cacheChecksum(Path p, Instant lastModified, CheckpointChecksum checksum) {
+        // no cache
+    }
+
     @Override
     public OutputStream createNewOutputStream(Path path) {
         return Objects.requireNonNull(dataSinksByPath.get(path));
@@ -53,6 +96,31 @@ public record TestFileSystemAccessor(
         return new ByteArrayInputStream(Objects.requireNonNull(contentByPath.get(path), path.toString()));
     }
 
+    @Override
+    public OutputStream createNewOutputStream(Path path, long expectedSize) throws IOException {
+        return createNewOutputStream(path);
+    }
+
+    @Override
+    public InputStream createNewInputStream(Path path, long expectedSize) throws IOException {
+        return createNewInputStream(path);
+    }
+
+    @Override
+    public int read(Path path, byte[] buffer, int offset, int length) {
+        byte[] content = Objects.requireNonNull(contentByPath.get(path), path.toString());
+        int readCount = Math.min(length, content.length);
+        System.arraycopy(content, 0, buffer, offset, readCount);
+        return readCount;
+    }
+
+    @Override
+    public void write(Path path, byte[] buffer, int offset, int length) throws IOException {
+        try (OutputStream os = createNewOutputStream(path)) {
+            os.write(buffer, offset, length);
+        }
+    }
+
     @Override
     public void createDirectories(Path path) {
         // do nothing
@@ -60,10 +128,13 @@ public record TestFileSystemAccessor(
 
     @Override
     public void visitFiles(Path root, FileVisitor<Path> visitor) throws IOException {
-        for (Path p : pathsByRootDir.get(root)) {
-            Instant lmt = getLastModifiedTime(p);
-            visitor.visitFile(p, new DummyFileAttribute(lmt));
-        }
+        for (Path p : pathsByRootDir.get(root))
+            visitor.visitFile(p, readAttributes(p));
+    }
+
+    @Override
+    public void visitFiles(Path root, FileVisitor<Path> visitor, boolean followLinks) throws IOException {
+        visitFiles(root, visitor);
     }
 
     @Override
@@ -71,7 +142,44 @@ public record TestFileSystemAccessor(
         // do nothing
     }
 
-    record DummyFileAttribute(Instant lmt) implements BasicFileAttributes {
+    @Override
+    public void createLink(Path absDestination, Path absExisting) {
+        // do nothing
+    }
+
+    @Override
+    public Path toRealPath(Path p) {
+        return p;
+    }
+
+    @Override
+    public Path readSymbolicLink(Path link) {
+        return link;
+    }
+
+    @Override
+    public void moveAtomically(Path source, Path target) {
+        // do nothing
+    }
+
+    @Override
+    public void deleteIfExists(Path path) {
+        // do nothing
+    }
+
+    @Override
+    public long transfer(Path absSource, Path absDestination) throws IOException {
+        try (InputStream is = createNewInputStream(absSource); OutputStream os = createNewOutputStream(absDestination)) {
+            return is.transferTo(os);
+        }
+    }
+
+    @Override
+    public void setLastModifiedTime(Path p, Instant lastModified) {
+        // do nothing
+    }
+
+    record DummyFileAttribute(Instant lmt, long size, boolean isSymbolicLink) implements BasicFileAttributes {
 
         @Override
         public FileTime lastModifiedTime() {
@@ -90,7 +198,7 @@ public record TestFileSystemAccessor(
 
         @Override
         public boolean isRegularFile() {
-            return false;
+            return !isSymbolicLink;
         }
 
         @Override
@@ -100,7 +208,7 @@ public record TestFileSystemAccessor(
 
         @Override
         public boolean isSymbolicLink() {
-            return false;
+            return isSymbolicLink;
         }
 
         @Override
@@ -108,11 +216,6 @@ public record TestFileSystemAccessor(
             return false;
         }
 
-        @Override
-        public long size() {
-            return 0;
-        }
-
         @Override
         public Object fileKey() {
             return null;
@@ -126,6 +229,7 @@ public record TestFileSystemAccessor(
         private Map<Path, List<Path>> pathsByRootDir = Map.of();
         private Map<Path, byte[]> contentByPath = Map.of();
         private Map<Path, OutputStream> dataSinksByPath = Map.of();
+        private Set<Path> danglingLinks = Set.of();
 
         private Builder() {
             // use factory
@@ -156,8 +260,16 @@ public record TestFileSystemAccessor(
             return this;
         }
 
+        /**
+         * Visited paths contained in the given set are reported as symbolic links that could not be followed.
+         */
+        public Builder setDanglingLinks(Set<Path> danglingLinks) {
+            this.danglingLinks = danglingLinks;
+            return this;
+        }
+
         public TestFileSystemAccessor build() {
-            return new TestFileSystemAccessor(lastModified, checksums, pathsByRootDir, contentByPath, dataSinksByPath);
+            return new TestFileSystemAccessor(lastModified, checksums, pathsByRootDir, contentByPath, dataSinksByPath, danglingLinks);
         }
     }
 }
@@ -0,0 +1,87 @@
+package com.github.johannesbuchholz.copysnap.service.flatten;
+
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Assumes a file system supporting symbolic links.
+ */
+class FlattenServiceTest {
+
+    @TempDir
+    Path tmpDir;
+
+    /**
+     * snapshot-1/
+     *      r/
+     *          a/
+     *              f1
+     *          b
+     * snapshot-2/
+     *      r/
+     *          a/      (link to snapshot-1/r/a)
+     *          b       (link to snapshot-1/r/b)
+     * snapshot-3/
+     *      r/
+     *          a/      (link to snapshot-2/r/a)
+     *          b       (link to snapshot-2/r/b)
+     *          c       (link to snapshot-2/r/c, dangling)
+     */
+    @Test
+    void flatten_replacesChainsByDirectLinks() throws IOException {
+        // given
+        Path snapshot1 = tmpDir.resolve("snapshot-1");
+        write(snapshot1.resolve("r/a/f1"), "content-f1");
+        write(snapshot1.resolve("r/b"), "content-b");
+        Path snapshot2 = tmpDir.resolve("snapshot-2");
+        Files.createDirectories(snapshot2.resolve("r"));
+        Files.createSymbolicLink(snapshot2.resolve("r/a"), snapshot1.resolve("r/a"));
+        Files.createSymbolicLink(snapshot2.resolve("r/b"), snapshot1.resolve("r/b"));
+        Path snapshot3 = tmpDir.resolve("snapshot-3");
+        Files.createDirectories(snapshot3.resolve("r"));
+        Files.createSymbolicLink(snapshot3.resolve("r/a"), snapshot2.resolve("r/a"));
+        Files.createSymbolicLink(snapshot3.resolve("r/b"), snapshot2.resolve("r/b"));
+        Files.createSymbolicLink(snapshot3.resolve("r/c"), snapshot2.resolve("r/c"));
+
+        // when
+        FlattenService.Statistics statistics = new FlattenService(FileSystemAccessor.newDefaultAccessor(), 2).flatten(snapshot3);
+
+        // then
+        assertEquals(new FlattenService.Statistics(2, 0, 1, 0), statistics);
+        assertEquals(snapshot1.resolve("r/a").toRealPath(), Files.readSymbolicLink(snapshot3.resolve("r/a")));
+        assertEquals(snapshot1.resolve("r/b").toRealPath(), Files.readSymbolicLink(snapshot3.resolve("r/b")));
+        assertEquals("content-f1", Files.readString(snapshot3.resolve("r/a/f1")));
+        assertEquals(snapshot2.resolve("r/c"), Files.readSymbolicLink(snapshot3.resolve("r/c")));
+        assertFalse(Files.exists(snapshot3.resolve("r/a.copysnap-flatten")));
+    }
+
+    @Test
+    void flatten_keepsFlatLinks() throws IOException {
+        // given
+        Path snapshot1 = tmpDir.resolve("snapshot-1");
+        write(snapshot1.resolve("r/a/f1"), "content-f1");
+        Path snapshot2 = tmpDir.resolve("snapshot-2");
+        Files.createDirectories(snapshot2.resolve("r"));
+        Files.createSymbolicLink(snapshot2.resolve("r/a"), snapshot1.resolve("r/a").toRealPath());
+
+        // when
+        FlattenService.Statistics statistics = new FlattenService(FileSystemAccessor.newDefaultAccessor(), 2).flatten(snapshot2);
+
+        // then
+        assertEquals(new FlattenService.Statistics(0, 1, 0, 0), statistics);
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+}
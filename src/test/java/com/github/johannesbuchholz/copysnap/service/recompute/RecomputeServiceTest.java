@@ -0,0 +1,110 @@
+package com.github.johannesbuchholz.copysnap.service.recompute;
+
+import com.github.johannesbuchholz.copysnap.model.Root;
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import com.github.johannesbuchholz.copysnap.service.diffing.ChecksumCachingFileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.service.diffing.DefaultFileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.service.diffing.testutils.TestFileSystemAccessor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class RecomputeServiceTest {
+
+    private static final Root ROOT = Root.from(Path.of("/home/snapshots/2024-05-01-10-00-00/r"));
+
+    /**
+     * r/
+     *      a/
+     *          f1
+     *      b/
+     *          f2
+     *      dangling (broken link)
+     *      unreadable
+     */
+    @Test
+    void recompute_hashesRegularFiles() throws IOException {
+        // given
+        Instant t1 = Instant.parse("2024-05-01T10:00:00Z");
+        Instant t2 = Instant.parse("2024-05-02T10:00:00Z");
+        Path f1 = ROOT.pathToRootDir().resolve("a/f1");
+        Path f2 = ROOT.pathToRootDir().resolve("b/f2");
+        Path dangling = ROOT.pathToRootDir().resolve("dangling");
+        Path unreadable = ROOT.pathToRootDir().resolve("unreadable");
+        TestFileSystemAccessor fsa = TestFileSystemAccessor.builder()
+                .setPathsByRootDir(Map.of(ROOT.pathToRootDir(), List.of(f1, f2, dangling, unreadable)))
+                .setLastModified(Map.of(f1, t1, f2, t2, dangling, t1, unreadable, t1))
+                .setContentByPath(Map.of(f1, "content-1".getBytes(), f2, "content-2".getBytes()))
+                .setDanglingLinks(Set.of(dangling))
+                .build();
+
+        // when
+        RecomputeService.Result result = new RecomputeService(fsa, 2).recompute(ROOT);
+
+        // then
+        FileSystemState expectedState = FileSystemState.builder()
+                .add(new FileState(Path.of("r/a/f1"), t1, checksum("content-1")))
+                .add(new FileState(Path.of("r/b/f2"), t2, checksum("content-2")))
+                .build();
+        FileSystemState actualState = result.state();
+        assertEquals(expectedState.paths(), actualState.paths());
+        for (Path p : expectedState.paths())
+            assertEquals(expectedState.get(p), actualState.get(p));
+        assertEquals(2, result.statistics().hashedCount());
+        assertEquals(1, result.statistics().errorCount());
+        assertFalse(result.statistics().isComplete());
+    }
+
+    /**
+     * Assumes a file system supporting user defined attributes.
+     */
+    @Test
+    void recompute_cachedChecksumsAreNotRehashed(@TempDir Path tmpDir) throws IOException {
+        // given
+        Root root = Root.from(tmpDir.resolve("r"));
+        Files.createDirectories(root.pathToRootDir());
+        Files.writeString(root.pathToRootDir().resolve("f1"), "content-1");
+        Files.writeString(root.pathToRootDir().resolve("f2"), "content-2");
+        AtomicInteger openCount = new AtomicInteger();
+        FileSystemAccessor fsa = new ChecksumCachingFileSystemAccessor(new DefaultFileSystemAccessor() {
+            @Override
+            public InputStream createNewInputStream(Path path) throws IOException {
+                openCount.incrementAndGet();
+                return super.createNewInputStream(path);
+            }
+        });
+        FileSystemState firstState = new RecomputeService(fsa, 2).recompute(root).state();
+
+        // when
+        RecomputeService.Result secondResult = new RecomputeService(fsa, 2).recompute(root);
+
+        // then
+        FileSystemState secondState = secondResult.state();
+        assertEquals(2, openCount.get());
+        assertEquals(new RecomputeService.Statistics(0, 0, 2, 0), secondResult.statistics());
+        assertEquals(firstState.paths(), secondState.paths());
+        for (Path p : firstState.paths())
+            assertEquals(firstState.get(p), secondState.get(p));
+    }
+
+    private static CheckpointChecksum checksum(String content) {
+        return CheckpointChecksum.from(new ByteArrayInputStream(content.getBytes()));
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.github.johannesbuchholz.copysnap.service.restore;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Assumes a file system supporting symbolic links.
+ */
+class RestoreServiceTest {
+
+    @TempDir
+    Path tmpDir;
+
+    /**
+     * snapshot-1/
+     *      r/
+     *          a/
+     *              f1
+     *          b/
+     *              f2
+     * snapshot-2/
+     *      r/
+     *          a/      (link to snapshot-1/r/a)
+     *          b/
+     *              f2
+     *              f3
+     * snapshot-3/
+     *      r/          (link to snapshot-2/r)
+     */
+    @Test
+    void restore_resolvesLinkChains() throws IOException {
+        // given
+        Path snapshot1 = tmpDir.resolve("snapshot-1");
+        write(snapshot1.resolve("r/a/f1"), "content-f1");
+        write(snapshot1.resolve("r/b/f2"), "content-f2-old");
+        Path snapshot2 = tmpDir.resolve("snapshot-2");
+        Files.createDirectories(snapshot2.resolve("r"));
+        Files.createSymbolicLink(snapshot2.resolve("r/a"), snapshot1.resolve("r/a"));
+        write(snapshot2.resolve("r/b/f2"), "content-f2");
+        write(snapshot2.resolve("r/b/f3"), "content-f3");
+        Path snapshot3 = tmpDir.resolve("snapshot-3");
+        Files.createDirectories(snapshot3);
+        Files.createSymbolicLink(snapshot3.resolve("r"), snapshot2.resolve("r"));
+
+        Path target = tmpDir.resolve("target");
+
+        // when
+        RestoreService.Statistics statistics = new RestoreService(FileSystemAccessor.newDefaultAccessor(), 2)
+                .restore(snapshot3, Path.of(""), target, FileSystemState.empty());
+
+        // then
+        assertEquals(new RestoreService.Statistics(3, 0, 0, 0), statistics);
+        assertEquals("content-f1", Files.readString(target.resolve("r/a/f1")));
+        assertEquals("content-f2", Files.readString(target.resolve("r/b/f2")));
+        assertEquals("content-f3", Files.readString(target.resolve("r/b/f3")));
+        assertEquals(false, Files.isSymbolicLink(target.resolve("r/a")));
+    }
+
+    @Test
+    void restore_skipsFilesOfCopysnap() throws IOException {
+        // given
+        Path snapshot = tmpDir.resolve("snapshot");
+        write(snapshot.resolve("r/a/f1"), "content-f1");
+        write(snapshot.resolve("r/report.txt"), "content-report");
+        for (String copysnapFile : List.of("report.txt", "report.ndjson", "metrics.prom", ".state", ".journal"))
+            write(snapshot.resolve(copysnapFile), "copysnap");
+        Path target = tmpDir.resolve("target");
+
+        // when
+        RestoreService.Statistics statistics = new RestoreService(FileSystemAccessor.newDefaultAccessor(), 2)
+                .restore(snapshot, Path.of(""), target, FileSystemState.empty());
+
+        // then
+        assertEquals(new RestoreService.Statistics(2, 0, 0, 0), statistics);
+        Set<Path> restoredFiles;
+        try (Stream<Path> paths = Files.walk(target)) {
+            restoredFiles = paths.filter(Files::isRegularFile).map(target::relativize).collect(Collectors.toSet());
+        }
+        assertEquals(Set.of(Path.of("r/a/f1"), Path.of("r/report.txt")), restoredFiles);
+    }
+
+    @Test
+    void restore_subPathOnly() throws IOException {
+        // given
+        Path snapshot = tmpDir.resolve("snapshot");
+        write(snapshot.resolve("r/a/f1"), "content-f1");
+        write(snapshot.resolve("r/b/f2"), "content-f2");
+        Path target = tmpDir.resolve("target");
+
+        // when
+        new RestoreService(FileSystemAccessor.newDefaultAccessor(), 2)
+                .restore(snapshot, Path.of("r/b"), target, FileSystemState.empty());
+
+        // then
+        assertEquals("content-f2", Files.readString(target.resolve("r/b/f2")));
+        assertEquals(false, Files.exists(target.resolve("r/a")));
+    }
+
+    @Test
+    void restore_verifiesAgainstExpectedStates() throws IOException {
+        // given
+        Path snapshot = tmpDir.resolve("snapshot");
+        write(snapshot.resolve("r/ok"), "ok");
+        write(snapshot.resolve("r/corrupt"), "bit rot");
+        Instant lastModified = Instant.now().minus(1, ChronoUnit.DAYS).truncatedTo(ChronoUnit.SECONDS);
+        FileSystemState expectedStates = FileSystemState.builder()
+                .add(new FileState(Path.of("r/ok"), lastModified, checksum("ok")))
+                .add(new FileState(Path.of("r/corrupt"), lastModified, checksum("original")))
+                .build();
+        Path target = tmpDir.resolve("target");
+
+        // when
+        RestoreService.Statistics statistics = new RestoreService(FileSystemAccessor.newDefaultAccessor(), 2)
+                .restore(snapshot, Path.of(""), target, expectedStates);
+
+        // then
+        assertEquals(new RestoreService.Statistics(2, 1, 1, 0), statistics);
+        assertEquals(lastModified, Files.getLastModifiedTime(target.resolve("r/ok")).toInstant());
+    }
+
+    @Test
+    void restore_skipsLinksToAncestors() throws IOException {
+        // given
+        Path snapshot = tmpDir.resolve("snapshot");
+        write(snapshot.resolve("r/a/f"), "content");
+        Files.createSymbolicLink(snapshot.resolve("r/a/loop"), snapshot.resolve("r"));
+        Path target = tmpDir.resolve("target");
+
+        // when
+        RestoreService.Statistics statistics = new RestoreService(FileSystemAccessor.newDefaultAccessor(), 2)
+                .restore(snapshot, Path.of(""), target, FileSystemState.empty());
+
+        // then
+        assertEquals(new RestoreService.Statistics(1, 0, 0, 1), statistics);
+        assertEquals("content", Files.readString(target.resolve("r/a/f")));
+    }
+
+    @Test
+    void restore_recreatesForeignLinks() throws IOException {
+        // given
+        Path foreign = tmpDir.resolve("foreign");
+        write(foreign.resolve("f"), "content-foreign");
+        Path snapshot = tmpDir.resolve("home/snapshot");
+        write(snapshot.resolve("r/a/f"), "content");
+        Files.createSymbolicLink(snapshot.resolve("r/absolute"), foreign);
+        Files.createSymbolicLink(snapshot.resolve("r/a/relative"), Path.of("../x"));
+        Path target = tmpDir.resolve("target");
+
+        // when
+        RestoreService.Statistics statistics = new RestoreService(FileSystemAccessor.newDefaultAccessor(), 2)
+                .restore(snapshot, Path.of(""), target, FileSystemState.empty());
+
+        // then
+        assertEquals(new RestoreService.Statistics(3, 0, 0, 0), statistics);
+        assertEquals("content", Files.readString(target.resolve("r/a/f")));
+        assertEquals(foreign, Files.readSymbolicLink(target.resolve("r/absolute")));
+        assertEquals(Path.of("../x"), Files.readSymbolicLink(target.resolve("r/a/relative")));
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private static CheckpointChecksum checksum(String content) {
+        return CheckpointChecksum.from(new ByteArrayInputStream(content.getBytes()));
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.github.johannesbuchholz.copysnap.service.restore;
+
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Assumes a file system supporting symbolic and hard links.
+ */
+class SolidifyServiceTest {
+
+    @TempDir
+    Path tmpDir;
+
+    /**
+     * snapshot-1/
+     *      r/
+     *          a/
+     *              f1
+     * snapshot-2/
+     *      r/
+     *          a/      (link to snapshot-1/r/a)
+     *          f2
+     */
+    @Test
+    void solidify_copiesPhysicalFiles() throws IOException {
+        // given
+        Path snapshot1 = tmpDir.resolve("snapshot-1");
+        write(snapshot1.resolve("r/a/f1"), "content-f1");
+        Path snapshot2 = tmpDir.resolve("snapshot-2");
+        write(snapshot2.resolve("r/f2"), "content-f2");
+        Files.createSymbolicLink(snapshot2.resolve("r/a"), snapshot1.resolve("r/a"));
+        Path newSnapshot = tmpDir.resolve("snapshot-s");
+
+        // when
+        SolidifyService.Statistics statistics = new SolidifyService(FileSystemAccessor.newDefaultAccessor(), 2)
+                .solidify(snapshot2, Path.of("r"), newSnapshot, false);
+
+        // then
+        assertEquals(new SolidifyService.Statistics(2, 0, 0), statistics);
+        assertEquals("content-f1", Files.readString(newSnapshot.resolve("r/a/f1")));
+        assertEquals("content-f2", Files.readString(newSnapshot.resolve("r/f2")));
+        assertFalse(Files.isSymbolicLink(newSnapshot.resolve("r/a")));
+        assertFalse(Files.isSameFile(snapshot1.resolve("r/a/f1"), newSnapshot.resolve("r/a/f1")));
+    }
+
+    @Test
+    void solidify_hardLinksPhysicalFiles() throws IOException {
+        // given
+        Path snapshot1 = tmpDir.resolve("snapshot-1");
+        write(snapshot1.resolve("r/a/f1"), "content-f1");
+        Path snapshot2 = tmpDir.resolve("snapshot-2");
+        Files.createDirectories(snapshot2.resolve("r"));
+        Files.createSymbolicLink(snapshot2.resolve("r/a"), snapshot1.resolve("r/a"));
+        Path newSnapshot = tmpDir.resolve("snapshot-s");
+
+        // when
+        SolidifyService.Statistics statistics = new SolidifyService(FileSystemAccessor.newDefaultAccessor(), 2)
+                .solidify(snapshot2, Path.of("r"), newSnapshot, true);
+
+        // then
+        assertEquals(new SolidifyService.Statistics(0, 1, 0), statistics);
+        assertFalse(Files.isSymbolicLink(newSnapshot.resolve("r/a")));
+        assertTrue(Files.isSameFile(snapshot1.resolve("r/a/f1"), newSnapshot.resolve("r/a/f1")));
+    }
+
+    @Test
+    void solidify_recreatesForeignLinks() throws IOException {
+        // given
+        Path foreign = tmpDir.resolve("foreign");
+        write(foreign.resolve("f"), "content-foreign");
+        Path snapshot = tmpDir.resolve("home/snapshot-1");
+        write(snapshot.resolve("r/a/f"), "content");
+        Files.createSymbolicLink(snapshot.resolve("r/absolute"), foreign);
+        Files.createSymbolicLink(snapshot.resolve("r/a/relative"), Path.of("../a/f"));
+        Path newSnapshot = tmpDir.resolve("home/snapshot-s");
+
+        // when
+        SolidifyService.Statistics statistics = new SolidifyService(FileSystemAccessor.newDefaultAccessor(), 2)
+                .solidify(snapshot, Path.of("r"), newSnapshot, false);
+
+        // then
+        assertEquals(new SolidifyService.Statistics(3, 0, 0), statistics);
+        assertEquals("content", Files.readString(newSnapshot.resolve("r/a/f")));
+        assertEquals(foreign, Files.readSymbolicLink(newSnapshot.resolve("r/absolute")));
+        assertFalse(Files.exists(newSnapshot.resolve("r/foreign")));
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+}
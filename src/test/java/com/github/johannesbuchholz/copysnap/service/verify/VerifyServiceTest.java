@@ -0,0 +1,125 @@
+package com.github.johannesbuchholz.copysnap.service.verify;
+
+import com.github.johannesbuchholz.copysnap.model.state.CheckpointChecksum;
+import com.github.johannesbuchholz.copysnap.model.state.FileState;
+import com.github.johannesbuchholz.copysnap.model.state.FileSystemState;
+import com.github.johannesbuchholz.copysnap.service.diffing.FileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.service.diffing.testutils.TestFileSystemAccessor;
+import com.github.johannesbuchholz.copysnap.util.RateLimiter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VerifyServiceTest {
+
+    private static final Path SNAPSHOT_DIR = Path.of("/home/snapshots/2024-05-01-10-00-00");
+
+    /**
+     * SNAPSHOT (recorded)
+     * r/
+     *      intact
+     *      corrupted
+     *      missing
+     *      dangling
+     * SNAPSHOT (actual)
+     * report.txt
+     * r/
+     *      intact
+     *      corrupted (changed content)
+     *      dangling (broken link)
+     *      unrecorded
+     */
+    @Test
+    void verify_reportsDefects() throws IOException {
+        // given
+        Instant time = Instant.now();
+        FileSystemState recordedStates = FileSystemState.builder()
+                .add(new FileState(Path.of("r/intact"), time, checksum("intact")))
+                .add(new FileState(Path.of("r/corrupted"), time, checksum("original")))
+                .add(new FileState(Path.of("r/missing"), time, checksum("missing")))
+                .add(new FileState(Path.of("r/dangling"), time, checksum("dangling")))
+                .build();
+        TestFileSystemAccessor fsa = TestFileSystemAccessor.builder()
+                .setPathsByRootDir(Map.of(SNAPSHOT_DIR, List.of(
+                        SNAPSHOT_DIR.resolve("report.txt"),
+                        SNAPSHOT_DIR.resolve("r/intact"),
+                        SNAPSHOT_DIR.resolve("r/corrupted"),
+                        SNAPSHOT_DIR.resolve("r/dangling"),
+                        SNAPSHOT_DIR.resolve("r/unrecorded"))))
+                .setContentByPath(Map.of(
+                        SNAPSHOT_DIR.resolve("r/intact"), "intact".getBytes(),
+                        SNAPSHOT_DIR.resolve("r/corrupted"), "bit rot".getBytes()))
+                .setDanglingLinks(Set.of(SNAPSHOT_DIR.resolve("r/dangling")))
+                .build();
+
+        // when
+        VerifyService.Statistics statistics = new VerifyService(fsa, RateLimiter.unlimited(), 2)
+                .verify(SNAPSHOT_DIR, recordedStates);
+
+        // then
+        assertEquals(new VerifyService.Statistics(1, 1, 1, 1, 1, 0), statistics);
+    }
+
+    @Test
+    void verify_clean() throws IOException {
+        // given
+        Instant time = Instant.now();
+        FileSystemState recordedStates = FileSystemState.builder()
+                .add(new FileState(Path.of("r/a/f1"), time, checksum("content-1")))
+                .add(new FileState(Path.of("r/b/f2"), time, checksum("content-2")))
+                .build();
+        TestFileSystemAccessor fsa = TestFileSystemAccessor.builder()
+                .setPathsByRootDir(Map.of(SNAPSHOT_DIR, List.of(SNAPSHOT_DIR.resolve("r/a/f1"), SNAPSHOT_DIR.resolve("r/b/f2"))))
+                .setContentByPath(Map.of(
+                        SNAPSHOT_DIR.resolve("r/a/f1"), "content-1".getBytes(),
+                        SNAPSHOT_DIR.resolve("r/b/f2"), "content-2".getBytes()))
+                .build();
+
+        // when
+        VerifyService.Statistics statistics = new VerifyService(fsa, RateLimiter.unlimited(), 2)
+                .verify(SNAPSHOT_DIR, recordedStates);
+
+        // then
+        assertEquals(new VerifyService.Statistics(2, 0, 0, 0, 0, 0), statistics);
+        assertTrue(statistics.isClean());
+    }
+
+    @Test
+    void verify_ignoresForeignLinks(@TempDir Path tmpDir) throws IOException {
+        // given
+        Path foreign = tmpDir.resolve("foreign");
+        Files.createDirectories(foreign);
+        Files.writeString(foreign.resolve("f"), "content-foreign");
+        Path snapshotDir = tmpDir.resolve("home/snapshot");
+        Files.createDirectories(snapshotDir.resolve("r"));
+        Files.writeString(snapshotDir.resolve("r/f"), "content");
+        Files.createSymbolicLink(snapshotDir.resolve("r/absolute"), foreign);
+        Files.createSymbolicLink(snapshotDir.resolve("r/dangling"), foreign.resolve("missing"));
+        FileSystemState recordedStates = FileSystemState.builder()
+                .add(new FileState(Path.of("r/f"), Instant.now(), checksum("content")))
+                .build();
+
+        // when
+        VerifyService.Statistics statistics = new VerifyService(FileSystemAccessor.newDefaultAccessor(), RateLimiter.unlimited(), 2)
+                .verify(snapshotDir, recordedStates);
+
+        // then
+        assertEquals(new VerifyService.Statistics(1, 0, 0, 0, 0, 0), statistics);
+    }
+
+    private static CheckpointChecksum checksum(String content) {
+        return CheckpointChecksum.from(new ByteArrayInputStream(content.getBytes()));
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.github.johannesbuchholz.copysnap.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BufferPoolTest {
+
+    @Test
+    void borrow_reusesReleasedBuffer() {
+        // given
+        BufferPool pool = new BufferPool(16);
+        byte[] first = pool.borrow();
+
+        // when
+        byte[] nested = pool.borrow();
+        pool.release(nested);
+        pool.release(first);
+
+        // then
+        assertNotSame(first, nested);
+        assertEquals(16, first.length);
+        assertSame(first, pool.borrow());
+        assertNotSame(first, pool.borrow());
+    }
+
+    @Test
+    void borrow_doesNotShareBuffersBetweenThreads() throws Exception {
+        // given
+        BufferPool pool = new BufferPool(16);
+        byte[] buffer = pool.borrow();
+        pool.release(buffer);
+
+        // when
+        byte[] otherThreadBuffer;
+        try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+            Future<byte[]> future = executor.submit(pool::borrow);
+            otherThreadBuffer = future.get();
+        }
+
+        // then
+        assertNotSame(buffer, otherThreadBuffer);
+        assertSame(buffer, pool.borrow());
+    }
+
+    @Test
+    void release_ignoresForeignBuffers() {
+        // given
+        BufferPool pool = new BufferPool(16);
+        byte[] foreign = new byte[8];
+
+        // when
+        pool.release(foreign);
+
+        // then
+        assertEquals(16, pool.borrow().length);
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(0));
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.github.johannesbuchholz.copysnap.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MpscRingBufferTest {
+
+    @Test
+    void offerAndPoll_keepsOrderAndCapacity() {
+        // given
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+
+        // when
+        for (int i = 0; i < 4; i++)
+            assertTrue(buffer.offer(i));
+
+        // then
+        assertFalse(buffer.offer(4));
+        assertEquals(0, (int) buffer.poll());
+        assertTrue(buffer.offer(4));
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, buffer.drain(drained::add, 10));
+        assertEquals(List.of(1, 2, 3, 4), drained);
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    void constructor_rejectsCapacityNotPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new MpscRingBuffer<>(6));
+    }
+
+    @Test
+    void offer_concurrentProducersLoseNothing() throws InterruptedException {
+        // given
+        int producerCount = 4;
+        int elementsPerProducer = 100_000;
+        MpscRingBuffer<Long> buffer = new MpscRingBuffer<>(64);
+        ExecutorService producers = Executors.newFixedThreadPool(producerCount);
+
+        // when
+        for (int p = 0; p < producerCount; p++) {
+            long producerId = p;
+            producers.submit(() -> {
+                for (long i = 0; i < elementsPerProducer; i++) {
+                    while (!buffer.offer(producerId * elementsPerProducer + i))
+                        Thread.onSpinWait();
+                }
+            });
+        }
+        long[] lastSeenByProducer = new long[producerCount];
+        Arrays.fill(lastSeenByProducer, -1);
+        int received = 0;
+        while (received < producerCount * elementsPerProducer) {
+            Long element = buffer.poll();
+            if (element == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            int producerId = (int) (element / elementsPerProducer);
+            long sequence = element % elementsPerProducer;
+            // elements of a single producer arrive in order
+            assertEquals(lastSeenByProducer[producerId] + 1, sequence);
+            lastSeenByProducer[producerId] = sequence;
+            received++;
+        }
+        producers.shutdown();
+
+        // then
+        assertTrue(producers.awaitTermination(10, TimeUnit.SECONDS));
+        assertNull(buffer.poll());
+    }
+
+}